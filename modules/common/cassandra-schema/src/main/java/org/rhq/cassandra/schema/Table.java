@@ -8,6 +8,7 @@ public enum Table {
     METRICS_INDEX("rhq.metrics_idx"),
     RAW_METRICS("rhq.raw_metrics"),
     AGGREGATE_METRICS("rhq.aggregate_metrics"),
+    BASELINE_STATE("rhq.baseline_state"),
     SCHEMA_VERSION("rhq.schema_version");
 
     private String tableName;
@@ -76,6 +76,19 @@ public interface DiscoveryServerService {
     // should be something like 1000L * 60 * 30 but until we can be assured we never take longer, disable timeout
     Collection<ResourceSyncInfo> getResourceSyncInfo(int resourceId);
 
+    /**
+     * Returns the sync info of the direct children of the specified resources. Each sync info carries the
+     * {@link ResourceSyncHash hash} of the subtree rooted at the child, so that the agent only needs to descend into
+     * the subtrees whose hashes differ from its own inventory.
+     *
+     * @param  parentResourceIds the ids of the parent resources, all managed by the calling agent
+     *
+     * @return the sync info of the children, with subtree hashes. Empty if the resources have no children.
+     */
+    @LimitedConcurrency(CONCURRENCY_LIMIT_INVENTORY_REPORT)
+    @Timeout(0L)
+    Collection<ResourceSyncInfo> getChildResourceSyncInfo(Set<Integer> parentResourceIds);
+
     /**
      * Merges a new availability report from the agent into the server. This updates the availability statuses of known
      * resources.
@@ -64,6 +64,12 @@ public class InventoryReport implements Serializable {
 
     private boolean runtimeReport;
 
+    /**
+     * True if the agent syncs its top level servers using subtree hashes. Older agents don't know about this field
+     * and leave it false, the server then doesn't spend the time computing the hashes for them.
+     */
+    private boolean subtreeHashSync;
+
     public InventoryReport(Agent agent) {
         this.agent = agent;
     }
@@ -120,6 +126,14 @@ public class InventoryReport implements Serializable {
         this.runtimeReport = runtimeReport;
     }
 
+    public boolean isSubtreeHashSync() {
+        return subtreeHashSync;
+    }
+
+    public void setSubtreeHashSync(boolean subtreeHashSync) {
+        this.subtreeHashSync = subtreeHashSync;
+    }
+
     /**
      * @return a count of the total number of resources to be added in this report
      */
@@ -0,0 +1,119 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.rhq.core.clientapi.server.discovery;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.rhq.core.domain.discovery.ResourceSyncInfo;
+import org.rhq.core.domain.resource.InventoryStatus;
+import org.rhq.core.util.MessageDigestGenerator;
+
+/**
+ * Computes the rolled-up hash of a resource subtree used to synchronize the agent inventory with the server. The
+ * server and the agent compute it the same way over their own copy of the inventory, so equal hashes mean the whole
+ * subtree is in sync and there is no need to compare its resources one by one.
+ */
+public class ResourceSyncHash {
+
+    /**
+     * A resource hierarchy to hash. The agent and the server each adapt their own view of the inventory, so that the
+     * subtree hashes are rolled up the same way on both sides.
+     *
+     * @param <T> the type of the resources of the hierarchy
+     */
+    public interface Hierarchy<T> {
+        /**
+         * @return the sync info of the resource, not null
+         */
+        ResourceSyncInfo getSyncInfo(T resource);
+
+        /**
+         * @return the children of the resource, including the ignored ones, not null
+         */
+        Collection<T> getChildren(T resource);
+
+        /**
+         * Receives the subtree hash of each resource of the hierarchy, children before their parent.
+         */
+        void setSubtreeHash(T resource, String subtreeHash);
+    }
+
+    private ResourceSyncHash() {
+    }
+
+    /**
+     * Computes the subtree hash of a resource and, along the way, of each of its descendants.
+     *
+     * @param resource the subtree root, not null
+     * @param hierarchy the hierarchy the resource belongs to, not null
+     * @return the hash of the subtree rooted at the resource, not null
+     */
+    public static <T> String computeAll(T resource, Hierarchy<T> hierarchy) {
+        Collection<T> children = hierarchy.getChildren(resource);
+        List<String> childHashes = new ArrayList<String>(children.size());
+        for (T child : children) {
+            String childHash = computeAll(child, hierarchy);
+            if (isHashed(hierarchy.getSyncInfo(child).getInventoryStatus())) {
+                childHashes.add(childHash);
+            }
+        }
+
+        String result = compute(hierarchy.getSyncInfo(resource), childHashes);
+        hierarchy.setSubtreeHash(resource, result);
+        return result;
+    }
+
+    /**
+     * Computes the hash of the subtree rooted at a resource from the sync info of the resource itself and the subtree
+     * hashes of its children. Ignored children are not kept in the agent inventory and the caller must leave them out.
+     *
+     * @param syncInfo the sync info of the subtree root, not null
+     * @param childSubtreeHashes the subtree hashes of the non-ignored children, in any order, not null
+     * @return the hash of the subtree, not null
+     */
+    public static String compute(ResourceSyncInfo syncInfo, Collection<String> childSubtreeHashes) {
+        // sort so that the hash does not depend on the iteration order of the children on either side
+        List<String> sortedHashes = new ArrayList<String>(childSubtreeHashes);
+        Collections.sort(sortedHashes);
+
+        StringBuilder data = new StringBuilder();
+        data.append(syncInfo.getId()).append('|').append(syncInfo.getUuid()).append('|').append(syncInfo.getMtime())
+            .append('|').append(syncInfo.getInventoryStatus());
+        for (String childHash : sortedHashes) {
+            data.append('|').append(childHash);
+        }
+
+        return new MessageDigestGenerator(MessageDigestGenerator.SHA_256).calcDigestString(data.toString());
+    }
+
+    /**
+     * @param status the inventory status of a resource
+     * @return true if the resource contributes to the subtree hash of its parent
+     */
+    public static boolean isHashed(InventoryStatus status) {
+        return InventoryStatus.IGNORED != status;
+    }
+}
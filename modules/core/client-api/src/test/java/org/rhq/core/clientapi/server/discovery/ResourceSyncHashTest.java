@@ -0,0 +1,138 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.rhq.core.clientapi.server.discovery;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.testng.annotations.Test;
+
+import org.rhq.core.domain.discovery.ResourceSyncInfo;
+import org.rhq.core.domain.resource.InventoryStatus;
+import org.rhq.core.domain.resource.Resource;
+
+@Test
+public class ResourceSyncHashTest {
+
+    public void testChildOrderDoesNotMatter() {
+        ResourceSyncInfo parent = new ResourceSyncInfo(1, "uuid-1", 100L, InventoryStatus.COMMITTED);
+        String child1 = ResourceSyncHash.compute(new ResourceSyncInfo(2, "uuid-2", 100L, InventoryStatus.COMMITTED),
+            Collections.<String> emptyList());
+        String child2 = ResourceSyncHash.compute(new ResourceSyncInfo(3, "uuid-3", 100L, InventoryStatus.COMMITTED),
+            Collections.<String> emptyList());
+
+        assertEquals(ResourceSyncHash.compute(parent, Arrays.asList(child1, child2)),
+            ResourceSyncHash.compute(parent, Arrays.asList(child2, child1)));
+    }
+
+    public void testChangesAreDetected() {
+        ResourceSyncInfo parent = new ResourceSyncInfo(1, "uuid-1", 100L, InventoryStatus.COMMITTED);
+        String child = ResourceSyncHash.compute(new ResourceSyncInfo(2, "uuid-2", 100L, InventoryStatus.COMMITTED),
+            Collections.<String> emptyList());
+        String modifiedChild = ResourceSyncHash.compute(new ResourceSyncInfo(2, "uuid-2", 200L,
+            InventoryStatus.COMMITTED), Collections.<String> emptyList());
+        String hash = ResourceSyncHash.compute(parent, Arrays.asList(child));
+
+        assertNotEquals(ResourceSyncHash.compute(parent, Arrays.asList(modifiedChild)), hash);
+        assertNotEquals(ResourceSyncHash.compute(parent, Collections.<String> emptyList()), hash);
+        // a resource not yet synced has no id on the agent side
+        assertNotEquals(ResourceSyncHash.compute(new ResourceSyncInfo(0, "uuid-1", 100L, InventoryStatus.COMMITTED),
+            Arrays.asList(child)), hash);
+        assertNotEquals(ResourceSyncHash.compute(new ResourceSyncInfo(1, "uuid-1", 100L, InventoryStatus.NEW),
+            Arrays.asList(child)), hash);
+    }
+
+    public void testIgnoredResourcesAreNotHashed() {
+        assertFalse(ResourceSyncHash.isHashed(InventoryStatus.IGNORED));
+        assertTrue(ResourceSyncHash.isHashed(InventoryStatus.COMMITTED));
+        assertTrue(ResourceSyncHash.isHashed(InventoryStatus.NEW));
+    }
+
+    public void testAgentAndServerHashesMatch() {
+        // the agent hashes its resource tree, where ignored resources are already gone
+        Resource platform = resource(1, InventoryStatus.COMMITTED);
+        Resource server = resource(2, InventoryStatus.COMMITTED);
+        Resource service = resource(3, InventoryStatus.NEW);
+        platform.addChildResource(server);
+        server.addChildResource(service);
+        final Map<String, String> agentHashes = new HashMap<String, String>();
+        ResourceSyncHash.computeAll(platform, new ResourceSyncHash.Hierarchy<Resource>() {
+            public ResourceSyncInfo getSyncInfo(Resource resource) {
+                return ResourceSyncInfo.buildResourceSyncInfo(resource);
+            }
+
+            public Collection<Resource> getChildren(Resource resource) {
+                return resource.getChildResources();
+            }
+
+            public void setSubtreeHash(Resource resource, String subtreeHash) {
+                agentHashes.put(resource.getUuid(), subtreeHash);
+            }
+        });
+
+        // the server hashes flat rows, in whatever order the query returns them, including the ignored ones
+        final Map<Integer, List<ResourceSyncInfo>> serverChildren = new HashMap<Integer, List<ResourceSyncInfo>>();
+        ResourceSyncInfo platformRow = new ResourceSyncInfo(1, "uuid-1", 100L, InventoryStatus.COMMITTED);
+        ResourceSyncInfo serverRow = new ResourceSyncInfo(2, "uuid-2", 100L, InventoryStatus.COMMITTED);
+        ResourceSyncInfo serviceRow = new ResourceSyncInfo(3, "uuid-3", 100L, InventoryStatus.NEW);
+        ResourceSyncInfo ignoredRow = new ResourceSyncInfo(4, "uuid-4", 100L, InventoryStatus.IGNORED);
+        serverChildren.put(1, Arrays.asList(serverRow));
+        serverChildren.put(2, Arrays.asList(ignoredRow, serviceRow));
+        ResourceSyncHash.computeAll(platformRow, new ResourceSyncHash.Hierarchy<ResourceSyncInfo>() {
+            public ResourceSyncInfo getSyncInfo(ResourceSyncInfo resource) {
+                return resource;
+            }
+
+            public Collection<ResourceSyncInfo> getChildren(ResourceSyncInfo resource) {
+                List<ResourceSyncInfo> children = serverChildren.get(resource.getId());
+                return (null == children) ? new ArrayList<ResourceSyncInfo>() : children;
+            }
+
+            public void setSubtreeHash(ResourceSyncInfo resource, String subtreeHash) {
+                resource.setSubtreeHash(subtreeHash);
+            }
+        });
+
+        assertEquals(platformRow.getSubtreeHash(), agentHashes.get("uuid-1"));
+        assertEquals(serverRow.getSubtreeHash(), agentHashes.get("uuid-2"));
+        assertEquals(serviceRow.getSubtreeHash(), agentHashes.get("uuid-3"));
+    }
+
+    private static Resource resource(int id, InventoryStatus status) {
+        Resource result = new Resource(id);
+        result.setUuid("uuid-" + id);
+        result.setMtime(100L);
+        result.setInventoryStatus(status);
+        return result;
+    }
+}
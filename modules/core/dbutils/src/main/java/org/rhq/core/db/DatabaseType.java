@@ -693,6 +693,109 @@ public abstract class DatabaseType {
         return true;
     }
 
+    /**
+     * Vendors that support it can split a table of time series data into one partition per (UTC) day, so that old
+     * data can be purged by dropping whole partitions instead of deleting it row by row.
+     *
+     * @return true if the daily partition methods are implemented, false by default.
+     *
+     * @see #enableDailyPartitions(Connection, String, String)
+     */
+    public boolean supportsDailyPartitions() {
+        return false;
+    }
+
+    /**
+     * Routes the rows subsequently inserted into the table to the partition of the day of their time column, if that
+     * partition exists (see {@link #createDailyPartition(Connection, String, String, long)}). Rows for days without a
+     * partition remain in the table itself. This method can be called again if routing is already enabled.
+     *
+     * @param  conn
+     * @param  table      the partitioned table
+     * @param  timeColumn the column holding the epoch millis the rows are partitioned by
+     *
+     * @throws SQLException
+     * @throws FeatureNotSupportedException if {@link #supportsDailyPartitions()} is false
+     */
+    public void enableDailyPartitions(Connection conn, String table, String timeColumn) throws SQLException {
+        throw new FeatureNotSupportedException(getName() + " does not support daily partitions");
+    }
+
+    /**
+     * Stops routing inserted rows into the daily partitions of the table. The existing partitions, and their rows,
+     * remain in place until they are dropped.
+     *
+     * @param  conn
+     * @param  table
+     *
+     * @throws SQLException
+     * @throws FeatureNotSupportedException if {@link #supportsDailyPartitions()} is false
+     */
+    public void disableDailyPartitions(Connection conn, String table) throws SQLException {
+        throw new FeatureNotSupportedException(getName() + " does not support daily partitions");
+    }
+
+    /**
+     * Tells whether the rows inserted into the table are currently routed into its daily partitions, as set up by
+     * {@link #enableDailyPartitions(Connection, String, String)}. This is the state of the database, shared by all the
+     * servers that use it. A routed insert may report 0 inserted rows.
+     *
+     * @param  conn
+     * @param  table
+     *
+     * @return true if routing is enabled; false by default or if {@link #supportsDailyPartitions()} is false
+     *
+     * @throws SQLException
+     */
+    public boolean isDailyPartitionsEnabled(Connection conn, String table) throws SQLException {
+        return false;
+    }
+
+    /**
+     * Creates the partition of the table for the UTC day containing the given time, unless it already exists.
+     *
+     * @param  conn
+     * @param  table
+     * @param  timeColumn the column holding the epoch millis the rows are partitioned by
+     * @param  time       any time of the day, in epoch millis
+     *
+     * @throws SQLException
+     * @throws FeatureNotSupportedException if {@link #supportsDailyPartitions()} is false
+     */
+    public void createDailyPartition(Connection conn, String table, String timeColumn, long time)
+        throws SQLException {
+        throw new FeatureNotSupportedException(getName() + " does not support daily partitions");
+    }
+
+    /**
+     * Returns the days for which the table has a partition, whether or not routing is currently enabled.
+     *
+     * @param  conn
+     * @param  table
+     *
+     * @return the start of each day in epoch millis, in ascending order; empty if the table is not partitioned or if
+     *         {@link #supportsDailyPartitions()} is false
+     *
+     * @throws SQLException
+     */
+    public List<Long> getDailyPartitions(Connection conn, String table) throws SQLException {
+        return new ArrayList<Long>(0);
+    }
+
+    /**
+     * Drops the partition of the table for the UTC day containing the given time, together with all of its rows.
+     *
+     * @param  conn
+     * @param  table
+     * @param  time  any time of the day, in epoch millis
+     *
+     * @throws SQLException
+     * @throws FeatureNotSupportedException if {@link #supportsDailyPartitions()} is false
+     */
+    public void dropDailyPartition(Connection conn, String table, long time) throws SQLException {
+        throw new FeatureNotSupportedException(getName() + " does not support daily partitions");
+    }
+
     /**
      * Return vendor-specific row limit clause to be appended to a native SQL SELECT statement.  This does not support
      * OFFSET and therefore is not useful for paging, only for limiting the result set in a native way. For predictable
@@ -41,4 +41,12 @@ public class Postgresql84DatabaseType extends Postgresql83DatabaseType {
     public String getVersion() {
         return "8.4";
     }
-}
\ No newline at end of file
+
+    /**
+     * @see org.rhq.core.db.DatabaseType#supportsDailyPartitions()
+     */
+    @Override
+    public boolean supportsDailyPartitions() {
+        return true;
+    }
+}
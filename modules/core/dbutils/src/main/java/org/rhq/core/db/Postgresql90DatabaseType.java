@@ -41,4 +41,12 @@ public class Postgresql90DatabaseType extends Postgresql83DatabaseType {
     public String getVersion() {
         return "9.0";
     }
-}
\ No newline at end of file
+
+    /**
+     * @see org.rhq.core.db.DatabaseType#supportsDailyPartitions()
+     */
+    @Override
+    public boolean supportsDailyPartitions() {
+        return true;
+    }
+}
@@ -23,8 +23,12 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.TimeZone;
 
 /**
  * Superclass of all versions of the Postgres database.
@@ -38,6 +42,37 @@ public abstract class PostgresqlDatabaseType extends DatabaseType {
      */
     public static final String VENDOR_NAME = "postgresql";
 
+    private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
+    private static final String DAILY_PARTITION_FUNCTION = "rhq_daily_partition_insert";
+
+    /**
+     * Routes a row into the partition of its day, named after the table followed by "_p" and the day as YYYYMMDD.
+     * The time column is passed as the trigger argument. Rows for days without a partition stay in the table itself.
+     * EXECUTE ... USING requires Postgres 8.4.
+     */
+    private static final String DAILY_PARTITION_FUNCTION_SQL = "" //
+        + "CREATE OR REPLACE FUNCTION " + DAILY_PARTITION_FUNCTION + "() RETURNS TRIGGER AS $$\n" //
+        + "DECLARE\n" //
+        + "    ts BIGINT;\n" //
+        + "    part TEXT;\n" //
+        + "BEGIN\n" //
+        + "    EXECUTE 'SELECT ($1).' || quote_ident(TG_ARGV[0]) INTO ts USING NEW;\n" //
+        + "    IF ts IS NULL THEN\n" //
+        + "        RETURN NEW;\n" //
+        + "    END IF;\n" //
+        + "    part := TG_TABLE_NAME || '_p'\n" //
+        + "        || to_char(TIMESTAMP 'epoch' + ts * INTERVAL '1 millisecond', 'YYYYMMDD');\n" //
+        + "    PERFORM 1 FROM pg_tables WHERE schemaname = TG_TABLE_SCHEMA AND tablename = part;\n" //
+        + "    IF NOT FOUND THEN\n" //
+        + "        RETURN NEW;\n" //
+        + "    END IF;\n" //
+        + "    EXECUTE 'INSERT INTO ' || quote_ident(TG_TABLE_SCHEMA) || '.' || quote_ident(part)\n" //
+        + "        || ' SELECT ($1).*' USING NEW;\n" //
+        + "    RETURN NULL;\n" //
+        + "END\n" //
+        + "$$ LANGUAGE plpgsql";
+
     /**
      * Returns {@link #VENDOR_NAME}.
      *
@@ -162,6 +197,201 @@ public abstract class PostgresqlDatabaseType extends DatabaseType {
         executeSql(conn, "REINDEX TABLE " + table);
     }
 
+    /**
+     * Daily partitions are implemented with table inheritance, see {@link Postgresql84DatabaseType}. Older versions
+     * lack the dynamic SQL the insert trigger needs.
+     *
+     * @see DatabaseType#supportsDailyPartitions()
+     */
+    @Override
+    public boolean supportsDailyPartitions() {
+        return false;
+    }
+
+    /**
+     * Installs a BEFORE INSERT trigger that moves each row into the child table of its day, if there is one.
+     *
+     * @see DatabaseType#enableDailyPartitions(Connection, String, String)
+     */
+    @Override
+    public void enableDailyPartitions(Connection conn, String table, String timeColumn) throws SQLException {
+        checkDailyPartitionsSupported();
+
+        String trigger = getDailyPartitionTrigger(table);
+        if (checkTriggerExists(conn, table, trigger)) {
+            return;
+        }
+
+        executeSql(conn, DAILY_PARTITION_FUNCTION_SQL);
+        executeSql(conn, "CREATE TRIGGER " + trigger + " BEFORE INSERT ON " + table
+            + " FOR EACH ROW EXECUTE PROCEDURE " + DAILY_PARTITION_FUNCTION + "('" + timeColumn.toLowerCase() + "')");
+    }
+
+    /**
+     * @see DatabaseType#disableDailyPartitions(Connection, String)
+     */
+    @Override
+    public void disableDailyPartitions(Connection conn, String table) throws SQLException {
+        checkDailyPartitionsSupported();
+
+        // check first, dropping a trigger locks the table even if there is nothing to drop
+        String trigger = getDailyPartitionTrigger(table);
+        if (checkTriggerExists(conn, table, trigger)) {
+            executeSql(conn, "DROP TRIGGER " + trigger + " ON " + table);
+        }
+    }
+
+    /**
+     * @see DatabaseType#isDailyPartitionsEnabled(Connection, String)
+     */
+    @Override
+    public boolean isDailyPartitionsEnabled(Connection conn, String table) throws SQLException {
+        if (!supportsDailyPartitions()) {
+            return false;
+        }
+        return checkTriggerExists(conn, table, getDailyPartitionTrigger(table));
+    }
+
+    /**
+     * The partition is a child table that inherits from the table and copies its indexes and foreign keys. Its CHECK
+     * constraint lets the planner skip it for queries on other days.
+     *
+     * @see DatabaseType#createDailyPartition(Connection, String, String, long)
+     */
+    @Override
+    public void createDailyPartition(Connection conn, String table, String timeColumn, long time)
+        throws SQLException {
+        checkDailyPartitionsSupported();
+
+        String partition = getDailyPartitionName(table, time);
+        if (checkPartitionExists(conn, partition)) {
+            return;
+        }
+
+        long start = time - (time % MILLIS_PER_DAY);
+        long end = start + MILLIS_PER_DAY;
+        List<String> sql_list = new ArrayList<String>();
+        sql_list.add("CREATE TABLE " + partition + " (LIKE " + table + " INCLUDING DEFAULTS INCLUDING INDEXES, CHECK ("
+            + timeColumn + " >= " + start + " AND " + timeColumn + " < " + end + ")) INHERITS (" + table + ")");
+
+        // foreign keys are not inherited
+        PreparedStatement ps = null;
+        ResultSet rs = null;
+        try {
+            ps = conn.prepareStatement("SELECT pg_get_constraintdef(con.oid) FROM pg_constraint con "
+                + "JOIN pg_class c ON c.oid = con.conrelid WHERE c.relname = ? AND con.contype = 'f' "
+                + "AND pg_table_is_visible(c.oid) ORDER BY con.conname");
+            ps.setString(1, table.toLowerCase());
+            rs = ps.executeQuery();
+            for (int i = 0; rs.next(); ++i) {
+                sql_list.add("ALTER TABLE " + partition + " ADD CONSTRAINT " + partition + "_fk" + i + " "
+                    + rs.getString(1));
+            }
+        } finally {
+            closeJDBCObjects(null, ps, rs);
+        }
+
+        executeSql(conn, sql_list);
+    }
+
+    /**
+     * @see DatabaseType#getDailyPartitions(Connection, String)
+     */
+    @Override
+    public List<Long> getDailyPartitions(Connection conn, String table) throws SQLException {
+        List<Long> days = new ArrayList<Long>();
+        if (!supportsDailyPartitions()) {
+            return days;
+        }
+
+        String prefix = table.toLowerCase() + "_p";
+        SimpleDateFormat format = getDailyPartitionFormat();
+        PreparedStatement ps = null;
+        ResultSet rs = null;
+        try {
+            ps = conn.prepareStatement("SELECT c.relname FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid "
+                + "JOIN pg_class p ON p.oid = i.inhparent WHERE p.relname = ? AND pg_table_is_visible(p.oid)");
+            ps.setString(1, table.toLowerCase());
+            rs = ps.executeQuery();
+            while (rs.next()) {
+                String child = rs.getString(1);
+                if (!child.startsWith(prefix) || child.length() != prefix.length() + 8) {
+                    continue; // not one of ours
+                }
+                try {
+                    days.add(format.parse(child.substring(prefix.length())).getTime());
+                } catch (ParseException e) {
+                    // not one of ours either
+                }
+            }
+        } finally {
+            closeJDBCObjects(null, ps, rs);
+        }
+
+        Collections.sort(days);
+        return days;
+    }
+
+    /**
+     * @see DatabaseType#dropDailyPartition(Connection, String, long)
+     */
+    @Override
+    public void dropDailyPartition(Connection conn, String table, long time) throws SQLException {
+        checkDailyPartitionsSupported();
+
+        executeSql(conn, "DROP TABLE IF EXISTS " + getDailyPartitionName(table, time));
+    }
+
+    static String getDailyPartitionName(String table, long time) {
+        return table.toLowerCase() + "_p" + getDailyPartitionFormat().format(time);
+    }
+
+    private static String getDailyPartitionTrigger(String table) {
+        return table.toLowerCase() + "_partition_trg";
+    }
+
+    private static SimpleDateFormat getDailyPartitionFormat() {
+        // the trigger computes the partition name in UTC as well
+        SimpleDateFormat format = new SimpleDateFormat("yyyyMMdd");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        format.setLenient(false);
+        return format;
+    }
+
+    private void checkDailyPartitionsSupported() {
+        if (!supportsDailyPartitions()) {
+            throw new FeatureNotSupportedException(getName() + " does not support daily partitions");
+        }
+    }
+
+    private boolean checkPartitionExists(Connection conn, String partition) throws SQLException {
+        PreparedStatement ps = null;
+        ResultSet rs = null;
+        try {
+            ps = conn.prepareStatement("SELECT 1 FROM pg_class WHERE relname = ? AND pg_table_is_visible(oid)");
+            ps.setString(1, partition);
+            rs = ps.executeQuery();
+            return rs.next();
+        } finally {
+            closeJDBCObjects(null, ps, rs);
+        }
+    }
+
+    private boolean checkTriggerExists(Connection conn, String table, String trigger) throws SQLException {
+        PreparedStatement ps = null;
+        ResultSet rs = null;
+        try {
+            ps = conn.prepareStatement("SELECT 1 FROM pg_trigger t JOIN pg_class c ON c.oid = t.tgrelid "
+                + "WHERE c.relname = ? AND t.tgname = ? AND pg_table_is_visible(c.oid)");
+            ps.setString(1, table.toLowerCase());
+            ps.setString(2, trigger);
+            rs = ps.executeQuery();
+            return rs.next();
+        } finally {
+            closeJDBCObjects(null, ps, rs);
+        }
+    }
+
     /**
      * This is overridden for Postgres because by default (at least in our currently supported versions)
      * postgres treats '\' as an escape character in a string literal and the ESCAPE character for
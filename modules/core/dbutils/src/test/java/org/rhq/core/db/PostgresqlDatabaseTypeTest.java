@@ -0,0 +1,47 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2015 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.rhq.core.db;
+
+import org.testng.annotations.Test;
+
+/**
+ * Tests the daily partition support of {@link PostgresqlDatabaseType} that does not need a database.
+ */
+@Test
+public class PostgresqlDatabaseTypeTest {
+    private static final long DAY = 24L * 60 * 60 * 1000;
+
+    /**
+     * The partition of a row is named after the UTC day of its time, the same way the insert trigger names it.
+     */
+    public void testDailyPartitionName() {
+        long day = 20000L * DAY; // 2024-10-04T00:00:00Z
+
+        assert "rhq_event_p20241004".equals(PostgresqlDatabaseType.getDailyPartitionName("RHQ_EVENT", day));
+        assert "rhq_event_p20241004".equals(PostgresqlDatabaseType.getDailyPartitionName("RHQ_EVENT", day + DAY - 1));
+        assert "rhq_event_p20241005".equals(PostgresqlDatabaseType.getDailyPartitionName("RHQ_EVENT", day + DAY));
+    }
+
+    public void testSupportsDailyPartitions() {
+        assert !new Postgresql83DatabaseType().supportsDailyPartitions();
+        assert new Postgresql84DatabaseType().supportsDailyPartitions();
+        assert new Postgresql91DatabaseType().supportsDailyPartitions();
+        assert !new Oracle10DatabaseType().supportsDailyPartitions();
+    }
+}
@@ -88,10 +88,14 @@ import org.rhq.core.domain.resource.Agent;
         + "   AND ( s.name <> :thisServerName OR :thisServerName IS NULL ) "), //
     @NamedQuery(name = Server.QUERY_UPDATE_STATUS_BY_NAME, query = "" //
         + " UPDATE Server s " //
-        + "    SET s.status = 3 " //Change this to the only value possible before adding MANUAL_MAINTENANCE_MODE.
-                                  //This status should never be set to negative since negative values are not
-                                  //allowed by the bitmask.
-        + "  WHERE s.status = 0 ") })
+        + "    SET s.status = s.status + 3 " //Adds RESOURCE_HIERARCHY_UPDATED and ALERT_DEFINITION, keeping
+                                             //AUTHZ_UPDATED. This status should never be set to negative since
+                                             //negative values are not allowed by the bitmask.
+        + "  WHERE s.status = 0 OR s.status = 4 "), //
+    @NamedQuery(name = Server.QUERY_UPDATE_AUTHZ_STATUS, query = "" //
+        + " UPDATE Server s " //
+        + "    SET s.status = s.status + 4 " //Adds AUTHZ_UPDATED to every status that doesn't have it yet.
+        + "  WHERE s.status IN (0, 1, 2, 3, 32, 33, 34, 35) ") })
 @SequenceGenerator(allocationSize = org.rhq.core.domain.util.Constants.ALLOCATION_SIZE, name = "RHQ_SERVER_ID_SEQ", sequenceName = "RHQ_SERVER_ID_SEQ")
 @Table(name = "RHQ_SERVER")
 public class Server implements Serializable {
@@ -108,6 +112,7 @@ public class Server implements Serializable {
     public static final String QUERY_UPDATE_SET_STALE_DOWN = "Server.updateSetStaleDown";
     public static final String QUERY_FIND_ALL_NORMAL_CLOUD_MEMBERS = "Server.findAllNormalCloudMembers";
     public static final String QUERY_UPDATE_STATUS_BY_NAME = "Server.updateStatusByName";
+    public static final String QUERY_UPDATE_AUTHZ_STATUS = "Server.updateAuthzStatus";
 
     @Column(name = "ID", nullable = false)
     @GeneratedValue(strategy = GenerationType.AUTO, generator = "RHQ_SERVER_ID_SEQ")
@@ -350,7 +355,8 @@ public class Server implements Serializable {
 
         //Debug only flags (first five bits are reserved for debug flags)
         RESOURCE_HIERARCHY_UPDATED(1, "The resource hierarchy has been updated"), //
-        ALERT_DEFINITION(2, "Some alert definition with a global condition category was updated"),
+        ALERT_DEFINITION(2, "Some alert definition with a global condition category was updated"), //
+        AUTHZ_UPDATED(4, "Some role, group membership or inventory change altered the permissions of subjects"),
 
         //Production flags
         MANUAL_MAINTENANCE_MODE(32, "Manual Maintenance mode setup by the user either via UI or properties file.");
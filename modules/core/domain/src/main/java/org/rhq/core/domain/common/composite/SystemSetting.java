@@ -303,7 +303,13 @@ public enum SystemSetting {
 
     /** Hidden setting where we keep configuration id of storage cluster state configuration **/
     STORAGE_CLUSTER_STATE_CONFIGURATION_ID("STORAGE_CLUSTER_STATE_CONFIGURATION_ID", PropertySimpleType.LONG, true,
-        false, false);
+        false, false),
+
+    /**
+     * The tables split into daily partitions that the data purge drops as they age, as a comma separated list of
+     * names (e.g. EVENT,CALLTIME_DATA_VALUE). Empty by default, meaning no table is partitioned.
+     */
+    PURGE_PARTITIONED_TABLES("PURGE_PARTITIONED_TABLES", PropertySimpleType.STRING, false, false, true);
 
     private final String internalName;
     private final PropertySimpleType type;
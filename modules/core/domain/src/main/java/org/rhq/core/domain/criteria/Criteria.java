@@ -103,10 +103,30 @@ public abstract class Criteria implements Serializable, BaseCriteria {
         COLLECTION_ONLY
     }
 
+    /**
+     * How the total size of a paged result is computed.
+     *
+     * @since 4.14
+     */
+    public enum CountMode {
+        /**
+         * The count query is run along with every data query. This is the default.
+         */
+        EXACT,
+        /**
+         * The count computed for the same query (same filters, same caller) in the recent past is reused, so
+         * consecutive pages do not each pay for a count over the whole result. The returned
+         * {@link org.rhq.core.domain.util.PageList#getTotalSize()} is an estimate that may be slightly stale.
+         */
+        CACHED
+    }
+
     private static final long serialVersionUID = 2L;
 
     private Integer pageNumber;
     private Integer pageSize;
+    private Integer pageAfterId;
+    private CountMode countMode;
 
     private boolean filtersOptional;
     private boolean caseSensitive;
@@ -163,6 +183,14 @@ public abstract class Criteria implements Serializable, BaseCriteria {
         return pageSize;
     }
 
+    /**
+     * @return the id of the row preceding the page when keyset paging is used, null otherwise
+     * @see #setPagingAfter(int, int)
+     */
+    public Integer getPageAfterId() {
+        return pageAfterId;
+    }
+
     @Override
     public List<String> getOrderingFieldNames() {
         return orderingFieldNames;
@@ -248,6 +276,24 @@ public abstract class Criteria implements Serializable, BaseCriteria {
     public void setPaging(int pageNumber, int pageSize) {
         this.pageNumber = pageNumber;
         this.pageSize = pageSize;
+        this.pageAfterId = null;
+    }
+
+    /**
+     * Sets keyset (a.k.a. seek) paging constraints to return the pageSize items that follow, in the sort order, the
+     * item with the given id. Pass the id of the last item of the previous page to fetch the next page. Unlike
+     * {@link #setPaging(int, int)} the cost of fetching a page does not depend on how deep it is in the result,
+     * which makes this the preferred way to walk through large results. Keyset paging requires that the set sort
+     * fields have no null values, and it is not supported for criteria with customized sorting.
+     *
+     * @param afterId The id of the item preceding the page.
+     * @param pageSize The number of items to return.
+     * @since 4.14
+     */
+    public void setPagingAfter(int afterId, int pageSize) {
+        this.pageNumber = 0;
+        this.pageSize = pageSize;
+        this.pageAfterId = afterId;
     }
 
     /**
@@ -275,6 +321,7 @@ public abstract class Criteria implements Serializable, BaseCriteria {
         PageControl unlimited = PageControl.getUnlimitedInstance();
         this.pageNumber = unlimited.getPageNumber();
         this.pageSize = unlimited.getPageSize();
+        this.pageAfterId = null;
         this.pageControlOverrides = null;
     }
 
@@ -381,6 +428,20 @@ public abstract class Criteria implements Serializable, BaseCriteria {
         return this.restriction;
     }
 
+    /**
+     * Sets how the total size of the result is computed, by default an exact count is run along with every query.
+     *
+     * @see CountMode
+     * @since 4.14
+     */
+    public void setCountMode(CountMode countMode) {
+        this.countMode = countMode;
+    }
+
+    public CountMode getCountMode() {
+        return (null == countMode) ? CountMode.EXACT : countMode;
+    }
+
     public void setSearchExpression(String searchExpression) {
         this.searchExpression = searchExpression;
     }
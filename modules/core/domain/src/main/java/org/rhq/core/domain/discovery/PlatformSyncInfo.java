@@ -33,7 +33,8 @@ import org.rhq.core.domain.resource.ResourceCategory;
  * This immutable POJO returns the information necessary for the agent to perform a complete sync with the server
  * inventory.  It does not provide *all* of the sync info, only the platform and its top level *service* hierarchy. It
  * expects the agent to call back to the server for each of the platform's top level servers and therefore provides
- * only the top level server Ids.
+ * only the top level server Ids. When the top level server sync info is provided it also carries the subtree hashes,
+ * so the agent only has to call back for the parts of the hierarchy that differ from its own inventory.
  *
  * @author Jay Shaughnessy
  */
@@ -43,6 +44,7 @@ public class PlatformSyncInfo implements Serializable {
     private ResourceSyncInfo platform;
     private Set<ResourceSyncInfo> services;
     private Set<Integer> topLevelServerIds;
+    private Set<ResourceSyncInfo> topLevelServers;
 
     public PlatformSyncInfo(ResourceSyncInfo platform, Set<ResourceSyncInfo> services, Set<Integer> topLevelServerIds) {
         super();
@@ -51,6 +53,16 @@ public class PlatformSyncInfo implements Serializable {
         this.topLevelServerIds = topLevelServerIds;
     }
 
+    /**
+     * @param topLevelServers the top level server sync info carrying subtree hashes, letting the agent skip the
+     * top level servers, or parts of their hierarchy, that are already in sync
+     */
+    public PlatformSyncInfo(ResourceSyncInfo platform, Set<ResourceSyncInfo> services, Set<Integer> topLevelServerIds,
+        Set<ResourceSyncInfo> topLevelServers) {
+        this(platform, services, topLevelServerIds);
+        this.topLevelServers = topLevelServers;
+    }
+
     /**
      * @return just the platform sync info
      */
@@ -72,6 +84,14 @@ public class PlatformSyncInfo implements Serializable {
         return topLevelServerIds;
     }
 
+    /**
+     * @return the top level server sync info with subtree hashes set, or null if the server did not compute the hashes,
+     * in which case the agent must sync each top level server hierarchy in full
+     */
+    public Set<ResourceSyncInfo> getTopLevelServers() {
+        return topLevelServers;
+    }
+
     // for testing
     public static PlatformSyncInfo buildPlatformSyncInfo(Resource platform) {
         Set<Integer> toplevelServerIds = new HashSet<Integer>();
@@ -34,6 +34,7 @@ import javax.persistence.Id;
 import javax.persistence.NamedQueries;
 import javax.persistence.NamedQuery;
 import javax.persistence.Table;
+import javax.persistence.Transient;
 
 import org.rhq.core.domain.resource.InventoryStatus;
 import org.rhq.core.domain.resource.Resource;
@@ -60,7 +61,21 @@ import org.rhq.core.domain.resource.Resource;
         + "    OR rsi.id IN (SELECT rr.id FROM Resource rr WHERE rr.parentResource.parentResource.parentResource.id = :resourceId) "
         + "    OR rsi.id IN (SELECT rr.id FROM Resource rr WHERE rr.parentResource.parentResource.parentResource.parentResource.id = :resourceId) "
         + "    OR rsi.id IN (SELECT rr.id FROM Resource rr WHERE rr.parentResource.parentResource.parentResource.parentResource.parentResource.id = :resourceId) "
-        + "   ") })
+        + "   "),
+    @NamedQuery(name = ResourceSyncInfo.QUERY_AGENT_HIERARCHY, query = "" //
+        + "SELECT r.id, p.id, r.uuid, r.mtime, r.inventoryStatus " //
+        + "  FROM Resource r LEFT JOIN r.parentResource p " //
+        + " WHERE r.agent.id = ( SELECT rr.agent.id FROM Resource rr WHERE rr.id = :resourceId ) " //
+        + ""),
+    @NamedQuery(name = ResourceSyncInfo.QUERY_DESCENDANTS, query = "" //
+        + "SELECT r.id, p.id, r.uuid, r.mtime, r.inventoryStatus " //
+        + "  FROM Resource r LEFT JOIN r.parentResource p " //
+        + " WHERE r.id IN (SELECT rr.id FROM Resource rr WHERE rr.parentResource.id IN ( :parentIds )) "
+        + "    OR r.id IN (SELECT rr.id FROM Resource rr WHERE rr.parentResource.parentResource.id IN ( :parentIds )) "
+        + "    OR r.id IN (SELECT rr.id FROM Resource rr WHERE rr.parentResource.parentResource.parentResource.id IN ( :parentIds )) "
+        + "    OR r.id IN (SELECT rr.id FROM Resource rr WHERE rr.parentResource.parentResource.parentResource.parentResource.id IN ( :parentIds )) "
+        + "    OR r.id IN (SELECT rr.id FROM Resource rr WHERE rr.parentResource.parentResource.parentResource.parentResource.parentResource.id IN ( :parentIds )) "
+        + "") })
 @Table(name = "RHQ_RESOURCE")
 public class ResourceSyncInfo implements Serializable {
     private static final long serialVersionUID = 1L;
@@ -70,6 +85,12 @@ public class ResourceSyncInfo implements Serializable {
     /** Sync info rooted at the specified top level server and including all of it's hierarchy (up to 5 levels below
      * the top level server. note that we support up to 6 levels below platform but we are starting one level down) */
     public static final String QUERY_TOP_LEVEL_SERVER = "ResourceSyncInfo.topLevelServer";
+    /** Sync info rows (id, parent id, uuid, mtime, status) for the whole inventory of the agent managing the specified
+     * resource, used to compute the subtree hashes in a single pass */
+    public static final String QUERY_AGENT_HIERARCHY = "ResourceSyncInfo.agentHierarchy";
+    /** Sync info rows (id, parent id, uuid, mtime, status) for the descendants of the specified resources (up to 5
+     * levels below them, they are at least top level servers), used to hash only the subtrees the agent asks for */
+    public static final String QUERY_DESCENDANTS = "ResourceSyncInfo.descendants";
 
     // Native Queries not supported by HQL
     public static final String QUERY_NATIVE_QUERY_TOP_LEVEL_SERVER_ORACLE = "" //
@@ -115,6 +136,13 @@ public class ResourceSyncInfo implements Serializable {
     @Enumerated(EnumType.STRING)
     private InventoryStatus inventoryStatus;
 
+    /**
+     * Rolled-up hash of this resource and its descendants, computed on demand by the server and only set on sync info
+     * sent for a hash based sync. Null if not computed.
+     */
+    @Transient
+    private String subtreeHash;
+
     // JPA requires public or protected no-param constructor; Externalizable requires public no-param constructor.
     public ResourceSyncInfo() {
     }
@@ -135,6 +163,17 @@ public class ResourceSyncInfo implements Serializable {
         return inventoryStatus;
     }
 
+    /**
+     * @return the hash of the subtree rooted at this resource, or null if it was not computed
+     */
+    public String getSubtreeHash() {
+        return subtreeHash;
+    }
+
+    public void setSubtreeHash(String subtreeHash) {
+        this.subtreeHash = subtreeHash;
+    }
+
     @Override
     public int hashCode() {
         final int prime = 31;
@@ -84,6 +84,10 @@ import org.rhq.core.domain.util.StringUtils;
         + "SELECT gd " //
         + "  FROM GroupDefinition AS gd " //
         + " WHERE gd.recalculationInterval != 0 "),
+    @NamedQuery(name = GroupDefinition.QUERY_FIND_OLDEST_RECALCULATION_TIME, query = "" //
+        + "SELECT MIN(gd.lastCalculationTime) " //
+        + "  FROM GroupDefinition AS gd " //
+        + " WHERE gd.recalculationInterval != 0 "),
     @NamedQuery(name = GroupDefinition.QUERY_FIND_BY_CANNED_EXPR_NAME, query = "" //
         + "SELECT gd " //
         + "  FROM GroupDefinition AS gd " //
@@ -109,6 +113,7 @@ public class GroupDefinition implements Serializable {
     public static final String QUERY_FIND_MANAGED_RESOURCE_GROUP_SIZE_ADMIN = "GroupDefinition.findManagedResourceGroupSize_admin";
     public static final String QUERY_FIND_IDS_FOR_RECALCULATION = "GroupDefinition.findIdsForRecalculation_admin";
     public static final String QUERY_FIND_ALL_RECALCULATING = "GroupDefinition.findAllRecalculating_admin";
+    public static final String QUERY_FIND_OLDEST_RECALCULATION_TIME = "GroupDefinition.findOldestRecalculationTime_admin";
     public static final String QUERY_FIND_BY_CANNED_EXPR_NAME = "GroupDefinition.findByCannedExpessionName";
     public static final String QUERY_FIND_CREATED_FROM_CANNED_EXPR = "GroupDefinition.findCreatedFromCannedExpression";
     public static final String QUERY_FIND_LIKE_EXPR_NAME = "GroupDefinition.findLikeCannedExpressionName";
@@ -47,6 +47,7 @@ public class PageControl implements Serializable, Cloneable {
     private int pageNumber = 0;
     private int pageSize = PageControl.SIZE_MAX;
     private Integer firstRecord;
+    private Integer afterId;
     private LinkedList<OrderingField> orderingFields;
 
     public PageControl() {
@@ -65,6 +66,20 @@ public class PageControl implements Serializable, Cloneable {
         return pc;
     }
 
+    /**
+     * Returns a keyset (a.k.a. seek) page control. The page holds the {@code pageSize} rows that follow, in the sort
+     * order, the row with the given id, typically the last row of the previous page. Unlike offset paging, the cost of
+     * fetching a page does not grow with its depth in the result. It requires the sort fields to be non-null.
+     *
+     * @param afterId the id of the row preceding the page
+     * @param pageSize the number of rows to return
+     */
+    public static PageControl getKeysetPageControl(int afterId, int pageSize) {
+        PageControl pc = new PageControl(0, pageSize);
+        pc.afterId = afterId;
+        return pc;
+    }
+
     public PageControl(int pageNumber, int pageSize, OrderingField... orderingFields) {
         this(pageNumber, pageSize);
         for (OrderingField orderingField : orderingFields) {
@@ -174,9 +189,30 @@ public class PageControl implements Serializable, Cloneable {
         this.firstRecord = firstRecord;
         if (this.firstRecord != null) {
             this.pageNumber = -1;
+            this.afterId = null;
+        }
+    }
+
+    /**
+     * @return the id of the row preceding the page for keyset paging, null for offset paging
+     * @see #getKeysetPageControl(int, int)
+     */
+    public Integer getAfterId() {
+        return afterId;
+    }
+
+    public void setAfterId(Integer afterId) {
+        this.afterId = afterId;
+        if (this.afterId != null) {
+            this.pageNumber = 0;
+            this.firstRecord = null;
         }
     }
 
+    public boolean isKeyset() {
+        return afterId != null;
+    }
+
     public PageOrdering getPrimarySortOrder() {
         OrderingField primaryOrderingField = getPrimaryOrderingField();
         if (primaryOrderingField == null) {
@@ -289,7 +325,10 @@ public class PageControl implements Serializable, Cloneable {
      * @return the index of the starting row for the page
      */
     public int getStartRow() {
-        if (firstRecord != null) {
+        if (afterId != null) {
+            // the page starts right after the seek row, there is no offset
+            return 0;
+        } else if (firstRecord != null) {
             return firstRecord;
         } else {
             return pageNumber * pageSize;
@@ -300,6 +339,7 @@ public class PageControl implements Serializable, Cloneable {
         // allow the pageSize to remain, which keeps unlimited views with unlimited paging
         pageNumber = 0;
         firstRecord = null;
+        afterId = null;
         orderingFields = new LinkedList<OrderingField>();
     }
 
@@ -326,11 +366,19 @@ public class PageControl implements Serializable, Cloneable {
      * {@code READ_COMMITTED} transaction isolation level for our database connection, which is needed for it being
      * reasonably performant.
      *
+     * <p/>
+     * The position of a keyset page in the results is not known, so for a keyset page control only the collection
+     * size is checked against the total size and the page size.
+     *
      * @param collection the collection of results
      * @param totalSize the total size of results
      * @return true if this page control object is consistent with the results or not
      */
     public boolean isConsistentWith(Collection<?> collection, int totalSize) {
+        if (afterId != null) {
+            return collection.size() <= Math.min(totalSize, getPageSize());
+        }
+
         int minTotalSize = getStartRow();
         int pageSize = isUnlimited() ? Integer.MAX_VALUE : getPageSize();
 
@@ -386,6 +434,8 @@ public class PageControl implements Serializable, Cloneable {
             return false;
         if (pageSize != that.pageSize)
             return false;
+        if (afterId != null ? !afterId.equals(that.afterId) : that.afterId != null)
+            return false;
         if (!orderingFields.equals(that.orderingFields))
             return false;
 
@@ -396,6 +446,7 @@ public class PageControl implements Serializable, Cloneable {
     public int hashCode() {
         int result = pageNumber;
         result = 31 * result + pageSize;
+        result = 31 * result + (afterId != null ? afterId.hashCode() : 0);
         result = 31 * result + orderingFields.hashCode();
         return result;
     }
@@ -403,7 +454,9 @@ public class PageControl implements Serializable, Cloneable {
     @Override
     public String toString() {
         StringBuilder buf = new StringBuilder("PageControl[");
-        if (firstRecord != null) {
+        if (afterId != null) {
+            buf.append("afterId=").append(afterId);
+        } else if (firstRecord != null) {
             buf.append("firstRow=").append(firstRecord);
         } else {
             buf.append("page=").append(pageNumber);
@@ -426,7 +479,9 @@ public class PageControl implements Serializable, Cloneable {
     }
 
     public Object clone() {
-        return new PageControl(pageNumber, pageSize, getOrderingFieldsAsArray());
+        PageControl clone = new PageControl(pageNumber, pageSize, getOrderingFieldsAsArray());
+        clone.afterId = afterId;
+        return clone;
     }
 
 }
@@ -19,6 +19,7 @@
 
 package org.rhq.core.domain.util;
 
+import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertTrue;
 
@@ -160,6 +161,30 @@ public class PageControlTest {
         assertConsistencies(pc, collection, consistentSizes, inconsistentSizes);
     }
 
+    public void consistencyOfKeysetPage() {
+        PageControl pc = PageControl.getKeysetPageControl(10001, 5);
+
+        // the position of the page in the results is unknown, the page just can't be larger than the total or the page
+        Collection<?> collection = FakeCollection.ofSize(3);
+        int[] consistentTotalSizes = { 3, 5, 8, 1000 };
+        int[] inconsistentTotalSizes = { 0, 1, 2 };
+        assertConsistencies(pc, collection, consistentTotalSizes, inconsistentTotalSizes);
+
+        collection = FakeCollection.ofSize(6);
+        assertConsistencies(pc, collection, new int[] {}, new int[] { 5, 6, 1000 });
+    }
+
+    public void keysetPageHasNoOffset() {
+        PageControl pc = PageControl.getKeysetPageControl(10001, 5);
+        assertTrue(pc.isKeyset());
+        assertEquals(pc.getStartRow(), 0);
+        assertEquals(((PageControl) pc.clone()).getAfterId(), Integer.valueOf(10001));
+
+        pc.setFirstRecord(20);
+        assertFalse(pc.isKeyset());
+        assertEquals(pc.getStartRow(), 20);
+    }
+
     private void assertConsistencies(PageControl pc, Collection<?> collection, int[] consistentSizes, int[] inconsistentSizes) {
         for(int i = 0; i < consistentSizes.length; ++i) {
             assertTrue(pc.isConsistentWith(collection, consistentSizes[i]),
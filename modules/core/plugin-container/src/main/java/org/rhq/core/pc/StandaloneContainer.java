@@ -911,6 +911,11 @@ public class StandaloneContainer {
             return null;
         }
 
+        @Override
+        public Collection<ResourceSyncInfo> getChildResourceSyncInfo(Set<Integer> parentResourceIds) {
+            return null;
+        }
+
         @Override
         public Set<Resource> getResources(Set<Integer> resourceIds, boolean includeDescendants) {
             return null;
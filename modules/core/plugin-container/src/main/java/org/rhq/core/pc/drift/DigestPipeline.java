@@ -0,0 +1,203 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2015 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package org.rhq.core.pc.drift;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.rhq.core.util.MessageDigestGenerator;
+
+/**
+ * Computes the SHA-256 digests of files on a thread pool while the drift detector keeps walking the file system. The
+ * results are handed back to the {@link Callback} on the calling thread, in the order in which the files were added.
+ * At most <code>window</code> digests are in flight, so memory use does not grow with the number of files scanned.
+ * <br/><br/>
+ * Without an executor the digests are computed on the calling thread as the files are added. Each pool thread keeps
+ * its own {@link MessageDigestGenerator}, the generator is not thread safe but can be reused for any number of files.
+ * <br/><br/>
+ * Instances are not thread safe and are meant to be used for a single scan.
+ *
+ * @param <T> The type of the item the file belongs to, e.g. the snapshot entry being verified
+ */
+class DigestPipeline<T> {
+
+    interface Callback<T> {
+
+        void digested(T item, File file, String sha256) throws IOException;
+
+        /**
+         * Called instead of {@link #digested(Object, File, String)} if the digest could not be computed. Rethrow the
+         * exception to abort the scan.
+         */
+        void failed(T item, File file, IOException e) throws IOException;
+    }
+
+    private static final ThreadLocal<MessageDigestGenerator> DIGEST_GENERATOR =
+        new ThreadLocal<MessageDigestGenerator>() {
+            @Override
+            protected MessageDigestGenerator initialValue() {
+                return new MessageDigestGenerator(MessageDigestGenerator.SHA_256);
+            }
+        };
+
+    private final ExecutorService executor;
+
+    private final int window;
+
+    private final Callback<T> callback;
+
+    private final LinkedList<Pending<T>> pending = new LinkedList<Pending<T>>();
+
+    private int filesDigested;
+
+    private long bytesDigested;
+
+    /**
+     * @param executor The pool to compute the digests on, null to compute them on the calling thread
+     * @param window The maximum number of digests in flight
+     */
+    DigestPipeline(ExecutorService executor, int window, Callback<T> callback) {
+        this.executor = executor;
+        this.window = Math.max(1, window);
+        this.callback = callback;
+    }
+
+    static String sha256(File file) throws IOException {
+        return DIGEST_GENERATOR.get().calcDigestString(file);
+    }
+
+    void add(T item, File file) throws IOException {
+        ++filesDigested;
+        bytesDigested += file.length();
+
+        if (executor == null) {
+            complete(item, file, null);
+            return;
+        }
+
+        Future<String> future;
+        try {
+            future = executor.submit(new DigestTask(file));
+        } catch (RejectedExecutionException e) {
+            // the pool is shutting down, finish what is in flight and carry on with this thread
+            finish();
+            complete(item, file, null);
+            return;
+        }
+
+        pending.add(new Pending<T>(item, file, future));
+        while (pending.size() > window) {
+            Pending<T> head = pending.removeFirst();
+            complete(head.item, head.file, head.future);
+        }
+    }
+
+    /**
+     * Waits for all digests in flight and hands them to the callback.
+     */
+    void finish() throws IOException {
+        while (!pending.isEmpty()) {
+            Pending<T> head = pending.removeFirst();
+            complete(head.item, head.file, head.future);
+        }
+    }
+
+    /**
+     * Discards the digests in flight, to be called if the scan is aborted.
+     */
+    void cancel() {
+        for (Pending<T> p : pending) {
+            p.future.cancel(true);
+        }
+        pending.clear();
+    }
+
+    int getFilesDigested() {
+        return filesDigested;
+    }
+
+    long getBytesDigested() {
+        return bytesDigested;
+    }
+
+    private void complete(T item, File file, Future<String> future) throws IOException {
+        String sha256;
+        try {
+            sha256 = (future == null) ? sha256(file) : future.get();
+        } catch (IOException e) {
+            callback.failed(item, file, e);
+            return;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                callback.failed(item, file, (IOException) cause);
+                return;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException("Failed to compute the digest of " + file.getPath(), cause);
+        } catch (InterruptedException e) {
+            cancel();
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while computing the digest of " + file.getPath());
+        }
+        callback.digested(item, file, sha256);
+    }
+
+    private static class DigestTask implements Callable<String> {
+
+        private final File file;
+
+        DigestTask(File file) {
+            this.file = file;
+        }
+
+        @Override
+        public String call() throws IOException {
+            return sha256(file);
+        }
+    }
+
+    private static class Pending<T> {
+
+        final T item;
+
+        final File file;
+
+        final Future<String> future;
+
+        Pending(T item, File file, Future<String> future) {
+            this.item = item;
+            this.file = file;
+            this.future = future;
+        }
+    }
+
+}
@@ -41,6 +41,14 @@ public class DriftDetectionSummary {
 
     private int version;
 
+    private int filesScanned;
+
+    private int filesDigested;
+
+    private long bytesDigested;
+
+    private long scanTime;
+
     public DriftDetectionSchedule getSchedule() {
         return schedule;
     }
@@ -105,4 +113,56 @@ public class DriftDetectionSummary {
         baseDirExists = exists;
     }
 
+    /**
+     * @return The number of files that were checked for drift
+     */
+    public int getFilesScanned() {
+        return filesScanned;
+    }
+
+    public void incrementFilesScanned() {
+        ++filesScanned;
+    }
+
+    /**
+     * @return The number of files whose SHA-256 digest had to be computed, the other files were considered unchanged
+     * because their size and last modification time were unchanged
+     */
+    public int getFilesDigested() {
+        return filesDigested;
+    }
+
+    /**
+     * @return The total size of the files whose digest had to be computed
+     */
+    public long getBytesDigested() {
+        return bytesDigested;
+    }
+
+    public void addDigested(int files, long bytes) {
+        filesDigested += files;
+        bytesDigested += bytes;
+    }
+
+    /**
+     * @return The time the scan of the drift definition took, in milliseconds
+     */
+    public long getScanTime() {
+        return scanTime;
+    }
+
+    public void setScanTime(long scanTime) {
+        this.scanTime = scanTime;
+    }
+
+    /**
+     * @return The scan throughput as a human readable string
+     */
+    public String getScanStatistics() {
+        long time = Math.max(1L, scanTime);
+        return "scanned " + filesScanned + " files in " + scanTime + " ms (" + (filesScanned * 1000L / time)
+            + " files/s), digested " + filesDigested + " files with " + bytesDigested + " bytes ("
+            + (bytesDigested * 1000L / time / 1024L) + " KB/s)";
+    }
+
 }
@@ -37,6 +37,7 @@ import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -48,7 +49,6 @@ import org.rhq.common.drift.Headers;
 import org.rhq.core.domain.drift.DriftChangeSetCategory;
 import org.rhq.core.domain.drift.DriftDefinition;
 import org.rhq.core.domain.drift.Filter;
-import org.rhq.core.util.MessageDigestGenerator;
 import org.rhq.core.util.file.FileVisitor;
 
 /**
@@ -67,14 +67,29 @@ public class DriftDetector implements Runnable {
 
     private final ChangeSetManager changeSetMgr;
 
-    private final MessageDigestGenerator digestGenerator = new MessageDigestGenerator(MessageDigestGenerator.SHA_256);
+    /**
+     * The maximum number of file digests in flight per scan, bounds the memory used by the digest pipeline.
+     */
+    static final int DIGEST_WINDOW = 256;
 
     private final DriftClient driftClient;
 
+    private final ExecutorService digestExecutor;
+
     public DriftDetector(ScheduleQueue scheduleQueue, ChangeSetManager changeSetMgr, DriftClient driftClient) {
+        this(scheduleQueue, changeSetMgr, driftClient, null);
+    }
+
+    /**
+     * @param digestExecutor The pool on which the SHA-256 digests of the scanned files are computed, null to compute
+     * them on the drift detection thread
+     */
+    public DriftDetector(ScheduleQueue scheduleQueue, ChangeSetManager changeSetMgr, DriftClient driftClient,
+        ExecutorService digestExecutor) {
         this.scheduleQueue = scheduleQueue;
         this.changeSetMgr = changeSetMgr;
         this.driftClient = driftClient;
+        this.digestExecutor = digestExecutor;
     }
 
     @Override
@@ -115,6 +130,7 @@ public class DriftDetector implements Runnable {
                 DriftDetectionSummary detectionSummary = new DriftDetectionSummary();
                 detectionSummary.setSchedule(schedule);
                 try {
+                    long scanStartTime = System.currentTimeMillis();
                     if (changeSetMgr.changeSetExists(schedule.getResourceId(), createHeaders(schedule, COVERAGE, 0))) {
                         detectionSummary.setType(DRIFT);
                         generateDriftChangeSet(detectionSummary);
@@ -122,6 +138,10 @@ public class DriftDetector implements Runnable {
                         detectionSummary.setType(COVERAGE);
                         generateSnapshot(detectionSummary);
                     }
+                    detectionSummary.setScanTime(System.currentTimeMillis() - scanStartTime);
+                    if (log.isDebugEnabled()) {
+                        log.debug("Scanned " + schedule + ": " + detectionSummary.getScanStatistics());
+                    }
 
                     if (!detectionSummary.isBaseDirExists()) {
                         driftClient.reportMissingBaseDir(schedule.getResourceId(), schedule.getDriftDefinition());
@@ -249,7 +269,7 @@ public class DriftDetector implements Runnable {
                 }
 
                 // First look for files that have either been changed or removed
-                updateSnapshot = scanSnapshot(schedule, basedir, snapshotReader, newFiles, unchangedEntries,
+                updateSnapshot = scanSnapshot(summary, basedir, snapshotReader, newFiles, unchangedEntries,
                     changedEntries, removedEntries, changedPinnedEntries);
 
             } finally {
@@ -268,24 +288,25 @@ public class DriftDetector implements Runnable {
             }
 
             // add new files to the snapshotEntries and deltaEntries
-            for (File file : newFiles) {
-                try {
+            DigestPipeline<File> pipeline = new DigestPipeline<File>(digestExecutor, DIGEST_WINDOW,
+                new AddedFileCollector(schedule, basedir, "drift change set") {
+                    @Override
+                    void added(FileEntry addedFileEntry) {
+                        addedEntries.add(addedFileEntry);
+                    }
+                });
+            try {
+                for (File file : newFiles) {
                     if (log.isInfoEnabled()) {
                         log.info("Detected added file for " + schedule + " --> " + file.getAbsolutePath());
                     }
-
-                    FileEntry addedFileEntry = getAddedFileEntry(basedir, file);
-                    if (null != addedFileEntry) {
-                        addedEntries.add(addedFileEntry);
-                    }
-
-                } catch (Throwable t) {
-                    // report the error but keep going, perhaps it is specific to a single file, try to
-                    // finish the change set generation.
-                    log.error(
-                        "An unexpected error occurred while generating a drift change set for file " + file.getPath()
-                            + " in schedule " + schedule + ". Skipping file.", t);
+                    summary.incrementFilesScanned();
+                    pipeline.add(file, file);
                 }
+                pipeline.finish();
+            } finally {
+                pipeline.cancel();
+                summary.addDigested(pipeline.getFilesDigested(), pipeline.getBytesDigested());
             }
 
             // The new snapshot contains all changed, unchanged and added files. Not removed files.
@@ -348,36 +369,60 @@ public class DriftDetector implements Runnable {
     }
 
     /**
+     * Creates the entries for added files from their digests.
+     * <br/><br/>
      * File.canRead() is basically a security check and does not guarantee that the file contents can truly be read.
      * Certain files, like socket files on linux, can not be processed and it's not known until actually trying to
      * construct a FileInputStream, as is done when we actually try to generate the digest. These files will generate
-     * a FileNotFoundException. This method will catch, log and suppress that issue, and return null
-     * indicating the file is not suitable for drift detection.
-     *
-     * @param basedir the drift def base directory
-     * @param file the new file to add
-     * @return the new FileEntry, or null if this file is not appropriate for drift detection (typically if the
-     * underlying file does not support the needed File operations.
-     * @throws IOException if something unexpected occurs, outside of the FileNotFoundException it looks for.
+     * a FileNotFoundException. This collector will catch, log and suppress that issue, and skip the file as it is not
+     * suitable for drift detection. Other errors are logged and the file is skipped as well, perhaps the error is
+     * specific to a single file, so we try to finish the detection.
      */
-    private FileEntry getAddedFileEntry(File basedir, File file) throws IOException {
-        FileEntry result = null;
+    private abstract class AddedFileCollector implements DigestPipeline.Callback<File> {
 
-        try {
-            String sha256 = sha256(file);
-            String relativePath = relativePath(basedir, file);
-            long lastModified = file.lastModified();
-            long length = file.length();
+        private final DriftDetectionSchedule schedule;
 
-            result = addedFileEntry(relativePath, sha256, lastModified, length);
+        private final File basedir;
+
+        private final String changeSetType;
+
+        AddedFileCollector(DriftDetectionSchedule schedule, File basedir, String changeSetType) {
+            this.schedule = schedule;
+            this.basedir = basedir;
+            this.changeSetType = changeSetType;
+        }
 
-        } catch (FileNotFoundException e) {
-            if (log.isDebugEnabled()) {
-                log.debug("Skipping " + file.getPath() + " since it is missing or is not a physically readable file.");
+        abstract void added(FileEntry addedFileEntry) throws IOException;
+
+        @Override
+        public void digested(File item, File file, String sha256) {
+            try {
+                String relativePath = relativePath(basedir, file);
+                long lastModified = file.lastModified();
+                long length = file.length();
+
+                added(addedFileEntry(relativePath, sha256, lastModified, length));
+            } catch (Throwable t) {
+                logFailure(file, t);
+            }
+        }
+
+        @Override
+        public void failed(File item, File file, IOException e) {
+            if (e instanceof FileNotFoundException) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Skipping " + file.getPath()
+                        + " since it is missing or is not a physically readable file.");
+                }
+            } else {
+                logFailure(file, e);
             }
         }
 
-        return result;
+        private void logFailure(File file, Throwable t) {
+            log.error("An unexpected error occurred while generating a " + changeSetType + " for file "
+                + file.getPath() + " in schedule " + schedule + ". Skipping file.", t);
+        }
     }
 
     static private void safeClear(Collection<?>... collections) {
@@ -418,66 +463,105 @@ public class DriftDetector implements Runnable {
      * snapshot should be re-written to disk even if there was no drift.
      * @throws IOException
      */
-    private boolean scanSnapshot(DriftDetectionSchedule schedule, File basedir, ChangeSetReader snapshotReader,
+    private boolean scanSnapshot(DriftDetectionSummary summary, File basedir, ChangeSetReader snapshotReader,
         Set<File> newFiles, List<FileEntry> unchangedEntries, List<FileEntry> changedEntries,
         List<FileEntry> removedEntries, List<FileEntry> changedPinnedEntries) throws IOException {
 
-        boolean result = false;
-
-        for (FileEntry entry : snapshotReader) {
-            File file = new File(basedir, entry.getFile());
-            newFiles.remove(file);
+        DriftDetectionSchedule schedule = summary.getSchedule();
+        SnapshotEntryVerifier verifier = new SnapshotEntryVerifier(unchangedEntries, changedEntries,
+            changedPinnedEntries);
+        DigestPipeline<FileEntry> pipeline = new DigestPipeline<FileEntry>(digestExecutor, DIGEST_WINDOW, verifier);
 
-            if (!(file.exists() && file.canRead())) {
-                // The file has been deleted or is no longer readable, since the last scan
-                if (log.isDebugEnabled()) {
-                    log.debug("Detected " + (file.exists() ? "unreadable" : "deleted") + " file for " + schedule
-                        + " --> " + file.getAbsolutePath());
-                }
-                removedEntries.add(removedFileEntry(entry.getFile(), entry.getNewSHA()));
-
-                if (null != changedPinnedEntries) {
-                    changedPinnedEntries.add(entry);
-                }
-            } else {
-                String currentSHA = null;
-                boolean isChanged = false;
-
-                // perform a SHA comparison if we are unable to compare size and lastModified or if the
-                // size or lastModified test fails.  We may not have size or lastModified values for the
-                // entry when the current snapshot was provided by the server, either due to a synch or
-                // pinning scenario.  The server does not store that information and will provide -1 for defaults.
-                if (entry.getLastModified() == -1 || entry.getSize() == -1
-                    || entry.getLastModified() != file.lastModified() || entry.getSize() != file.length()) {
-
-                    currentSHA = sha256(file);
-                    isChanged = !entry.getNewSHA().equals(currentSHA);
-                }
+        try {
+            for (FileEntry entry : snapshotReader) {
+                File file = new File(basedir, entry.getFile());
+                newFiles.remove(file);
+                summary.incrementFilesScanned();
 
-                if (isChanged) {
-                    FileEntry changedEntry = changedFileEntry(entry.getFile(), entry.getNewSHA(), currentSHA,
-                        file.lastModified(), file.length());
-                    changedEntries.add(changedEntry);
+                if (!(file.exists() && file.canRead())) {
+                    // The file has been deleted or is no longer readable, since the last scan
+                    if (log.isDebugEnabled()) {
+                        log.debug("Detected " + (file.exists() ? "unreadable" : "deleted") + " file for " + schedule
+                            + " --> " + file.getAbsolutePath());
+                    }
+                    removedEntries.add(removedFileEntry(entry.getFile(), entry.getNewSHA()));
 
                     if (null != changedPinnedEntries) {
                         changedPinnedEntries.add(entry);
                     }
-
+                } else if (entry.getLastModified() == -1 || entry.getSize() == -1
+                    || entry.getLastModified() != file.lastModified() || entry.getSize() != file.length()) {
+                    // perform a SHA comparison if we are unable to compare size and lastModified or if the
+                    // size or lastModified test fails.  We may not have size or lastModified values for the
+                    // entry when the current snapshot was provided by the server, either due to a synch or
+                    // pinning scenario.  The server does not store that information and will provide -1 for defaults.
+                    pipeline.add(entry, file);
                 } else {
-                    if (-1 == entry.getLastModified()) {
-                        entry.setLastModified(file.lastModified());
-                        result = true;
-                    }
-                    if (-1 == entry.getSize()) {
-                        entry.setSize(file.length());
-                        result = true;
-                    }
-                    unchangedEntries.add(entry);
+                    verifier.unchanged(entry, file);
                 }
             }
+            pipeline.finish();
+        } finally {
+            pipeline.cancel();
+            summary.addDigested(pipeline.getFilesDigested(), pipeline.getBytesDigested());
         }
 
-        return result;
+        return verifier.updated;
+    }
+
+    /**
+     * Sorts the snapshot entries whose digest had to be computed into the changed and unchanged entries.
+     */
+    private static class SnapshotEntryVerifier implements DigestPipeline.Callback<FileEntry> {
+
+        private final List<FileEntry> unchangedEntries;
+
+        private final List<FileEntry> changedEntries;
+
+        private final List<FileEntry> changedPinnedEntries;
+
+        /** true if an unchanged entry had its timestamp/filesize info updated */
+        private boolean updated;
+
+        SnapshotEntryVerifier(List<FileEntry> unchangedEntries, List<FileEntry> changedEntries,
+            List<FileEntry> changedPinnedEntries) {
+            this.unchangedEntries = unchangedEntries;
+            this.changedEntries = changedEntries;
+            this.changedPinnedEntries = changedPinnedEntries;
+        }
+
+        @Override
+        public void digested(FileEntry entry, File file, String currentSHA) {
+            if (entry.getNewSHA().equals(currentSHA)) {
+                unchanged(entry, file);
+                return;
+            }
+
+            FileEntry changedEntry = changedFileEntry(entry.getFile(), entry.getNewSHA(), currentSHA,
+                file.lastModified(), file.length());
+            changedEntries.add(changedEntry);
+
+            if (null != changedPinnedEntries) {
+                changedPinnedEntries.add(entry);
+            }
+        }
+
+        @Override
+        public void failed(FileEntry entry, File file, IOException e) throws IOException {
+            throw e;
+        }
+
+        void unchanged(FileEntry entry, File file) {
+            if (-1 == entry.getLastModified()) {
+                entry.setLastModified(file.lastModified());
+                updated = true;
+            }
+            if (-1 == entry.getSize()) {
+                entry.setSize(file.length());
+                updated = true;
+            }
+            unchangedEntries.add(entry);
+        }
     }
 
     private boolean isPreviousChangeSetEmpty(int resourceId, DriftDefinition definition) throws IOException {
@@ -651,7 +735,7 @@ public class DriftDetector implements Runnable {
             writer = changeSetMgr.getChangeSetWriter(snapshot, createHeaders(schedule, COVERAGE, 0));
 
             if (basedir.isDirectory()) {
-                doDirectoryScan(schedule, driftDef, basedir, writer);
+                doDirectoryScan(summary, driftDef, basedir, writer);
                 writer.close();
                 writer = null;
             }
@@ -666,41 +750,56 @@ public class DriftDetector implements Runnable {
         }
     }
 
-    private void doDirectoryScan(final DriftDetectionSchedule schedule, DriftDefinition driftDef, final File basedir,
-        final ChangeSetWriter writer) {
+    private void doDirectoryScan(final DriftDetectionSummary summary, DriftDefinition driftDef, final File basedir,
+        final ChangeSetWriter writer) throws IOException {
 
+        final DriftDetectionSchedule schedule = summary.getSchedule();
         List<Filter> includes = driftDef.getIncludes();
         List<Filter> excludes = driftDef.getExcludes();
 
-        for (File dir : getScanDirectories(basedir, includes)) {
-            forEachFile(dir, new FilterFileVisitor(basedir, includes, excludes, new FileVisitor() {
+        // the file system is walked on this thread while the digests of the files found so far are computed on the
+        // digest executor, the entries are written in the order in which the files were found
+        final DigestPipeline<File> pipeline = new DigestPipeline<File>(digestExecutor, DIGEST_WINDOW,
+            new AddedFileCollector(schedule, basedir, "coverage change set") {
                 @Override
-                public void visit(File file) {
-                    try {
-                        if (!file.canRead()) {
+                void added(FileEntry addedFileEntry) throws IOException {
+                    writer.write(addedFileEntry);
+                }
+            });
+
+        try {
+            for (File dir : getScanDirectories(basedir, includes)) {
+                forEachFile(dir, new FilterFileVisitor(basedir, includes, excludes, new FileVisitor() {
+                    @Override
+                    public void visit(File file) {
+                        try {
+                            if (!file.canRead()) {
+                                if (log.isDebugEnabled()) {
+                                    log.debug("Skipping " + file.getPath() + " since we do not have read access.");
+                                }
+                                return;
+                            }
+
                             if (log.isDebugEnabled()) {
-                                log.debug("Skipping " + file.getPath() + " since we do not have read access.");
+                                log.debug("Adding " + file.getPath() + " to coverage change set for " + schedule);
                             }
-                            return;
-                        }
 
-                        if (log.isDebugEnabled()) {
-                            log.debug("Adding " + file.getPath() + " to coverage change set for " + schedule);
-                        }
+                            summary.incrementFilesScanned();
+                            pipeline.add(file, file);
 
-                        FileEntry addedFileEntry = getAddedFileEntry(basedir, file);
-                        if (null != addedFileEntry) {
-                            writer.write(addedFileEntry);
+                        } catch (Throwable t) {
+                            // report the error but keep going, perhaps it is specific to a single file, try to
+                            // finish the detection.
+                            log.error("An unexpected error occurred while generating a coverage change set for file "
+                                + file.getPath() + " in schedule " + schedule + ". Skipping file.", t);
                         }
-
-                    } catch (Throwable t) {
-                        // report the error but keep going, perhaps it is specific to a single file, try to
-                        // finish the detection.
-                        log.error("An unexpected error occurred while generating a coverage change set for file "
-                            + file.getPath() + " in schedule " + schedule + ". Skipping file.", t);
                     }
-                }
-            }));
+                }));
+            }
+            pipeline.finish();
+        } finally {
+            pipeline.cancel();
+            summary.addDigested(pipeline.getFilesDigested(), pipeline.getBytesDigested());
         }
     }
 
@@ -717,10 +816,6 @@ public class DriftDetector implements Runnable {
         return filePath.substring(basedirLen);
     }
 
-    private String sha256(File file) throws IOException {
-        return digestGenerator.calcDigestString(file);
-    }
-
     private String basedir(int resourceId, DriftDefinition driftDef) {
         return driftClient.getAbsoluteBaseDirectory(resourceId, driftDef).getAbsolutePath();
     }
@@ -35,6 +35,8 @@ import java.io.FileOutputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.zip.ZipEntry;
@@ -60,6 +62,7 @@ import org.rhq.core.pc.agent.AgentService;
 import org.rhq.core.pc.agent.AgentServiceStreamRemoter;
 import org.rhq.core.pc.inventory.InventoryManager;
 import org.rhq.core.pc.inventory.ResourceContainer;
+import org.rhq.core.pc.util.LoggingThreadFactory;
 import org.rhq.core.util.file.FileUtil;
 import org.rhq.core.util.stream.StreamUtil;
 
@@ -67,12 +70,32 @@ public class DriftManager extends AgentService implements DriftAgentService, Dri
 
     private static final Log log = LogFactory.getLog(DriftManager.class);
 
+    private static final String DIGEST_THREAD_POOL_NAME = "DriftManager.digest";
+
+    /**
+     * The number of threads that compute the digests of the files scanned for drift.
+     */
+    private static final int DIGEST_THREADS;
+
+    static {
+        int digestThreads = Math.min(4, Runtime.getRuntime().availableProcessors());
+        try {
+            digestThreads = Integer.parseInt(System.getProperty("rhq.agent.drift.digest-threads",
+                String.valueOf(digestThreads)));
+        } catch (Throwable t) {
+            //
+        }
+        DIGEST_THREADS = Math.max(1, digestThreads);
+    }
+
     private final PluginContainerConfiguration pluginContainerConfiguration;
 
     private final File changeSetsDir;
 
     private final ScheduledThreadPoolExecutor driftThreadPool;
 
+    private final ExecutorService digestThreadPool;
+
     private final ScheduleQueue schedulesQueue = new ScheduleQueueImpl();
 
     /**
@@ -97,13 +120,16 @@ public class DriftManager extends AgentService implements DriftAgentService, Dri
                 log.warn("Could not create change sets directory " + changeSetsDir);
                 initialized = false;
                 driftThreadPool = null;
+                digestThreadPool = null;
                 changeSetMgr = null;
                 return;
             }
         }
         changeSetMgr = new ChangeSetManagerImpl(changeSetsDir);
 
-        DriftDetector driftDetector = new DriftDetector(schedulesQueue, changeSetMgr, this);
+        digestThreadPool = Executors.newFixedThreadPool(DIGEST_THREADS, new LoggingThreadFactory(
+            DIGEST_THREAD_POOL_NAME, true));
+        DriftDetector driftDetector = new DriftDetector(schedulesQueue, changeSetMgr, this, digestThreadPool);
 
         long startTime = System.currentTimeMillis();
         initSchedules(inventoryManager.getPlatform(), inventoryManager);
@@ -289,6 +315,9 @@ public class DriftManager extends AgentService implements DriftAgentService, Dri
             // TODO (ips, 04/30/12): Is it safe to pass true here to interrupt executing threads?
             PluginContainer.shutdownExecutorService(driftThreadPool, false);
         }
+        if (digestThreadPool != null) {
+            PluginContainer.shutdownExecutorService(digestThreadPool, true);
+        }
 
         schedulesQueue.clear();
         changeSetMgr = null;
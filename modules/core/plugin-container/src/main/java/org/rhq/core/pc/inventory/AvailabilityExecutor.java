@@ -26,12 +26,19 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.ObjectOutputStream;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -52,6 +59,13 @@ import org.rhq.core.util.stream.StreamUtil;
 
 /**
  * Runs a periodic scan for resource availability.
+ * <p/>
+ * The subtrees of the children of a resource are checked concurrently on the availability check pool of the
+ * {@link InventoryManager}, so a resource whose avail check blocks only holds up its own subtree. The children of a
+ * resource that is DOWN are all DOWN as well, they are never asked for their availability and are handled on the thread
+ * that checked the parent. Each subtree collects its availabilities in a report of its own and the reports are merged
+ * in the order of a depth-first walk of the hierarchy once the scan is done, so the resulting report does not depend on
+ * the order in which the subtrees completed.
  *
  * @author Jay Shaughnessy
  * @author John Mazzitelli
@@ -170,24 +184,43 @@ public class AvailabilityExecutor implements Runnable, Callable<AvailabilityRepo
         }
 
         boolean traceEnabled = LOG.isTraceEnabled();
+        SubtreeChecks checks = new SubtreeChecks(inventoryManager.getAvailabilityCheckExecutor(), scanRoot,
+            availabilityReport, scan, traceEnabled);
+        scan.checks = checks;
         try {
-            checkInventory(scanRoot, availabilityReport, parentAvailabilityType, false, scan, traceEnabled);
+            try {
+                checkInventory(scanRoot, availabilityReport, parentAvailabilityType, false, scan, traceEnabled);
+            } catch (RuntimeException e) {
+                checks.fail(e);
+            }
+            checks.await();
         } catch (InterruptedException e) {
+            checks.cancel();
             LOG.debug("Availability check was interrupted", e);
             return;
-        } catch (RuntimeException e) {
+        } finally {
+            scan.checks = null;
+        }
+
+        // Also merge what has been checked when the scan failed, the changed avails have already been applied to the
+        // resource containers and would otherwise never be reported.
+        checks.mergeReports();
+
+        Throwable failure = checks.getFailure();
+        if (failure != null) {
             if (LOG.isDebugEnabled()) {
                 if (Thread.interrupted()) {
                     LOG.debug("Exception occurred during availability check, but this thread has been interrupted, "
-                        + "so most likely the plugin container is shutting down: " + e);
+                        + "so most likely the plugin container is shutting down: " + failure);
                 } else {
-                    LOG.debug("Exception occurred during availability check: " + e);
+                    LOG.debug("Exception occurred during availability check: " + failure);
                 }
             }
             return;
         }
 
         scan.setEndTime(System.currentTimeMillis());
+        scan.setSubtreeTimings(checks.getSubtreeTimings());
 
         if (LOG.isDebugEnabled()) {
             LOG.debug("Scan Ended   : " + new Date(scan.getEndTime()) + " : " + scan.toString());
@@ -213,13 +246,16 @@ public class AvailabilityExecutor implements Runnable, Callable<AvailabilityRepo
     }
 
     /**
-      * Checks the availability of one resource and then its children.
+      * Checks the availability of one resource and then its children. Unless the resource is DOWN, the subtrees of
+      * the children are checked asynchronously and report into reports of their own, see {@link SubtreeChecks}.
       *
       * @throws InterruptedException if this checking thread was interrupted
       */
     protected void checkInventory(Resource resource, AvailabilityReport availabilityReport,
                                   AvailabilityType parentAvailType, boolean isForced, Scan scan, boolean traceEnabled) throws InterruptedException {
 
+        long checkStart = System.nanoTime();
+
         // Only report avail for committed Resources - that's all the Server cares about.
         if (resource.getId() == 0 || resource.getInventoryStatus() != InventoryStatus.COMMITTED) {
             return;
@@ -235,7 +271,7 @@ public class AvailabilityExecutor implements Runnable, Callable<AvailabilityRepo
         // The avail proxy guarantees fast response time for an avail check
         AvailabilityFacet resourceAvailabilityProxy = resourceContainer.getAvailabilityProxy();
 
-        ++scan.numResources;
+        scan.numResources.incrementAndGet();
 
         // See if this resource is scheduled for an avail check
         boolean checkAvail = false;
@@ -268,7 +304,7 @@ public class AvailabilityExecutor implements Runnable, Callable<AvailabilityRepo
                         LOG.trace("Forced availabilityScheduleTime to " + new Date(availabilityScheduleTime) + " for "
                             + resource);
                     }
-                    ++scan.numScheduledRandomly;
+                    scan.numScheduledRandomly.incrementAndGet();
 
                 } else {
                     if (traceEnabled) {
@@ -287,7 +323,7 @@ public class AvailabilityExecutor implements Runnable, Callable<AvailabilityRepo
                 }
                 long interval = availScheduleRequest.getInterval(); // intervals are short enough for safe cast
                 resourceContainer.setAvailabilityScheduleTime(scan.startTime + interval);
-                ++scan.numPushedByInterval;
+                scan.numPushedByInterval.incrementAndGet();
             } else {
                 if (traceEnabled) {
                     LOG.trace("Scheduled time has not been reached for " + resource);
@@ -306,7 +342,7 @@ public class AvailabilityExecutor implements Runnable, Callable<AvailabilityRepo
         // Otherwise, checkAvail as needed.
         if (deferToParent || (DOWN == parentAvailType)) {
             current = parentAvailType;
-            ++scan.numDeferToParent;
+            scan.numDeferToParent.incrementAndGet();
 
             // For the DOWN parent case it's unclear to me whether we should push out the avail check time of
             // the child.  For now, we'll leave it alone and let the next check happen according to the
@@ -328,7 +364,7 @@ public class AvailabilityExecutor implements Runnable, Callable<AvailabilityRepo
                 }
 
                 try {
-                    ++scan.numGetAvailabilityCalls;
+                    scan.numGetAvailabilityCalls.incrementAndGet();
 
                     // if the component is started, ask what its current availability is as of right now;
                     // if it's not started, then assume it's down, and the next time we check,
@@ -374,7 +410,7 @@ public class AvailabilityExecutor implements Runnable, Callable<AvailabilityRepo
                 if (traceEnabled) {
                     LOG.trace("Availability changed for " + resource);
                 }
-                ++scan.numAvailabilityChanges;
+                scan.numAvailabilityChanges.incrementAndGet();
 
                 availability = this.inventoryManager.updateAvailability(resource, current);
 
@@ -396,8 +432,19 @@ public class AvailabilityExecutor implements Runnable, Callable<AvailabilityRepo
             availabilityReport.addAvailability(availability);
         }
 
+        SubtreeChecks checks = scan.checks;
+        if (checks != null) {
+            checks.addCheckTime(availabilityReport, System.nanoTime() - checkStart);
+        }
+
         for (Resource child : this.inventoryManager.getContainerChildren(resource, resourceContainer)) {
-            checkInventory(child, availabilityReport, current, isForced, scan, traceEnabled);
+            // the children of a DOWN resource are DOWN without asking them, there is no point in checking them on
+            // another thread
+            if (checks == null || DOWN == current) {
+                checkInventory(child, availabilityReport, current, isForced, scan, traceEnabled);
+            } else {
+                checks.fork(availabilityReport, child, current, isForced);
+            }
         }
 
     }
@@ -478,6 +525,229 @@ public class AvailabilityExecutor implements Runnable, Callable<AvailabilityRepo
         }
     }
 
+    /**
+     * Checks the subtrees of a scan on the availability check pool and keeps track of the reports they fill. A subtree
+     * is checked on the calling thread if there is no pool.
+     */
+    private class SubtreeChecks {
+        private final ExecutorService executor;
+        private final Scan scan;
+        private final boolean traceEnabled;
+        private final Subtree root;
+
+        // guarded by this
+        private final Map<AvailabilityReport, Subtree> subtrees = new IdentityHashMap<AvailabilityReport, Subtree>();
+        private int pending = 0;
+        private Throwable failure;
+
+        private volatile boolean cancelled = false;
+
+        SubtreeChecks(ExecutorService executor, Resource scanRoot, AvailabilityReport report, Scan scan,
+            boolean traceEnabled) {
+            this.executor = executor;
+            this.scan = scan;
+            this.traceEnabled = traceEnabled;
+            this.root = new Subtree(scanRoot, report);
+            this.subtrees.put(report, root);
+        }
+
+        /**
+         * Checks the subtree of the child of the resource that reported into the given report.
+         */
+        void fork(AvailabilityReport parentReport, Resource child, final AvailabilityType parentAvailType,
+            final boolean isForced) throws InterruptedException {
+
+            final Subtree subtree = new Subtree(child, new AvailabilityReport(parentReport.getAgentName()));
+            synchronized (this) {
+                Subtree parent = subtrees.get(parentReport);
+                if (parent == null) {
+                    throw new IllegalArgumentException("Unknown report " + parentReport + " for " + child);
+                }
+                parent.children.add(subtree);
+                subtrees.put(subtree.report, subtree);
+                if (executor != null) {
+                    ++pending;
+                }
+            }
+
+            if (executor == null) {
+                check(subtree, parentAvailType, isForced);
+                return;
+            }
+
+            try {
+                executor.execute(new Runnable() {
+                    public void run() {
+                        try {
+                            if (!cancelled) {
+                                check(subtree, parentAvailType, isForced);
+                            }
+                        } catch (InterruptedException e) {
+                            cancel();
+                        } catch (Throwable t) {
+                            fail(t);
+                        } finally {
+                            done();
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // the pool has been shut down, the scan is most likely going to be interrupted as well
+                done();
+                check(subtree, parentAvailType, isForced);
+            }
+        }
+
+        private void check(Subtree subtree, AvailabilityType parentAvailType, boolean isForced)
+            throws InterruptedException {
+            checkInventory(subtree.resource, subtree.report, parentAvailType, isForced, scan, traceEnabled);
+        }
+
+        synchronized void addCheckTime(AvailabilityReport report, long nanos) {
+            Subtree subtree = subtrees.get(report);
+            if (subtree != null) {
+                subtree.checkTime += nanos;
+                ++subtree.numResources;
+            }
+        }
+
+        synchronized void fail(Throwable t) {
+            if (failure == null) {
+                failure = t;
+            }
+            cancelled = true;
+        }
+
+        void cancel() {
+            cancelled = true;
+        }
+
+        private synchronized void done() {
+            if (--pending == 0) {
+                notifyAll();
+            }
+        }
+
+        /**
+         * Waits until all subtrees that have been forked are checked.
+         */
+        synchronized void await() throws InterruptedException {
+            while (pending > 0) {
+                wait();
+            }
+        }
+
+        synchronized Throwable getFailure() {
+            return failure;
+        }
+
+        /**
+         * Adds the availabilities that the subtrees reported to the report of the scan root, depth-first and in the
+         * order in which the children of each resource were visited.
+         */
+        synchronized void mergeReports() {
+            for (Subtree child : root.children) {
+                merge(child, root.report);
+            }
+        }
+
+        private void merge(Subtree subtree, AvailabilityReport report) {
+            for (AvailabilityReport.Datum datum : subtree.report.getResourceAvailability()) {
+                report.addAvailability(datum);
+            }
+            for (Subtree child : subtree.children) {
+                merge(child, report);
+            }
+        }
+
+        /**
+         * @return the timings of the subtrees rooted at the children of the scan root, slowest first
+         */
+        synchronized List<SubtreeTiming> getSubtreeTimings() {
+            List<SubtreeTiming> timings = new ArrayList<SubtreeTiming>(root.children.size());
+            for (Subtree child : root.children) {
+                SubtreeTiming timing = new SubtreeTiming(child.resource);
+                addTiming(child, timing);
+                timings.add(timing);
+            }
+            Collections.sort(timings, new Comparator<SubtreeTiming>() {
+                public int compare(SubtreeTiming t1, SubtreeTiming t2) {
+                    return (t1.checkTime < t2.checkTime) ? 1 : ((t1.checkTime == t2.checkTime) ? 0 : -1);
+                }
+            });
+            return timings;
+        }
+
+        private void addTiming(Subtree subtree, SubtreeTiming timing) {
+            timing.checkTime += subtree.checkTime / 1000000L;
+            timing.numResources += subtree.numResources;
+            for (Subtree child : subtree.children) {
+                addTiming(child, timing);
+            }
+        }
+    }
+
+    private static class Subtree {
+        final Resource resource;
+        final AvailabilityReport report;
+        final List<Subtree> children = new ArrayList<Subtree>();
+        long checkTime;
+        int numResources;
+
+        Subtree(Resource resource, AvailabilityReport report) {
+            this.resource = resource;
+            this.report = report;
+        }
+    }
+
+    /**
+     * The time spent checking the resources in one of the subtrees rooted at the children of the scan root, e.g., a
+     * server and its services. This is the sum of the time spent on each of the resources, which is mostly the time
+     * spent in the avail checks of the plugin components, not the time from the start to the end of the subtree.
+     */
+    public static class SubtreeTiming {
+        private final int resourceId;
+        private final String resourceName;
+        private final String plugin;
+        private long checkTime;
+        private int numResources;
+
+        SubtreeTiming(Resource resource) {
+            this.resourceId = resource.getId();
+            this.resourceName = resource.getName();
+            this.plugin = (resource.getResourceType() == null) ? null : resource.getResourceType().getPlugin();
+        }
+
+        public int getResourceId() {
+            return resourceId;
+        }
+
+        public String getResourceName() {
+            return resourceName;
+        }
+
+        public String getPlugin() {
+            return plugin;
+        }
+
+        /**
+         * @return the time spent checking the resources of the subtree in milliseconds
+         */
+        public long getCheckTime() {
+            return checkTime;
+        }
+
+        public int getNumResources() {
+            return numResources;
+        }
+
+        @Override
+        public String toString() {
+            return "SubtreeTiming [resourceId=" + resourceId + ", resourceName=" + resourceName + ", plugin=" + plugin
+                + ", checkTime=" + checkTime + ", numResources=" + numResources + "]";
+        }
+    }
+
     public static class Scan {
         private final long startTime;
         private long endTime;
@@ -486,12 +756,17 @@ public class AvailabilityExecutor implements Runnable, Callable<AvailabilityRepo
         private boolean isFull = false;
         private boolean isForced = false;
 
-        int numResources = 0;
-        int numGetAvailabilityCalls = 0;
-        int numScheduledRandomly = 0;
-        int numPushedByInterval = 0;
-        int numAvailabilityChanges = 0;
-        int numDeferToParent = 0;
+        final AtomicInteger numResources = new AtomicInteger();
+        final AtomicInteger numGetAvailabilityCalls = new AtomicInteger();
+        final AtomicInteger numScheduledRandomly = new AtomicInteger();
+        final AtomicInteger numPushedByInterval = new AtomicInteger();
+        final AtomicInteger numAvailabilityChanges = new AtomicInteger();
+        final AtomicInteger numDeferToParent = new AtomicInteger();
+
+        private List<SubtreeTiming> subtreeTimings = Collections.emptyList();
+
+        // only set while the scan is running
+        volatile SubtreeChecks checks;
 
         public Scan(long startTime, boolean isFull) {
             this.startTime = startTime;
@@ -519,6 +794,17 @@ public class AvailabilityExecutor implements Runnable, Callable<AvailabilityRepo
             return isFull;
         }
 
+        /**
+         * @return the timings of the subtrees rooted at the children of the scan root, slowest first
+         */
+        public List<SubtreeTiming> getSubtreeTimings() {
+            return subtreeTimings;
+        }
+
+        public void setSubtreeTimings(List<SubtreeTiming> subtreeTimings) {
+            this.subtreeTimings = subtreeTimings;
+        }
+
         public boolean isForced() {
             return isForced;
         }
@@ -528,27 +814,27 @@ public class AvailabilityExecutor implements Runnable, Callable<AvailabilityRepo
         }
 
         public int getNumResources() {
-            return numResources;
+            return numResources.get();
         }
 
         public int getNumGetAvailabilityCalls() {
-            return numGetAvailabilityCalls;
+            return numGetAvailabilityCalls.get();
         }
 
         public int getNumScheduledRandomly() {
-            return numScheduledRandomly;
+            return numScheduledRandomly.get();
         }
 
         public int getNumPushedByInterval() {
-            return numPushedByInterval;
+            return numPushedByInterval.get();
         }
 
         public int getNumAvailabilityChanges() {
-            return numAvailabilityChanges;
+            return numAvailabilityChanges.get();
         }
 
         public int getNumDeferToParent() {
-            return numDeferToParent;
+            return numDeferToParent.get();
         }
 
         @Override
@@ -557,7 +843,8 @@ public class AvailabilityExecutor implements Runnable, Callable<AvailabilityRepo
                 + isFull + ", isForced=" + isForced + ", numResources=" + numResources + ", numGetAvailabilityCalls="
                 + numGetAvailabilityCalls + ", numScheduledRandomly=" + numScheduledRandomly + ", numPushedByInterval="
                 + numPushedByInterval + ", numAvailabilityChanges=" + numAvailabilityChanges + ", numDeferToParent="
-                + numDeferToParent + "]";
+                + numDeferToParent + ", slowestSubtree=" + (subtreeTimings.isEmpty() ? null : subtreeTimings.get(0))
+                + "]";
         }
     }
 }
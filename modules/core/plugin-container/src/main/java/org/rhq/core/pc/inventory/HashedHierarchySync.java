@@ -0,0 +1,123 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2015 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package org.rhq.core.pc.inventory;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.rhq.core.clientapi.server.discovery.DiscoveryServerService;
+import org.rhq.core.clientapi.server.discovery.ResourceSyncHash;
+import org.rhq.core.domain.discovery.ResourceSyncInfo;
+
+/**
+ * Collects the sync info of a top level server hierarchy using the subtree hashes computed by the server. A subtree
+ * whose hash matches the local one is in sync and its sync info is taken from the local inventory. The server is
+ * called back, one hierarchy level at a time, only for the children of the resources whose subtrees differ.
+ */
+class HashedHierarchySync {
+
+    /**
+     * The local inventory the server side hashes are compared with.
+     */
+    interface LocalInventory {
+        /**
+         * @return the local subtree hash of the resource, null if the resource is not in the local inventory
+         */
+        String getSubtreeHash(String uuid);
+
+        /**
+         * Adds the sync info of the non-ignored local descendants of the resource.
+         */
+        void addDescendants(String uuid, Collection<ResourceSyncInfo> syncInfos);
+    }
+
+    private final DiscoveryServerService service;
+    private final LocalInventory localInventory;
+
+    private int inSyncSubtrees;
+    private int callbacks;
+
+    HashedHierarchySync(DiscoveryServerService service, LocalInventory localInventory) {
+        this.service = service;
+        this.localInventory = localInventory;
+    }
+
+    /**
+     * @param topLevelServer the top level server sync info, with its subtree hash
+     * @return the sync info of the whole top level server hierarchy, including the top level server itself
+     */
+    Set<ResourceSyncInfo> collect(ResourceSyncInfo topLevelServer) {
+        Set<ResourceSyncInfo> result = new LinkedHashSet<ResourceSyncInfo>();
+
+        Collection<ResourceSyncInfo> level = Collections.singleton(topLevelServer);
+        while (!level.isEmpty()) {
+            Set<Integer> differingIds = new HashSet<Integer>();
+            for (ResourceSyncInfo syncInfo : level) {
+                result.add(syncInfo);
+
+                String subtreeHash = syncInfo.getSubtreeHash();
+                if (null != subtreeHash && subtreeHash.equals(localInventory.getSubtreeHash(syncInfo.getUuid()))) {
+                    // still process the in-sync resources, so that their components get started
+                    localInventory.addDescendants(syncInfo.getUuid(), result);
+                    ++inSyncSubtrees;
+                } else if (ResourceSyncHash.isHashed(syncInfo.getInventoryStatus())) {
+                    // ignored resources get purged along with their descendants, no need to descend
+                    differingIds.add(syncInfo.getId());
+                }
+            }
+
+            if (differingIds.isEmpty()) {
+                break;
+            }
+
+            ++callbacks;
+            level = service.getChildResourceSyncInfo(differingIds);
+            if (null == level) {
+                // the server can't provide the children, fall back to the full hierarchy of the differing resources
+                for (Integer differingId : differingIds) {
+                    Collection<ResourceSyncInfo> hierarchy = service.getResourceSyncInfo(differingId);
+                    if (null != hierarchy) {
+                        result.addAll(hierarchy);
+                    }
+                }
+                break;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * @return the number of subtrees found in sync so far
+     */
+    int getInSyncSubtrees() {
+        return inSyncSubtrees;
+    }
+
+    /**
+     * @return the number of calls made to the server so far
+     */
+    int getCallbacks() {
+        return callbacks;
+    }
+}
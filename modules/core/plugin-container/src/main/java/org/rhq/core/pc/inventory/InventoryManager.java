@@ -43,6 +43,8 @@ import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -66,6 +68,7 @@ import org.rhq.core.clientapi.server.configuration.ConfigurationServerService;
 import org.rhq.core.clientapi.server.discovery.DiscoveryServerService;
 import org.rhq.core.clientapi.server.discovery.InvalidInventoryReportException;
 import org.rhq.core.clientapi.server.discovery.InventoryReport;
+import org.rhq.core.clientapi.server.discovery.ResourceSyncHash;
 import org.rhq.core.clientapi.server.discovery.StaleTypeException;
 import org.rhq.core.domain.configuration.Configuration;
 import org.rhq.core.domain.configuration.ConfigurationUtility;
@@ -163,12 +166,18 @@ public class InventoryManager extends AgentService implements ContainerService,
     private static final String INVENTORY_THREAD_POOL_NAME = "InventoryManager.discovery";
     private static final String AVAIL_THREAD_POOL_NAME = "InventoryManager.availability";
     private static final int AVAIL_THREAD_POOL_CORE_POOL_SIZE = 1;
+    private static final String AVAIL_CHECK_THREAD_POOL_NAME = "InventoryManager.availability-check";
 
     private static final int COMPONENT_START_TIMEOUT = 60 * 1000; // 60 seconds
     private static final int COMPONENT_STOP_TIMEOUT = 5 * 1000; // 5 seconds
 
     static private final int SYNC_BATCH_SIZE;
 
+    /**
+     * The number of subtrees of the resource hierarchy that an availability scan checks concurrently.
+     */
+    static private final int AVAIL_SCAN_CONCURRENCY;
+
     static {
 
         int syncBatchSize = 500;
@@ -178,12 +187,22 @@ public class InventoryManager extends AgentService implements ContainerService,
             //
         }
         SYNC_BATCH_SIZE = syncBatchSize;
+
+        int availScanConcurrency = 10;
+        try {
+            availScanConcurrency = Integer.parseInt(System.getProperty(
+                "rhq.agent.plugins.availability-scan.concurrency", "10"));
+        } catch (Throwable t) {
+            //
+        }
+        AVAIL_SCAN_CONCURRENCY = Math.max(1, availScanConcurrency);
     }
 
     private final PluginContainerConfiguration configuration;
 
     private ScheduledThreadPoolExecutor inventoryThreadPoolExecutor;
     private ScheduledThreadPoolExecutor availabilityThreadPoolExecutor;
+    private ExecutorService availabilityCheckThreadPoolExecutor;
 
     // The executors are Callable
     private final AutoDiscoveryExecutor serverScanExecutor;
@@ -303,6 +322,9 @@ public class InventoryManager extends AgentService implements ContainerService,
             // Never run more than one avail check at a time.
             availabilityThreadPoolExecutor = new ScheduledThreadPoolExecutor(AVAIL_THREAD_POOL_CORE_POOL_SIZE,
                 new LoggingThreadFactory(AVAIL_THREAD_POOL_NAME, true));
+            // The avail check runs the checks of sibling subtrees on this pool, see AvailabilityExecutor.
+            availabilityCheckThreadPoolExecutor = Executors.newFixedThreadPool(AVAIL_SCAN_CONCURRENCY,
+                new LoggingThreadFactory(AVAIL_CHECK_THREAD_POOL_NAME, true));
 
             // Never run more than one discovery scan at a time (service and service scans share the same pool).
             inventoryThreadPoolExecutor = new ScheduledThreadPoolExecutor(1, new LoggingThreadFactory(
@@ -340,6 +362,7 @@ public class InventoryManager extends AgentService implements ContainerService,
     public void shutdown() {
         PluginContainer.shutdownExecutorService(this.inventoryThreadPoolExecutor, true);
         PluginContainer.shutdownExecutorService(this.availabilityThreadPoolExecutor, true);
+        PluginContainer.shutdownExecutorService(this.availabilityCheckThreadPoolExecutor, true);
         if (this.configuration.isInsideAgent()) {
             this.persistToDisk();
         }
@@ -1266,6 +1289,7 @@ public class InventoryManager extends AgentService implements ContainerService,
             long startTime = System.currentTimeMillis();
             DiscoveryServerService discoveryServerService = configuration.getServerServices()
                 .getDiscoveryServerService();
+            report.setSubtreeHashSync(true);
             MergeInventoryReportResults results = discoveryServerService.mergeInventoryReport(report);
             if (results != null) {
                 platformSyncInfo = results.getPlatformSyncInfo();
@@ -1355,10 +1379,20 @@ public class InventoryManager extends AgentService implements ContainerService,
 
         syncInfos = null; // release to GC
 
-        // then sync the top level servers by calling back to the server for the sync info for each. We
-        // do this one at a time to avoid forcing the whole inventory into active memory at one time during the sync.
+        // then sync the top level servers. If the server provided subtree hashes only call back for the parts of the
+        // hierarchy that differ from the local inventory. Otherwise call back to the server for the sync info for each.
+        // We do this one at a time to avoid forcing the whole inventory into active memory at one time during the sync.
+        Collection<ResourceSyncInfo> topLevelServers = platformSyncInfo.getTopLevelServers();
         Collection<Integer> topLevelServerIds = platformSyncInfo.getTopLevelServerIds();
-        if (null != topLevelServerIds) {
+        if (null != topLevelServers) {
+            log.info("Sync Starting: Top Level Servers [" + platformSyncInfo.getPlatform().getId() + "]");
+            boolean serversHadSyncedResources = syncHashedResources(platformResourceSyncInfo.getId(), topLevelServers,
+                allServerSideUuids);
+            log.info("Sync Complete: Top Level Servers [" + platformSyncInfo.getPlatform().getId()
+                + "] Local inventory changed: [" + serversHadSyncedResources + "]");
+            hadSyncedResources = serversHadSyncedResources || hadSyncedResources;
+
+        } else if (null != topLevelServerIds) {
             DiscoveryServerService service = configuration.getServerServices().getDiscoveryServerService();
 
             for (Integer topLevelServerId : topLevelServerIds) {
@@ -1410,6 +1444,106 @@ public class InventoryManager extends AgentService implements ContainerService,
         }
     }
 
+    /**
+     * Syncs the top level server hierarchies using the subtree hashes computed by the server, one top level server at
+     * a time like the unhashed sync. A subtree whose hash matches the local one is in sync, its sync info is taken from
+     * the local inventory. The server is called back only for the children of the resources whose subtrees differ.
+     *
+     * @param platformId the platform id, for logging
+     * @param topLevelServers the top level server sync info, with subtree hashes
+     * @param allServerSideUuids updated with the uuids of the synced resources
+     * @return true if any resources needed synchronization, false otherwise
+     */
+    private boolean syncHashedResources(int platformId, Collection<ResourceSyncInfo> topLevelServers,
+        Set<String> allServerSideUuids) {
+        final Map<String, String> localSubtreeHashes = getLocalSubtreeHashes();
+        HashedHierarchySync hashedSync = new HashedHierarchySync(configuration.getServerServices()
+            .getDiscoveryServerService(), new HashedHierarchySync.LocalInventory() {
+            @Override
+            public String getSubtreeHash(String uuid) {
+                return localSubtreeHashes.get(uuid);
+            }
+
+            @Override
+            public void addDescendants(String uuid, Collection<ResourceSyncInfo> syncInfos) {
+                ResourceContainer container = getResourceContainer(uuid);
+                if (null != container) {
+                    addLocalDescendants(container.getResource(), syncInfos);
+                }
+            }
+        });
+
+        boolean result = false;
+        for (ResourceSyncInfo topLevelServer : topLevelServers) {
+            int callbacks = hashedSync.getCallbacks();
+            Set<ResourceSyncInfo> syncInfos = hashedSync.collect(topLevelServer);
+            addAllUuids(syncInfos, allServerSideUuids);
+            log.info("Sync Starting: Top Level Server  [" + topLevelServer.getId() + "]");
+            boolean serverHadSyncedResources = syncResources(topLevelServer.getId(), syncInfos);
+            log.info("Sync Complete: Top Level Server  [" + topLevelServer.getId() + "] Local inventory changed: ["
+                + serverHadSyncedResources + "]");
+            result = serverHadSyncedResources || result;
+
+            syncInfos = null; // release to GC
+
+            if (hashedSync.getCallbacks() > callbacks) {
+                // the server did the work of a hierarchy sync for this one, give other tasks room for breathing
+                try {
+                    Thread.sleep(800L);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug("Hash sync for platform [" + platformId + "]: [" + hashedSync.getInSyncSubtrees()
+                + "] subtrees in sync, [" + hashedSync.getCallbacks() + "] server callbacks");
+        }
+
+        return result;
+    }
+
+    /**
+     * @return the subtree hash of each resource in the local inventory, keyed on uuid
+     */
+    private Map<String, String> getLocalSubtreeHashes() {
+        final Map<String, String> result = new HashMap<String, String>();
+        this.inventoryLock.readLock().lock();
+        try {
+            if (null != this.platform) {
+                ResourceSyncHash.computeAll(this.platform, new ResourceSyncHash.Hierarchy<Resource>() {
+                    @Override
+                    public ResourceSyncInfo getSyncInfo(Resource resource) {
+                        return ResourceSyncInfo.buildResourceSyncInfo(resource);
+                    }
+
+                    @Override
+                    public Collection<Resource> getChildren(Resource resource) {
+                        return getContainerChildren(resource, getResourceContainer(resource));
+                    }
+
+                    @Override
+                    public void setSubtreeHash(Resource resource, String subtreeHash) {
+                        result.put(resource.getUuid(), subtreeHash);
+                    }
+                });
+            }
+        } finally {
+            this.inventoryLock.readLock().unlock();
+        }
+        return result;
+    }
+
+    private void addLocalDescendants(Resource resource, Collection<ResourceSyncInfo> syncInfos) {
+        for (Resource child : getContainerChildren(resource, getResourceContainer(resource))) {
+            if (ResourceSyncHash.isHashed(child.getInventoryStatus())) {
+                syncInfos.add(ResourceSyncInfo.buildResourceSyncInfo(child));
+                addLocalDescendants(child, syncInfos);
+            }
+        }
+    }
+
     private void addAllUuids(Collection<ResourceSyncInfo> syncInfos, Set<String> allServerSideUuids) {
         for (ResourceSyncInfo syncInfo : syncInfos) {
             allServerSideUuids.add(syncInfo.getUuid());
@@ -1695,6 +1829,15 @@ public class InventoryManager extends AgentService implements ContainerService,
         return platform;
     }
 
+    /**
+     * @return the pool that availability scans check subtrees of the resource hierarchy on, <code>null</code> if the
+     *         inventory manager has not been initialized, in which case the subtrees are checked sequentially
+     */
+    @Nullable
+    ExecutorService getAvailabilityCheckExecutor() {
+        return availabilityCheckThreadPoolExecutor;
+    }
+
     public Agent getAgent() {
         return this.agent;
     }
@@ -40,8 +40,9 @@ import org.rhq.core.pluginapi.measurement.MeasurementFacet;
 import org.rhq.core.util.exception.ThrowableUtil;
 
 /**
-* Executes the collection of measurements. Every call results in one new batch of measurements collected. Each batch is
-* limited to a single resource and the measurements that are due to be collected at that time.
+* Executes the collection of measurements. Every call results in the batches of measurements that are due being
+* collected. Each batch is limited to a single resource and the measurements that are due to be collected at that
+* time. Batches of different resources are collected concurrently on the threads of the collector thread pool.
 *
 * @author Greg Hinkle
 */
@@ -57,71 +58,92 @@ public class MeasurementCollectorRunner implements Callable<MeasurementReport>,
         this.measurementManager = measurementManager;
     }
 
+    /**
+     * Collects the batches that are due, if any, on the calling thread.
+     *
+     * @return the active report
+     */
     public MeasurementReport call() {
-        MeasurementReport report = null;
         try {
-            this.measurementManager.getLock().readLock().lock();
+            for (Set<ScheduledMeasurementInfo> requests : this.measurementManager.getNextScheduledSets()) {
+                collect(requests);
+            }
+        } catch (Throwable t) {
+            log.error("Failed to run measurement collection", t);
+        }
+
+        return this.measurementManager.getActiveReport();
+    }
 
-            report = this.measurementManager.getActiveReport();
+    /**
+     * Collects the given batch and adds the collected data to the active report. This is called concurrently for
+     * batches of different resources, but never for two batches of the same resource, see
+     * {@link MeasurementManager#dispatchCollection(Set)}. The time spent in the resource component is bounded by
+     * {@link MeasurementManager#FACET_METHOD_TIMEOUT}, after which the component proxy interrupts the call and the
+     * collection counts as failed.
+     *
+     * @param requests the batch, limited to a single resource
+     */
+    void collect(Set<ScheduledMeasurementInfo> requests) {
+        try {
             long start = System.currentTimeMillis();
 
             InventoryManager im = this.measurementManager.getInventoryManager();
 
-            Set<ScheduledMeasurementInfo> requests = this.measurementManager.getNextScheduledSet();
-
-            if (requests != null) {
-                ScheduledMeasurementInfo next = requests.iterator().next();
+            ScheduledMeasurementInfo next = requests.iterator().next();
 
-                if ((System.currentTimeMillis() - 30000L) > next.getNextCollection()) {
-                    this.measurementManager.incrementLateCollections(requests.size());
-                    if (log.isDebugEnabled()) {
-                        log.debug("Measurement collection is falling behind... Missed requested time by ["
-                            + (System.currentTimeMillis() - requests.iterator().next().getNextCollection()) + "ms]");
+            if ((System.currentTimeMillis() - 30000L) > next.getNextCollection()) {
+                this.measurementManager.incrementLateCollections(requests.size());
+                if (log.isDebugEnabled()) {
+                    log.debug("Measurement collection is falling behind... Missed requested time by ["
+                        + (System.currentTimeMillis() - next.getNextCollection()) + "ms]");
 
+                    synchronized (scheduleHistory) {
                         if (!scheduleHistory.isEmpty()) {
                             log.debug("The most recent measurement requests prior to this detected delay: "
                                 + scheduleHistory);
                         }
                     }
-
-                    // BZ 834019 - reschedule these requests for the future, and away from the set of requests on this schedule
-                    this.measurementManager.rescheduleLateCollections(requests);
-                    return report;
                 }
 
-                Integer resourceId = next.getResourceId();
-                ResourceContainer container = im.getResourceContainer(resourceId);
-                if (container.getResourceComponentState() != ResourceContainer.ResourceComponentState.STARTED
-                    || container.getAvailability() == null
-                    || container.getAvailability().getAvailabilityType() == AvailabilityType.DOWN) {
-                    // Don't collect metrics for resources that are down
-                    if (log.isDebugEnabled()) {
-                        log.debug("Measurements not collected for inactive resource component: "
-                            + container.getResource());
-                    }
-                } else {
-                    MeasurementFacet measurementComponent = ComponentUtil
-                        .getComponent(resourceId, MeasurementFacet.class, FacetLockType.READ,
-                            MeasurementManager.FACET_METHOD_TIMEOUT, true, true, true);
+                // BZ 834019 - reschedule these requests for the future, and away from the set of requests on this schedule
+                this.measurementManager.rescheduleLateCollections(requests);
+                return;
+            }
 
-                    if (log.isDebugEnabled()) {
-                        scheduleHistory.addRequests(requests);
-                    }
+            MeasurementReport report = new MeasurementReport();
 
-                    getValues(measurementComponent, report, requests, container.getResource());
+            Integer resourceId = next.getResourceId();
+            ResourceContainer container = im.getResourceContainer(resourceId);
+            if (container.getResourceComponentState() != ResourceContainer.ResourceComponentState.STARTED
+                || container.getAvailability() == null
+                || container.getAvailability().getAvailabilityType() == AvailabilityType.DOWN) {
+                // Don't collect metrics for resources that are down
+                if (log.isDebugEnabled()) {
+                    log.debug("Measurements not collected for inactive resource component: "
+                        + container.getResource());
                 }
+            } else {
+                MeasurementFacet measurementComponent = ComponentUtil
+                    .getComponent(resourceId, MeasurementFacet.class, FacetLockType.READ,
+                        MeasurementManager.FACET_METHOD_TIMEOUT, true, true, true);
 
-                this.measurementManager.reschedule(requests);
+                if (log.isDebugEnabled()) {
+                    synchronized (scheduleHistory) {
+                        scheduleHistory.addRequests(requests);
+                    }
+                }
 
-                report.incrementCollectionTime(System.currentTimeMillis() - start);
+                getValues(measurementComponent, report, requests, container.getResource());
             }
+
+            this.measurementManager.reschedule(requests);
+
+            report.setCollectionTime(System.currentTimeMillis() - start);
+            this.measurementManager.mergeReport(report);
         } catch (Throwable t) {
             log.error("Failed to run measurement collection", t);
-        } finally {
-            this.measurementManager.getLock().readLock().unlock();
         }
-
-        return report;
     }
 
     private void getValues(MeasurementFacet measurementComponent, MeasurementReport report,
@@ -20,15 +20,18 @@
 package org.rhq.core.pc.measurement;
 
 import java.lang.management.ManagementFactory;
+import java.util.ArrayDeque;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
-import java.util.PriorityQueue;
+import java.util.Queue;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
@@ -50,6 +53,7 @@ import org.rhq.core.domain.measurement.MeasurementReport;
 import org.rhq.core.domain.measurement.MeasurementSchedule;
 import org.rhq.core.domain.measurement.MeasurementScheduleRequest;
 import org.rhq.core.domain.measurement.NumericType;
+import org.rhq.core.domain.measurement.calltime.CallTimeData;
 import org.rhq.core.domain.measurement.ResourceMeasurementScheduleRequest;
 import org.rhq.core.domain.resource.Resource;
 import org.rhq.core.domain.resource.ResourceType;
@@ -92,18 +96,26 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
     private final ScheduledThreadPoolExecutor senderThreadPool;
 
     private final MeasurementSenderRunner measurementSenderRunner;
-    private final MeasurementCollectorRunner measurementCollectorRunner;
+    private MeasurementCollectorRunner measurementCollectorRunner;
 
     private final PluginContainerConfiguration configuration;
 
-    private final PriorityQueue<ScheduledMeasurementInfo> scheduledRequests = new PriorityQueue<ScheduledMeasurementInfo>(
-        10000);
+    private final MeasurementScheduleWheel scheduledRequests = new MeasurementScheduleWheel(
+        System.currentTimeMillis());
 
     private final InventoryManager inventoryManager;
 
-    private final Map<Integer, String> traitCache = new HashMap<Integer, String>();
+    private final Map<Integer, String> traitCache = Collections.synchronizedMap(new HashMap<Integer, String>());
 
-    private final Map<Integer, CachedValue> perMinuteCache = new HashMap<Integer, CachedValue>();
+    private final Map<Integer, CachedValue> perMinuteCache = Collections
+        .synchronizedMap(new HashMap<Integer, CachedValue>());
+
+    /**
+     * The batches that are due but have to wait for an earlier collection of the same resource to finish, keyed by
+     * resource id. There is an entry, possibly with an empty queue, for every resource with a collection in progress.
+     */
+    private final Map<Integer, Queue<Set<ScheduledMeasurementInfo>>> pendingCollections =
+        new HashMap<Integer, Queue<Set<ScheduledMeasurementInfo>>>();
 
     private volatile MeasurementReport activeReport = new MeasurementReport();
 
@@ -127,7 +139,8 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
         this.inventoryManager = inventoryManager;
 
         if (configuration.isInsideAgent()) {
-            int threadPoolSize = configuration.getMeasurementCollectionThreadPoolSize();
+            // one extra thread for the MeasurementCollectionRequester, which runs for the lifetime of the pool
+            int threadPoolSize = configuration.getMeasurementCollectionThreadPoolSize() + 1;
             collectorThreadPool = new ScheduledThreadPoolExecutor(threadPoolSize, new LoggingThreadFactory(
                 COLLECTOR_THREAD_POOL_NAME, true));
             senderThreadPool = new ScheduledThreadPoolExecutor(2, new LoggingThreadFactory(SENDER_THREAD_POOL_NAME,
@@ -176,6 +189,10 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
         LOG.info("Measurement Manager initialized.");
     }
 
+    /**
+     * Takes the batches off the schedule as they become due and hands them to the collector thread pool so that a
+     * slow resource does not hold up the collection of all the others.
+     */
     class MeasurementCollectionRequester implements Runnable {
         @Override
         public void run() {
@@ -187,8 +204,9 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
                     } else {
                         long delay = next - System.currentTimeMillis();
                         if (delay <= 0) {
-                            //                  collectorThreadPool.execute(measurementCollectorRunner);
-                            measurementCollectorRunner.call();
+                            for (Set<ScheduledMeasurementInfo> requests : getNextScheduledSets()) {
+                                dispatchCollection(requests);
+                            }
                         } else {
                             if (!collectorThreadPool.isShutdown()) {
                                 Thread.sleep(delay);
@@ -207,6 +225,108 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
         }
     }
 
+    /**
+     * Submits the collection of a batch to the collector thread pool. The collections of a single resource are run one
+     * at a time and in the order they became due; if the resource already has a collection in progress, the batch is
+     * queued and submitted once that collection is done. Batches that wait for so long that they become late are
+     * rescheduled by the {@link MeasurementCollectorRunner} like any other late collection.
+     *
+     * @param requests the batch as returned by {@link #getNextScheduledSets()}
+     */
+    void dispatchCollection(Set<ScheduledMeasurementInfo> requests) {
+        int resourceId = requests.iterator().next().getResourceId();
+        synchronized (this.pendingCollections) {
+            Queue<Set<ScheduledMeasurementInfo>> pending = this.pendingCollections.get(resourceId);
+            if (pending != null) {
+                pending.offer(requests);
+                return;
+            }
+            this.pendingCollections.put(resourceId, new ArrayDeque<Set<ScheduledMeasurementInfo>>());
+        }
+        submitCollection(resourceId, requests);
+    }
+
+    private void submitCollection(final int resourceId, final Set<ScheduledMeasurementInfo> requests) {
+        try {
+            this.collectorThreadPool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        measurementCollectorRunner.collect(requests);
+                    } finally {
+                        collectionFinished(resourceId);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // the pool has been shut down
+            synchronized (this.pendingCollections) {
+                this.pendingCollections.remove(resourceId);
+            }
+        }
+    }
+
+    private void collectionFinished(int resourceId) {
+        Set<ScheduledMeasurementInfo> next;
+        synchronized (this.pendingCollections) {
+            Queue<Set<ScheduledMeasurementInfo>> pending = this.pendingCollections.get(resourceId);
+            next = (pending != null) ? pending.poll() : null;
+            if (next == null) {
+                this.pendingCollections.remove(resourceId);
+                return;
+            }
+        }
+        submitCollection(resourceId, next);
+    }
+
+    /**
+     * This setter is here to provide a test hook
+     *
+     * @param measurementCollectorRunner A fake object that collects the dispatched batches
+     */
+    void setMeasurementCollectorRunner(MeasurementCollectorRunner measurementCollectorRunner) {
+        this.measurementCollectorRunner = measurementCollectorRunner;
+    }
+
+    /**
+     * This method is provided as a test hook.
+     *
+     * @return the number of resources with a collection in progress
+     */
+    int getCollectionsInProgress() {
+        synchronized (this.pendingCollections) {
+            return this.pendingCollections.size();
+        }
+    }
+
+    /**
+     * Adds the data collected for a single batch to the active report. The collection itself is done into a separate
+     * report so that a slow resource does not hold the read lock and delay the {@link #swapReport() swap}.
+     *
+     * @param collected the data collected for the batch
+     */
+    void mergeReport(MeasurementReport collected) {
+        this.measurementLock.readLock().lock();
+        try {
+            MeasurementReport report = this.activeReport;
+            for (MeasurementDataNumeric numeric : collected.getNumericData()) {
+                report.addData(numeric);
+            }
+            for (MeasurementDataTrait trait : collected.getTraitData()) {
+                report.addData(trait);
+            }
+            for (CallTimeData callTime : collected.getCallTimeData()) {
+                report.addData(callTime);
+            }
+            // the add methods of the report are synchronized, but incrementing the collection time is not
+            synchronized (report) {
+                report.incrementCollectionTime(collected.getCollectionTime());
+            }
+        } finally {
+            this.measurementLock.readLock().unlock();
+        }
+    }
+
     private void reschedule(Resource resource) {
         if (LOG.isDebugEnabled()) {
             LOG.debug("In Reschedule for: " + resource);
@@ -419,18 +539,24 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
 
             // Don't add it if collection is disabled for this resource
             if (info.isEnabled()) {
-                this.scheduledRequests.offer(info);
+                this.scheduledRequests.add(info);
             }
         }
     }
 
     @Override
     public synchronized void unscheduleCollection(Set<Integer> resourceIds) {
-        Iterator<ScheduledMeasurementInfo> itr = this.scheduledRequests.iterator();
-        while (itr.hasNext()) {
-            ScheduledMeasurementInfo info = itr.next();
-            if (resourceIds.contains(info.getResourceId())) {
-                itr.remove();
+        for (Integer resourceId : resourceIds) {
+            this.scheduledRequests.removeResource(resourceId);
+        }
+
+        // drop the batches waiting for a collection in progress so that they do not get rescheduled once collected
+        synchronized (this.pendingCollections) {
+            for (Integer resourceId : resourceIds) {
+                Queue<Set<ScheduledMeasurementInfo>> pending = this.pendingCollections.get(resourceId);
+                if (pending != null) {
+                    pending.clear();
+                }
             }
         }
     }
@@ -508,36 +634,18 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
     }
 
     @Override
-    public long getNextExpectedCollectionTime() {
-        ScheduledMeasurementInfo nextScheduledMeasurement = this.scheduledRequests.peek();
-        if (nextScheduledMeasurement == null) {
-            return Long.MIN_VALUE;
-        } else {
-            return nextScheduledMeasurement.getNextCollection();
-        }
+    public synchronized long getNextExpectedCollectionTime() {
+        return this.scheduledRequests.getNextDueTime();
     }
 
     /**
-     * Returns the complete set of scheduled measurement collections.
+     * Removes all the schedules that are due from the schedule. The schedules are grouped by resource and collection
+     * time, each set is a batch that can be collected with a single call to the resource component.
      *
-     * @return all measurement schedules
+     * @return the batches that are due, empty if there are none
      */
-    public synchronized Set<ScheduledMeasurementInfo> getNextScheduledSet() {
-        ScheduledMeasurementInfo first = this.scheduledRequests.peek();
-        if ((first == null) || (first.getNextCollection() > System.currentTimeMillis())) {
-            return null;
-        }
-
-        Set<ScheduledMeasurementInfo> nextScheduledSet = new HashSet<ScheduledMeasurementInfo>();
-
-        ScheduledMeasurementInfo next = this.scheduledRequests.peek();
-        while ((next != null) && (next.getResourceId() == first.getResourceId())
-            && (next.getNextCollection() == first.getNextCollection())) {
-            nextScheduledSet.add(this.scheduledRequests.poll());
-            next = this.scheduledRequests.peek();
-        }
-
-        return nextScheduledSet;
+    public synchronized List<Set<ScheduledMeasurementInfo>> getNextScheduledSets() {
+        return this.scheduledRequests.poll(System.currentTimeMillis());
     }
 
     /**
@@ -552,7 +660,7 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
         for (ScheduledMeasurementInfo scheduledMeasurement : scheduledMeasurementInfos) {
             long interval = scheduledMeasurement.getInterval();
             scheduledMeasurement.setNextCollection(scheduledMeasurement.getNextCollection() + interval);
-            this.scheduledRequests.offer(scheduledMeasurement);
+            this.scheduledRequests.add(scheduledMeasurement);
         }
     }
 
@@ -595,7 +703,7 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
             }
 
             scheduledMeasurement.setNextCollection(nextCollection);
-            this.scheduledRequests.offer(scheduledMeasurement);
+            this.scheduledRequests.add(scheduledMeasurement);
         }
     }
 
@@ -643,15 +751,17 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
     public Map<String, Object> getMeasurementScheduleInfoForResource(int resourceId) {
         Map<String, Object> results = null;
 
-        for (ScheduledMeasurementInfo info : new PriorityQueue<ScheduledMeasurementInfo>(scheduledRequests)) {
-            if (info.getResourceId() == resourceId) {
-                if (results == null) {
-                    results = new HashMap<String, Object>();
-                }
-                String scheduleId = String.valueOf(info.getScheduleId());
-                String interval = String.valueOf(info.getInterval()) + "ms";
-                results.put(scheduleId, interval);
+        Set<ScheduledMeasurementInfo> schedules;
+        synchronized (this) {
+            schedules = this.scheduledRequests.getSchedules(resourceId);
+        }
+        for (ScheduledMeasurementInfo info : schedules) {
+            if (results == null) {
+                results = new HashMap<String, Object>();
             }
+            String scheduleId = String.valueOf(info.getScheduleId());
+            String interval = String.valueOf(info.getInterval()) + "ms";
+            results.put(scheduleId, interval);
         }
 
         return results;
@@ -746,7 +856,7 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
     }
 
     @Override
-    public long getCurrentlyScheduleMeasurements() {
+    public synchronized long getCurrentlyScheduleMeasurements() {
         return this.scheduledRequests.size();
     }
 
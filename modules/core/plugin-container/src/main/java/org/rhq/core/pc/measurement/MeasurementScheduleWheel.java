@@ -0,0 +1,337 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2015 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package org.rhq.core.pc.measurement;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The collection schedule of the {@link MeasurementManager}, implemented as a hashed hierarchical timing wheel. Adding
+ * and removing a schedule is O(1) and the schedules that are due are expired a slot at a time rather than one by one.
+ * <br/><br/>
+ * The wheel advances in ticks of one second, which is well below the smallest collection interval. A schedule is due
+ * at the first tick at or after its next collection time. Level 0 has one slot per tick for the next 64 ticks, and
+ * every level above covers 64 times the range of the level below with slots that are 64 times as wide. When the
+ * wheel reaches the start of a slot on a higher level, the schedules in that slot are cascaded down to the level that
+ * now matches their distance from the current tick. With five levels the wheel covers more than 30 years, schedules
+ * further out are parked in the top level and re-inserted when it cascades.
+ * <br/><br/>
+ * Instances are <strong>not</strong> thread safe. The {@link MeasurementManager} only calls into the wheel while
+ * holding its monitor.
+ */
+class MeasurementScheduleWheel {
+
+    static final long TICK = 1000L;
+
+    private static final int WHEEL_BITS = 6;
+
+    private static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+
+    private static final int LEVELS = 5;
+
+    private static final long MAX_DELTA = (1L << (WHEEL_BITS * LEVELS)) - 1;
+
+    private final List<Set<ScheduledMeasurementInfo>> slots;
+
+    /** The schedules whose tick has passed but that have not been polled yet */
+    private final Set<ScheduledMeasurementInfo> due = new LinkedHashSet<ScheduledMeasurementInfo>();
+
+    /** The slot, or the due set, that each schedule is in */
+    private final Map<ScheduledMeasurementInfo, Set<ScheduledMeasurementInfo>> locations =
+        new HashMap<ScheduledMeasurementInfo, Set<ScheduledMeasurementInfo>>();
+
+    private final Map<Integer, Set<ScheduledMeasurementInfo>> resources =
+        new HashMap<Integer, Set<ScheduledMeasurementInfo>>();
+
+    /** The next tick to process, all earlier ticks have been expired */
+    private long currentTick;
+
+    /**
+     * @param now The current time, the wheel starts at the tick that contains it
+     */
+    MeasurementScheduleWheel(long now) {
+        currentTick = now / TICK;
+        slots = new ArrayList<Set<ScheduledMeasurementInfo>>(LEVELS * WHEEL_SIZE);
+        for (int i = 0; i < LEVELS * WHEEL_SIZE; ++i) {
+            slots.add(new HashSet<ScheduledMeasurementInfo>());
+        }
+    }
+
+    /**
+     * Adds the schedule at its next collection time, replacing an equal schedule that is already in the wheel.
+     */
+    void add(ScheduledMeasurementInfo info) {
+        remove(info);
+        Set<ScheduledMeasurementInfo> schedules = resources.get(info.getResourceId());
+        if (schedules == null) {
+            schedules = new HashSet<ScheduledMeasurementInfo>();
+            resources.put(info.getResourceId(), schedules);
+        }
+        schedules.add(info);
+        place(info);
+    }
+
+    /**
+     * @return True if the schedule was in the wheel
+     */
+    boolean remove(ScheduledMeasurementInfo info) {
+        Set<ScheduledMeasurementInfo> location = locations.remove(info);
+        if (location == null) {
+            return false;
+        }
+        location.remove(info);
+        Set<ScheduledMeasurementInfo> schedules = resources.get(info.getResourceId());
+        schedules.remove(info);
+        if (schedules.isEmpty()) {
+            resources.remove(info.getResourceId());
+        }
+        return true;
+    }
+
+    void removeResource(int resourceId) {
+        Set<ScheduledMeasurementInfo> schedules = resources.remove(resourceId);
+        if (schedules != null) {
+            for (ScheduledMeasurementInfo info : schedules) {
+                locations.remove(info).remove(info);
+            }
+        }
+    }
+
+    /**
+     * @return The schedules of the resource that are in the wheel
+     */
+    Set<ScheduledMeasurementInfo> getSchedules(int resourceId) {
+        Set<ScheduledMeasurementInfo> schedules = resources.get(resourceId);
+        if (schedules == null) {
+            return Collections.emptySet();
+        }
+        return new HashSet<ScheduledMeasurementInfo>(schedules);
+    }
+
+    int size() {
+        return locations.size();
+    }
+
+    /**
+     * @return An iterator over all schedules in no particular order, which supports removal
+     */
+    Iterator<ScheduledMeasurementInfo> iterator() {
+        final Iterator<Map.Entry<ScheduledMeasurementInfo, Set<ScheduledMeasurementInfo>>> iterator = locations
+            .entrySet().iterator();
+        return new Iterator<ScheduledMeasurementInfo>() {
+            private Map.Entry<ScheduledMeasurementInfo, Set<ScheduledMeasurementInfo>> current;
+
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public ScheduledMeasurementInfo next() {
+                current = iterator.next();
+                return current.getKey();
+            }
+
+            @Override
+            public void remove() {
+                iterator.remove();
+                ScheduledMeasurementInfo info = current.getKey();
+                current.getValue().remove(info);
+                Set<ScheduledMeasurementInfo> schedules = resources.get(info.getResourceId());
+                schedules.remove(info);
+                if (schedules.isEmpty()) {
+                    resources.remove(info.getResourceId());
+                }
+            }
+        };
+    }
+
+    /**
+     * Removes all schedules that are due at the given time. The schedules are grouped into batches of the same
+     * resource and the same next collection time, i.e., the schedules that can be collected with a single call to the
+     * resource component.
+     *
+     * @return The batches in the order in which they became due, empty if nothing is due
+     */
+    List<Set<ScheduledMeasurementInfo>> poll(long now) {
+        advance(now / TICK);
+        if (due.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        Map<BatchKey, Set<ScheduledMeasurementInfo>> batches =
+            new LinkedHashMap<BatchKey, Set<ScheduledMeasurementInfo>>();
+        for (ScheduledMeasurementInfo info : due) {
+            BatchKey key = new BatchKey(info.getResourceId(), info.getNextCollection());
+            Set<ScheduledMeasurementInfo> batch = batches.get(key);
+            if (batch == null) {
+                batch = new HashSet<ScheduledMeasurementInfo>();
+                batches.put(key, batch);
+            }
+            batch.add(info);
+
+            locations.remove(info);
+            Set<ScheduledMeasurementInfo> schedules = resources.get(info.getResourceId());
+            schedules.remove(info);
+            if (schedules.isEmpty()) {
+                resources.remove(info.getResourceId());
+            }
+        }
+        due.clear();
+
+        return new ArrayList<Set<ScheduledMeasurementInfo>>(batches.values());
+    }
+
+    /**
+     * @return The time at which the next schedule is due or a time before that if the next schedule is still on a
+     * higher level of the wheel, {@link Long#MIN_VALUE} if the wheel is empty
+     */
+    long getNextDueTime() {
+        if (locations.isEmpty()) {
+            return Long.MIN_VALUE;
+        }
+        if (!due.isEmpty()) {
+            long next = Long.MAX_VALUE;
+            for (ScheduledMeasurementInfo info : due) {
+                next = Math.min(next, info.getNextCollection());
+            }
+            return next;
+        }
+
+        long next = Long.MAX_VALUE;
+        for (int i = 0; i < WHEEL_SIZE; ++i) {
+            long tick = currentTick + i;
+            if (!slot(0, tick).isEmpty()) {
+                next = tick * TICK;
+                break;
+            }
+        }
+        for (int level = 1; level < LEVELS; ++level) {
+            int shift = WHEEL_BITS * level;
+            for (int i = 0; i < WHEEL_SIZE; ++i) {
+                long slotStart = ((currentTick >> shift) + i) << shift;
+                if (slotStart < currentTick) {
+                    // the slot of the current tick has already been cascaded, it can only hold schedules that are a
+                    // full rotation ahead
+                    slotStart += (long) WHEEL_SIZE << shift;
+                } else if (slotStart * TICK >= next) {
+                    break;
+                }
+                if (slotStart * TICK < next && !slot(level, slotStart).isEmpty()) {
+                    next = slotStart * TICK;
+                }
+            }
+        }
+        return next;
+    }
+
+    private void advance(long nowTick) {
+        while (currentTick <= nowTick) {
+            for (int level = 1; level < LEVELS; ++level) {
+                int shift = WHEEL_BITS * level;
+                if ((currentTick & ((1L << shift) - 1)) != 0) {
+                    break;
+                }
+                Set<ScheduledMeasurementInfo> slot = slot(level, currentTick);
+                if (!slot.isEmpty()) {
+                    List<ScheduledMeasurementInfo> cascaded = new ArrayList<ScheduledMeasurementInfo>(slot);
+                    slot.clear();
+                    for (ScheduledMeasurementInfo info : cascaded) {
+                        place(info);
+                    }
+                }
+            }
+
+            Set<ScheduledMeasurementInfo> slot = slot(0, currentTick);
+            if (!slot.isEmpty()) {
+                for (ScheduledMeasurementInfo info : slot) {
+                    due.add(info);
+                    locations.put(info, due);
+                }
+                slot.clear();
+            }
+            ++currentTick;
+        }
+    }
+
+    private void place(ScheduledMeasurementInfo info) {
+        // round up so that a schedule never becomes due before its next collection time
+        long tick = (info.getNextCollection() + TICK - 1) / TICK;
+        long delta = tick - currentTick;
+        Set<ScheduledMeasurementInfo> location;
+        if (delta < 0) {
+            location = due;
+        } else {
+            if (delta > MAX_DELTA) {
+                delta = MAX_DELTA;
+                tick = currentTick + MAX_DELTA;
+            }
+            int level = 0;
+            while (delta >= (1L << (WHEEL_BITS * (level + 1)))) {
+                ++level;
+            }
+            location = slot(level, tick);
+        }
+        location.add(info);
+        locations.put(info, location);
+    }
+
+    private Set<ScheduledMeasurementInfo> slot(int level, long tick) {
+        return slots.get(level * WHEEL_SIZE + (int) ((tick >> (WHEEL_BITS * level)) & WHEEL_MASK));
+    }
+
+    private static class BatchKey {
+
+        final int resourceId;
+
+        final long nextCollection;
+
+        BatchKey(int resourceId, long nextCollection) {
+            this.resourceId = resourceId;
+            this.nextCollection = nextCollection;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            BatchKey that = (BatchKey) o;
+
+            return resourceId == that.resourceId && nextCollection == that.nextCollection;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * resourceId + (int) (nextCollection ^ (nextCollection >>> 32));
+        }
+    }
+
+}
@@ -41,6 +41,8 @@ import java.io.File;
 import java.io.FileReader;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.testng.annotations.BeforeMethod;
@@ -1048,6 +1050,57 @@ public class DriftDetectorTest extends DriftTest {
             coverageChangeSet);
     }
 
+    @Test
+    public void computeDigestsOnThreadPool() throws Exception {
+        ExecutorService digestPool = Executors.newFixedThreadPool(3);
+        try {
+            // more files than fit in the digest window so that the pipeline has to drain while scanning
+            detector = new DriftDetector(scheduleQueue, changeSetMgr, driftClient, digestPool);
+            DriftDefinition def = driftDefinition("digest-pool-test", resourceDir.getAbsolutePath());
+
+            List<File> files = new ArrayList<File>();
+            for (int i = 0; i < 3; ++i) {
+                File dir = mkdir(resourceDir, "dir-" + i);
+                for (int j = 0; j < DriftDetector.DIGEST_WINDOW / 2; ++j) {
+                    files.add(createRandomFile(dir, "file-" + j + ".txt"));
+                }
+            }
+
+            scheduleQueue.addSchedule(new DriftDetectionSchedule(resourceId(), def));
+            detector.run();
+
+            List<FileEntry> coverageEntries = new ArrayList<FileEntry>();
+            for (File file : files) {
+                coverageEntries.add(addedFileEntry(relativePath(file), sha256(file), file.lastModified(),
+                    file.length()));
+            }
+            assertHeaderEquals(changeSet(def.getName(), COVERAGE), createHeaders(def, COVERAGE));
+            assertFileEntriesMatch("Every file should be included with its digest when digests are computed on a "
+                + "thread pool", coverageEntries, changeSet(def.getName(), COVERAGE));
+
+            // change one file and verify that only that file is reported as drift
+            File modified = files.get(files.size() / 2);
+            String oldHash = sha256(modified);
+            modified.delete();
+            modified = createRandomFile(modified.getParentFile(), modified.getName(), 48);
+
+            scheduleQueue.addSchedule(new DriftDetectionSchedule(resourceId(), def));
+            detector.run();
+
+            File driftChangeSet = changeSet(def.getName(), DRIFT);
+            assertTrue(driftChangeSet.exists(), "Expected to find drift change set " + driftChangeSet.getPath());
+            assertFileEntriesMatch("Only the modified file should be reported as drift", asList(changedFileEntry(
+                relativePath(modified), oldHash, sha256(modified), modified.lastModified(), modified.length())),
+                driftChangeSet);
+        } finally {
+            digestPool.shutdownNow();
+        }
+    }
+
+    private String relativePath(File file) {
+        return file.getParentFile().getName() + "/" + file.getName();
+    }
+
     private void assertHeaderEquals(File changeSet, Headers expected) throws Exception {
         ChangeSetReader reader = new ChangeSetReaderImpl(new BufferedReader(new FileReader(changeSet)));
         Headers actual = reader.getHeaders();
@@ -0,0 +1,174 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2015 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+package org.rhq.core.pc.inventory;
+
+import static org.rhq.core.domain.measurement.AvailabilityType.DOWN;
+import static org.rhq.core.domain.measurement.AvailabilityType.UP;
+import static org.testng.AssertJUnit.assertEquals;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.mockito.Matchers;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import org.rhq.core.domain.discovery.AvailabilityReport;
+import org.rhq.core.domain.measurement.Availability;
+import org.rhq.core.domain.measurement.AvailabilityType;
+import org.rhq.core.domain.resource.InventoryStatus;
+import org.rhq.core.domain.resource.Resource;
+import org.rhq.core.pc.inventory.ResourceContainer.ResourceComponentState;
+import org.rhq.core.pc.inventory.ResourceContainer.SynchronizationState;
+import org.rhq.core.pluginapi.availability.AvailabilityFacet;
+
+@Test
+public class AvailabilityExecutorTest {
+
+    private ExecutorService executor;
+
+    private InventoryManager inventoryManager;
+
+    private Map<Integer, AvailabilityFacet> proxies;
+
+    private Resource platform;
+
+    @BeforeMethod
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(4);
+        inventoryManager = Mockito.mock(InventoryManager.class);
+        proxies = new HashMap<Integer, AvailabilityFacet>();
+
+        Mockito.when(inventoryManager.updateAvailability(Matchers.any(Resource.class),
+            Matchers.any(AvailabilityType.class))).thenAnswer(new Answer<Availability>() {
+            public Availability answer(InvocationOnMock invocation) throws Throwable {
+                return new Availability((Resource) invocation.getArguments()[0],
+                    (AvailabilityType) invocation.getArguments()[1]);
+            }
+        });
+        Mockito.when(inventoryManager.getContainerChildren(Matchers.any(Resource.class),
+            Matchers.any(ResourceContainer.class))).thenAnswer(new Answer<Object>() {
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                return ((Resource) invocation.getArguments()[0]).getChildResources();
+            }
+        });
+
+        // a platform with three servers that have two services each
+        platform = createResource(1, null, UP, 0);
+        for (int i = 0; i < 3; ++i) {
+            int serverId = 10 * (i + 1);
+            Resource server = createResource(serverId, platform, (i == 2) ? DOWN : UP, (i == 0) ? 200 : 0);
+            createResource(serverId + 1, server, UP, 0);
+            createResource(serverId + 2, server, UP, 0);
+        }
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    public void reportDoesNotDependOnConcurrency() {
+        Mockito.when(inventoryManager.getAvailabilityCheckExecutor()).thenReturn(null);
+        AvailabilityReport sequential = scan();
+
+        Mockito.when(inventoryManager.getAvailabilityCheckExecutor()).thenReturn(executor);
+        AvailabilityExecutor availabilityExecutor = new AvailabilityExecutor(inventoryManager);
+        AvailabilityReport concurrent = new AvailabilityReport(false, "test");
+        availabilityExecutor.startScan(platform, concurrent, false);
+
+        assertEquals(toString(sequential), toString(concurrent));
+        assertEquals(10, concurrent.getResourceAvailability().size());
+
+        AvailabilityExecutor.Scan scan = availabilityExecutor.getMostRecentScanHistory();
+        assertEquals(10, scan.getNumResources());
+        assertEquals(3, scan.getSubtreeTimings().size());
+        assertEquals("The subtree with the slow server should be the slowest", 10, scan.getSubtreeTimings().get(0)
+            .getResourceId());
+        assertEquals(3, scan.getSubtreeTimings().get(0).getNumResources());
+    }
+
+    public void childrenOfDownResourcesAreNotChecked() {
+        Mockito.when(inventoryManager.getAvailabilityCheckExecutor()).thenReturn(executor);
+        AvailabilityReport report = scan();
+
+        for (AvailabilityReport.Datum datum : report.getResourceAvailability()) {
+            if (datum.getResourceId() / 10 == 3) {
+                assertEquals(DOWN, datum.getAvailabilityType());
+            }
+        }
+        Mockito.verify(proxies.get(31), Mockito.never()).getAvailability();
+        Mockito.verify(proxies.get(32), Mockito.never()).getAvailability();
+        Mockito.verify(proxies.get(21)).getAvailability();
+    }
+
+    private AvailabilityReport scan() {
+        AvailabilityReport report = new AvailabilityReport(false, "test");
+        new AvailabilityExecutor(inventoryManager).startScan(platform, report, false);
+        return report;
+    }
+
+    private String toString(AvailabilityReport report) {
+        List<String> availabilities = new ArrayList<String>();
+        for (AvailabilityReport.Datum datum : report.getResourceAvailability()) {
+            availabilities.add(datum.getResourceId() + "=" + datum.getAvailabilityType());
+        }
+        return availabilities.toString();
+    }
+
+    private Resource createResource(int id, Resource parent, final AvailabilityType availabilityType,
+        final long checkTime) {
+        Resource resource = new Resource(id);
+        resource.setUuid("uuid-" + id);
+        resource.setName("resource-" + id);
+        resource.setInventoryStatus(InventoryStatus.COMMITTED);
+        if (parent != null) {
+            parent.addChildResource(resource);
+        }
+
+        AvailabilityFacet proxy = Mockito.mock(AvailabilityFacet.class);
+        Mockito.when(proxy.getAvailability()).thenAnswer(new Answer<AvailabilityType>() {
+            public AvailabilityType answer(InvocationOnMock invocation) throws Throwable {
+                if (checkTime > 0) {
+                    Thread.sleep(checkTime);
+                }
+                return availabilityType;
+            }
+        });
+        proxies.put(id, proxy);
+
+        ResourceContainer container = Mockito.mock(ResourceContainer.class);
+        Mockito.when(container.getResource()).thenReturn(resource);
+        Mockito.when(container.getSynchronizationState()).thenReturn(SynchronizationState.SYNCHRONIZED);
+        Mockito.when(container.getResourceComponentState()).thenReturn(ResourceComponentState.STARTED);
+        Mockito.when(container.getAvailabilityProxy()).thenReturn(proxy);
+        Mockito.when(inventoryManager.getResourceContainer(id)).thenReturn(container);
+
+        return resource;
+    }
+
+}
@@ -0,0 +1,265 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2015 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package org.rhq.core.pc.inventory;
+
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anySetOf;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import org.rhq.core.clientapi.server.discovery.DiscoveryServerService;
+import org.rhq.core.clientapi.server.discovery.ResourceSyncHash;
+import org.rhq.core.domain.discovery.ResourceSyncInfo;
+import org.rhq.core.domain.resource.InventoryStatus;
+import org.rhq.core.domain.resource.Resource;
+
+@Test
+public class HashedHierarchySyncTest {
+
+    private Resource server;
+    private Resource childA;
+    private Resource childB;
+    private Resource childA1;
+
+    private DiscoveryServerService service;
+
+    private Map<Integer, List<ResourceSyncInfo>> serverChildren;
+
+    private Map<String, String> localHashes;
+
+    private Map<String, Resource> localResources;
+
+    @BeforeMethod
+    public void setUp() {
+        // server(1) -> a(2) -> a1(4), a2(5)
+        //           -> b(3) -> b1(6)
+        server = resource(1);
+        childA = resource(2);
+        childB = resource(3);
+        childA1 = resource(4);
+        server.addChildResource(childA);
+        server.addChildResource(childB);
+        childA.addChildResource(childA1);
+        childA.addChildResource(resource(5));
+        childB.addChildResource(resource(6));
+
+        service = mock(DiscoveryServerService.class);
+        when(service.getChildResourceSyncInfo(anySetOf(Integer.class))).thenAnswer(
+            new Answer<Collection<ResourceSyncInfo>>() {
+                @Override
+                @SuppressWarnings("unchecked")
+                public Collection<ResourceSyncInfo> answer(InvocationOnMock invocation) {
+                    List<ResourceSyncInfo> result = new ArrayList<ResourceSyncInfo>();
+                    for (Integer parentId : (Set<Integer>) invocation.getArguments()[0]) {
+                        result.addAll(serverChildren.get(parentId));
+                    }
+                    return result;
+                }
+            });
+    }
+
+    public void testInSyncHierarchyNeedsNoCallback() {
+        ResourceSyncInfo topLevelServer = hashOnServer();
+        hashOnAgent();
+
+        HashedHierarchySync sync = new HashedHierarchySync(service, localInventory());
+        Set<ResourceSyncInfo> syncInfos = sync.collect(topLevelServer);
+
+        assertEquals(uuids(syncInfos), uuids(1, 2, 3, 4, 5, 6), "Expected the sync info from the local inventory");
+        assertEquals(sync.getCallbacks(), 0);
+        assertEquals(sync.getInSyncSubtrees(), 1);
+        verify(service, never()).getChildResourceSyncInfo(anySetOf(Integer.class));
+    }
+
+    public void testDescendOnlyIntoDifferingSubtrees() {
+        ResourceSyncInfo topLevelServer = hashOnServer();
+        childA1.setMtime(200L);
+        hashOnAgent();
+
+        HashedHierarchySync sync = new HashedHierarchySync(service, localInventory());
+        Set<ResourceSyncInfo> syncInfos = sync.collect(topLevelServer);
+
+        assertEquals(uuids(syncInfos), uuids(1, 2, 3, 4, 5, 6));
+        // one callback per level down to the modified leaf, whose (empty) children are asked for too
+        assertEquals(sync.getCallbacks(), 3);
+        verify(service).getChildResourceSyncInfo(Collections.singleton(1));
+        verify(service).getChildResourceSyncInfo(Collections.singleton(2));
+        verify(service).getChildResourceSyncInfo(Collections.singleton(4));
+        verify(service, never()).getChildResourceSyncInfo(Collections.singleton(3));
+        // b and a2 are in sync
+        assertEquals(sync.getInSyncSubtrees(), 2);
+    }
+
+    public void testDoNotDescendIntoIgnoredResources() {
+        childB.setInventoryStatus(InventoryStatus.IGNORED);
+        ResourceSyncInfo topLevelServer = hashOnServer();
+        // the agent does not keep ignored resources
+        server.removeChildResource(childB);
+        childA1.setMtime(200L);
+        hashOnAgent();
+
+        HashedHierarchySync sync = new HashedHierarchySync(service, localInventory());
+        Set<ResourceSyncInfo> syncInfos = sync.collect(topLevelServer);
+
+        // the ignored resource is reported so that it gets purged, its children are not
+        assertEquals(uuids(syncInfos), uuids(1, 2, 3, 4, 5));
+        verify(service, never()).getChildResourceSyncInfo(Collections.singleton(3));
+    }
+
+    public void testFallBackToTheHierarchyIfTheServerCannotProvideChildren() {
+        ResourceSyncInfo topLevelServer = hashOnServer();
+        childA1.setMtime(200L);
+        hashOnAgent();
+        when(service.getChildResourceSyncInfo(anySetOf(Integer.class))).thenReturn(null);
+        List<ResourceSyncInfo> hierarchy = new ArrayList<ResourceSyncInfo>();
+        for (int id = 1; id <= 6; ++id) {
+            hierarchy.add(new ResourceSyncInfo(id, "uuid-" + id, 100L, InventoryStatus.COMMITTED));
+        }
+        when(service.getResourceSyncInfo(anyInt())).thenReturn(hierarchy);
+
+        HashedHierarchySync sync = new HashedHierarchySync(service, localInventory());
+        Set<ResourceSyncInfo> syncInfos = sync.collect(topLevelServer);
+
+        assertEquals(uuids(syncInfos), uuids(1, 2, 3, 4, 5, 6));
+        verify(service).getResourceSyncInfo(1);
+    }
+
+    /**
+     * Hashes the current resource tree the way the server does it, from flat sync info.
+     *
+     * @return the top level server sync info
+     */
+    private ResourceSyncInfo hashOnServer() {
+        serverChildren = new HashMap<Integer, List<ResourceSyncInfo>>();
+        ResourceSyncInfo result = toServerSyncInfo(server);
+        ResourceSyncHash.computeAll(result, new ResourceSyncHash.Hierarchy<ResourceSyncInfo>() {
+            @Override
+            public ResourceSyncInfo getSyncInfo(ResourceSyncInfo resource) {
+                return resource;
+            }
+
+            @Override
+            public Collection<ResourceSyncInfo> getChildren(ResourceSyncInfo resource) {
+                return serverChildren.get(resource.getId());
+            }
+
+            @Override
+            public void setSubtreeHash(ResourceSyncInfo resource, String subtreeHash) {
+                resource.setSubtreeHash(subtreeHash);
+            }
+        });
+        return result;
+    }
+
+    private ResourceSyncInfo toServerSyncInfo(Resource resource) {
+        List<ResourceSyncInfo> children = new ArrayList<ResourceSyncInfo>();
+        for (Resource child : resource.getChildResources()) {
+            children.add(toServerSyncInfo(child));
+        }
+        serverChildren.put(resource.getId(), children);
+        return new ResourceSyncInfo(resource.getId(), resource.getUuid(), resource.getMtime(),
+            resource.getInventoryStatus());
+    }
+
+    private void hashOnAgent() {
+        localHashes = new HashMap<String, String>();
+        localResources = new HashMap<String, Resource>();
+        ResourceSyncHash.computeAll(server, new ResourceSyncHash.Hierarchy<Resource>() {
+            @Override
+            public ResourceSyncInfo getSyncInfo(Resource resource) {
+                return ResourceSyncInfo.buildResourceSyncInfo(resource);
+            }
+
+            @Override
+            public Collection<Resource> getChildren(Resource resource) {
+                return resource.getChildResources();
+            }
+
+            @Override
+            public void setSubtreeHash(Resource resource, String subtreeHash) {
+                localHashes.put(resource.getUuid(), subtreeHash);
+                localResources.put(resource.getUuid(), resource);
+            }
+        });
+    }
+
+    private HashedHierarchySync.LocalInventory localInventory() {
+        return new HashedHierarchySync.LocalInventory() {
+            @Override
+            public String getSubtreeHash(String uuid) {
+                return localHashes.get(uuid);
+            }
+
+            @Override
+            public void addDescendants(String uuid, Collection<ResourceSyncInfo> syncInfos) {
+                addDescendants(localResources.get(uuid), syncInfos);
+            }
+
+            private void addDescendants(Resource resource, Collection<ResourceSyncInfo> syncInfos) {
+                for (Resource child : resource.getChildResources()) {
+                    syncInfos.add(ResourceSyncInfo.buildResourceSyncInfo(child));
+                    addDescendants(child, syncInfos);
+                }
+            }
+        };
+    }
+
+    private static Resource resource(int id) {
+        Resource result = new Resource(id);
+        result.setUuid("uuid-" + id);
+        result.setMtime(100L);
+        result.setInventoryStatus(InventoryStatus.COMMITTED);
+        return result;
+    }
+
+    private static Set<String> uuids(Collection<ResourceSyncInfo> syncInfos) {
+        Set<String> result = new HashSet<String>();
+        for (ResourceSyncInfo syncInfo : syncInfos) {
+            result.add(syncInfo.getUuid());
+        }
+        return result;
+    }
+
+    private static Set<String> uuids(Integer... ids) {
+        Set<String> result = new HashSet<String>();
+        for (Integer id : Arrays.asList(ids)) {
+            result.add("uuid-" + id);
+        }
+        return result;
+    }
+}
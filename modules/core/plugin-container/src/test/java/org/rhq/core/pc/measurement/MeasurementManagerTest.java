@@ -0,0 +1,289 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2015 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package org.rhq.core.pc.measurement;
+
+import static java.util.Arrays.asList;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import org.rhq.core.domain.measurement.DataType;
+import org.rhq.core.domain.measurement.MeasurementScheduleRequest;
+import org.rhq.core.pc.PluginContainerConfiguration;
+
+/**
+ * Tests how {@link MeasurementManager#dispatchCollection(Set)} runs the collections of a resource one at a time, with
+ * a collector runner that only records the batches it is given.
+ */
+@Test
+public class MeasurementManagerTest {
+
+    private static final long MINUTE = 60 * 1000L;
+
+    private MeasurementManager manager;
+
+    private RecordingCollectorRunner runner;
+
+    @BeforeMethod
+    public void setUp() {
+        PluginContainerConfiguration configuration = new PluginContainerConfiguration();
+        configuration.setInsideAgent(true);
+        configuration.setStartManagementBean(false);
+        configuration.setMeasurementCollectionThreadPoolSize(4);
+
+        manager = new MeasurementManager(configuration, null, null);
+        runner = new RecordingCollectorRunner(manager);
+        manager.setMeasurementCollectorRunner(runner);
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        runner.releaseAll();
+        manager.shutdown();
+    }
+
+    public void testCollectTheBatchesOfAResourceInDispatchOrder() throws Exception {
+        runner.block(1);
+
+        manager.dispatchCollection(batch(10, 1));
+        assertTrue(runner.awaitStarted(1), "The first collection did not start");
+        manager.dispatchCollection(batch(10, 2));
+        manager.dispatchCollection(batch(10, 3));
+        manager.dispatchCollection(batch(20, 4));
+
+        // the other resource is not held back by the collection in progress
+        waitFor(runner.started(4), "Expected the collection of the other resource to run");
+        assertEquals(runner.collected(10), asList(1));
+        assertEquals(manager.getCollectionsInProgress(), 1);
+
+        runner.release(1);
+        waitForCollections();
+
+        assertEquals(runner.collected(10), asList(1, 2, 3));
+        assertEquals(runner.collected(20), asList(4));
+    }
+
+    public void testRunOverlappingCollectionsOfAResourceOneAtATime() throws Exception {
+        runner.setCollectionTime(5);
+
+        List<Integer> expected10 = new ArrayList<Integer>();
+        List<Integer> expected20 = new ArrayList<Integer>();
+        for (int i = 0; i < 20; ++i) {
+            manager.dispatchCollection(batch(10, 100 + i));
+            expected10.add(100 + i);
+            manager.dispatchCollection(batch(20, 200 + i));
+            expected20.add(200 + i);
+        }
+        waitForCollections();
+
+        assertEquals(runner.collected(10), expected10);
+        assertEquals(runner.collected(20), expected20);
+        assertEquals(runner.getMaxConcurrentPerResource(), 1, "Expected one collection at a time per resource");
+    }
+
+    public void testCleanUpAfterATimedOutCollection() throws Exception {
+        // the component proxy interrupts a collection that takes too long, which fails it
+        runner.block(1);
+        runner.fail(1);
+
+        manager.dispatchCollection(batch(10, 1));
+        assertTrue(runner.awaitStarted(1), "The first collection did not start");
+        manager.dispatchCollection(batch(10, 2));
+
+        runner.release(1);
+        waitForCollections();
+        assertEquals(runner.collected(10), asList(1, 2), "Expected the queued batch to run after the failure");
+
+        // nothing is left behind that would hold back the next collection
+        manager.dispatchCollection(batch(10, 3));
+        waitForCollections();
+        assertEquals(runner.collected(10), asList(1, 2, 3));
+    }
+
+    public void testDropTheQueuedBatchesOfAnUnscheduledResource() throws Exception {
+        runner.block(1);
+
+        manager.dispatchCollection(batch(10, 1));
+        assertTrue(runner.awaitStarted(1), "The first collection did not start");
+        manager.dispatchCollection(batch(10, 2));
+        manager.unscheduleCollection(Collections.singleton(10));
+
+        runner.release(1);
+        waitForCollections();
+
+        assertEquals(runner.collected(10), asList(1));
+    }
+
+    public void testCleanUpWhenThePoolIsShutDown() {
+        manager.shutdown();
+
+        manager.dispatchCollection(batch(10, 1));
+
+        assertEquals(manager.getCollectionsInProgress(), 0);
+        assertTrue(runner.collected(10).isEmpty());
+    }
+
+    private void waitForCollections() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (manager.getCollectionsInProgress() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(manager.getCollectionsInProgress(), 0, "Expected all collections to be done");
+    }
+
+    private static void waitFor(CountDownLatch latch, String message) throws InterruptedException {
+        assertTrue(latch.await(10, TimeUnit.SECONDS), message);
+    }
+
+    private static Set<ScheduledMeasurementInfo> batch(int resourceId, int scheduleId) {
+        ScheduledMeasurementInfo info = new ScheduledMeasurementInfo(new MeasurementScheduleRequest(scheduleId,
+            "metric" + scheduleId, MINUTE, true, DataType.MEASUREMENT), resourceId);
+        info.setNextCollection(System.currentTimeMillis());
+        return Collections.singleton(info);
+    }
+
+    /**
+     * Records the schedules it is asked to collect, per resource and in the order the collections start. A collection
+     * can be held until it is released and can be made to fail.
+     */
+    private static class RecordingCollectorRunner extends MeasurementCollectorRunner {
+
+        private final Map<Integer, List<Integer>> collected = new ConcurrentHashMap<Integer, List<Integer>>();
+
+        private final Map<Integer, CountDownLatch> started = new ConcurrentHashMap<Integer, CountDownLatch>();
+
+        private final Map<Integer, CountDownLatch> blocked = new ConcurrentHashMap<Integer, CountDownLatch>();
+
+        private final Set<Integer> failing = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+
+        private final Map<Integer, AtomicInteger> running = new ConcurrentHashMap<Integer, AtomicInteger>();
+
+        private final AtomicInteger maxConcurrentPerResource = new AtomicInteger();
+
+        private volatile long collectionTime;
+
+        RecordingCollectorRunner(MeasurementManager measurementManager) {
+            super(measurementManager);
+        }
+
+        @Override
+        void collect(Set<ScheduledMeasurementInfo> requests) {
+            ScheduledMeasurementInfo info = requests.iterator().next();
+            int resourceId = info.getResourceId();
+            int scheduleId = info.getScheduleId();
+
+            int concurrent = running(resourceId).incrementAndGet();
+            try {
+                synchronized (maxConcurrentPerResource) {
+                    if (concurrent > maxConcurrentPerResource.get()) {
+                        maxConcurrentPerResource.set(concurrent);
+                    }
+                }
+                collected(resourceId).add(scheduleId);
+                started(scheduleId).countDown();
+
+                CountDownLatch latch = blocked.get(scheduleId);
+                if (latch != null) {
+                    latch.await(10, TimeUnit.SECONDS);
+                }
+                if (collectionTime > 0) {
+                    Thread.sleep(collectionTime);
+                }
+                if (failing.contains(scheduleId)) {
+                    throw new RuntimeException("Call to getValues timed out");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                running(resourceId).decrementAndGet();
+            }
+        }
+
+        void block(int scheduleId) {
+            blocked.put(scheduleId, new CountDownLatch(1));
+        }
+
+        void release(int scheduleId) {
+            blocked.get(scheduleId).countDown();
+        }
+
+        void releaseAll() {
+            for (CountDownLatch latch : blocked.values()) {
+                latch.countDown();
+            }
+        }
+
+        void fail(int scheduleId) {
+            failing.add(scheduleId);
+        }
+
+        void setCollectionTime(long collectionTime) {
+            this.collectionTime = collectionTime;
+        }
+
+        boolean awaitStarted(int scheduleId) throws InterruptedException {
+            return started(scheduleId).await(10, TimeUnit.SECONDS);
+        }
+
+        synchronized CountDownLatch started(int scheduleId) {
+            CountDownLatch latch = started.get(scheduleId);
+            if (latch == null) {
+                latch = new CountDownLatch(1);
+                started.put(scheduleId, latch);
+            }
+            return latch;
+        }
+
+        synchronized List<Integer> collected(int resourceId) {
+            List<Integer> result = collected.get(resourceId);
+            if (result == null) {
+                result = Collections.synchronizedList(new ArrayList<Integer>());
+                collected.put(resourceId, result);
+            }
+            return result;
+        }
+
+        int getMaxConcurrentPerResource() {
+            return maxConcurrentPerResource.get();
+        }
+
+        private synchronized AtomicInteger running(int resourceId) {
+            AtomicInteger result = running.get(resourceId);
+            if (result == null) {
+                result = new AtomicInteger();
+                running.put(resourceId, result);
+            }
+            return result;
+        }
+    }
+}
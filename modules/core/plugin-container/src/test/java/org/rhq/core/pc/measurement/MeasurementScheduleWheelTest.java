@@ -0,0 +1,113 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2015 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package org.rhq.core.pc.measurement;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Set;
+
+import org.testng.annotations.Test;
+
+import org.rhq.core.domain.measurement.DataType;
+import org.rhq.core.domain.measurement.MeasurementScheduleRequest;
+
+@Test
+public class MeasurementScheduleWheelTest {
+
+    private static final long START = 1420070400000L;
+
+    private static final long MINUTE = 60 * 1000L;
+
+    public void drainDueSchedulesOfAllResourcesInOnePass() {
+        MeasurementScheduleWheel wheel = new MeasurementScheduleWheel(START);
+        wheel.add(schedule(1, 1, START + MINUTE));
+        wheel.add(schedule(1, 2, START + MINUTE));
+        wheel.add(schedule(2, 3, START + MINUTE));
+        wheel.add(schedule(3, 4, START + 10 * MINUTE));
+
+        assertTrue(wheel.poll(START + MINUTE - 1).isEmpty(), "Nothing should be due before the collection time");
+
+        List<Set<ScheduledMeasurementInfo>> batches = wheel.poll(START + MINUTE);
+        assertEquals(batches.size(), 2, "Expected one batch per resource");
+        for (Set<ScheduledMeasurementInfo> batch : batches) {
+            int resourceId = batch.iterator().next().getResourceId();
+            assertEquals(batch.size(), resourceId == 1 ? 2 : 1);
+        }
+        assertEquals(wheel.size(), 1);
+        assertEquals(wheel.getNextDueTime(), START + 10 * MINUTE);
+    }
+
+    public void cascadeSchedulesFromHigherLevels() {
+        MeasurementScheduleWheel wheel = new MeasurementScheduleWheel(START);
+        long day = 24 * 60 * MINUTE;
+        wheel.add(schedule(1, 1, START + day + 500));
+
+        long next = wheel.getNextDueTime();
+        assertTrue(next <= START + day + 500, "The next due time must not be later than the collection time");
+
+        // step through the wheel the way the collection requester does
+        long now = START;
+        while (wheel.size() > 0) {
+            now = Math.max(now + 1, wheel.getNextDueTime());
+            List<Set<ScheduledMeasurementInfo>> batches = wheel.poll(now);
+            if (!batches.isEmpty()) {
+                assertEquals(batches.get(0).iterator().next().getScheduleId(), 1);
+            }
+        }
+        assertEquals(now, START + day + MeasurementScheduleWheel.TICK, "The schedule is due at the next tick");
+    }
+
+    public void replaceAndRemoveSchedules() {
+        MeasurementScheduleWheel wheel = new MeasurementScheduleWheel(START);
+        wheel.add(schedule(1, 1, START + MINUTE));
+        wheel.add(schedule(1, 1, START + 2 * MINUTE));
+        wheel.add(schedule(1, 2, START + MINUTE));
+        wheel.add(schedule(2, 3, START + MINUTE));
+        assertEquals(wheel.size(), 3, "Adding an equal schedule should replace it");
+        assertEquals(wheel.getSchedules(1).size(), 2);
+
+        wheel.removeResource(1);
+        assertEquals(wheel.size(), 1);
+        assertTrue(wheel.getSchedules(1).isEmpty());
+
+        assertTrue(wheel.remove(schedule(2, 3, 0)));
+        assertEquals(wheel.size(), 0);
+        assertEquals(wheel.getNextDueTime(), Long.MIN_VALUE);
+    }
+
+    public void schedulesInThePastAreDueImmediately() {
+        MeasurementScheduleWheel wheel = new MeasurementScheduleWheel(START);
+        wheel.poll(START + MINUTE);
+        wheel.add(schedule(1, 1, START));
+
+        assertEquals(wheel.getNextDueTime(), START);
+        assertEquals(wheel.poll(START + MINUTE).size(), 1);
+    }
+
+    private ScheduledMeasurementInfo schedule(int resourceId, int scheduleId, long nextCollection) {
+        ScheduledMeasurementInfo info = new ScheduledMeasurementInfo(new MeasurementScheduleRequest(scheduleId,
+            "metric" + scheduleId, MINUTE, true, DataType.MEASUREMENT), resourceId);
+        info.setNextCollection(nextCollection);
+        return info;
+    }
+
+}
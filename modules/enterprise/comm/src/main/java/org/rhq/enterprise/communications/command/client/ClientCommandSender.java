@@ -110,6 +110,11 @@ public class ClientCommandSender {
      */
     private static final Logger LOG = CommI18NFactory.getLogger(ClientCommandSender.class);
 
+    /**
+     * The maximum number of spooled commands that are taken from the command spool at once when unspooling.
+     */
+    private static final int UNSPOOL_BATCH_SIZE = 100;
+
     /**
      * The object that defines what server to send commands to.
      */
@@ -1290,20 +1295,28 @@ public class ClientCommandSender {
                         m_remoteCommunicator);
 
                     while (num_commands_persisted > 0) {
-                        cnc = unspoolCommandAndCallback();
+                        List<byte[]> spooled = m_commandStore.take(UNSPOOL_BATCH_SIZE);
 
-                        if (cnc != null) {
-                            timeout = getCommandTimeout(cnc.getCommand());
-                            task = new ClientCommandSenderTask(this, cnc, timeout, true, null);
-                            m_executor.execute(task);
-                            num_commands_persisted--;
-                        } else {
-                            // this else should never have occurred since the count should have matched what is in the store
+                        if (spooled.isEmpty()) {
+                            // this should never have occurred since the count should have matched what is in the store
                             // unless someone else is unspooling from the store too (which should never happen, but, just in case...)
                             LOG.warn(CommI18NResourceKeys.CLIENT_COMMAND_SENDER_UNSPOOL_CNC_FAILURE, total_store_size
                                 - num_commands_persisted, num_commands_persisted, m_remoteCommunicator);
                             num_commands_persisted = 0;
                         }
+
+                        for (byte[] serialized_bytes : spooled) {
+                            num_commands_persisted--;
+
+                            // an entry that cannot be deserialized is lost, but it must not keep the rest from being sent
+                            cnc = deserializeCommandAndCallback(serialized_bytes);
+
+                            if (cnc != null) {
+                                timeout = getCommandTimeout(cnc.getCommand());
+                                task = new ClientCommandSenderTask(this, cnc, timeout, true, null);
+                                m_executor.execute(task);
+                            }
+                        }
                     }
 
                     LOG.debug(CommI18NResourceKeys.CLIENT_COMMAND_SENDER_UNSPOOLED, total_store_size,
@@ -1396,20 +1409,19 @@ public class ClientCommandSender {
     }
 
     /**
-     * This will take the next avaialable command/callback pair from the spool file and return it.
+     * This will deserialize a command/callback pair that was taken from the spool file.
+     *
+     * @param  serialized_bytes the spooled command/callback pair
      *
-     * @return the next command/callback found in the local spool file; or <code>null</code> if the spool file is empty
+     * @return the command/callback; or <code>null</code> if it could not be deserialized
      */
-    private CommandAndCallback unspoolCommandAndCallback() {
+    private CommandAndCallback deserializeCommandAndCallback(byte[] serialized_bytes) {
         CommandAndCallback next = null;
 
-        if (m_commandStore != null) {
-            try {
-                next = (CommandAndCallback) m_commandStore.takeObject();
-            } catch (Exception e) {
-                LOG.error(e, CommI18NResourceKeys.CLIENT_COMMAND_SENDER_COMMAND_STORE_TAKE_FAILURE,
-                    m_remoteCommunicator);
-            }
+        try {
+            next = (CommandAndCallback) StreamUtil.deserialize(serialized_bytes);
+        } catch (Exception e) {
+            LOG.error(e, CommI18NResourceKeys.CLIENT_COMMAND_SENDER_COMMAND_STORE_TAKE_FAILURE, m_remoteCommunicator);
         }
 
         return next;
@@ -22,10 +22,20 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.RandomAccessFile;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.ListIterator;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 import mazz.i18n.Logger;
@@ -36,38 +46,36 @@ import org.rhq.enterprise.communications.i18n.CommI18NResourceKeys;
 import org.rhq.enterprise.communications.util.DumpBytes;
 
 /**
- * Persists byte arrays in a FIFO queue file. The file will grow to a limited, maximum size. If more entries are put on
- * the queue and those new entries cause the file to grow beyond the maximum file size, the file will be compressed and,
- * quite possibly, older entries will get deleted to shrink the file back down under a configured percentage of used
- * space.
+ * Persists byte arrays in a FIFO queue that is stored in a series of segment files. The segments will grow to a
+ * limited, maximum total size. If more entries are put on the queue and those new entries cause the segments to grow
+ * beyond the maximum size, the oldest segments (and thus the oldest entries) get deleted to shrink the queue back down
+ * under a configured percentage of used space.
  *
- * <p>This queue is implemented as a linked list with each entry in the file sequentially written (that is, the linked
- * list is actually a chain link running from start to end of the file - the next linked entry is always the next entry
- * in the file). Each list entry consists of a next pointer (a long) followed by a byte array that contains the entry's
- * true data. The next pointer is actually relative to the entry - meaning the next pointer is really the size of the
- * entry in bytes not including the size of the next pointer itself. If you know the file position of the next pointer
- * and the next pointer value itself, add the two together along with the size of the next pointer itself (a <code>
- * long</code> which is 8-bytes usually) and you get the file position of the next entry. We do it this way in order to
- * make the purging more efficient - since all the next pointers are relative to the actual position of the file (and we
- * know all entries are written sequentially in the file), we don't have to update the next pointers if we shift all
- * entries down in the file en masse.</p>
+ * <p>Segment files live next to the FIFO file given to the constructor and are named after it, with a sequence number
+ * appended (e.g. <code>command-spool.dat.000000000042</code>). Each segment is preallocated to a fixed size and is
+ * memory-mapped while it is being written to or read from. Entries are only ever appended to the tail segment and only
+ * ever taken from the head segment; a segment whose entries have all been taken is deleted as a whole, so no entry
+ * is ever moved once it has been written.</p>
  *
- * <p>The first <code>long</code> in the file is the count of elements in the FIFO - this allows you to know the number
- * of entries in the FIFO without walking all the links to count along the way. The second <code>long</code> in the file
- * is the head pointer. The third <code>long</code> in the file is the tail pointer. If the head pointer is -1, the FIFO
- * queue is considered empty. If it is 0 or larger, it is the file pointer position within the file where the first
- * entry starts. When entries are put on the queue, they are added to the tail. When entries are taken from the queue,
- * they are removed from head.</p>
+ * <p>Each segment starts with a header made up of four <code>int</code>s - a magic number identifying the file as a
+ * segment, the head position (where the next entry to be taken starts), the tail position (where the next entry will
+ * be appended) and the count of entries in the segment that have not yet been taken. Each entry consists of its length
+ * (an <code>int</code>) followed by the entry's true data.</p>
  *
  * <pre>
- * count | HEAD | TAIL | next | entry-byte-array-data | next | entry-byte-array-data | next | entry | EOF
- *          |      |     ^  |                           ^  |                           ^ ^
- *          |      |     |  |                           |  |                           | |
- *          |      |     |  +---------------------------+  +---------------------------+ |
- *          |      +-----|---------------------------------------------------------------+
- *          +------------+
+ * MAGIC | HEAD | TAIL | count | length | entry-byte-array-data | length | entry-byte-array-data | unused space | EOF
+ *          |      |               ^                                                               ^
+ *          +------|---------------+                                                               |
+ *                 +---------------------------------------------------------------------------------+
  * </pre>
  *
+ * <p>Older versions stored the whole queue in a single file at the location of the FIFO file itself. If such a file
+ * is found when the FIFO is created, its entries are moved into segments and the old file is deleted.</p>
+ *
+ * <p>Each instance guards its segments with its own lock - two FIFOs backed by different files never block each
+ * other. Two instances must never be created on the same FIFO file at the same time; {@link #dumpContents} is the only
+ * exception because it never modifies the segments.</p>
+ *
  * @author John Mazzitelli
  */
 public class PersistentFifo {
@@ -76,20 +84,28 @@ public class PersistentFifo {
      */
     private static final Logger LOG = CommI18NFactory.getLogger(PersistentFifo.class);
 
-    private static final Object m_fileLock = PersistentFifo.class;
-
-    private File m_file;
-    private RandomAccessFile m_randomAccessFile;
+    private static final int SEGMENT_MAGIC = 0x52485153; // identifies a segment file
+    private static final int HEAD_POSITION = 4; // the position in a segment where its head pointer can be found
+    private static final int TAIL_POSITION = 8; // the position in a segment where its tail pointer can be found
+    private static final int COUNT_POSITION = 12; // the position in a segment where its count can be found
+    private static final int HEADER_SIZE = 16; // the size of the segment header; the first entry starts here
+    private static final int LENGTH_SIZE = 4; // the size of the length that precedes each entry
+    private static final int MIN_SEGMENT_SIZE = 1024;
+    private static final int MAX_SEGMENT_SIZE = 16 * 1024 * 1024;
+    private static final int SEGMENTS_PER_MAX_SIZE = 8; // the number of segments that the maximum size is split into
+    private static final String SEQUENCE_FORMAT = "%012d";
+
+    private final Object m_lock = new Object(); // guards all the segments of this FIFO
+
+    private final File m_file; // the legacy FIFO file; segments are named after it
+    private final LinkedList<Segment> m_segments = new LinkedList<Segment>(); // oldest (the head) first
     private long m_count; // the current count of entries in the FIFO
-    private long m_head; // the position pointed to by the head pointer
-    private long m_tail; // the position pointed to by the tail pointer
-    private long m_countPosition; // the file position where the count is stored (i.e. the number of entries in the fifo)
-    private long m_headPosition; // the file position where the head pointer can be found
-    private long m_tailPosition; // the file position where the tail pointer can be found
-    private long m_longSize; // the size in bytes that it takes to store a long number
-    private long m_maxSizeBytes; // size of the file that, when reached, triggers a purge
-    private long m_purgeResultMaxBytes; // the number of bytes the file must be less than after a purge
-    private boolean m_compress; // will be true if we are to compress the data before persisting
+    private long m_sizeBytes; // the total size of all segment files
+    private long m_nextSequence; // the sequence number that the next segment created will get
+    private final int m_segmentSize; // the size of newly created segments, unless a large entry needs more
+    private final long m_maxSizeBytes; // total size of the segments that, when exceeded, triggers a purge
+    private final long m_purgeResultMaxBytes; // the number of bytes the segments must be less than after a purge
+    private final boolean m_compress; // will be true if we are to compress the data before persisting
 
     /**
      * A simple utility that dumps all the data found in the persistent FIFO to stdout.
@@ -122,8 +138,11 @@ public class PersistentFifo {
      * objects and thus their <code>toString()</code> is dumped. Otherwise, a dump of each entry's raw byte array is
      * retrieved in the given <code>raw_byte_base</code>, where a base of 10 is for decimal, 16 is for hexidecimal, etc.
      *
+     * <p>The segments are only read - this can safely be called while another {@link PersistentFifo} is using
+     * them.</p>
+     *
      * @param  out           the stream to dump the output
-     * @param  fifo_file     the FIFO file that contains 0 or more persisted entries
+     * @param  fifo_file     the FIFO file whose segments contain 0 or more persisted entries
      * @param  compressed    if <code>true</code>, the entries will be assumed to be compressed in the file
      * @param  raw_byte_base if greater than 0, the raw entry data (i.e. the actual bytes) is dumped in this base (where
      *                       base=16 for hexidecimal for example; see {@link DumpBytes} for the various BASE constants:
@@ -134,10 +153,15 @@ public class PersistentFifo {
      */
     public static void dumpContents(PrintWriter out, File fifo_file, boolean compressed, int raw_byte_base)
         throws IOException {
-        PersistentFifo fifo = new PersistentFifo(fifo_file, Long.MAX_VALUE, 99, compressed);
+        List<Segment> segments = findSegments(fifo_file);
+        long count = 0L;
+
+        for (Segment segment : segments) {
+            count += segment.count;
+        }
 
         out.println(fifo_file);
-        out.println(fifo.count());
+        out.println(count);
         out.flush();
 
         // don't bother to continue, return immediately if caller only wanted to see the number of entries
@@ -145,73 +169,61 @@ public class PersistentFifo {
             return;
         }
 
-        RandomAccessFile raf = fifo.getRandomAccessFile();
-        boolean last_entry = (fifo.m_head == -1L); // if head is -1, there are no entries
         long entry_num = 0;
-        byte[] entry;
-
-        // go to the first entry
-        if (!last_entry) {
-            raf.seek(fifo.m_head);
-        }
-
-        while (!last_entry) {
-            // get the next pointer; if this is the last entry, then we'll read to the end of the file
-            long next = raf.readLong();
-            if (next == -1) {
-                next = raf.length() - raf.getFilePointer();
-                last_entry = true;
-            }
-
-            // we can now determine the size of the entry to read - go from current position to the next pointer
-            int entry_size = (int) next;
-            entry = new byte[entry_size];
-
-            // fully read in the entry
-            raf.readFully(entry);
-
-            if (fifo.m_compress) {
-                entry = fifo.decompress(entry);
-            }
-
-            String entry_string;
-
-            out.print("[" + entry_num++ + "] ");
 
-            if (raw_byte_base == 0) {
-                Object obj = StreamUtil.deserialize(entry);
-                entry_string = obj.toString();
-            } else {
-                out.println();
+        for (Segment segment : segments) {
+            ByteBuffer buffer = segment.map(FileChannel.MapMode.READ_ONLY);
+            int position = segment.head;
 
-                switch (raw_byte_base) {
-                case DumpBytes.BASE_HEX: {
-                    entry_string = DumpBytes.dumpHexData(entry);
-                    break;
-                }
-
-                case DumpBytes.BASE_DEC: {
-                    entry_string = DumpBytes.dumpDecData(entry);
-                    break;
-                }
+            for (int i = 0; i < segment.count; i++) {
+                byte[] entry = readEntry(buffer, position);
+                position += LENGTH_SIZE + entry.length;
 
-                case DumpBytes.BASE_OCT: {
-                    entry_string = DumpBytes.dumpOctData(entry);
-                    break;
+                if (compressed) {
+                    entry = decompress(entry);
                 }
 
-                case DumpBytes.BASE_BIN: {
-                    entry_string = DumpBytes.dumpBinData(entry);
-                    break;
+                String entry_string;
+
+                out.print("[" + entry_num++ + "] ");
+
+                if (raw_byte_base == 0) {
+                    Object obj = StreamUtil.deserialize(entry);
+                    entry_string = obj.toString();
+                } else {
+                    out.println();
+
+                    switch (raw_byte_base) {
+                    case DumpBytes.BASE_HEX: {
+                        entry_string = DumpBytes.dumpHexData(entry);
+                        break;
+                    }
+
+                    case DumpBytes.BASE_DEC: {
+                        entry_string = DumpBytes.dumpDecData(entry);
+                        break;
+                    }
+
+                    case DumpBytes.BASE_OCT: {
+                        entry_string = DumpBytes.dumpOctData(entry);
+                        break;
+                    }
+
+                    case DumpBytes.BASE_BIN: {
+                        entry_string = DumpBytes.dumpBinData(entry);
+                        break;
+                    }
+
+                    default: {
+                        entry_string = DumpBytes.dumpData(entry, 7, raw_byte_base);
+                    }
+                    }
                 }
 
-                default: {
-                    entry_string = DumpBytes.dumpData(entry, 7, raw_byte_base);
-                }
-                }
+                out.println(entry_string);
             }
 
-            out.println(entry_string);
+            segment.unmap();
         }
 
         out.flush();
@@ -220,20 +232,21 @@ public class PersistentFifo {
     }
 
     /**
-     * Creates a new {@link PersistentFifo} object. The <code>max_size_bytes</code> indicates the maximum size this file
-     * is allowed to grow before a purge is triggered. If this threshold is crossed (that is, if the file grows larger
-     * than the maximum size allowed), the file is compressed and, if needed, the oldest entries in the queue will get
-     * deleted to make room for new entries. The amount of space purged will be enough to lower the used space
-     * percentage down to <code>purge_percentage</code> or less.
-     *
-     * @param  file             the file containing the FIFO data
-     * @param  max_size_bytes   the maximum size, in bytes, the persistent file is allowed to grow before a purge is
-     *                          triggered
+     * Creates a new {@link PersistentFifo} object. The <code>max_size_bytes</code> indicates the maximum total size
+     * the segment files are allowed to grow before a purge is triggered. If this threshold is crossed, the oldest
+     * segments, and thus the oldest entries in the queue, will get deleted to make room for new entries. The amount of
+     * space purged will be enough to lower the used space percentage down to <code>purge_percentage</code> or less,
+     * although the segment currently being written to is never purged.
+     *
+     * @param  file             the FIFO file - the segment files are created in its directory and named after it
+     * @param  max_size_bytes   the maximum total size, in bytes, the segment files are allowed to grow before a purge
+     *                          is triggered
      * @param  purge_percentage when a purge is triggered, it will free up enough space to lower the amount of used
      *                          space down to this percentage of the total max space
      * @param  compress         if <code>true</code>, the data spooled to the file should be compressed
      *
-     * @throws IOException              if the file does not exist but cannot be created
+     * @throws IOException              if the directory of the file does not exist or the existing segments cannot be
+     *                                  read
      * @throws IllegalArgumentException if purge_percentage is not between 0 and 99 or max_size_bytes is less than 1000
      */
     public PersistentFifo(File file, long max_size_bytes, int purge_percentage, boolean compress) throws IOException {
@@ -247,31 +260,34 @@ public class PersistentFifo {
                 1000));
         }
 
-        m_file = file;
-        m_purgeResultMaxBytes = (int) (max_size_bytes * (purge_percentage / 100.0f));
+        m_file = file.getAbsoluteFile();
+        m_purgeResultMaxBytes = (long) (max_size_bytes * (purge_percentage / 100.0f));
         m_maxSizeBytes = max_size_bytes;
+        m_segmentSize = (int) Math.min(MAX_SEGMENT_SIZE, Math.max(MIN_SEGMENT_SIZE, max_size_bytes
+            / SEGMENTS_PER_MAX_SIZE));
         m_compress = compress;
 
-        synchronized (m_fileLock) {
-            // if file doesn't exist or is virtually empty
-            if (!m_file.exists() || (m_file.length() < 8)) {
-                initializeEmptyFile();
-            } else {
-                // file exists, let's get our count, head and tail pointers and their positions
-                RandomAccessFile raf = getRandomAccessFile();
-
-                // count is first, head is second, tail is third
-                m_countPosition = 0L;
-                readCount(raf);
-                m_headPosition = raf.getFilePointer();
-                readHead(raf);
-                m_tailPosition = raf.getFilePointer();
-                readTail(raf);
+        if (!m_file.getParentFile().isDirectory()) {
+            throw new FileNotFoundException(m_file.getParentFile().toString());
+        }
+
+        synchronized (m_lock) {
+            for (Segment segment : findSegments(m_file)) {
+                m_nextSequence = segment.sequence + 1;
+
+                if (segment.count == 0) {
+                    // everything in it was already taken, it just didn't get deleted
+                    segment.delete();
+                } else {
+                    m_segments.add(segment);
+                    m_count += segment.count;
+                    m_sizeBytes += segment.size;
+                }
             }
 
-            // this is me being paranoid - rather than hardcode the obvious value of 8, let's calculate it in case for some strange
-            // reason, the value is different on some platform
-            m_longSize = m_tailPosition - m_headPosition;
+            if (m_file.isFile()) {
+                migrateLegacyFile();
+            }
         }
 
         return;
@@ -323,35 +339,8 @@ public class PersistentFifo {
             bytes = compress(bytes);
         }
 
-        synchronized (m_fileLock) {
-            RandomAccessFile raf = getRandomAccessFile();
-            long new_entry_pos = raf.length(); // where the new entry will start
-            boolean is_first_entry = (m_head == -1);
-
-            // bump up the count
-            writeCount(raf, ++m_count);
-
-            if (is_first_entry) {
-                // this will be the first item in the queue, set the head to indicate we have data now
-                writeHead(raf, new_entry_pos);
-            } else {
-                // update the previous entry's next pointer
-                raf.seek(m_tail);
-                raf.writeLong(new_entry_pos - m_tail - m_longSize);
-            }
-
-            // go to the new entry's position and write its next pointer and the data
-            raf.seek(new_entry_pos);
-            raf.writeLong(-1L); // sets the next pointer to indicate this is the last entry
-            raf.write(bytes);
-
-            // finally, update the tail
-            writeTail(raf, new_entry_pos);
-
-            // if we went over the maximum file size limit, start purging some entries to make room
-            if (raf.length() > m_maxSizeBytes) {
-                purge(raf, raf.length() - m_purgeResultMaxBytes);
-            }
+        synchronized (m_lock) {
+            append(bytes);
         }
 
         return;
@@ -365,50 +354,54 @@ public class PersistentFifo {
      * @throws IOException
      */
     public byte[] take() throws IOException {
-        synchronized (m_fileLock) {
-            // return immediately if there are no entries in the queue
-            if (m_head == -1L) {
-                return null;
-            }
-
-            RandomAccessFile raf = getRandomAccessFile();
-            boolean last_entry = false;
-            byte[] entry;
+        byte[] entry;
 
-            // go to the first entry
-            raf.seek(m_head);
+        synchronized (m_lock) {
+            entry = removeFirst();
+        }
 
-            // get the next pointer; if this is the last entry, then we'll read to the end of the file
-            long next = raf.readLong();
-            if (next == -1) {
-                next = raf.length() - raf.getFilePointer();
-                last_entry = true;
-            }
+        if ((entry != null) && m_compress) {
+            entry = decompress(entry);
+        }
 
-            // we can now determine the size of the entry to read - go from current position to the next pointer
-            int entry_size = (int) next;
-            entry = new byte[entry_size];
+        return entry;
+    }
 
-            // fully read in the entry
-            raf.readFully(entry);
+    /**
+     * Takes up to <code>max_entries</code> entries from the queue at once and returns them in the order they were put
+     * on the queue. This is cheaper than calling {@link #take()} repeatedly since the lock is only acquired once.
+     * Entries that cannot be decompressed are logged and left out of the returned list.
+     *
+     * @param  max_entries the maximum number of entries to take
+     *
+     * @return the entries taken from the queue; the list is empty if the queue is empty
+     *
+     * @throws IOException
+     */
+    public List<byte[]> take(int max_entries) throws IOException {
+        List<byte[]> entries = new ArrayList<byte[]>();
 
-            if (last_entry) {
-                // this was the last entry - let's shrink the file down to its minimal size
-                initializeEmptyFile();
-            } else {
-                // move the head to the next entry
-                writeHead(raf, m_head + next + m_longSize);
+        synchronized (m_lock) {
+            byte[] entry;
 
-                // decrement the count
-                writeCount(raf, --m_count);
+            while ((entries.size() < max_entries) && ((entry = removeFirst()) != null)) {
+                entries.add(entry);
             }
+        }
 
-            if (m_compress) {
-                entry = decompress(entry);
+        if (m_compress) {
+            // the entries are already off the queue, so a corrupt one must not take the others down with it
+            for (ListIterator<byte[]> i = entries.listIterator(); i.hasNext();) {
+                try {
+                    i.set(decompress(i.next()));
+                } catch (IOException e) {
+                    LOG.error(e, CommI18NResourceKeys.PERSISTENT_FIFO_CORRUPT_ENTRY, m_file);
+                    i.remove();
+                }
             }
-
-            return entry;
         }
+
+        return entries;
     }
 
     /**
@@ -420,8 +413,8 @@ public class PersistentFifo {
      * @throws IOException if failed to access the file
      */
     public boolean isEmpty() throws IOException {
-        synchronized (m_fileLock) {
-            return readHead(getRandomAccessFile()) == -1;
+        synchronized (m_lock) {
+            return m_count == 0L;
         }
     }
 
@@ -433,221 +426,310 @@ public class PersistentFifo {
      * @throws IOException if failed to access the file
      */
     public long count() throws IOException {
-        synchronized (m_fileLock) {
-            return readCount(getRandomAccessFile());
+        synchronized (m_lock) {
+            return m_count;
         }
     }
 
     /**
-     * This initializes the file to indicate that the queue is empty - call this when the file does not yet exist or if
-     * you want to shrink the file down to its minimal size.
+     * This empties the queue by deleting all of its segments - call this if you want to shrink the FIFO down to its
+     * minimal size.
      *
      * @throws IOException
      */
     public void initializeEmptyFile() throws IOException {
-        synchronized (m_fileLock) {
-            m_count = 0L;
-            m_head = -1L; // -1 means the FIFO queue is empty
-            m_tail = -1L;
-
-            RandomAccessFile raf = getRandomAccessFile();
-
-            // the first number in the file is the count
-            m_countPosition = 0L;
-            raf.seek(m_countPosition);
-            raf.writeLong(m_count);
-
-            // the second number in the file is the head pointer
-            m_headPosition = raf.getFilePointer();
-            raf.seek(m_headPosition);
-            raf.writeLong(m_head);
-
-            // the third number in the file is the tail pointer
-            m_tailPosition = raf.getFilePointer();
-            raf.writeLong(m_tail);
+        synchronized (m_lock) {
+            while (!m_segments.isEmpty()) {
+                deleteFirstSegment();
+            }
 
-            // set the file length to right after the tail pointer thus shrinking the file size down to its minimal size
-            raf.setLength(raf.getFilePointer());
+            m_count = 0L;
+            m_sizeBytes = 0L;
         }
 
         return;
     }
 
     /**
-     * This purges the file by compressing the old entries that have already been taken and, if that isn't possible,
-     * will remove head entries (i.e. the oldest entries) and moves all items down in the file, thus shrinking the file.
-     * The number of bytes to free up (that is, the number of bytes to shrink the file by) is determined by the <code>
-     * bytes_to_purge</code> parameter. The file will be shrink by at least (but maybe more) that number of bytes.
+     * Appends the given (already compressed, if need be) entry to the tail segment, creating a new segment if the
+     * entry doesn't fit in the space left in the tail segment. Must be called while holding the lock.
      *
-     * @param  raf            the file
-     * @param  bytes_to_purge the minimum amount of bytes to purge
+     * @param  entry the data to append
      *
-     * @throws IOException if failed to access file
+     * @throws IOException if failed to write to the segment
      */
-    private void purge(RandomAccessFile raf, long bytes_to_purge) throws IOException {
-        // first see if there are any unused bytes in the beginning of the file (entries that have already been taken from the queue
-        // but not yet deleted from the file)
-        long first_data_byte = m_tailPosition + m_longSize;
-        long unused_bytes = m_head - first_data_byte;
-
-        while (unused_bytes < bytes_to_purge) {
-            // not enough unused bytes - we must sacrifice the oldest entry (at the head) to free up some more space
-            take();
-
-            if (m_head == -1) {
-                return; // nothing left to purge
+    private void append(byte[] entry) throws IOException {
+        int needed = LENGTH_SIZE + entry.length;
+        Segment tail = m_segments.isEmpty() ? null : m_segments.getLast();
+
+        if ((tail == null) || ((tail.size - tail.tail) < needed)) {
+            if ((tail != null) && (tail != m_segments.getFirst())) {
+                tail.unmap(); // nothing more will be written to it and it won't be read until it becomes the head
             }
 
-            unused_bytes = m_head - first_data_byte;
+            tail = createSegment(Math.max(m_segmentSize, HEADER_SIZE + needed));
         }
 
-        // now move all the entries down to the beginning of the file; need to move in chunks so as not to override the data we want to keep
-        // we start at the head and read in chunks to move down
-        // chunk = the size of each full chunk that we move
-        // total_bytes_to_move = the size of all the data we are moving down
-        // num_full_chunks = the total number of fully filled chunks to be moved
-        // final_chunk_size = the size of the last chunk to be moved, may be a partially filled chunk
-        // cur_pos_to_read = the file position of the current chunk we are reading in
-        // cur_pos_to_write = the file position where the current chunk will be moved to
-        byte[] chunk = new byte[(int) unused_bytes];
-        long total_bytes_to_move = raf.length() - first_data_byte - unused_bytes;
-        long num_full_chunks = total_bytes_to_move / unused_bytes;
-        long final_chunk_size = total_bytes_to_move % unused_bytes;
-        long cur_pos_to_read = m_head;
-        long cur_pos_to_write = first_data_byte;
+        ByteBuffer buffer = tail.map(FileChannel.MapMode.READ_WRITE);
+        buffer.putInt(tail.tail, entry.length);
+        ByteBuffer data = buffer.duplicate();
+        data.position(tail.tail + LENGTH_SIZE);
+        data.put(entry);
+
+        // only move the tail once the data is in place
+        tail.tail += needed;
+        tail.count++;
+        buffer.putInt(TAIL_POSITION, tail.tail);
+        buffer.putInt(COUNT_POSITION, tail.count);
+        m_count++;
+
+        // if we went over the maximum size limit, start purging some entries to make room
+        if (m_sizeBytes > m_maxSizeBytes) {
+            purge();
+        }
 
-        for (int i = 0; i < num_full_chunks; i++) {
-            raf.seek(cur_pos_to_read);
-            raf.readFully(chunk);
-            raf.seek(cur_pos_to_write);
-            raf.write(chunk);
+        return;
+    }
 
-            cur_pos_to_read += chunk.length;
-            cur_pos_to_write += chunk.length;
+    /**
+     * Removes the next entry from the head segment and returns it as it is stored (i.e. still compressed, if need be).
+     * A segment that is emptied is deleted, unless it is also the tail segment, in which case it is rewound so its
+     * space is reused. Must be called while holding the lock.
+     *
+     * @return the next entry or <code>null</code> if the queue is empty
+     *
+     * @throws IOException if failed to access the segment
+     */
+    private byte[] removeFirst() throws IOException {
+        if (m_count == 0L) {
+            return null;
         }
 
-        // do the last, partial chunk
-        if (final_chunk_size > 0) {
-            raf.seek(cur_pos_to_read);
-            raf.readFully(chunk, 0, (int) final_chunk_size);
-            raf.seek(cur_pos_to_write);
-            raf.write(chunk, 0, (int) final_chunk_size);
+        Segment head = m_segments.getFirst();
+        ByteBuffer buffer = head.map(FileChannel.MapMode.READ_WRITE);
+        byte[] entry = readEntry(buffer, head.head);
+
+        head.head += LENGTH_SIZE + entry.length;
+        head.count--;
+        m_count--;
+
+        if (head.count > 0) {
+            buffer.putInt(HEAD_POSITION, head.head);
+            buffer.putInt(COUNT_POSITION, head.count);
+        } else if (head != m_segments.getLast()) {
+            deleteFirstSegment();
+        } else {
+            head.rewind(buffer);
         }
 
-        // we've purged and compacted the file - now let's shrink the file so its smaller
-        raf.setLength(raf.getFilePointer());
-
-        // fix our head and tail pointers by moving them back the number of bytes we just purged
-        writeHead(raf, first_data_byte);
-        writeTail(raf, m_tail - unused_bytes);
-
-        return;
+        return entry;
     }
 
     /**
-     * Returns the <code>RandomAccessFile</code> object representation of the file that enables the caller to read
-     * and/or write the file using random access.
+     * This purges the queue by deleting the oldest segments until the total size of the segments is under the purge
+     * target. The tail segment is never deleted since that is where the entry that triggered the purge was just put.
+     * Must be called while holding the lock.
      *
-     * @return the file that can be randomly accessed
-     *
-     * @throws FileNotFoundException
+     * @throws IOException if failed to access a segment
      */
-    private RandomAccessFile getRandomAccessFile() throws FileNotFoundException {
-        if (m_randomAccessFile == null) {
-            m_randomAccessFile = new RandomAccessFile(m_file, "rw");
+    private void purge() throws IOException {
+        long purged = 0L;
+
+        while ((m_sizeBytes > m_purgeResultMaxBytes) && (m_segments.size() > 1)) {
+            purged += m_segments.getFirst().count;
+            deleteFirstSegment();
+        }
+
+        if (purged > 0L) {
+            LOG.warn(CommI18NResourceKeys.PERSISTENT_FIFO_PURGED, purged, m_file);
         }
 
-        return m_randomAccessFile;
+        return;
     }
 
     /**
-     * Reads and returns the count - this is the number of entries currently in the FIFO.
+     * Creates a new, empty segment file and adds it as the tail segment. Must be called while holding the lock.
      *
-     * @param  raf the file
+     * @param  size the size of the new segment
      *
-     * @return the number of entries currently in the FIFO
+     * @return the new segment
      *
-     * @throws IOException if failed to access the file
+     * @throws IOException if failed to create the segment file
      */
-    private long readCount(RandomAccessFile raf) throws IOException {
-        raf.seek(m_countPosition);
-        m_count = raf.readLong();
-        return m_count;
+    private Segment createSegment(int size) throws IOException {
+        long sequence = m_nextSequence++;
+        Segment segment = new Segment(getSegmentFile(m_file, sequence), sequence, size);
+
+        ByteBuffer buffer = segment.map(FileChannel.MapMode.READ_WRITE);
+        segment.rewind(buffer);
+        buffer.putInt(0, SEGMENT_MAGIC);
+
+        m_segments.add(segment);
+        m_sizeBytes += size;
+
+        return segment;
     }
 
     /**
-     * Writes the given count to the file.
-     *
-     * @param  raf   the file
-     * @param  count the new count to store
+     * Deletes the head segment along with any entries that have not yet been taken from it. Must be called while
+     * holding the lock.
      *
-     * @throws IOException if failed to write to the file
+     * @throws IOException if failed to access the segment
      */
-    private void writeCount(RandomAccessFile raf, long count) throws IOException {
-        raf.seek(m_countPosition);
-        raf.writeLong(count);
-        m_count = count;
+    private void deleteFirstSegment() throws IOException {
+        Segment segment = m_segments.removeFirst();
+
+        m_count -= segment.count;
+        m_sizeBytes -= segment.size;
+
+        // mark it empty first - if the file can't be deleted now, it will be ignored and deleted the next time around
+        segment.rewind(segment.map(FileChannel.MapMode.READ_WRITE));
+        segment.delete();
+
         return;
     }
 
     /**
-     * Reads the head pointer from the file.
-     *
-     * @param  raf the file
-     *
-     * @return the current position that the head pointer points to
+     * Moves all entries found in an old, single-file FIFO into segments and deletes the old file. Must be called while
+     * holding the lock.
      *
-     * @throws IOException if failed to access the file
+     * @throws IOException if failed to read the old file
      */
-    private long readHead(RandomAccessFile raf) throws IOException {
-        raf.seek(m_headPosition);
-        m_head = raf.readLong();
-        return m_head;
+    private void migrateLegacyFile() throws IOException {
+        long migrated = 0L;
+        RandomAccessFile raf = new RandomAccessFile(m_file, "r");
+
+        try {
+            // count is first, head is second, tail is third
+            if (raf.length() >= 24L) {
+                raf.readLong();
+                long head = raf.readLong();
+                boolean last_entry = (head == -1L); // if head is -1, there are no entries
+
+                if (!last_entry) {
+                    raf.seek(head);
+                }
+
+                while (!last_entry) {
+                    // get the next pointer; if this is the last entry, then we'll read to the end of the file
+                    long next = raf.readLong();
+                    if (next == -1) {
+                        next = raf.length() - raf.getFilePointer();
+                        last_entry = true;
+                    }
+
+                    byte[] entry = new byte[(int) next];
+                    raf.readFully(entry);
+                    append(entry);
+                    migrated++;
+                }
+            }
+        } finally {
+            raf.close();
+        }
+
+        if (!m_file.delete()) {
+            // at least mark the old file as empty so its entries are not migrated a second time
+            raf = new RandomAccessFile(m_file, "rw");
+            try {
+                raf.writeLong(0L);
+                raf.writeLong(-1L);
+                raf.writeLong(-1L);
+                raf.setLength(raf.getFilePointer());
+            } finally {
+                raf.close();
+            }
+        }
+
+        LOG.info(CommI18NResourceKeys.PERSISTENT_FIFO_MIGRATED, migrated, m_file);
+
+        return;
     }
 
     /**
-     * Writes the head pointer to the file.
+     * Finds the segments of the given FIFO file, oldest first. Files named like segments that are not segments (or are
+     * truncated) are skipped. The segments that are returned are not mapped yet.
      *
-     * @param  raf      the file
-     * @param  head_pos the new position of the head pointer
+     * @param  fifo_file the FIFO file
      *
-     * @throws IOException if failed to write to the file
+     * @return the segments found
+     *
+     * @throws IOException if failed to read a segment header
      */
-    private void writeHead(RandomAccessFile raf, long head_pos) throws IOException {
-        raf.seek(m_headPosition);
-        raf.writeLong(head_pos);
-        m_head = head_pos;
-        return;
+    private static List<Segment> findSegments(File fifo_file) throws IOException {
+        final String prefix = fifo_file.getName() + ".";
+        File[] files = fifo_file.getAbsoluteFile().getParentFile().listFiles(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return name.startsWith(prefix) && name.substring(prefix.length()).matches("[0-9]+");
+            }
+        });
+
+        List<Segment> segments = new ArrayList<Segment>();
+
+        if (files == null) {
+            return segments;
+        }
+
+        for (File file : files) {
+            long sequence = Long.parseLong(file.getName().substring(prefix.length()));
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+
+            try {
+                if ((raf.length() >= HEADER_SIZE) && (raf.length() <= Integer.MAX_VALUE)
+                    && (raf.readInt() == SEGMENT_MAGIC)) {
+                    Segment segment = new Segment(file, sequence, (int) raf.length());
+                    segment.head = raf.readInt();
+                    segment.tail = raf.readInt();
+                    segment.count = raf.readInt();
+
+                    if ((segment.head >= HEADER_SIZE) && (segment.head <= segment.tail)
+                        && (segment.tail <= segment.size) && (segment.count >= 0)) {
+                        segments.add(segment);
+                        continue;
+                    }
+                }
+
+                LOG.warn(CommI18NResourceKeys.PERSISTENT_FIFO_INVALID_SEGMENT, file);
+            } finally {
+                raf.close();
+            }
+        }
+
+        Collections.sort(segments, new Comparator<Segment>() {
+            public int compare(Segment s1, Segment s2) {
+                return (s1.sequence < s2.sequence) ? -1 : ((s1.sequence == s2.sequence) ? 0 : 1);
+            }
+        });
+
+        return segments;
     }
 
     /**
-     * Reads the tail pointer from the file.
-     *
-     * @param  raf the file
+     * Returns the file of the segment with the given sequence number.
      *
-     * @return the current position that the tail pointer points to
+     * @param  fifo_file the FIFO file the segment belongs to
+     * @param  sequence  the segment's sequence number
      *
-     * @throws IOException if failed to access the file
+     * @return the segment file
      */
-    private long readTail(RandomAccessFile raf) throws IOException {
-        raf.seek(m_tailPosition);
-        m_tail = raf.readLong();
-        return m_tail;
+    private static File getSegmentFile(File fifo_file, long sequence) {
+        return new File(fifo_file.getParentFile(), fifo_file.getName() + "." + String.format(SEQUENCE_FORMAT, sequence));
     }
 
     /**
-     * Writes the tail pointer to the file pointing to the last entry in the queue.
+     * Reads the entry (the length followed by the data) that starts at the given position of a segment.
      *
-     * @param  raf      the file
-     * @param  tail_pos the new position of the tail pointer
+     * @param  buffer   the mapped segment
+     * @param  position where the entry starts
      *
-     * @throws IOException if failed to write to the file
+     * @return the entry's data
      */
-    private void writeTail(RandomAccessFile raf, long tail_pos) throws IOException {
-        raf.seek(m_tailPosition);
-        raf.writeLong(tail_pos);
-        m_tail = tail_pos;
-        return;
+    private static byte[] readEntry(ByteBuffer buffer, int position) {
+        byte[] entry = new byte[buffer.getInt(position)];
+        ByteBuffer data = buffer.duplicate();
+        data.position(position + LENGTH_SIZE);
+        data.get(entry);
+        return entry;
     }
 
     /**
@@ -659,7 +741,7 @@ public class PersistentFifo {
      *
      * @throws IOException if failed to compress the bytes
      */
-    private byte[] compress(byte[] bytes) throws IOException {
+    private static byte[] compress(byte[] bytes) throws IOException {
         ByteArrayOutputStream baos = new ByteArrayOutputStream(bytes.length);
         GZIPOutputStream gzip = new GZIPOutputStream(baos);
 
@@ -680,7 +762,7 @@ public class PersistentFifo {
      *
      * @throws IOException if failed to decompress the bytes
      */
-    private byte[] decompress(byte[] entry) throws IOException {
+    private static byte[] decompress(byte[] entry) throws IOException {
         ByteArrayOutputStream decompressed = new ByteArrayOutputStream(entry.length);
         ByteArrayInputStream in = new ByteArrayInputStream(entry);
         GZIPInputStream gzip_in = new GZIPInputStream(in);
@@ -690,4 +772,65 @@ public class PersistentFifo {
 
         return entry;
     }
-}
\ No newline at end of file
+
+    /**
+     * One segment file of the FIFO along with the values of its header.
+     */
+    private static class Segment {
+        final File file;
+        final long sequence;
+        final int size;
+        int head = HEADER_SIZE;
+        int tail = HEADER_SIZE;
+        int count;
+        private MappedByteBuffer buffer; // null while the segment is not mapped
+
+        Segment(File file, long sequence, int size) {
+            this.file = file;
+            this.sequence = sequence;
+            this.size = size;
+        }
+
+        /**
+         * Maps the segment file, creating it if need be. A mapping stays valid after its channel is closed, so no file
+         * handle is held on to.
+         */
+        ByteBuffer map(FileChannel.MapMode mode) throws IOException {
+            if (buffer == null) {
+                RandomAccessFile raf = new RandomAccessFile(file, (mode == FileChannel.MapMode.READ_ONLY) ? "r" : "rw");
+                try {
+                    buffer = raf.getChannel().map(mode, 0, size);
+                } finally {
+                    raf.close();
+                }
+            }
+
+            return buffer;
+        }
+
+        void unmap() {
+            // the mapping is released once the buffer is garbage collected
+            buffer = null;
+        }
+
+        /**
+         * Marks the segment as empty so its space is written over again.
+         */
+        void rewind(ByteBuffer buffer) {
+            head = HEADER_SIZE;
+            tail = HEADER_SIZE;
+            count = 0;
+            buffer.putInt(COUNT_POSITION, count);
+            buffer.putInt(HEAD_POSITION, head);
+            buffer.putInt(TAIL_POSITION, tail);
+        }
+
+        void delete() {
+            unmap();
+
+            if (!file.delete()) {
+                file.deleteOnExit();
+            }
+        }
+    }
+}
@@ -237,6 +237,18 @@ public interface CommI18NResourceKeys {
         @I18NMessage(value = "Die Maximalgrüße [{0}] muss größer oder gleich [{1}] sein", locale = "de") })
     String INVALID_MAX_SIZE = "PersistentFifo.invalid-max-size";
 
+    @I18NMessages( { @I18NMessage("The spool grew beyond its maximum size - [{0}] of the oldest entries were purged from [{1}]") })
+    String PERSISTENT_FIFO_PURGED = "PersistentFifo.purged";
+
+    @I18NMessages( { @I18NMessage("Moved [{0}] entries from the old spool file [{1}] into spool segments") })
+    String PERSISTENT_FIFO_MIGRATED = "PersistentFifo.migrated";
+
+    @I18NMessages( { @I18NMessage("Ignoring [{0}] - it is not a valid spool segment") })
+    String PERSISTENT_FIFO_INVALID_SEGMENT = "PersistentFifo.invalid-segment";
+
+    @I18NMessages( { @I18NMessage("Skipping a corrupt entry taken from the spool [{0}] - it is lost") })
+    String PERSISTENT_FIFO_CORRUPT_ENTRY = "PersistentFifo.corrupt-entry";
+
     @I18NMessages( { @I18NMessage("Failed to execute remote POJO method [{0}]. Cause: {1}") })
     String CLIENT_REMOTE_POJO_INVOKER_EXECUTION_FAILURE = "ClientRemotePojoFactory.execution-failure";
 
@@ -18,7 +18,15 @@
  */
 package org.rhq.enterprise.communications.command.client;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
 import org.testng.annotations.Test;
 
 /**
@@ -191,6 +199,202 @@ public class PersistentFifoTest {
             t.printStackTrace();
         } finally {
             fifoFile.delete();
+            deleteSegments(fifoFile);
+        }
+    }
+
+    /**
+     * Tests taking several entries at once.
+     */
+    public void testTakeBatch() throws Exception {
+        File fifoFile = getTestFile("TEST-batch.data");
+
+        try {
+            PersistentFifo fifo = new PersistentFifo(fifoFile, 100000L, 50, true);
+
+            assert fifo.take(10).isEmpty() : "SHOULD NOT BE ABLE TO TAKE";
+
+            for (int i = 0; i < 10; i++) {
+                fifo.put(("entry " + i).getBytes());
+            }
+
+            List<byte[]> batch = fifo.take(4);
+            assert batch.size() == 4 : batch.size();
+            for (int i = 0; i < 4; i++) {
+                assert new String(batch.get(i)).equals("entry " + i) : new String(batch.get(i));
+            }
+
+            assert fifo.count() == 6 : "count should be 6";
+
+            batch = fifo.take(100);
+            assert batch.size() == 6 : batch.size();
+            for (int i = 0; i < 6; i++) {
+                assert new String(batch.get(i)).equals("entry " + (i + 4)) : new String(batch.get(i));
+            }
+
+            assert fifo.isEmpty() : "SHOULD BE EMPTY";
+            assert fifo.take(5).isEmpty() : "SHOULD NOT BE ABLE TO TAKE";
+        } finally {
+            deleteSegments(fifoFile);
+        }
+    }
+
+    /**
+     * Tests that an entry that cannot be decompressed is skipped without losing the rest of the batch.
+     */
+    public void testTakeBatchWithCorruptEntry() throws Exception {
+        File fifoFile = getTestFile("TEST-corrupt.data");
+
+        try {
+            // spool the entries as they are, so one of them can be put in without compressing it
+            PersistentFifo fifo = new PersistentFifo(fifoFile, 100000L, 50, false);
+            fifo.put(gzip("entry 0"));
+            fifo.put("not compressed".getBytes());
+            fifo.put(gzip("entry 2"));
+
+            fifo = new PersistentFifo(fifoFile, 100000L, 50, true);
+            List<byte[]> batch = fifo.take(10);
+            assert batch.size() == 2 : batch.size();
+            assert new String(batch.get(0)).equals("entry 0") : new String(batch.get(0));
+            assert new String(batch.get(1)).equals("entry 2") : new String(batch.get(1));
+            assert fifo.isEmpty() : "SHOULD BE EMPTY";
+        } finally {
+            deleteSegments(fifoFile);
+        }
+    }
+
+    /**
+     * Tests that segments are deleted as a whole once all their entries have been taken and that the entries survive
+     * creating a new FIFO on the same file.
+     */
+    public void testSegments() throws Exception {
+        File fifoFile = getTestFile("TEST-segments.data");
+
+        try {
+            PersistentFifo fifo = new PersistentFifo(fifoFile, 100000L, 99, false);
+            byte[] entry = new byte[100];
+
+            for (int i = 0; i < 500; i++) {
+                entry[0] = (byte) i;
+                fifo.put(entry);
+            }
+
+            int segments = getSegments(fifoFile).length;
+            assert segments > 1 : "entries should have been spread over several segments: " + segments;
+            assert !fifoFile.exists() : "nothing should be written to the FIFO file itself";
+
+            for (int i = 0; i < 250; i++) {
+                assert fifo.take()[0] == (byte) i;
+            }
+
+            assert getSegments(fifoFile).length < segments : "taken segments should have been deleted";
+
+            fifo = new PersistentFifo(fifoFile, 100000L, 99, false);
+            assert fifo.count() == 250 : fifo.count();
+
+            for (int i = 250; i < 500; i++) {
+                assert fifo.take()[0] == (byte) i;
+            }
+
+            assert fifo.isEmpty() : "SHOULD BE EMPTY";
+            assert getSegments(fifoFile).length <= 1 : "only the tail segment should be left";
+
+            fifo = new PersistentFifo(fifoFile, 100000L, 99, false);
+            assert fifo.isEmpty() : "SHOULD BE EMPTY";
+            assert getSegments(fifoFile).length == 0 : "empty segments should have been deleted";
+        } finally {
+            deleteSegments(fifoFile);
+        }
+    }
+
+    /**
+     * Tests that a purge deletes the oldest entries and keeps the newest.
+     */
+    public void testPurge() throws Exception {
+        File fifoFile = getTestFile("TEST-purge.data");
+
+        try {
+            PersistentFifo fifo = new PersistentFifo(fifoFile, 10000L, 50, false);
+
+            for (int i = 0; i < 5000; i++) {
+                fifo.put(Integer.toString(i).getBytes());
+            }
+
+            long count = fifo.count();
+            assert (count > 0) && (count < 5000) : "oldest entries should have been purged: " + count;
+
+            long expected = 5000 - count;
+            byte[] data;
+            while ((data = fifo.take()) != null) {
+                assert Long.parseLong(new String(data)) == expected++ : new String(data);
+            }
+
+            assert expected == 5000 : "the newest entries should have been kept";
+        } finally {
+            deleteSegments(fifoFile);
+        }
+    }
+
+    /**
+     * Tests that the entries of a FIFO file written by older versions get moved into segments.
+     */
+    public void testMigrateLegacyFile() throws Exception {
+        File fifoFile = getTestFile("TEST-legacy.data");
+
+        try {
+            // count | HEAD | TAIL | next | entry | next | entry
+            byte[] first = "legacy 1".getBytes();
+            byte[] second = "legacy 2!".getBytes();
+            DataOutputStream out = new DataOutputStream(new FileOutputStream(fifoFile));
+            out.writeLong(2L);
+            out.writeLong(24L);
+            out.writeLong(24L + 8L + first.length);
+            out.writeLong(first.length);
+            out.write(first);
+            out.writeLong(-1L);
+            out.write(second);
+            out.close();
+
+            PersistentFifo fifo = new PersistentFifo(fifoFile, 100000L, 50, false);
+
+            assert !fifoFile.exists() : "the legacy file should have been deleted";
+            assert fifo.count() == 2 : fifo.count();
+            assert new String(fifo.take()).equals("legacy 1");
+            assert new String(fifo.take()).equals("legacy 2!");
+            assert fifo.isEmpty() : "SHOULD BE EMPTY";
+        } finally {
+            fifoFile.delete();
+            deleteSegments(fifoFile);
+        }
+    }
+
+    private byte[] gzip(String entry) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        GZIPOutputStream out = new GZIPOutputStream(bytes);
+        out.write(entry.getBytes());
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private File getTestFile(String name) {
+        File fifoFile = new File(System.getProperty("java.io.tmpdir"), name);
+        fifoFile.delete();
+        deleteSegments(fifoFile);
+        return fifoFile;
+    }
+
+    private File[] getSegments(File fifoFile) {
+        final String prefix = fifoFile.getName() + ".";
+        return fifoFile.getAbsoluteFile().getParentFile().listFiles(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return name.startsWith(prefix);
+            }
+        });
+    }
+
+    private void deleteSegments(File fifoFile) {
+        for (File segment : getSegments(fifoFile)) {
+            segment.delete();
         }
     }
 
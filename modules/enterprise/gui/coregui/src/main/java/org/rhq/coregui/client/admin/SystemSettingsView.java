@@ -522,6 +522,13 @@ public class SystemSettingsView extends EnhancedVLayout implements PropertyValue
                 pd.setDefaultValue("0");
                 break;
 
+            case PURGE_PARTITIONED_TABLES:
+                pd.setDescription(MSG.view_admin_systemSettings_PurgePartitionedTables_desc());
+                pd.setDisplayName(MSG.view_admin_systemSettings_PurgePartitionedTables_name());
+                pd.setPropertyGroupDefinition(purgeSettingsGroup);
+                pd.setDefaultValue("");
+                break;
+
             //////////////////////////////////////////////
             // Automatic Baseline Configuration Properties
 
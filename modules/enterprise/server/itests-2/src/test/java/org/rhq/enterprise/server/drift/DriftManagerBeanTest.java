@@ -194,6 +194,48 @@ public class DriftManagerBeanTest extends AbstractEJB3Test {
         assertEquals(DriftFileStatus.REQUESTED, driftFile.getStatus());
     }
 
+    @Test
+    public void testStoreChangeSetLargerThanBatch() throws Exception {
+        File rootDir = getTempDir();
+        File changeSetsDir = new File(rootDir, "changesets");
+        deleteDirectory(changeSetsDir);
+        changeSetsDir.mkdirs();
+
+        Headers headers = new Headers();
+        headers.setResourceId(newResource.getId());
+        headers.setDriftDefinitionId(1);
+        headers.setDriftDefinitionName("test-1");
+        headers.setBasedir(rootDir.getAbsolutePath());
+        headers.setType(COVERAGE);
+        headers.setVersion(0);
+
+        // more entries than are written in one batch, every other entry shares its content with the one before so
+        // that the same drift file is referenced more than once within a batch
+        int numEntries = 1201;
+        File changeSet1 = new File(changeSetsDir, "changeset-1.txt");
+        ChangeSetWriter writer = new ChangeSetWriterImpl(changeSet1, headers);
+        for (int i = 0; i < numEntries; ++i) {
+            writer.write(addedFileEntry("test/file-" + i, sha256("large-file-" + (i / 2)), 56789L, 1024L));
+        }
+        writer.close();
+
+        File changeSet1Zip = new File(changeSetsDir, "changeset-1.zip");
+        ZipUtil.zipFileOrDirectory(changeSet1, changeSet1Zip);
+
+        assertNotNull(jpaDriftServer.storeChangeSet(overlord, newResource.getId(), changeSet1Zip));
+
+        JPADriftChangeSetCriteria c = new JPADriftChangeSetCriteria();
+        c.addFilterResourceId(newResource.getId());
+        c.fetchDrifts(true);
+        List<? extends DriftChangeSet<?>> changeSets = jpaDriftServer.findDriftChangeSetsByCriteria(overlord, c);
+        assertEquals(1, changeSets.size());
+        assertEquals("Expected every entry to be stored", numEntries, changeSets.get(0).getDrifts().size());
+
+        DriftFile driftFile = jpaDriftServer.getDriftFile(overlord, sha256("large-file-" + (numEntries / 2)));
+        assertNotNull(driftFile);
+        assertEquals(DriftFileStatus.REQUESTED, driftFile.getStatus());
+    }
+
     @Test
     public void testDriftDef() throws Exception {
         Configuration config = new Configuration();
@@ -1327,6 +1327,59 @@ public class AvailabilityManagerTest extends AbstractEJB3Test {
         }
     }
 
+    /**
+     * See if a report with several changes for the same resource records each change as its own interval
+     *
+     * @throws Exception in case of error
+     */
+    @Test(enabled = ENABLE_TESTS)
+    public void testMergeReportWithSeveralChanges() throws Exception {
+        beginTx();
+
+        try {
+            setupResource();
+            commitAndClose();
+
+            long allAvailCount = setUpAvailabilities();
+
+            // we now have UNKNOWN, 1:00 UP, 1:20 DOWN, 1:40 UP; report DOWN, UP, UP (no change), UNKNOWN and DOWN
+            long start = availability3.getStartTime();
+            AvailabilityReport report = new AvailabilityReport(false, theAgent.getName());
+            report.addAvailability(new Availability(theResource, start + 60000, DOWN));
+            report.addAvailability(new Availability(theResource, start + 120000, UP));
+            report.addAvailability(new Availability(theResource, start + 130000, UP));
+            report.addAvailability(new Availability(theResource, start + 180000, UNKNOWN));
+            report.addAvailability(new Availability(theResource, start + 240000, DOWN));
+            availabilityManager.mergeAvailabilityReport(report);
+
+            assert countAvailabilitiesInDB().equals(allAvailCount + 4);
+            assert availabilityManager.getCurrentAvailabilityTypeForResource(overlord, theResource.getId()) == DOWN;
+
+            List<Availability> avails = getResourceAvailabilities(theResource);
+            assert avails.size() == 8 : avails;
+
+            long[] startTimes = { start, start + 60000, start + 120000, start + 180000, start + 240000 };
+            AvailabilityType[] types = { UP, DOWN, UP, UNKNOWN, DOWN };
+            for (int i = 0; i < startTimes.length; ++i) {
+                Availability avail = avails.get(i + 3);
+                assert avail.getStartTime() == startTimes[i] : avails;
+                assert avail.getAvailabilityType() == types[i] : avails;
+                if (i < (startTimes.length - 1)) {
+                    assert avail.getEndTime() == startTimes[i + 1] : avails;
+                } else {
+                    assert avail.getEndTime() == null : avails;
+                }
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            throw e;
+        } finally {
+            if (Status.STATUS_ACTIVE == getTransactionManager().getStatus()) {
+                getTransactionManager().rollback();
+            }
+        }
+    }
+
     /**
      * See if merging in AvailabilityReports from the agent work if it includes a stale resource
      *
@@ -20,12 +20,14 @@ package org.rhq.enterprise.server.resource.group.definition.framework.test;
 
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.List;
 
 import org.testng.annotations.Test;
 
 import org.rhq.core.domain.resource.group.DuplicateExpressionTypeException;
 import org.rhq.core.domain.resource.group.InvalidExpressionException;
+import org.rhq.enterprise.server.resource.group.definition.ResourceChangeType;
 import org.rhq.enterprise.server.resource.group.definition.framework.ExpressionEvaluator;
 import org.rhq.enterprise.server.test.AbstractEJB3Test;
 import org.rhq.enterprise.server.util.QueryUtility;
@@ -266,6 +268,51 @@ public class ExpressionEvaluatorTest extends AbstractEJB3Test {
         }
     }
 
+    @Test(groups = "integration.session")
+    public void testResourceLocalExpressions() throws Exception {
+        ExpressionEvaluator evaluator = getTestEvaluator("resource.name = joseph");
+        assert evaluator.isResourceLocal();
+        assert evaluator.getChangeTypes().equals(EnumSet.of(ResourceChangeType.INVENTORY));
+
+        evaluator = getTestEvaluator("resource.type.plugin = harry", "resource.trait[x] = 1",
+            "resource.pluginConfiguration[partition] = cluster-1");
+        assert evaluator.isResourceLocal();
+        assert evaluator.getChangeTypes().equals(
+            EnumSet.of(ResourceChangeType.INVENTORY, ResourceChangeType.TRAIT,
+                ResourceChangeType.PLUGIN_CONFIGURATION));
+
+        evaluator = getTestEvaluator("resource.resourceConfiguration[partition].contains = cluster-1");
+        assert evaluator.isResourceLocal();
+        assert evaluator.getChangeTypes().equals(
+            EnumSet.of(ResourceChangeType.INVENTORY, ResourceChangeType.RESOURCE_CONFIGURATION));
+
+        assert !getTestEvaluator("resource.parent.name = joseph").isResourceLocal();
+        assert !getTestEvaluator("resource.child.name = joseph").isResourceLocal();
+        assert !getTestEvaluator("resource.availability = UP").isResourceLocal();
+        assert !getTestEvaluator("groupby resource.type.name").isResourceLocal();
+        assert !getTestEvaluator("resource.name = joseph", "memberof = Group Name").isResourceLocal();
+    }
+
+    @Test(groups = "integration.session")
+    public void testResourceIdFilter() throws Exception {
+        ExpressionEvaluator evaluator = getTestEvaluator("resource.name = joseph");
+        evaluator.setResourceIdFilter(Arrays.asList(1, 2, 3));
+        evaluator.execute();
+
+        String expected = "SELECT res.id FROM Resource res WHERE res.name = :arg1 AND res.id IN (1, 2, 3)";
+        String actual = cleanUp(evaluator.getComputedJPQLStatement());
+        assert expected.equalsIgnoreCase(actual) : "Expected [" + expected + "], received [" + actual + "]";
+    }
+
+    private ExpressionEvaluator getTestEvaluator(String... expressions) throws InvalidExpressionException {
+        ExpressionEvaluator evaluator = new ExpressionEvaluator();
+        evaluator.setTestMode(true); // to prevent actual query from happening
+        for (String expression : expressions) {
+            evaluator.addExpression(expression);
+        }
+        return evaluator;
+    }
+
     private static interface ExpressionGenerator {
         String[] getExpressions();
     }
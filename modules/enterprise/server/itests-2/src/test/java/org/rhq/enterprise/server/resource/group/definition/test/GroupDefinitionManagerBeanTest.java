@@ -0,0 +1,260 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2015 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+package org.rhq.enterprise.server.resource.group.definition.test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.testng.annotations.Test;
+
+import org.rhq.core.domain.auth.Subject;
+import org.rhq.core.domain.configuration.Configuration;
+import org.rhq.core.domain.configuration.PluginConfigurationUpdate;
+import org.rhq.core.domain.configuration.PropertySimple;
+import org.rhq.core.domain.measurement.DataType;
+import org.rhq.core.domain.measurement.DisplayType;
+import org.rhq.core.domain.measurement.MeasurementCategory;
+import org.rhq.core.domain.measurement.MeasurementDataPK;
+import org.rhq.core.domain.measurement.MeasurementDataTrait;
+import org.rhq.core.domain.measurement.MeasurementDefinition;
+import org.rhq.core.domain.measurement.MeasurementSchedule;
+import org.rhq.core.domain.measurement.MeasurementUnits;
+import org.rhq.core.domain.resource.Agent;
+import org.rhq.core.domain.resource.InventoryStatus;
+import org.rhq.core.domain.resource.Resource;
+import org.rhq.core.domain.resource.ResourceCategory;
+import org.rhq.core.domain.resource.ResourceType;
+import org.rhq.core.domain.resource.group.GroupDefinition;
+import org.rhq.enterprise.server.configuration.ConfigurationManagerLocal;
+import org.rhq.enterprise.server.measurement.MeasurementDataManagerLocal;
+import org.rhq.enterprise.server.resource.ResourceManagerLocal;
+import org.rhq.enterprise.server.resource.group.definition.GroupDefinitionManagerLocal;
+import org.rhq.enterprise.server.test.AbstractEJB3Test;
+import org.rhq.enterprise.server.test.TransactionCallback;
+import org.rhq.enterprise.server.test.TransactionCallbackReturnable;
+import org.rhq.enterprise.server.util.LookupUtil;
+import org.rhq.enterprise.server.util.ResourceTreeHelper;
+
+/**
+ * Tests that the dynagroups of a definition are brought up to date with the recorded trait and plugin configuration
+ * changes, without evaluating the expression against the whole inventory.
+ */
+@Test
+public class GroupDefinitionManagerBeanTest extends AbstractEJB3Test {
+
+    private static final String TRAIT_NAME = "GroupDefinitionManagerBeanTest-partition";
+
+    private static final long HOUR = 60 * 60 * 1000L;
+
+    private GroupDefinitionManagerLocal groupDefinitionManager;
+    private ConfigurationManagerLocal configurationManager;
+    private MeasurementDataManagerLocal measurementDataManager;
+    private ResourceManagerLocal resourceManager;
+
+    private Subject overlord;
+
+    private Agent agent;
+    private ResourceType resourceType;
+    private MeasurementDefinition traitDefinition;
+    private List<Resource> resources;
+    private List<MeasurementSchedule> traitSchedules;
+    private GroupDefinition groupDefinition;
+
+    @Override
+    protected void beforeMethod() throws Exception {
+        groupDefinitionManager = LookupUtil.getGroupDefinitionManager();
+        configurationManager = LookupUtil.getConfigurationManager();
+        measurementDataManager = LookupUtil.getMeasurementDataManager();
+        resourceManager = LookupUtil.getResourceManager();
+        overlord = LookupUtil.getSubjectManager().getOverlord();
+
+        // resources 0 and 1 start in cluster-1, 2 and 3 in cluster-2
+        executeInTransaction(false, new TransactionCallback() {
+            @Override
+            public void execute() throws Exception {
+                long now = System.currentTimeMillis();
+
+                agent = new Agent("GroupDefinitionManagerBeanTest-agent", "localhost", 1234, "", "randomToken");
+                em.persist(agent);
+
+                resourceType = new ResourceType("GroupDefinitionManagerBeanTest-type", "test-plugin",
+                    ResourceCategory.PLATFORM, null);
+                em.persist(resourceType);
+
+                traitDefinition = new MeasurementDefinition(TRAIT_NAME, MeasurementCategory.PERFORMANCE,
+                    MeasurementUnits.NONE, DataType.TRAIT, true, 60000, DisplayType.SUMMARY);
+                traitDefinition.setResourceType(resourceType);
+                em.persist(traitDefinition);
+
+                resources = new ArrayList<Resource>();
+                traitSchedules = new ArrayList<MeasurementSchedule>();
+                for (int i = 0; i < 4; ++i) {
+                    String partition = (i < 2) ? "cluster-1" : "cluster-2";
+
+                    Resource resource = new Resource("GroupDefinitionManagerBeanTest-key" + i,
+                        "GroupDefinitionManagerBeanTest-name" + i, resourceType);
+                    resource.setUuid("" + new Random().nextInt());
+                    resource.setAgent(agent);
+                    resource.setInventoryStatus(InventoryStatus.COMMITTED);
+                    // committed long ago, so that only the recorded changes make them look changed
+                    resource.setItime(now - 24 * HOUR);
+                    resource.getPluginConfiguration().put(new PropertySimple("partition", partition));
+                    em.persist(resource);
+                    resources.add(resource);
+
+                    MeasurementSchedule schedule = new MeasurementSchedule(traitDefinition, resource);
+                    em.persist(schedule);
+                    traitDefinition.addSchedule(schedule);
+                    resource.addSchedule(schedule);
+                    traitSchedules.add(schedule);
+                }
+                em.flush();
+
+                for (int i = 0; i < 4; ++i) {
+                    insertTraitWithoutRecording(traitSchedules.get(i).getId(), now - HOUR, (i < 2) ? "cluster-1"
+                        : "cluster-2");
+                }
+            }
+        });
+    }
+
+    @Override
+    protected void afterMethod() throws Exception {
+        if (groupDefinition != null) {
+            groupDefinitionManager.removeGroupDefinition(overlord, groupDefinition.getId());
+            groupDefinition = null;
+        }
+
+        executeInTransaction(false, new TransactionCallback() {
+            @Override
+            public void execute() throws Exception {
+                List<Integer> resourceIds = getResourceIds(0, 1, 2, 3);
+                em.createNamedQuery(MeasurementDataTrait.QUERY_DELETE_BY_RESOURCES)
+                    .setParameter("resourceIds", resourceIds).executeUpdate();
+
+                for (Integer resourceId : resourceIds) {
+                    Resource resource = em.find(Resource.class, resourceId);
+                    for (PluginConfigurationUpdate update : resource.getPluginConfigurationUpdates()) {
+                        em.remove(update);
+                    }
+                    for (MeasurementSchedule schedule : resource.getSchedules()) {
+                        em.remove(schedule);
+                    }
+                    ResourceTreeHelper.deleteResource(em, resource);
+                }
+
+                em.remove(em.find(MeasurementDefinition.class, traitDefinition.getId()));
+                em.remove(em.find(ResourceType.class, resourceType.getId()));
+                em.remove(em.find(Agent.class, agent.getId()));
+            }
+        });
+    }
+
+    public void testTraitChangesUpdateMembershipIncrementally() throws Exception {
+        createGroupDefinition("resource.trait[" + TRAIT_NAME + "] = cluster-1");
+        assertEquals(getMemberIds(), new HashSet<Integer>(getResourceIds(0, 1)));
+
+        // resource 0 moves out of the partition and resource 2 into it, both through the trait report of the agent
+        long now = System.currentTimeMillis();
+        Set<MeasurementDataTrait> traits = new HashSet<MeasurementDataTrait>();
+        traits.add(new MeasurementDataTrait(new MeasurementDataPK(now, traitSchedules.get(0).getId()), "cluster-2"));
+        traits.add(new MeasurementDataTrait(new MeasurementDataPK(now, traitSchedules.get(2).getId()), "cluster-1"));
+        measurementDataManager.addTraitData(traits);
+
+        // resource 3 moves into the partition too, but behind the back of the change recording
+        executeInTransaction(false, new TransactionCallback() {
+            @Override
+            public void execute() throws Exception {
+                insertTraitWithoutRecording(traitSchedules.get(3).getId(), System.currentTimeMillis(), "cluster-1");
+            }
+        });
+
+        groupDefinitionManager.calculateGroupMembershipForChanges(overlord, groupDefinition.getId());
+
+        // only the recorded changes were evaluated
+        assertEquals(getMemberIds(), new HashSet<Integer>(getResourceIds(1, 2)));
+
+        groupDefinitionManager.calculateGroupMembership(overlord, groupDefinition.getId());
+        assertEquals(getMemberIds(), new HashSet<Integer>(getResourceIds(1, 2, 3)));
+    }
+
+    public void testPluginConfigurationChangesUpdateMembershipIncrementally() throws Exception {
+        createGroupDefinition("resource.pluginConfiguration[partition] = cluster-1");
+        assertEquals(getMemberIds(), new HashSet<Integer>(getResourceIds(0, 1)));
+
+        upgradePartition(0, "cluster-2");
+        upgradePartition(2, "cluster-1");
+
+        groupDefinitionManager.calculateGroupMembershipForChanges(overlord, groupDefinition.getId());
+        assertEquals(getMemberIds(), new HashSet<Integer>(getResourceIds(1, 2)));
+
+        // nothing changed since, a second pass leaves the membership alone
+        groupDefinitionManager.calculateGroupMembershipForChanges(overlord, groupDefinition.getId());
+        assertEquals(getMemberIds(), new HashSet<Integer>(getResourceIds(1, 2)));
+    }
+
+    private void createGroupDefinition(String expression) throws Exception {
+        GroupDefinition newGroupDefinition = new GroupDefinition("GroupDefinitionManagerBeanTest-"
+            + System.currentTimeMillis());
+        newGroupDefinition.setExpression(expression);
+        groupDefinition = groupDefinitionManager.createGroupDefinition(overlord, newGroupDefinition);
+
+        // the first calculation is always a full one
+        groupDefinitionManager.calculateGroupMembership(overlord, groupDefinition.getId());
+    }
+
+    private void upgradePartition(int resourceIndex, String partition) throws Exception {
+        Configuration pluginConfiguration = new Configuration();
+        pluginConfiguration.put(new PropertySimple("partition", partition));
+        configurationManager.upgradePluginConfiguration(overlord, resources.get(resourceIndex).getId(),
+            pluginConfiguration);
+    }
+
+    private Set<Integer> getMemberIds() {
+        return executeInTransaction(new TransactionCallbackReturnable<Set<Integer>>() {
+            @Override
+            public Set<Integer> execute() throws Exception {
+                @SuppressWarnings("unchecked")
+                List<Integer> groupIds = em
+                    .createQuery("SELECT rg.id FROM ResourceGroup rg WHERE rg.groupDefinition.id = :groupDefinitionId")
+                    .setParameter("groupDefinitionId", groupDefinition.getId()).getResultList();
+                assertEquals("Expected a single dynagroup", 1, groupIds.size());
+
+                return new HashSet<Integer>(resourceManager.findExplicitResourceIdsByResourceGroup(groupIds.get(0)));
+            }
+        });
+    }
+
+    private List<Integer> getResourceIds(Integer... resourceIndexes) {
+        List<Integer> result = new ArrayList<Integer>();
+        for (int resourceIndex : resourceIndexes) {
+            result.add(resources.get(resourceIndex).getId());
+        }
+        return result;
+    }
+
+    private void insertTraitWithoutRecording(int scheduleId, long timestamp, String value) {
+        em.createNativeQuery(
+            "INSERT INTO RHQ_MEASUREMENT_DATA_TRAIT ( TIME_STAMP, SCHEDULE_ID, VALUE ) VALUES ( ?, ?, ? )")
+            .setParameter(1, timestamp).setParameter(2, scheduleId).setParameter(3, value).executeUpdate();
+    }
+}
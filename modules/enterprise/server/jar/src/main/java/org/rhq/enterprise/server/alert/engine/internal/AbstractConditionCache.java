@@ -30,6 +30,7 @@ import org.rhq.enterprise.server.alert.engine.AlertConditionCacheStats;
 import org.rhq.enterprise.server.alert.engine.jms.CachedConditionProducerLocal;
 import org.rhq.enterprise.server.alert.engine.model.AbstractCacheElement;
 import org.rhq.enterprise.server.alert.engine.model.CacheElementActivity;
+import org.rhq.enterprise.server.alert.engine.model.NumericDoubleCacheElement;
 import org.rhq.enterprise.server.util.LookupUtil;
 
 /**
@@ -112,6 +113,56 @@ abstract class AbstractConditionCache {
         }
     }
 
+    /**
+     * The batched variant of {@link #processCacheElements(List, Object, long, AlertConditionCacheStats, Object...)}
+     * for a run of numeric values of the same schedule, ordered by timestamp. Each element is compared against all
+     * values of the run with primitive comparisons before moving on to the next element, which produces the same
+     * messages per condition, in the same order, as processing the values one at a time.
+     */
+    <T extends NumericDoubleCacheElement> void processNumericCacheElements(List<T> cacheElements, double[] values,
+        long[] timestamps, int from, int to, AlertConditionCacheStats stats) {
+        if (cacheElements == null) {
+            return; // nothing to do
+        }
+
+        int errors = 0;
+
+        for (T cacheElement : cacheElements) {
+            boolean stateful = cacheElement.isType(AlertConditionOperator.Type.STATEFUL);
+
+            for (int i = from; i < to; ++i) {
+                if (cacheElement.matchesValue(values[i])) {
+                    try {
+                        cacheElement.setActivity(CacheElementActivity.ACTIVE);
+                        cachedConditionProducer.sendActivateAlertConditionMessage(
+                            cacheElement.getAlertConditionTriggerId(), timestamps[i], String.valueOf(values[i]));
+
+                        stats.matched++;
+                    } catch (Exception e) {
+                        log.error("Error processing matched cache element '" + cacheElement + "': " + e.getMessage());
+                        errors++;
+                    }
+                } else if (stateful && cacheElement.getActivity().maybeActive()) {
+                    cacheElement.setActivity(CacheElementActivity.INACTIVE);
+
+                    try {
+                        cachedConditionProducer.sendDeactivateAlertConditionMessage(
+                            cacheElement.getAlertConditionTriggerId(), timestamps[i]);
+                    } catch (Exception e) {
+                        log.error("Error sending deactivation message for cache element '" + cacheElement + "': "
+                            + e.getMessage());
+                        errors++;
+                    }
+                }
+            }
+        }
+
+        if (errors != 0) {
+            log.error("There were " + errors + " alert conditions that did not fire. "
+                + "Please check the configuration of the JMS subsystem and try again. ");
+        }
+    }
+
     <T extends AbstractCacheElement<?>> boolean addTo(String mapName, Map<Integer, List<T>> cache, Integer key,
         T cacheElement, int alertConditionId, AlertConditionCacheStats stats) {
         List<T> cacheElements = cache.get(key);
@@ -141,5 +192,26 @@ abstract class AbstractConditionCache {
         return success;
     }
 
+    <T extends AbstractCacheElement<?>> boolean addTo(String mapName, IntKeyedListMap<T> cache, int key,
+        T cacheElement, int alertConditionId, AlertConditionCacheStats stats) {
+        boolean success;
+
+        if (cacheElement != null) {
+            if (log.isTraceEnabled()) {
+                log.trace("Inserting '" + mapName + "' element: " + "key=" + key + ", " + "value=" + cacheElement);
+            }
+
+            success = cache.add(key, cacheElement);
+            if (success) {
+                stats.created++;
+            }
+        } else {
+            success = false;
+            log.warn("Cannot insert null cache element in '" + mapName + "' element: " + "key=" + key);
+        }
+
+        return success;
+    }
+
     public abstract int getCacheSize(AlertConditionCacheCoordinator.Cache cache);
 }
@@ -25,7 +25,6 @@ import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 import org.rhq.core.domain.alert.AlertCondition;
@@ -76,11 +75,15 @@ import org.rhq.enterprise.server.util.LookupUtil;
  */
 class AgentConditionCache extends AbstractConditionCache {
 
-    private Map<Integer, List<NumericDoubleCacheElement>> measurementDataCache; // key: schedule ID
-    private Map<Integer, List<MeasurementTraitCacheElement>> measurementTraitCache; // key: schedule ID
-    private Map<Integer, List<CallTimeDataCacheElement>> callTimeCache; // key: schedule ID
-    private Map<Integer, List<EventCacheElement>> eventsCache; // key: resource ID
-    private Map<Integer, List<DriftCacheElement>> driftCache; // key: resource ID
+    /*
+     * the caches are filled in the constructor and never modified afterwards, a reload replaces the whole
+     * AgentConditionCache, so they can be read without locking once the coordinator has published this instance
+     */
+    private final IntKeyedListMap<NumericDoubleCacheElement> measurementDataCache; // key: schedule ID
+    private final IntKeyedListMap<MeasurementTraitCacheElement> measurementTraitCache; // key: schedule ID
+    private final IntKeyedListMap<CallTimeDataCacheElement> callTimeCache; // key: schedule ID
+    private final IntKeyedListMap<EventCacheElement> eventsCache; // key: resource ID
+    private final IntKeyedListMap<DriftCacheElement> driftCache; // key: resource ID
 
     private AlertConditionManagerLocal alertConditionManager;
     private MeasurementDataManagerLocal measurementDataManager;
@@ -93,17 +96,23 @@ class AgentConditionCache extends AbstractConditionCache {
 
         this.agentId = agentId;
 
-        measurementDataCache = new HashMap<Integer, List<NumericDoubleCacheElement>>();
-        measurementTraitCache = new HashMap<Integer, List<MeasurementTraitCacheElement>>();
-        callTimeCache = new HashMap<Integer, List<CallTimeDataCacheElement>>();
-        eventsCache = new HashMap<Integer, List<EventCacheElement>>();
-        driftCache = new HashMap<Integer, List<DriftCacheElement>>();
+        measurementDataCache = new IntKeyedListMap<NumericDoubleCacheElement>();
+        measurementTraitCache = new IntKeyedListMap<MeasurementTraitCacheElement>();
+        callTimeCache = new IntKeyedListMap<CallTimeDataCacheElement>();
+        eventsCache = new IntKeyedListMap<EventCacheElement>();
+        driftCache = new IntKeyedListMap<DriftCacheElement>();
 
         alertConditionManager = LookupUtil.getAlertConditionManager();
         measurementDataManager = LookupUtil.getMeasurementDataManager();
         subjectManager = LookupUtil.getSubjectManager();
 
         loadCachesForAgent(agentId);
+
+        measurementDataCache.trimToSize();
+        measurementTraitCache.trimToSize();
+        callTimeCache.trimToSize();
+        eventsCache.trimToSize();
+        driftCache.trimToSize();
     }
 
     /**
@@ -393,15 +402,41 @@ class AgentConditionCache extends AbstractConditionCache {
 
         AlertConditionCacheStats stats = new AlertConditionCacheStats();
         try {
-            for (MeasurementData datum : measurementData) {
+            /*
+             * numeric data is checked a run of consecutive values of the same schedule at a time, so the cache is
+             * probed once per schedule and the values are compared as primitives; callers pass the data sorted by
+             * schedule id and timestamp, which makes each run cover all values of its schedule
+             */
+            double[] values = null;
+            long[] timestamps = null;
+
+            for (int i = 0; i < measurementData.length; ++i) {
+                MeasurementData datum = measurementData[i];
                 int scheduleId = datum.getScheduleId();
 
                 if (datum instanceof MeasurementDataNumeric) {
+                    int end = i + 1;
+                    while (end < measurementData.length && measurementData[end].getScheduleId() == scheduleId
+                        && measurementData[end] instanceof MeasurementDataNumeric) {
+                        ++end;
+                    }
+
                     List<? extends NumericDoubleCacheElement> conditionCacheElements = lookupMeasurementDataCacheElements(scheduleId);
+                    if (conditionCacheElements != null) {
+                        if (values == null) {
+                            values = new double[measurementData.length];
+                            timestamps = new long[measurementData.length];
+                        }
+                        for (int j = i; j < end; ++j) {
+                            Double providedValue = ((MeasurementDataNumeric) measurementData[j]).getValue();
+                            values[j] = (providedValue == null) ? Double.NaN : providedValue.doubleValue();
+                            timestamps[j] = measurementData[j].getTimestamp();
+                        }
 
-                    Double providedValue = ((MeasurementDataNumeric) datum).getValue();
+                        processNumericCacheElements(conditionCacheElements, values, timestamps, i, end, stats);
+                    }
 
-                    processCacheElements(conditionCacheElements, providedValue, datum.getTimestamp(), stats);
+                    i = end - 1;
                 } else if (datum instanceof MeasurementDataTrait) {
                     List<MeasurementTraitCacheElement> cacheElements = lookupMeasurementTraitCacheElements(scheduleId);
 
@@ -638,15 +673,15 @@ class AgentConditionCache extends AbstractConditionCache {
     @Override
     public int getCacheSize(Cache cache) {
         if (cache == AlertConditionCacheCoordinator.Cache.MeasurementDataCache) {
-            return AlertConditionCacheUtils.getMapListCount(measurementDataCache);
+            return measurementDataCache.getElementCount();
         } else if (cache == AlertConditionCacheCoordinator.Cache.MeasurementTraitCache) {
-            return AlertConditionCacheUtils.getMapListCount(measurementTraitCache);
+            return measurementTraitCache.getElementCount();
         } else if (cache == AlertConditionCacheCoordinator.Cache.CallTimeDataCache) {
-            return AlertConditionCacheUtils.getMapListCount(callTimeCache);
+            return callTimeCache.getElementCount();
         } else if (cache == AlertConditionCacheCoordinator.Cache.EventsCache) {
-            return AlertConditionCacheUtils.getMapListCount(eventsCache);
+            return eventsCache.getElementCount();
         } else if (cache == AlertConditionCacheCoordinator.Cache.DriftCache) {
-            return AlertConditionCacheUtils.getMapListCount(driftCache);
+            return driftCache.getElementCount();
         } else {
             throw new IllegalArgumentException("The " + AgentConditionCache.class.getSimpleName()
                 + " either does not manage caches of type " + cache.type + ", or does not support obtaining their size");
@@ -0,0 +1,151 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2015 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.rhq.enterprise.server.alert.engine.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A multi-map from primitive int keys (schedule or resource ids) to lists of cache elements. The keys are kept in an
+ * open addressing table with linear probing, so there is neither an Integer nor a map entry per key, and the lists
+ * are trimmed to their size once the cache has been loaded.
+ * <br/><br/>
+ * Instances are <strong>not</strong> thread safe. An {@link AgentConditionCache} fills its maps in its constructor
+ * and only reads them after it has been published by the {@link AlertConditionCacheCoordinator}.
+ */
+final class IntKeyedListMap<T> {
+
+    private static final int MIN_CAPACITY = 16;
+
+    private int[] keys;
+
+    /** null marks a free slot, the lists are never empty */
+    private Object[] values;
+
+    private int size;
+
+    IntKeyedListMap() {
+        keys = new int[MIN_CAPACITY];
+        values = new Object[MIN_CAPACITY];
+    }
+
+    /**
+     * @return The elements stored for the key or null if there are none
+     */
+    @SuppressWarnings("unchecked")
+    List<T> get(int key) {
+        int mask = keys.length - 1;
+        for (int i = mix(key) & mask; values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                return (List<T>) values[i];
+            }
+        }
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    boolean add(int key, T element) {
+        int mask = keys.length - 1;
+        int i = mix(key) & mask;
+        for (; values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                return ((List<T>) values[i]).add(element);
+            }
+        }
+
+        // most keys have a single condition, start small
+        List<T> elements = new ArrayList<T>(2);
+        elements.add(element);
+        keys[i] = key;
+        values[i] = elements;
+        if (++size * 2 > keys.length) {
+            resize(keys.length * 2);
+        }
+        return true;
+    }
+
+    /**
+     * @return The number of keys
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return The number of elements stored for all keys
+     */
+    int getElementCount() {
+        int count = 0;
+        for (Object value : values) {
+            if (value != null) {
+                count += ((List<?>) value).size();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Releases the spare capacity of the element lists. Called once all elements have been added.
+     */
+    void trimToSize() {
+        for (Object value : values) {
+            if (value != null) {
+                ((ArrayList<?>) value).trimToSize();
+            }
+        }
+    }
+
+    private void resize(int capacity) {
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new int[capacity];
+        values = new Object[capacity];
+        int mask = capacity - 1;
+        for (int j = 0; j < oldKeys.length; ++j) {
+            if (oldValues[j] != null) {
+                int i = mix(oldKeys[j]) & mask;
+                while (values[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+            }
+        }
+    }
+
+    private static int mix(int key) {
+        // ids are sequential, spread them so that neighbouring ids do not form long probe chains
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("{");
+        for (int i = 0; i < keys.length; ++i) {
+            if (values[i] != null) {
+                if (builder.length() > 1) {
+                    builder.append(", ");
+                }
+                builder.append(keys[i]).append('=').append(values[i]);
+            }
+        }
+        return builder.append('}').toString();
+    }
+}
@@ -84,6 +84,33 @@ public class MeasurementRangeNumericCacheElement extends MeasurementNumericCache
         return false;
     }
 
+    @Override
+    public boolean matchesValue(double providedValue) {
+        // same rules as above, see there for the meaning of the operators
+        if (alertConditionValue == null || alertConditionOperatorOption == null) {
+            return false;
+        }
+
+        double loValue = alertConditionValue.doubleValue();
+        double hiValue = ((Double) alertConditionOperatorOption).doubleValue();
+        if (Double.isNaN(loValue) || Double.isInfinite(loValue) || Double.isNaN(providedValue)
+            || Double.isInfinite(providedValue)) {
+            return false;
+        }
+
+        if (alertConditionOperator == AlertConditionOperator.LESS_THAN) {
+            return Double.compare(providedValue, loValue) > 0 && Double.compare(providedValue, hiValue) < 0;
+        } else if (alertConditionOperator == AlertConditionOperator.GREATER_THAN) {
+            return !(Double.compare(providedValue, loValue) > 0 && Double.compare(providedValue, hiValue) < 0);
+        } else if (alertConditionOperator == AlertConditionOperator.LESS_THAN_OR_EQUAL_TO) {
+            return Double.compare(providedValue, loValue) >= 0 && Double.compare(providedValue, hiValue) <= 0;
+        } else if (alertConditionOperator == AlertConditionOperator.GREATER_THAN_OR_EQUAL_TO) {
+            return !(Double.compare(providedValue, loValue) >= 0 && Double.compare(providedValue, hiValue) <= 0);
+        }
+
+        return false;
+    }
+
     @Override
     public AlertConditionOperator.Type getOperatorSupportsType(AlertConditionOperator operator) {
         if ((operator == AlertConditionOperator.GREATER_THAN) || (operator == AlertConditionOperator.LESS_THAN)
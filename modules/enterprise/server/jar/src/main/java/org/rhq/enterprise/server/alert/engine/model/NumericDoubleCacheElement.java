@@ -71,6 +71,40 @@ public abstract class NumericDoubleCacheElement extends AbstractCacheElement<Dou
         }
     }
 
+    /**
+     * The primitive variant of {@link #matches(Double, Object...)} used when a whole batch of numeric data is checked
+     * against this element. The absolute comparisons are done on primitives, operators that update the element's
+     * state fall back to the boxed comparison.
+     */
+    public boolean matchesValue(double providedValue) {
+        if (alertConditionOperator == AlertConditionOperator.CHANGES) {
+            return matches(Double.valueOf(providedValue));
+        }
+
+        if (alertConditionValue == null || Double.isNaN(providedValue) || Double.isInfinite(providedValue)) {
+            return false;
+        }
+
+        double conditionValue = alertConditionValue.doubleValue();
+        if (Double.isNaN(conditionValue) || Double.isInfinite(conditionValue)) {
+            return false;
+        }
+
+        if (alertConditionOperator == AlertConditionOperator.GREATER_THAN) {
+            return (Double.compare(providedValue, conditionValue) > 0);
+
+        } else if (alertConditionOperator == AlertConditionOperator.LESS_THAN) {
+            return (Double.compare(providedValue, conditionValue) < 0);
+
+        } else if (alertConditionOperator == AlertConditionOperator.EQUALS) {
+            return (Double.compare(providedValue, conditionValue) == 0);
+
+        } else {
+            throw new UnsupportedAlertConditionOperatorException(getClass().getSimpleName() + " does not yet support "
+                + alertConditionOperator);
+        }
+    }
+
     @Override
     public AlertConditionOperator.Type getOperatorSupportsType(AlertConditionOperator operator) {
         if ((operator == AlertConditionOperator.GREATER_THAN) || (operator == AlertConditionOperator.EQUALS)
@@ -733,6 +733,7 @@ public class SubjectManagerBean implements SubjectManagerLocal, SubjectManagerRe
             for (Role doomedRoleRelationship : roles) {
                 doomedRoleRelationship.removeSubject(doomedSubject);
             }
+            authorizationManager.invalidatePermissions(doomedSubjectId);
 
             // TODO: we need to reassign ownership of things this user used to own
 
@@ -23,11 +23,19 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
+import javax.annotation.Resource;
+import javax.ejb.EJB;
 import javax.ejb.Stateless;
 import javax.interceptor.ExcludeDefaultInterceptors;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
 import javax.persistence.Query;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 
 import org.rhq.core.domain.auth.Subject;
 import org.rhq.core.domain.authz.Permission;
@@ -35,6 +43,8 @@ import org.rhq.core.domain.authz.Permission.Target;
 import org.rhq.core.domain.content.Repo;
 import org.rhq.core.domain.resource.group.ResourceGroup;
 import org.rhq.enterprise.server.RHQConstants;
+import org.rhq.enterprise.server.authz.SubjectPermissionCache.Check;
+import org.rhq.enterprise.server.cloud.StatusManagerLocal;
 
 /**
  * @author Joseph Marques
@@ -45,20 +55,147 @@ import org.rhq.enterprise.server.RHQConstants;
 @Stateless
 public class AuthorizationManagerBean implements AuthorizationManagerLocal {
 
+    private static final Log LOG = LogFactory.getLog(AuthorizationManagerBean.class);
+
     private static final int SUBJECT_ID_OVERLORD = 1;
     private static final int SUBJECT_ID_RHQADMIN = 2;
 
+    /**
+     * How long the effective permissions of a subject are reused, for how many subjects at most, and how many
+     * resource and group checks are kept per subject. A TTL of 0 disables the cache.
+     */
+    private static final SubjectPermissionCache PERMISSION_CACHE = new SubjectPermissionCache(Long.getLong(
+        "rhq.server.authz.cache.ttl", 60000L), Integer.getInteger("rhq.server.authz.cache.max-subjects", 1000),
+        Integer.getInteger("rhq.server.authz.cache.max-checks", 10000));
+
     @PersistenceContext(unitName = RHQConstants.PERSISTENCE_UNIT_NAME)
     private EntityManager entityManager;
 
+    @EJB
+    //@IgnoreDependency
+    private StatusManagerLocal statusManager;
+
+    @Resource
+    private TransactionSynchronizationRegistry transactionSynchronizationRegistry;
+
+    @Override
+    public void invalidatePermissions(int subjectId) {
+        invalidatePermissions(Integer.valueOf(subjectId));
+    }
+
+    @Override
+    public void invalidatePermissions() {
+        invalidatePermissions(null);
+    }
+
+    /**
+     * The change being made is only visible to other transactions once the current one commits, so the cache is
+     * invalidated again when it completes, and the invalidated subjects are not cached in between. The other servers
+     * are only flagged once the change committed, in a transaction of their own, so the flag neither precedes the
+     * change nor locks the server rows for the rest of the caller's transaction.
+     */
+    private void invalidatePermissions(Integer subjectId) {
+        if (transactionSynchronizationRegistry == null
+            || transactionSynchronizationRegistry.getTransactionKey() == null) {
+            PERMISSION_CACHE.beginInvalidation(subjectId);
+            PERMISSION_CACHE.endInvalidation(subjectId);
+            statusManager.markAuthorizationCache();
+            return;
+        }
+
+        PendingInvalidation pending = (PendingInvalidation) transactionSynchronizationRegistry
+            .getResource(PendingInvalidation.class);
+        if (pending == null) {
+            pending = new PendingInvalidation(statusManager);
+            // registered first, so a pending invalidation always gets to end
+            transactionSynchronizationRegistry.registerInterposedSynchronization(pending);
+            transactionSynchronizationRegistry.putResource(PendingInvalidation.class, pending);
+        }
+        pending.begin(subjectId);
+    }
+
+    @Override
+    public void clearPermissionCache() {
+        PERMISSION_CACHE.invalidateAll();
+    }
+
+    /**
+     * The invalidations begun in a transaction, which end once the transaction completed.
+     */
+    private static class PendingInvalidation implements Synchronization {
+        private final StatusManagerLocal statusManager;
+        private final Set<Integer> subjectIds = new HashSet<Integer>();
+        private boolean allSubjects;
+
+        PendingInvalidation(StatusManagerLocal statusManager) {
+            this.statusManager = statusManager;
+        }
+
+        void begin(Integer subjectId) {
+            if (subjectId == null ? allSubjects : !subjectIds.add(subjectId)) {
+                // already pending, the entry can't have been stored since
+                return;
+            }
+            if (subjectId == null) {
+                allSubjects = true;
+            }
+            PERMISSION_CACHE.beginInvalidation(subjectId);
+        }
+
+        @Override
+        public void beforeCompletion() {
+        }
+
+        @Override
+        public void afterCompletion(int status) {
+            try {
+                for (Integer subjectId : subjectIds) {
+                    PERMISSION_CACHE.endInvalidation(subjectId);
+                }
+                if (allSubjects) {
+                    PERMISSION_CACHE.endInvalidation(null);
+                }
+            } finally {
+                if (status == Status.STATUS_COMMITTED) {
+                    markAuthorizationCache();
+                }
+            }
+        }
+
+        private void markAuthorizationCache() {
+            try {
+                statusManager.markAuthorizationCache();
+            } catch (RuntimeException e) {
+                LOG.warn("Failed to flag the other servers to invalidate their permission caches, they keep the "
+                    + "cached permissions until these expire", e);
+            }
+        }
+    }
+
+    /**
+     * @return the cached permissions of the subject, or null if the subject can't be cached
+     */
+    private SubjectPermissionCache.Entry getCachedPermissions(Subject subject) {
+        if (subject == null || subject.getId() == 0 || !PERMISSION_CACHE.isEnabled()) {
+            return null;
+        }
+
+        long now = System.currentTimeMillis();
+        SubjectPermissionCache.Entry entry = PERMISSION_CACHE.get(subject.getId(), now);
+        if (entry == null) {
+            long generation = PERMISSION_CACHE.getGeneration();
+            entry = PERMISSION_CACHE.put(subject.getId(), queryRolePermissions(subject), generation, now);
+        }
+        return entry;
+    }
+
     @Override
-    @SuppressWarnings("unchecked")
     public Set<Permission> getExplicitGlobalPermissions(Subject subject) {
-        Query query = entityManager.createNamedQuery(Subject.QUERY_GET_GLOBAL_PERMISSIONS);
-        query.setParameter("subject", subject);
-        List<Permission> intermediate = query.getResultList();
+        SubjectPermissionCache.Entry cached = getCachedPermissions(subject);
+        Set<Permission> rolePermissions = (cached != null) ? cached.getRolePermissions()
+            : queryRolePermissions(subject);
         Set<Permission> results = new HashSet<Permission>();
-        for (Permission permission : intermediate) {
+        for (Permission permission : rolePermissions) {
             if (permission.getTarget() == Target.GLOBAL) {
                 results.add(permission);
             }
@@ -67,6 +204,14 @@ public class AuthorizationManagerBean implements AuthorizationManagerLocal {
         return results;
     }
 
+    @SuppressWarnings("unchecked")
+    private Set<Permission> queryRolePermissions(Subject subject) {
+        Query query = entityManager.createNamedQuery(Subject.QUERY_GET_GLOBAL_PERMISSIONS);
+        query.setParameter("subject", subject);
+        List<Permission> intermediate = query.getResultList();
+        return new HashSet<Permission>(intermediate);
+    }
+
     @Override
     @SuppressWarnings("unchecked")
     public Set<Permission> getExplicitGroupPermissions(Subject subject, int groupId) {
@@ -136,6 +281,11 @@ public class AuthorizationManagerBean implements AuthorizationManagerLocal {
             return true;
         }
 
+        SubjectPermissionCache.Entry cached = getCachedPermissions(subject);
+        if (cached != null) {
+            return cached.getRolePermissions().contains(permission);
+        }
+
         Query query = entityManager.createNamedQuery(Subject.QUERY_HAS_GLOBAL_PERMISSION);
         query.setParameter("subject", subject);
         query.setParameter("permission", permission);
@@ -144,12 +294,26 @@ public class AuthorizationManagerBean implements AuthorizationManagerLocal {
     }
 
     @Override
-    @SuppressWarnings("unchecked")
     public boolean hasGroupPermission(Subject subject, Permission permission, int groupId) {
         if (isInventoryManager(subject)) {
             return true;
         }
 
+        SubjectPermissionCache.Entry cached = getCachedPermissions(subject);
+        if (cached == null) {
+            return queryGroupPermission(subject, permission, groupId);
+        }
+
+        Boolean outcome = cached.getCheck(Check.GROUP_PERMISSION, permission, groupId);
+        if (outcome == null) {
+            outcome = queryGroupPermission(subject, permission, groupId);
+            cached.putCheck(Check.GROUP_PERMISSION, permission, groupId, outcome);
+        }
+        return outcome;
+    }
+
+    @SuppressWarnings("unchecked")
+    private boolean queryGroupPermission(Subject subject, Permission permission, int groupId) {
         ResourceGroup group = entityManager.find(ResourceGroup.class, groupId);
         Subject owner = group.getSubject();
 
@@ -183,6 +347,20 @@ public class AuthorizationManagerBean implements AuthorizationManagerLocal {
             return true;
         }
 
+        SubjectPermissionCache.Entry cached = getCachedPermissions(subject);
+        if (cached == null) {
+            return queryResourcePermission(subject, permission, resourceId);
+        }
+
+        Boolean outcome = cached.getCheck(Check.RESOURCE_PERMISSION, permission, resourceId);
+        if (outcome == null) {
+            outcome = queryResourcePermission(subject, permission, resourceId);
+            cached.putCheck(Check.RESOURCE_PERMISSION, permission, resourceId, outcome);
+        }
+        return outcome;
+    }
+
+    private boolean queryResourcePermission(Subject subject, Permission permission, int resourceId) {
         Query query = entityManager.createNamedQuery(Subject.QUERY_HAS_RESOURCE_PERMISSION);
         query.setParameter("subject", subject);
         query.setParameter("permission", permission);
@@ -291,6 +469,20 @@ public class AuthorizationManagerBean implements AuthorizationManagerLocal {
             return true;
         }
 
+        SubjectPermissionCache.Entry cached = getCachedPermissions(subject);
+        if (cached == null) {
+            return queryCanViewResource(subject, resourceId);
+        }
+
+        Boolean outcome = cached.getCheck(Check.VIEW_RESOURCE, null, resourceId);
+        if (outcome == null) {
+            outcome = queryCanViewResource(subject, resourceId);
+            cached.putCheck(Check.VIEW_RESOURCE, null, resourceId, outcome);
+        }
+        return outcome;
+    }
+
+    private boolean queryCanViewResource(Subject subject, int resourceId) {
         Query query = entityManager.createNamedQuery(Subject.QUERY_CAN_VIEW_RESOURCE);
         query.setParameter("subject", subject);
         query.setParameter("resourceId", resourceId);
@@ -318,6 +510,20 @@ public class AuthorizationManagerBean implements AuthorizationManagerLocal {
             return true;
         }
 
+        SubjectPermissionCache.Entry cached = getCachedPermissions(subject);
+        if (cached == null) {
+            return queryCanViewGroup(subject, groupId);
+        }
+
+        Boolean outcome = cached.getCheck(Check.VIEW_GROUP, null, groupId);
+        if (outcome == null) {
+            outcome = queryCanViewGroup(subject, groupId);
+            cached.putCheck(Check.VIEW_GROUP, null, groupId, outcome);
+        }
+        return outcome;
+    }
+
+    private boolean queryCanViewGroup(Subject subject, int groupId) {
         Query query = entityManager.createNamedQuery(Subject.QUERY_CAN_VIEW_GROUP);
         query.setParameter("subject", subject);
         query.setParameter("groupId", groupId);
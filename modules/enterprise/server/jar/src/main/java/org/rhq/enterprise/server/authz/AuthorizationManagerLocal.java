@@ -323,4 +323,23 @@ public interface AuthorizationManagerLocal {
      */
     boolean canUpdateRepo(Subject subject, int repoId);
 
+    /**
+     * Drops the cached permissions of the given subject on this server, and flags every server to drop its cached
+     * permissions. To be called whenever the roles of the subject change.
+     *
+     * @param subjectId the id of the subject whose permissions changed
+     */
+    void invalidatePermissions(int subjectId);
+
+    /**
+     * Drops all cached permissions on this server, and flags every server to do the same. To be called whenever a
+     * role, a role's groups or a group's members change.
+     */
+    void invalidatePermissions();
+
+    /**
+     * Drops all cached permissions on this server only. Used when another server flagged a permission change.
+     */
+    void clearPermissionCache();
+
 }
\ No newline at end of file
@@ -236,6 +236,7 @@ public class RoleManagerBean implements RoleManagerLocal, RoleManagerRemote {
 
                 entityManager.remove(doomedRole);
             }
+            authorizationManager.invalidatePermissions();
         }
 
         return;
@@ -279,6 +280,7 @@ public class RoleManagerBean implements RoleManagerLocal, RoleManagerRemote {
                     role.addLdapSubject(subjectToModify);
                 }
             }
+            authorizationManager.invalidatePermissions(subjectId);
         }
     }
 
@@ -309,6 +311,7 @@ public class RoleManagerBean implements RoleManagerLocal, RoleManagerRemote {
                 role.addSubject(newSubject);
 
             }
+            authorizationManager.invalidatePermissions();
         }
 
         return;
@@ -334,6 +337,7 @@ public class RoleManagerBean implements RoleManagerLocal, RoleManagerRemote {
                     role.removeSubject(subjectToModify);
                 }
             }
+            authorizationManager.invalidatePermissions(subjectId);
         }
 
         return;
@@ -393,6 +397,7 @@ public class RoleManagerBean implements RoleManagerLocal, RoleManagerRemote {
         rolePermissions.addAll(permissions);
         entityManager.merge(role);
         entityManager.flush();
+        authorizationManager.invalidatePermissions();
         return;
     }
 
@@ -511,6 +516,8 @@ public class RoleManagerBean implements RoleManagerLocal, RoleManagerRemote {
         attachedRole.getLdapGroups().size();
         attachedRole.getBundleGroups().size();
 
+        authorizationManager.invalidatePermissions();
+
         return attachedRole;
     }
 
@@ -661,6 +668,7 @@ public class RoleManagerBean implements RoleManagerLocal, RoleManagerRemote {
                 }
                 role.addResourceGroup(group);
             }
+            authorizationManager.invalidatePermissions();
         }
 
         return;
@@ -709,6 +717,7 @@ public class RoleManagerBean implements RoleManagerLocal, RoleManagerRemote {
                 }
                 role.removeResourceGroup(doomedGroup);
             }
+            authorizationManager.invalidatePermissions();
         }
     }
 
@@ -826,6 +835,7 @@ public class RoleManagerBean implements RoleManagerLocal, RoleManagerRemote {
                 }
                 role.removeSubject(doomedSubject);
             }
+            authorizationManager.invalidatePermissions();
         }
     }
 
@@ -904,6 +914,7 @@ public class RoleManagerBean implements RoleManagerLocal, RoleManagerRemote {
                 }
                 group.removeRole(doomedRole);
             }
+            authorizationManager.invalidatePermissions();
         }
 
         return;
@@ -956,6 +967,7 @@ public class RoleManagerBean implements RoleManagerLocal, RoleManagerRemote {
                 }
                 group.addRole(role);
             }
+            authorizationManager.invalidatePermissions();
         }
 
         return;
@@ -0,0 +1,234 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2008 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.rhq.enterprise.server.authz;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.rhq.core.domain.authz.Permission;
+
+/**
+ * The effective permissions of each subject, as far as they have been asked for: the permissions of all roles of
+ * the subject, which hold the global permissions, plus the outcome of the resource and group checks made so far.
+ * Each check is kept as a single long key holding the kind of check, the permission and the resource or group id.
+ *
+ * Entries expire after a fixed time. Any change that can alter the outcome of a check must invalidate the cache.
+ * Every invalidation bumps a generation counter, so an entry that was loaded concurrently with an invalidation is
+ * never stored.
+ *
+ * A change made in a transaction is not visible to other transactions before it commits, so a load made in between
+ * still reads the old permissions. Such changes {@link #beginInvalidation(Integer) begin} an invalidation when they
+ * are made and {@link #endInvalidation(Integer) end} it once their transaction completed. No entry is stored for a
+ * subject while an invalidation of that subject, or of all subjects, is pending.
+ */
+class SubjectPermissionCache {
+
+    enum Check {
+        RESOURCE_PERMISSION, VIEW_RESOURCE, GROUP_PERMISSION, VIEW_GROUP
+    }
+
+    // a free permission slot for checks that don't take a permission
+    private static final int NO_PERMISSION = 63;
+
+    private final long ttl;
+    private final int maxSubjects;
+    private final int maxChecksPerSubject;
+
+    private final ConcurrentMap<Integer, Entry> entries = new ConcurrentHashMap<Integer, Entry>();
+    private final AtomicLong generation = new AtomicLong();
+
+    // the number of pending invalidations per subject, and of all subjects, guarded by pendingInvalidations
+    private final Map<Integer, Integer> pendingInvalidations = new HashMap<Integer, Integer>();
+    private int pendingInvalidationsOfAll;
+
+    SubjectPermissionCache(long ttl, int maxSubjects, int maxChecksPerSubject) {
+        this.ttl = ttl;
+        this.maxSubjects = maxSubjects;
+        this.maxChecksPerSubject = maxChecksPerSubject;
+    }
+
+    boolean isEnabled() {
+        return ttl > 0;
+    }
+
+    /**
+     * @return the generation to hand to {@link #put(int, Set, long, long)} once the role permissions are loaded
+     */
+    long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * @return the live entry for the subject, or null if there is none
+     */
+    Entry get(int subjectId, long now) {
+        Entry entry = entries.get(subjectId);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expiration <= now) {
+            entries.remove(subjectId, entry);
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * Creates the entry of a subject. The entry is only stored if no invalidation happened since
+     * <code>loadGeneration</code> was read and none of the subject is pending, otherwise it is handed back for the
+     * current call only.
+     */
+    Entry put(int subjectId, Set<Permission> rolePermissions, long loadGeneration, long now) {
+        Entry entry = new Entry(rolePermissions, now + ttl, maxChecksPerSubject);
+        if (!isEnabled()) {
+            return entry;
+        }
+        if (entries.size() >= maxSubjects) {
+            purge(now);
+        }
+        entries.put(subjectId, entry);
+        if (generation.get() != loadGeneration || isInvalidationPending(subjectId)) {
+            entries.remove(subjectId, entry);
+        }
+        return entry;
+    }
+
+    private boolean isInvalidationPending(int subjectId) {
+        synchronized (pendingInvalidations) {
+            return pendingInvalidationsOfAll > 0 || pendingInvalidations.containsKey(subjectId);
+        }
+    }
+
+    void invalidate(int subjectId) {
+        generation.incrementAndGet();
+        entries.remove(subjectId);
+    }
+
+    void invalidateAll() {
+        generation.incrementAndGet();
+        entries.clear();
+    }
+
+    /**
+     * Invalidates the subject, or all subjects if <code>subjectId</code> is null, and keeps the entry of the subject,
+     * or any entry, from being stored until {@link #endInvalidation(Integer)} is called with the same argument.
+     */
+    void beginInvalidation(Integer subjectId) {
+        synchronized (pendingInvalidations) {
+            if (subjectId != null) {
+                Integer pending = pendingInvalidations.get(subjectId);
+                pendingInvalidations.put(subjectId, (pending != null) ? pending + 1 : 1);
+            } else {
+                ++pendingInvalidationsOfAll;
+            }
+        }
+        invalidateSubjectOrAll(subjectId);
+    }
+
+    /**
+     * Invalidates the subject, or all subjects if <code>subjectId</code> is null, once more, and ends an invalidation
+     * started by {@link #beginInvalidation(Integer)}.
+     */
+    void endInvalidation(Integer subjectId) {
+        try {
+            invalidateSubjectOrAll(subjectId);
+        } finally {
+            synchronized (pendingInvalidations) {
+                if (subjectId != null) {
+                    Integer pending = pendingInvalidations.remove(subjectId);
+                    if (pending != null && pending > 1) {
+                        pendingInvalidations.put(subjectId, pending - 1);
+                    }
+                } else {
+                    --pendingInvalidationsOfAll;
+                }
+            }
+        }
+    }
+
+    private void invalidateSubjectOrAll(Integer subjectId) {
+        if (subjectId != null) {
+            invalidate(subjectId.intValue());
+        } else {
+            invalidateAll();
+        }
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    private void purge(long now) {
+        for (Iterator<Entry> i = entries.values().iterator(); i.hasNext();) {
+            if (i.next().expiration <= now) {
+                i.remove();
+            }
+        }
+        // still full of live entries, start over rather than track the access order
+        if (entries.size() >= maxSubjects) {
+            entries.clear();
+        }
+    }
+
+    static long getCheckKey(Check check, Permission permission, int id) {
+        int permissionSlot = (permission != null) ? permission.ordinal() : NO_PERMISSION;
+        long code = (check.ordinal() << 6) | permissionSlot;
+        return (code << 32) | (id & 0xFFFFFFFFL);
+    }
+
+    static class Entry {
+        private final Set<Permission> rolePermissions;
+        private final long expiration;
+        private final int maxChecks;
+        private final ConcurrentMap<Long, Boolean> checks = new ConcurrentHashMap<Long, Boolean>();
+
+        private Entry(Set<Permission> rolePermissions, long expiration, int maxChecks) {
+            Set<Permission> copy = EnumSet.noneOf(Permission.class);
+            copy.addAll(rolePermissions);
+            this.rolePermissions = Collections.unmodifiableSet(copy);
+            this.expiration = expiration;
+            this.maxChecks = maxChecks;
+        }
+
+        Set<Permission> getRolePermissions() {
+            return rolePermissions;
+        }
+
+        /**
+         * @return the outcome of an earlier check, or null if the check has not been made yet
+         */
+        Boolean getCheck(Check check, Permission permission, int id) {
+            return checks.get(getCheckKey(check, permission, id));
+        }
+
+        void putCheck(Check check, Permission permission, int id, boolean outcome) {
+            if (checks.size() >= maxChecks) {
+                checks.clear();
+            }
+            checks.put(getCheckKey(check, permission, id), outcome);
+        }
+    }
+}
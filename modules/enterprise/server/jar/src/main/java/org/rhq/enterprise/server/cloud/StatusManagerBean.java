@@ -199,6 +199,16 @@ public class StatusManagerBean implements StatusManagerLocal {
         }
     }
 
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public void markAuthorizationCache() {
+        Query updateServerQuery = entityManager.createNamedQuery(Server.QUERY_UPDATE_AUTHZ_STATUS);
+        int serversUpdated = updateServerQuery.executeUpdate();
+
+        if (log.isDebugEnabled()) {
+            log.debug("Marking authorization status, servers updated: " + serversUpdated);
+        }
+    }
+
     @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
     public void updateByMeasurementBaseline(int baselineId) {
         log.debug("About to mark status by measurement baseline");
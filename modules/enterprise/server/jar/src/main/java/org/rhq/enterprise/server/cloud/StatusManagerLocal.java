@@ -34,6 +34,8 @@ public interface StatusManagerLocal {
 
     void markGlobalCache();
 
+    void markAuthorizationCache();
+
     void updateByResource(Subject subject, int resourceId);
 
     void updateByAlertDefinition(Subject subject, int alertDefinitionId);
@@ -36,11 +36,13 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import org.rhq.enterprise.server.alert.engine.AlertConditionCacheManagerLocal;
+import org.rhq.enterprise.server.authz.AuthorizationManagerLocal;
 
 /**
  * Each server has partitioned alerts condition cache data.  This session bean exists
  * to check whether or not the something has changed in the system that would require
- * the cache to asynchronously reload itself.
+ * the cache to asynchronously reload itself.  It also drops the permissions cached by
+ * the authorization manager when some server flagged a permission change.
  * 
  * @author Joseph Marques
  */
@@ -61,6 +63,9 @@ public class CacheConsistencyManagerBean implements CacheConsistencyManagerLocal
     @EJB
     CacheConsistencyManagerLocal cacheConsistencyManager;
 
+    @EJB
+    AuthorizationManagerLocal authorizationManager;
+
     @Override
     public void scheduleServerCacheReloader() {
         /* each time the webapp is reloaded, it would create 
@@ -95,6 +100,30 @@ public class CacheConsistencyManagerBean implements CacheConsistencyManagerLocal
         // try reload the global cache separate from the agent caches for purposes of isolated failures
         reloadGlobalCacheIfNeeded();
         reloadAgentCachesAsNeeded();
+        clearPermissionCacheIfNeeded();
+    }
+
+    private void clearPermissionCacheIfNeeded() {
+        try {
+            boolean hadAuthorizationStatus = serverManager.getAndClearAuthorizationStatus();
+            if (hadAuthorizationStatus == false) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Permission cache does not need clearing");
+                }
+                return;
+            }
+
+            authorizationManager.clearPermissionCache();
+            if (log.isDebugEnabled()) {
+                log.debug(serverManager.getIdentity() + " cleared the permission cache");
+            }
+        } catch (Throwable t) {
+            if (log.isDebugEnabled()) {
+                log.debug("Failed to clear permission cache", t);
+            } else {
+                log.error("Failed to clear permission cache, cause: " + t.getMessage());
+            }
+        }
     }
 
     private void reloadGlobalCacheIfNeeded() {
@@ -195,6 +195,16 @@ public class ServerManagerBean implements ServerManagerLocal {
         return hadStatus;
     }
 
+    public boolean getAndClearAuthorizationStatus() {
+        Server server = topologyManager.getServerByName(getServerName());
+        if (server == null) {
+            return false; // don't reload caches if we don't know who we are
+        }
+        boolean hadStatus = server.hasStatus(Status.AUTHZ_UPDATED);
+        server.clearStatus(Status.AUTHZ_UPDATED);
+        return hadStatus;
+    }
+
     public Server getServer() throws ServerNotFoundException {
         Server result = topologyManager.getServerByName(getServerName());
         if (result == null) {
@@ -83,6 +83,14 @@ public interface ServerManagerLocal {
      */
     boolean getAndClearServerStatus();
 
+    /**
+     * Like {@link #getAndClearServerStatus()}, but only for the {@link Server.Status#AUTHZ_UPDATED} status, which
+     * tells that the cached permissions of subjects may be stale.
+     *
+     * @return whether or not this server had the authorization status set.
+     */
+    boolean getAndClearAuthorizationStatus();
+
     /**
      * Returns an object representing this server as it is known within the registered cloud of servers.
      *
@@ -124,6 +124,8 @@ import org.rhq.enterprise.server.resource.ResourceNotFoundException;
 import org.rhq.enterprise.server.resource.group.ResourceGroupManagerLocal;
 import org.rhq.enterprise.server.resource.group.ResourceGroupNotFoundException;
 import org.rhq.enterprise.server.resource.group.ResourceGroupUpdateException;
+import org.rhq.enterprise.server.resource.group.definition.GroupDefinitionManagerLocal;
+import org.rhq.enterprise.server.resource.group.definition.ResourceChangeType;
 import org.rhq.enterprise.server.rest.BadArgumentException;
 import org.rhq.enterprise.server.scheduler.SchedulerLocal;
 import org.rhq.enterprise.server.util.CriteriaQuery;
@@ -154,6 +156,8 @@ public class ConfigurationManagerBean implements ConfigurationManagerLocal, Conf
     @EJB
     private ResourceGroupManagerLocal resourceGroupManager;
     @EJB
+    private GroupDefinitionManagerLocal groupDefinitionManager;
+    @EJB
     private ResourceManagerLocal resourceManager;
     @EJB
     private ConfigurationManagerLocal configurationManager; // yes, this is ourself
@@ -380,6 +384,8 @@ public class ConfigurationManagerBean implements ConfigurationManagerLocal, Conf
         } else {
             resource.setResourceConfiguration(configuration.deepCopyWithoutProxies());
         }
+        groupDefinitionManager.recordResourceChanges(ResourceChangeType.RESOURCE_CONFIGURATION,
+            new int[] { resource.getId() });
     }
 
     private void setOrUpdatePluginConfiguration(Resource resource, Configuration configuration) {
@@ -389,6 +395,8 @@ public class ConfigurationManagerBean implements ConfigurationManagerLocal, Conf
         } else {
             resource.setPluginConfiguration(configuration.deepCopyWithoutProxies());
         }
+        groupDefinitionManager.recordResourceChanges(ResourceChangeType.PLUGIN_CONFIGURATION,
+            new int[] { resource.getId() });
     }
     // Use new transaction because this only works if the resource in question has not
     // yet been loaded by Hibernate.  We want the query to return a non-proxied configuration,
@@ -65,6 +65,7 @@ import org.rhq.core.clientapi.agent.upgrade.ResourceUpgradeRequest;
 import org.rhq.core.clientapi.agent.upgrade.ResourceUpgradeResponse;
 import org.rhq.core.clientapi.server.discovery.InvalidInventoryReportException;
 import org.rhq.core.clientapi.server.discovery.InventoryReport;
+import org.rhq.core.clientapi.server.discovery.ResourceSyncHash;
 import org.rhq.core.clientapi.server.discovery.StaleTypeException;
 import org.rhq.core.db.DatabaseType;
 import org.rhq.core.db.DatabaseTypeFactory;
@@ -112,6 +113,8 @@ import org.rhq.enterprise.server.resource.ResourceAvailabilityManagerLocal;
 import org.rhq.enterprise.server.resource.ResourceManagerLocal;
 import org.rhq.enterprise.server.resource.ResourceTypeManagerLocal;
 import org.rhq.enterprise.server.resource.group.ResourceGroupManagerLocal;
+import org.rhq.enterprise.server.resource.group.definition.GroupDefinitionManagerLocal;
+import org.rhq.enterprise.server.resource.group.definition.ResourceChangeType;
 import org.rhq.enterprise.server.resource.metadata.PluginManagerLocal;
 import org.rhq.enterprise.server.system.SystemManagerLocal;
 import org.rhq.enterprise.server.util.LookupUtil;
@@ -127,6 +130,9 @@ import org.rhq.enterprise.server.util.LookupUtil;
 public class DiscoveryBossBean implements DiscoveryBossLocal, DiscoveryBossRemote {
     private static final Log LOG = LogFactory.getLog(DiscoveryBossBean.class.getName());
 
+    // the descendants query repeats the parent ids once per hierarchy level
+    private static final int MAX_SYNC_INFO_PARENT_IDS = 200;
+
     static private final int MERGE_BATCH_SIZE;
 
     static {
@@ -152,6 +158,8 @@ public class DiscoveryBossBean implements DiscoveryBossLocal, DiscoveryBossRemot
     @EJB
     private ResourceGroupManagerLocal groupManager;
     @EJB
+    private GroupDefinitionManagerLocal groupDefinitionManager;
+    @EJB
     private ResourceManagerLocal resourceManager;
     @EJB
     private ResourceAvailabilityManagerLocal resourceAvailabilityManager;
@@ -249,7 +257,7 @@ public class DiscoveryBossBean implements DiscoveryBossLocal, DiscoveryBossRemot
         // the current inventory on the server side. But at this point there isn't any since that very
         // agent just registered and is starting up for the very first time and therefore hasn't had
         // a chance yet to send us its full inventory report.
-        PlatformSyncInfo syncInfo = discoveryBoss.getPlatformSyncInfo(knownAgent);
+        PlatformSyncInfo syncInfo = discoveryBoss.getPlatformSyncInfo(knownAgent, report.isSubtreeHashSync());
 
         // we need to also tell the agent if there were any ignored types - we must provide the agent with
         // ALL types that are ignored, not just for those resources that were in the report
@@ -275,6 +283,12 @@ public class DiscoveryBossBean implements DiscoveryBossLocal, DiscoveryBossRemot
 
     @Override
     public PlatformSyncInfo getPlatformSyncInfo(Agent knownAgent) {
+        // agents are pushed this outside of an inventory report, without knowing if they can use the hashes
+        return getPlatformSyncInfo(knownAgent, false);
+    }
+
+    @Override
+    public PlatformSyncInfo getPlatformSyncInfo(Agent knownAgent, boolean subtreeHashes) {
         Resource platform = resourceManager.getPlatform(knownAgent);
         if (null == platform) {
             return null;
@@ -298,7 +312,26 @@ public class DiscoveryBossBean implements DiscoveryBossLocal, DiscoveryBossRemot
 
         ResourceSyncInfo platformSyncInfo = ResourceSyncInfo.buildResourceSyncInfo(platform);
         Set<ResourceSyncInfo> topLevelServiceSyncInfo = getToplevelServiceSyncInfo(toplevelServices);
-        PlatformSyncInfo result = new PlatformSyncInfo(platformSyncInfo, topLevelServiceSyncInfo, topLevelServerIds);
+
+        // send the top level servers with their subtree hashes, the agent calls back only for the parts of the
+        // hierarchy that differ from its own inventory
+        Set<ResourceSyncInfo> topLevelServers = null;
+        if (subtreeHashes) {
+            Query query = entityManager.createNamedQuery(ResourceSyncInfo.QUERY_AGENT_HIERARCHY);
+            query.setParameter("resourceId", platform.getId());
+            @SuppressWarnings("unchecked")
+            List<Object[]> rows = query.getResultList();
+
+            topLevelServers = new HashSet<ResourceSyncInfo>(topLevelServerIds.size());
+            for (ResourceSyncInfo platformChild : getHashedChildren(rows, Collections.singleton(platform.getId()))) {
+                if (topLevelServerIds.contains(platformChild.getId())) {
+                    topLevelServers.add(platformChild);
+                }
+            }
+        }
+
+        PlatformSyncInfo result = new PlatformSyncInfo(platformSyncInfo, topLevelServiceSyncInfo, topLevelServerIds,
+            topLevelServers);
 
         return result;
     }
@@ -384,6 +417,79 @@ public class DiscoveryBossBean implements DiscoveryBossLocal, DiscoveryBossRemot
         return result;
     }
 
+    @Override
+    @SuppressWarnings("unchecked")
+    public Collection<ResourceSyncInfo> getChildResourceSyncInfo(Set<Integer> parentResourceIds) {
+        List<ResourceSyncInfo> result = new ArrayList<ResourceSyncInfo>();
+
+        // load only the subtrees being asked for, in chunks to keep the IN clauses within the database limits
+        List<Integer> parentIds = new ArrayList<Integer>(parentResourceIds);
+        for (int i = 0; i < parentIds.size(); i += MAX_SYNC_INFO_PARENT_IDS) {
+            List<Integer> chunk = parentIds.subList(i, Math.min(i + MAX_SYNC_INFO_PARENT_IDS, parentIds.size()));
+            Query query = entityManager.createNamedQuery(ResourceSyncInfo.QUERY_DESCENDANTS);
+            query.setParameter("parentIds", chunk);
+            result.addAll(getHashedChildren(query.getResultList(), chunk));
+        }
+
+        return result;
+    }
+
+    /**
+     * Builds the sync info of the children of the specified resources, with their subtree hashes, from the sync info
+     * rows (id, parent id, uuid, mtime, status) of the whole subtrees. [PERF] The rows come from a single flat query,
+     * the hashes are rolled up bottom-up in memory.
+     *
+     * @param rows the sync info rows covering the subtrees of the parents
+     * @param parentIds the ids of the parents
+     * @return the sync info of the children of the parents
+     */
+    private List<ResourceSyncInfo> getHashedChildren(List<Object[]> rows, Collection<Integer> parentIds) {
+        final Map<Integer, List<ResourceSyncInfo>> childrenByParentId = new HashMap<Integer, List<ResourceSyncInfo>>();
+        for (Object[] row : rows) {
+            Integer parentId = (Integer) row[1];
+            if (null != parentId) {
+                List<ResourceSyncInfo> children = childrenByParentId.get(parentId);
+                if (null == children) {
+                    children = new ArrayList<ResourceSyncInfo>();
+                    childrenByParentId.put(parentId, children);
+                }
+                children.add(new ResourceSyncInfo((Integer) row[0], (String) row[2], (Long) row[3],
+                    (InventoryStatus) row[4]));
+            }
+        }
+
+        ResourceSyncHash.Hierarchy<ResourceSyncInfo> hierarchy = new ResourceSyncHash.Hierarchy<ResourceSyncInfo>() {
+            @Override
+            public ResourceSyncInfo getSyncInfo(ResourceSyncInfo resource) {
+                return resource;
+            }
+
+            @Override
+            public Collection<ResourceSyncInfo> getChildren(ResourceSyncInfo resource) {
+                List<ResourceSyncInfo> children = childrenByParentId.get(resource.getId());
+                return (null == children) ? Collections.<ResourceSyncInfo> emptyList() : children;
+            }
+
+            @Override
+            public void setSubtreeHash(ResourceSyncInfo resource, String subtreeHash) {
+                resource.setSubtreeHash(subtreeHash);
+            }
+        };
+
+        List<ResourceSyncInfo> result = new ArrayList<ResourceSyncInfo>();
+        for (Integer parentId : parentIds) {
+            List<ResourceSyncInfo> children = childrenByParentId.get(parentId);
+            if (null != children) {
+                for (ResourceSyncInfo child : children) {
+                    ResourceSyncHash.computeAll(child, hierarchy);
+                }
+                result.addAll(children);
+            }
+        }
+
+        return result;
+    }
+
     @Override
     @RequiredPermission(Permission.MANAGE_INVENTORY)
     public Map<Resource, List<Resource>> getQueuedPlatformsAndServers(Subject user, PageControl pc) {
@@ -796,6 +902,9 @@ public class DiscoveryBossBean implements DiscoveryBossLocal, DiscoveryBossRemot
                     productVersion = productVersionManager.addProductVersion(resource.getResourceType(), newVersion);
                 }
                 resource.setProductVersion(productVersion);
+
+                groupDefinitionManager.recordResourceChanges(ResourceChangeType.INVENTORY,
+                    new int[] { resource.getId() });
             }
         }
         return versionChanged;
@@ -837,10 +946,13 @@ public class DiscoveryBossBean implements DiscoveryBossLocal, DiscoveryBossRemot
                 ret.setUpgradedResourceKey(resource.getResourceKey());
             }
 
+            boolean dynaGroupRelevantChange = false;
+
             if (isUpgradeAll && needsUpgrade(resource.getName(), name)) {
                 resource.setName(name);
                 logMessage.append("name, ");
                 ret.setUpgradedResourceName(resource.getName());
+                dynaGroupRelevantChange = true;
             }
 
             if (isUpgradeAll && needsUpgrade(resource.getDescription(), description)) {
@@ -853,6 +965,12 @@ public class DiscoveryBossBean implements DiscoveryBossLocal, DiscoveryBossRemot
                 resource.setVersion(version);
                 logMessage.append("version, ");
                 ret.setUpgradedResourceVersion(resource.getVersion());
+                dynaGroupRelevantChange = true;
+            }
+
+            if (dynaGroupRelevantChange) {
+                groupDefinitionManager.recordResourceChanges(ResourceChangeType.INVENTORY,
+                    new int[] { resource.getId() });
             }
 
             // If provided, assume the new plugin config should replace the old plugin config in its entirety.
@@ -88,6 +88,15 @@ public interface DiscoveryBossLocal extends DiscoveryBossRemote {
      */
     PlatformSyncInfo getPlatformSyncInfo(Agent knownAgent);
 
+    /**
+     * Like {@link #getPlatformSyncInfo(Agent)} but optionally also provides the top level server sync info with their
+     * subtree hashes, for agents able to sync using them.
+     * @param knownAgent the agent for the platform we want to sync with
+     * @param subtreeHashes true to compute the subtree hashes of the top level servers
+     * @return null if platform not found
+     */
+    PlatformSyncInfo getPlatformSyncInfo(Agent knownAgent, boolean subtreeHashes);
+
     /**
      * @param resourceId the root resourceId on which we want to sync
      * @return null if resource not found, otherwise the entire tree rooted at the specified resource, as an
@@ -96,6 +105,13 @@ public interface DiscoveryBossLocal extends DiscoveryBossRemote {
      */
     Collection<ResourceSyncInfo> getResourceSyncInfo(int resourceId);
 
+    /**
+     * @param parentResourceIds the ids of the parent resources
+     * @return the sync info of the direct children of the specified resources, each with the hash of its subtree set.
+     * Empty if there are no children.
+     */
+    Collection<ResourceSyncInfo> getChildResourceSyncInfo(Set<Integer> parentResourceIds);
+
     /**
      * Returns a map of platforms (the keys) and their servers (the values) that are in the auto-discovery queue but not
      * yet imported into inventory. Note that only servers whose direct parent is the platform will appear in the
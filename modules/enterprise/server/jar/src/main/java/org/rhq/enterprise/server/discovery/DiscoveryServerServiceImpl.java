@@ -142,9 +142,40 @@ public class DiscoveryServerServiceImpl implements DiscoveryServerService {
         return results;
     }
 
+    @Override
+    public Collection<ResourceSyncInfo> getChildResourceSyncInfo(Set<Integer> parentResourceIds) {
+        long start = System.currentTimeMillis();
+        DiscoveryBossLocal discoveryBoss = LookupUtil.getDiscoveryBoss();
+        Collection<ResourceSyncInfo> results;
+
+        results = discoveryBoss.getChildResourceSyncInfo(parentResourceIds);
+
+        long elapsed = (System.currentTimeMillis() - start);
+        if (elapsed > 30000L) {
+            log.warn("Performance: get child resource sync info (" + elapsed + ")ms");
+        } else {
+            if (log.isDebugEnabled()) {
+                log.debug("Performance: get child resource sync info (" + elapsed + ")ms");
+            }
+        }
+
+        return results;
+    }
+
     @Override
     public boolean mergeAvailabilityReport(AvailabilityReport availabilityReport) {
-        AvailabilityReportSerializer.getSingleton().lock(availabilityReport.getAgentName());
+        // after mass agent reconnects many reports of one agent can queue up, only the newest of them gets merged
+        AvailabilityReport newerReport = AvailabilityReportSerializer.getSingleton().lockUnlessSuperseded(
+            availabilityReport);
+        if (newerReport != null) {
+            if (log.isDebugEnabled()) {
+                log.debug("Dropped " + availabilityReport.toString(false) + ", superseded by "
+                    + newerReport.toString(false));
+            }
+            // a newer full report brings the server in sync, otherwise the changes of this report are lost and the
+            // agent has to send a full report
+            return !newerReport.isChangesOnlyReport();
+        }
         try {
             String reportToString = availabilityReport.toString(false);
             if (log.isDebugEnabled())
@@ -31,9 +31,15 @@ import java.io.FileInputStream;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.nio.charset.Charset;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Types;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
@@ -43,6 +49,7 @@ import javax.ejb.TransactionAttribute;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
 import javax.persistence.Query;
+import javax.sql.DataSource;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.logging.Log;
@@ -54,6 +61,12 @@ import org.rhq.common.drift.ChangeSetReaderImpl;
 import org.rhq.common.drift.FileEntry;
 import org.rhq.common.drift.Headers;
 import org.rhq.core.clientapi.agent.drift.DriftAgentService;
+import org.rhq.core.db.DatabaseType;
+import org.rhq.core.db.DatabaseTypeFactory;
+import org.rhq.core.db.H2DatabaseType;
+import org.rhq.core.db.OracleDatabaseType;
+import org.rhq.core.db.PostgresqlDatabaseType;
+import org.rhq.core.db.SQLServerDatabaseType;
 import org.rhq.core.domain.auth.Subject;
 import org.rhq.core.domain.criteria.DriftChangeSetCriteria;
 import org.rhq.core.domain.criteria.DriftCriteria;
@@ -77,6 +90,7 @@ import org.rhq.core.domain.util.PageList;
 import org.rhq.core.util.StopWatch;
 import org.rhq.core.util.ZipUtil;
 import org.rhq.core.util.file.FileUtil;
+import org.rhq.core.util.jdbc.JDBCUtil;
 import org.rhq.core.util.stream.StreamUtil;
 import org.rhq.enterprise.server.RHQConstants;
 import org.rhq.enterprise.server.agentclient.AgentClient;
@@ -96,6 +110,28 @@ import org.rhq.enterprise.server.util.CriteriaQueryRunner;
 public class JPADriftServerBean implements JPADriftServerLocal {
     private static final Log LOG = LogFactory.getLog(JPADriftServerBean.class);
 
+    /**
+     * The number of change set entries that are written to the database in one JDBC batch. An entry references at most
+     * two drift files, so the existence check of a batch stays below the 1000 element limit of an Oracle IN list.
+     */
+    private static final int DRIFT_BATCH_SIZE = 500;
+
+    private static final String DRIFT_INSERT_STMT = "INSERT INTO RHQ_Drift (id, ctime, category, drift_set_id, "
+        + "drift_change_set_id, path, path_directory, old_drift_file, new_drift_file) "
+        + "VALUES (%s, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private static final String DRIFT_INSERT_STMT_AUTOINC = "INSERT INTO RHQ_Drift (ctime, category, drift_set_id, "
+        + "drift_change_set_id, path, path_directory, old_drift_file, new_drift_file) "
+        + "VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+
+    // the NOT EXISTS skips a drift file that another change set has stored since the existence check
+    private static final String DRIFT_FILE_INSERT_STMT = "INSERT INTO RHQ_Drift_File (hash_id, ctime, status) "
+        + "SELECT ?, ?, ? FROM RHQ_Numbers WHERE i = 42 "
+        + "AND NOT EXISTS (SELECT * FROM RHQ_Drift_File WHERE hash_id = ?)";
+
+    private static final String DRIFT_FILE_EXISTS_QUERY = "SELECT hash_id FROM RHQ_Drift_File "
+        + "WHERE hash_id IN ( @@HASH_IDS@@ )";
+
     @EJB
     AgentManagerLocal agentManager;
 
@@ -108,6 +144,9 @@ public class JPADriftServerBean implements JPADriftServerLocal {
     @PersistenceContext(unitName = RHQConstants.PERSISTENCE_UNIT_NAME)
     private EntityManager entityManager;
 
+    @javax.annotation.Resource(name = "RHQ_DS", mappedName = RHQConstants.DATASOURCE_JNDI_NAME)
+    private DataSource rhqDs;
+
     @Override
     @TransactionAttribute(REQUIRES_NEW)
     public void purgeByDriftDefinitionName(Subject subject, int resourceId, String driftDefName) throws Exception {
@@ -364,47 +403,53 @@ public class JPADriftServerBean implements JPADriftServerLocal {
                     summary.setDriftHandlingMode(driftDef.getDriftHandlingMode());
                     summary.setCreatedTime(driftChangeSet.getCtime());
 
-                    if (version > 0) {
-                        for (FileEntry entry : reader) {
-                            boolean addToList = storeBinaryContent || !DriftUtil.isBinaryFile(entry.getFile());
-                            JPADriftFile oldDriftFile = getDriftFile(entry.getOldSHA(), driftFilesToRequest, addToList);
-                            JPADriftFile newDriftFile = getDriftFile(entry.getNewSHA(), driftFilesToRequest, addToList);
+                    JPADriftSet driftSet = null;
+                    if (version == 0) {
+                        summary.setInitialChangeSet(true);
+                        // A Drift always has a changeSet. Note that in this code section the changeset is
+                        // always going to be set to a DriftDefinition's changeSet. But that is not always the
+                        // case, it could also be set to a DriftDefinitionTemplate's changeSet.
+                        driftSet = new JPADriftSet();
+                        entityManager.persist(driftSet);
+                        driftChangeSet.setInitialDriftSet(driftSet);
+                        entityManager.merge(driftChangeSet);
+                    }
+
+                    // the drifts are written with JDBC, the change set and drift set rows they reference have to be
+                    // in the database first
+                    entityManager.flush();
 
-                            // TODO Figure out an efficient way to save coverage change sets.
-                            // The initial/coverage change set could contain hundreds or even thousands
-                            // of entries. We probably want to consider doing some kind of batch insert
-                            //
-                            // jsanda
+                    Connection conn = null;
+                    DriftBatchWriter writer = null;
+                    try {
+                        conn = rhqDs.getConnection();
+                        writer = new DriftBatchWriter(conn, Integer.parseInt(driftChangeSet.getId()),
+                            (null != driftSet) ? driftSet.getId() : null, storeBinaryContent, driftFilesToRequest);
 
+                        for (FileEntry entry : reader) {
                             // use a path with only forward slashing to ensure consistent paths across reports
                             String path = FileUtil.useForwardSlash(entry.getFile());
-                            JPADrift drift = new JPADrift(driftChangeSet, path, entry.getType(), oldDriftFile,
-                                newDriftFile);
-                            entityManager.persist(drift);
+                            writer.write(path, entry);
 
                             // we are taking advantage of the fact that we know the summary is only used by the server
                             // if the change set is a DRIFT report. If its a coverage report, it is not used (we do
                             // not alert on coverage reports) - so don't waste memory by collecting all the paths
                             // when we know they aren't going to be used anyway.
-                            if (category == DriftChangeSetCategory.DRIFT) {
+                            if (version > 0 && category == DriftChangeSetCategory.DRIFT) {
                                 summary.addDriftPathname(path);
                             }
                         }
-                    } else {
-                        summary.setInitialChangeSet(true);
-                        JPADriftSet driftSet = new JPADriftSet();
-                        for (FileEntry entry : reader) {
-                            boolean addToList = storeBinaryContent || !DriftUtil.isBinaryFile(entry.getFile());
-                            JPADriftFile newDriftFile = getDriftFile(entry.getNewSHA(), driftFilesToRequest, addToList);
-                            String path = FileUtil.useForwardSlash(entry.getFile());
-                            // A Drift always has a changeSet. Note that in this code section the changeset is
-                            // always going to be set to a DriftDefinition's changeSet. But that is not always the
-                            // case, it could also be set to a DriftDefinitionTemplate's changeSet.
-                            driftSet.addDrift(new JPADrift(driftChangeSet, path, entry.getType(), null, newDriftFile));
+                        writer.flush();
+
+                        if (LOG.isDebugEnabled()) {
+                            LOG.debug("Stored " + writer.getDriftCount() + " drifts and " + writer.getNewDriftFileCount()
+                                + " new drift files for change set " + driftChangeSet.getId() + " of " + resource);
                         }
-                        entityManager.persist(driftSet);
-                        driftChangeSet.setInitialDriftSet(driftSet);
-                        entityManager.merge(driftChangeSet);
+                    } finally {
+                        if (null != writer) {
+                            writer.close();
+                        }
+                        JDBCUtil.safeClose(conn);
                     }
 
                     headers[0] = reader.getHeaders();
@@ -462,27 +507,205 @@ public class JPADriftServerBean implements JPADriftServerLocal {
         return binaryContent.equals("true");
     }
 
-    private JPADriftFile getDriftFile(String sha256, List<JPADriftFile> emptyDriftFiles, boolean addToList) {
-        if (null == sha256 || "0".equals(sha256)) {
-            return null;
+    /**
+     * Writes the entries of a change set to the database in JDBC batches of {@link #DRIFT_BATCH_SIZE}, so that
+     * neither the persistence context nor the memory used grows with the size of the change set. The drift files
+     * referenced by a batch that are not yet in the database are found with a single query and inserted before the
+     * drifts that reference them.
+     */
+    private class DriftBatchWriter {
+
+        private final Connection conn;
+
+        private final int changeSetId;
+
+        /** The drift set of an initial change set, null otherwise */
+        private final Integer driftSetId;
+
+        private final boolean storeBinaryContent;
+
+        private final List<JPADriftFile> driftFilesToRequest;
+
+        private final List<String> paths = new ArrayList<String>(DRIFT_BATCH_SIZE);
+
+        private final List<FileEntry> entries = new ArrayList<FileEntry>(DRIFT_BATCH_SIZE);
+
+        private PreparedStatement insertDriftFile;
+
+        private PreparedStatement insertDrift;
+
+        private int driftCount;
+
+        private int newDriftFileCount;
+
+        DriftBatchWriter(Connection conn, int changeSetId, Integer driftSetId, boolean storeBinaryContent,
+            List<JPADriftFile> driftFilesToRequest) throws SQLException {
+            this.conn = conn;
+            this.changeSetId = changeSetId;
+            this.driftSetId = driftSetId;
+            this.storeBinaryContent = storeBinaryContent;
+            this.driftFilesToRequest = driftFilesToRequest;
+
+            String driftInsertSql;
+            DatabaseType dbType = DatabaseTypeFactory.getDefaultDatabaseType();
+            if (dbType instanceof PostgresqlDatabaseType || dbType instanceof OracleDatabaseType
+                || dbType instanceof H2DatabaseType) {
+                driftInsertSql = String.format(DRIFT_INSERT_STMT, JDBCUtil.getNextValSql(conn, "RHQ_DRIFT"));
+            } else if (dbType instanceof SQLServerDatabaseType) {
+                driftInsertSql = DRIFT_INSERT_STMT_AUTOINC;
+            } else {
+                throw new IllegalArgumentException("Unknown database type, can't continue: " + dbType);
+            }
+
+            insertDriftFile = conn.prepareStatement(DRIFT_FILE_INSERT_STMT);
+            insertDrift = conn.prepareStatement(driftInsertSql);
         }
 
-        JPADriftFile result = entityManager.find(JPADriftFile.class, sha256);
-        // if the JPADriftFile is not yet in the db then persist it, and mark it requested if content is to be fetched
-        // note - by immediately setting the initial status to REQUESTED we avoid a future update and a
-        // potential deadlock scenario where the REQUESTED and LOADED status updates can happen simultaneously
-        if (null == result) {
-            JPADriftFile driftFile = new JPADriftFile(sha256);
-            if (addToList) {
-                driftFile.setStatus(DriftFileStatus.REQUESTED);
+        void write(String path, FileEntry entry) throws SQLException {
+            paths.add(path);
+            entries.add(entry);
+            if (entries.size() >= DRIFT_BATCH_SIZE) {
+                flush();
+            }
+        }
+
+        void flush() throws SQLException {
+            if (entries.isEmpty()) {
+                return;
+            }
+
+            // the drift files referenced by the batch, mapped to whether their content is to be requested
+            Map<String, Boolean> hashIds = new LinkedHashMap<String, Boolean>();
+            for (FileEntry entry : entries) {
+                boolean request = storeBinaryContent || !DriftUtil.isBinaryFile(entry.getFile());
+                if (null == driftSetId) {
+                    addHashId(hashIds, entry.getOldSHA(), request);
+                }
+                addHashId(hashIds, entry.getNewSHA(), request);
             }
-            result = persistDriftFile(driftFile);
-            if (addToList) {
-                emptyDriftFiles.add(result);
+            removeExisting(hashIds);
+            insertDriftFiles(hashIds);
+
+            long now = System.currentTimeMillis();
+            for (int i = 0; i < entries.size(); ++i) {
+                FileEntry entry = entries.get(i);
+                String path = paths.get(i);
+                // see JPADrift, the directory is the path without the file name
+                int slash = path.lastIndexOf("/");
+                String directory = (slash != -1) ? path.substring(0, slash) : "./";
+
+                int paramIndex = 1;
+                insertDrift.setLong(paramIndex++, now);
+                insertDrift.setString(paramIndex++, entry.getType().name());
+                if (null == driftSetId) {
+                    insertDrift.setNull(paramIndex++, Types.INTEGER);
+                } else {
+                    insertDrift.setInt(paramIndex++, driftSetId);
+                }
+                insertDrift.setInt(paramIndex++, changeSetId);
+                insertDrift.setString(paramIndex++, path);
+                insertDrift.setString(paramIndex++, directory);
+                setHashId(insertDrift, paramIndex++, (null == driftSetId) ? entry.getOldSHA() : null);
+                setHashId(insertDrift, paramIndex++, entry.getNewSHA());
+                insertDrift.addBatch();
             }
+            insertDrift.executeBatch();
+            driftCount += entries.size();
+
+            paths.clear();
+            entries.clear();
         }
 
-        return result;
+        int getDriftCount() {
+            return driftCount;
+        }
+
+        int getNewDriftFileCount() {
+            return newDriftFileCount;
+        }
+
+        void close() {
+            JDBCUtil.safeClose(insertDriftFile);
+            JDBCUtil.safeClose(insertDrift);
+        }
+
+        private void addHashId(Map<String, Boolean> hashIds, String sha256, boolean request) {
+            if (!isNullHash(sha256) && !hashIds.containsKey(sha256)) {
+                hashIds.put(sha256, request);
+            }
+        }
+
+        private void removeExisting(Map<String, Boolean> hashIds) throws SQLException {
+            if (hashIds.isEmpty()) {
+                return;
+            }
+
+            PreparedStatement ps = null;
+            ResultSet rs = null;
+            try {
+                ps = conn.prepareStatement(JDBCUtil.transformQueryForMultipleInParameters(DRIFT_FILE_EXISTS_QUERY,
+                    "@@HASH_IDS@@", hashIds.size()));
+                int paramIndex = 1;
+                for (String hashId : hashIds.keySet()) {
+                    ps.setString(paramIndex++, hashId);
+                }
+                rs = ps.executeQuery();
+                while (rs.next()) {
+                    hashIds.remove(rs.getString(1));
+                }
+            } finally {
+                JDBCUtil.safeClose(ps, rs);
+            }
+        }
+
+        private void insertDriftFiles(Map<String, Boolean> hashIds) throws SQLException {
+            if (hashIds.isEmpty()) {
+                return;
+            }
+
+            // by immediately setting the initial status to REQUESTED we avoid a future update and a potential
+            // deadlock scenario where the REQUESTED and LOADED status updates can happen simultaneously
+            long now = System.currentTimeMillis();
+            for (Map.Entry<String, Boolean> hashId : hashIds.entrySet()) {
+                int paramIndex = 1;
+                insertDriftFile.setString(paramIndex++, hashId.getKey());
+                insertDriftFile.setLong(paramIndex++, now);
+                insertDriftFile.setString(paramIndex++, (hashId.getValue() ? DriftFileStatus.REQUESTED
+                    : DriftFileStatus.EMPTY).name());
+                insertDriftFile.setString(paramIndex++, hashId.getKey());
+                insertDriftFile.addBatch();
+            }
+            int[] updateCounts = insertDriftFile.executeBatch();
+
+            int i = 0;
+            for (Map.Entry<String, Boolean> hashId : hashIds.entrySet()) {
+                // a count of 0 means the file was stored by another change set since the existence check, and it is
+                // up to that change set to request the content
+                boolean inserted = (i >= updateCounts.length) || (updateCounts[i] != 0);
+                ++i;
+                if (!inserted) {
+                    continue;
+                }
+                ++newDriftFileCount;
+                if (hashId.getValue()) {
+                    JPADriftFile driftFile = new JPADriftFile(hashId.getKey());
+                    driftFile.setStatus(DriftFileStatus.REQUESTED);
+                    driftFilesToRequest.add(driftFile);
+                }
+            }
+        }
+
+        private void setHashId(PreparedStatement ps, int paramIndex, String sha256) throws SQLException {
+            if (isNullHash(sha256)) {
+                ps.setNull(paramIndex, Types.VARCHAR);
+            } else {
+                ps.setString(paramIndex, sha256);
+            }
+        }
+
+        private boolean isNullHash(String sha256) {
+            return null == sha256 || "0".equals(sha256);
+        }
     }
 
     private DriftDefinition findDriftDefinition(Resource resource, Headers headers) {
@@ -21,6 +21,7 @@ package org.rhq.enterprise.server.event;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -89,6 +90,42 @@ public class EventManagerBean implements EventManagerLocal, EventManagerRemote {
     private static final String EVENT_INSERT_STMT_AUTOINC = "INSERT INTO RHQ_Event (event_source_id, timestamp, severity, detail) "
         + "VALUES ((SELECT id FROM RHQ_Event_Source WHERE event_def_id = (SELECT id FROM RHQ_Event_Def WHERE name = ? AND resource_type_id = (SELECT id FROM RHQ_Resource_Type WHERE name = ? AND plugin = ?)) AND resource_id = ? AND location = ?), ?, ?, ?)";
 
+    /*
+     * Counts the events and computes the most severe event per time bucket in the database, so that only one row per
+     * non-empty bucket is transferred instead of one row per event. The range predicate is served by RHQ_EVENT_IDX
+     * (event_source_id, timestamp). The severity is mapped to its ordinal, see EVENT_SEVERITY_ORDINAL.
+     */
+    private static final String EVENT_HISTOGRAM_QUERY = "" //
+        + "SELECT b.bucket, COUNT(*), MAX(b.severity) " //
+        + "  FROM ( SELECT FLOOR((ev.timestamp - ?) / ?) AS bucket, %s AS severity " //
+        + "           FROM RHQ_Event ev JOIN RHQ_Event_Source evs ON ev.event_source_id = evs.id " //
+        + "          WHERE ev.timestamp BETWEEN ? AND ? %s ) b " //
+        + "GROUP BY b.bucket";
+
+    private static final String EVENT_SEVERITY_ORDINAL;
+
+    static {
+        StringBuilder ordinal = new StringBuilder("CASE ev.severity");
+        for (EventSeverity severity : EventSeverity.values()) {
+            ordinal.append(" WHEN '").append(severity.name()).append("' THEN ").append(severity.ordinal());
+        }
+        EVENT_SEVERITY_ORDINAL = ordinal.append(" END").toString();
+    }
+
+    private static final String EVENT_HISTOGRAM_RESOURCE_FRAGMENT = " AND evs.resource_id = ?";
+
+    private static final String EVENT_HISTOGRAM_GROUP_FRAGMENT = " AND evs.resource_id IN " //
+        + "( SELECT imp.resource_id FROM RHQ_Resource_Group_Res_Imp_Map imp WHERE imp.resource_group_id = ? )";
+
+    private static final String EVENT_HISTOGRAM_AUTOGROUP_FRAGMENT = " AND evs.resource_id IN " //
+        + "( SELECT res.id FROM RHQ_Resource res WHERE res.parent_resource_id = ? AND res.resource_type_id = ? )";
+
+    private static final String EVENT_HISTOGRAM_AUTHORIZATION_FRAGMENT = " AND evs.resource_id IN " //
+        + "( SELECT imp.resource_id FROM RHQ_Resource_Group_Res_Imp_Map imp " //
+        + "    JOIN RHQ_Role_Resource_Group_Map rrg ON rrg.resource_group_id = imp.resource_group_id " //
+        + "    JOIN RHQ_Subject_Role_Map srm ON srm.role_id = rrg.role_id " //
+        + "   WHERE srm.subject_id = ? )";
+
     @PersistenceContext(unitName = RHQConstants.PERSISTENCE_UNIT_NAME)
     private EntityManager entityManager;
 
@@ -212,24 +249,84 @@ public class EventManagerBean implements EventManagerLocal, EventManagerRemote {
 
     @Override
     public int[] getEventCounts(Subject subject, int resourceId, long begin, long end, int numBuckets) {
+        if (authorizationManager.canViewResource(subject, resourceId) == false) {
+            throw new PermissionException("User [" + subject.getName()
+                + "] does not have permission to view event history for resource[id=" + resourceId + "]");
+        }
 
         int[] buckets = new int[numBuckets];
+        computeEventHistogram(subject, EntityContext.forResource(resourceId), begin, end, buckets, null);
+        return buckets;
+    }
 
-        // TODO possibly rewrite query so that the db calculates the buckets (?)
-        List<EventComposite> events = findEventComposites(subject, EntityContext.forResource(resourceId), begin, end,
-            null, null, null, PageControl.getUnlimitedInstance());
-
-        long timeDiff = end - begin;
-        long timePerBucket = timeDiff / numBuckets;
+    /**
+     * Distributes the events of the context between begin and end into equally sized time buckets. The buckets are
+     * computed by the database, see {@link #EVENT_HISTOGRAM_QUERY}.
+     *
+     * @param counts if not null, receives the number of events per bucket
+     * @param severities if not null, receives the most severe event per bucket
+     */
+    private void computeEventHistogram(Subject subject, EntityContext context, long begin, long end, int[] counts,
+        EventSeverity[] severities) {
+        int numBuckets = (counts != null) ? counts.length : severities.length;
+        if (numBuckets == 0) {
+            return;
+        }
+        long timePerBucket = Math.max(1L, (end - begin) / numBuckets);
 
-        for (EventComposite event : events) {
-            long evTime = event.getTimestamp().getTime();
-            evTime = evTime - begin;
-            int bucket = (int) (evTime / timePerBucket);
-            buckets[bucket]++;
+        StringBuilder fragments = new StringBuilder();
+        List<Integer> fragmentParams = new ArrayList<Integer>(2);
+        if (context.type == EntityContext.Type.Resource) {
+            fragments.append(EVENT_HISTOGRAM_RESOURCE_FRAGMENT);
+            fragmentParams.add(context.resourceId);
+        } else if (context.type == EntityContext.Type.ResourceGroup) {
+            fragments.append(EVENT_HISTOGRAM_GROUP_FRAGMENT);
+            fragmentParams.add(context.groupId);
+        } else if (context.type == EntityContext.Type.AutoGroup) {
+            fragments.append(EVENT_HISTOGRAM_AUTOGROUP_FRAGMENT);
+            fragmentParams.add(context.parentResourceId);
+            fragmentParams.add(context.resourceTypeId);
+        }
+        if (authorizationManager.isInventoryManager(subject) == false) {
+            fragments.append(EVENT_HISTOGRAM_AUTHORIZATION_FRAGMENT);
+            fragmentParams.add(subject.getId());
         }
 
-        return buckets;
+        EventSeverity[] allSeverities = EventSeverity.values();
+        Connection conn = null;
+        PreparedStatement ps = null;
+        ResultSet rs = null;
+        try {
+            conn = rhqDs.getConnection();
+            ps = conn.prepareStatement(String.format(EVENT_HISTOGRAM_QUERY, EVENT_SEVERITY_ORDINAL, fragments));
+            int paramIndex = 1;
+            ps.setLong(paramIndex++, begin);
+            ps.setLong(paramIndex++, timePerBucket);
+            ps.setLong(paramIndex++, begin);
+            ps.setLong(paramIndex++, end);
+            for (Integer param : fragmentParams) {
+                ps.setInt(paramIndex++, param);
+            }
+
+            rs = ps.executeQuery();
+            while (rs.next()) {
+                // events right at the end of the range fall into the last bucket
+                int bucket = (int) Math.min(rs.getLong(1), numBuckets - 1);
+                if (counts != null) {
+                    counts[bucket] += rs.getInt(2);
+                }
+                if (severities != null) {
+                    EventSeverity severity = allSeverities[rs.getInt(3)];
+                    if (severity.isMoreSevereThan(severities[bucket])) {
+                        severities[bucket] = severity;
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to compute the event histogram for " + context, e);
+        } finally {
+            JDBCUtil.safeClose(conn, ps, rs);
+        }
     }
 
     @Override
@@ -360,45 +457,12 @@ public class EventManagerBean implements EventManagerLocal, EventManagerRemote {
     public EventSeverity[] getSeverityBucketsByContext(Subject subject, EntityContext context, long begin, long end,
         int bucketCount) {
 
-        EventCriteria criteria = new EventCriteria();
-        criteria.addFilterStartTime(begin);
-        criteria.addFilterEndTime(end);
-
         /*
-         * if the bucket computation is pushed into the database, it saves on data transfer across the wire. this
-         * solution is currently querying N number of strings (event.severity) and N number of longs (event.timestamp),
-         * where N is the number of events between 'begin' and 'end'.  if the severity buckets are computed in a single
-         * query, the wire load would only be K integers, where K is the bucketCount.
+         * the severity buckets are computed in a single query, so the wire load is at most bucketCount rows rather
+         * than the severity and timestamp of every event between 'begin' and 'end'.
          */
-        CriteriaQueryGenerator generator = new CriteriaQueryGenerator(subject, criteria);
-        ;
-        String replacementSelectList = " event.severity, event.timestamp ";
-        generator.alterProjection(replacementSelectList);
-
-        if (authorizationManager.isInventoryManager(subject) == false) {
-            generator.setAuthorizationResourceFragment(CriteriaQueryGenerator.AuthorizationTokenType.RESOURCE,
-                "source.resource", subject.getId());
-        }
-
-        CriteriaQueryRunner<Object[]> queryRunner = new CriteriaQueryRunner<Object[]>(criteria, generator,
-            entityManager);
-        PageList<Object[]> flyWeights = queryRunner.execute();
-
         EventSeverity[] buckets = new EventSeverity[bucketCount];
-        long timeDiff = end - begin;
-        long timePerBucket = timeDiff / bucketCount;
-
-        for (Object[] nextFly : flyWeights) {
-            long eventTime = (Long) nextFly[1];
-            EventSeverity eventSeverity = (EventSeverity) nextFly[0];
-
-            eventTime = eventTime - begin;
-            int bucket = (int) (eventTime / timePerBucket);
-            if (eventSeverity.isMoreSevereThan(buckets[bucket])) {
-                buckets[bucket] = eventSeverity;
-            }
-        }
-
+        computeEventHistogram(subject, context, begin, end, null, buckets);
         return buckets;
     }
 
@@ -19,12 +19,19 @@
 
 package org.rhq.enterprise.server.measurement;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
 import java.text.DateFormat;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -41,12 +48,19 @@ import javax.persistence.NoResultException;
 import javax.persistence.NonUniqueResultException;
 import javax.persistence.PersistenceContext;
 import javax.persistence.Query;
+import javax.sql.DataSource;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import org.jboss.ejb3.annotation.TransactionTimeout;
 
+import org.rhq.core.db.DatabaseType;
+import org.rhq.core.db.DatabaseTypeFactory;
+import org.rhq.core.db.H2DatabaseType;
+import org.rhq.core.db.OracleDatabaseType;
+import org.rhq.core.db.PostgresqlDatabaseType;
+import org.rhq.core.db.SQLServerDatabaseType;
 import org.rhq.core.domain.auth.Subject;
 import org.rhq.core.domain.common.EntityContext;
 import org.rhq.core.domain.criteria.AvailabilityCriteria;
@@ -67,6 +81,7 @@ import org.rhq.core.domain.util.PageControl;
 import org.rhq.core.domain.util.PageList;
 import org.rhq.core.domain.util.PageOrdering;
 import org.rhq.core.util.StopWatch;
+import org.rhq.core.util.jdbc.JDBCUtil;
 import org.rhq.enterprise.server.RHQConstants;
 import org.rhq.enterprise.server.alert.engine.AlertConditionCacheManagerLocal;
 import org.rhq.enterprise.server.alert.engine.AlertConditionCacheStats;
@@ -108,9 +123,27 @@ public class AvailabilityManagerBean implements AvailabilityManagerLocal, Availa
         MERGE_BATCH_SIZE = (mergeBatchSize > 999) ? 999 : mergeBatchSize;
     }
 
+    private static final String AVAIL_LATEST_QUERY = "SELECT resource_id, start_time, availability_type "
+        + "FROM RHQ_Availability WHERE end_time IS NULL AND resource_id IN ( @@RESOURCE_IDS@@ )";
+
+    private static final String AVAIL_CLOSE_STMT = "UPDATE RHQ_Availability SET end_time = ? "
+        + "WHERE resource_id = ? AND end_time IS NULL";
+
+    private static final String AVAIL_INSERT_STMT = "INSERT INTO RHQ_Availability (id, resource_id, start_time, "
+        + "end_time, availability_type) VALUES (%s, ?, ?, ?, ?)";
+
+    private static final String AVAIL_INSERT_STMT_AUTOINC = "INSERT INTO RHQ_Availability (resource_id, start_time, "
+        + "end_time, availability_type) VALUES (?, ?, ?, ?)";
+
+    private static final String RESOURCE_AVAIL_UPDATE_STMT = "UPDATE " + ResourceAvailability.TABLE_NAME
+        + " SET availability_type = CASE resource_id @@CASES@@ END WHERE resource_id IN ( @@RESOURCE_IDS@@ )";
+
     @PersistenceContext(unitName = RHQConstants.PERSISTENCE_UNIT_NAME)
     private EntityManager entityManager;
 
+    @javax.annotation.Resource(name = "RHQ_DS", mappedName = RHQConstants.DATASOURCE_JNDI_NAME)
+    private DataSource rhqDs;
+
     @EJB
     private AvailabilityManagerLocal availabilityManager;
     @EJB
@@ -814,225 +847,408 @@ public class AvailabilityManagerBean implements AvailabilityManagerLocal, Availa
     @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
     public void mergeAvailabilitiesInNewTransaction(List<Availability> availabilities, MergeInfo mergeInfo) {
 
-        // We will alert only on the avails for enabled resources. Keep track of any that are disabled.
-        List<Availability> disabledAvailabilities = new ArrayList<Availability>();
+        // The transitions are worked out in memory against the latest availability of each resource and then written
+        // set-based: one batch closing the current rows, one batch inserting the new rows and one statement updating
+        // the current availabilities. Only the rare repair and past-insert paths go through the entity manager.
+        Connection conn = null;
+        AvailabilityBatchWriter writer = null;
 
-        Query q = entityManager.createNamedQuery(Availability.FIND_LATEST_BY_RESOURCE_IDS);
-        List<Integer> resourceIds = new ArrayList<Integer>(availabilities.size());
-        for (Availability reported : availabilities) {
-            resourceIds.add(reported.getResource().getId());
-        }
-        q.setParameter("resourceIds", resourceIds);
-        List<Availability> latestAvailabilitiesList = q.getResultList();
-        resourceIds.clear(); // done with this, perhaps helps GC
-        resourceIds = null;
-
-        // populate Map of resourceIds to latestAvailability
-        // there should be a single latest avail per resource. mark any situation where we have multiple
-        Object nonUniqueMarker = new Object();
-        Map<Integer, Object> latestAvailabilities = new HashMap(availabilities.size() + 100);
-        for (Availability latestAvailability : latestAvailabilitiesList) {
-            Integer resourceId = latestAvailability.getResource().getId();
-            if (latestAvailabilities.containsKey(resourceId)) {
-                latestAvailabilities.put(resourceId, nonUniqueMarker);
-            } else {
-                latestAvailabilities.put(resourceId, latestAvailability);
-            }
-        }
+        try {
+            conn = rhqDs.getConnection();
+            writer = new AvailabilityBatchWriter(conn);
 
-        // keep track of the changes in availability so we can update the relevant ResourceAvailabilities in a batch
-        List<Availability> changedAvailabilities = new ArrayList<Availability>(availabilities.size());
+            // populate Map of resourceIds to latestAvailability
+            // there should be a single latest avail per resource. mark any situation where we have multiple
+            Object nonUniqueMarker = new Object();
+            Map<Integer, Object> latestAvailabilities = findLatestAvailabilities(conn, availabilities,
+                nonUniqueMarker);
 
-        for (Availability reported : availabilities) {
+            // keep track of the real transitions, only those are of interest to the alert condition cache
+            List<Availability> transitions = new ArrayList<Availability>();
 
-            // availability reports only tell us the current state at the start time; end time is ignored/must be null
-            reported.setEndTime(null);
+            for (Availability reported : availabilities) {
 
-            // get the latest avail for the reported resource
-            //q.setParameter("resourceId", reported.getResource().getId());
-            Integer resourceId = reported.getResource().getId();
-            Object latestObject = latestAvailabilities.get(resourceId);
-            Availability latest = null;
+                // availability reports only tell us the current state at the start time; end time is ignored/must be null
+                reported.setEndTime(null);
 
-            if (null == latestObject) { // this is like NoResultException
-                // This should not happen unless the Resource in the report is stale, which can happen in certain
-                // sync scenarios. A Resource is given its initial Availability/ResourceAvailability when it is
-                // persisted so it is guaranteed to have Availability, so, the Resource must not exist. At least
-                // it must not exist in my utopian view of the world. Let's just make sure...
-                Resource attachedResource = entityManager.find(Resource.class, reported.getResource().getId());
+                // get the latest avail for the reported resource
+                Integer resourceId = reported.getResource().getId();
+                Object latestObject = latestAvailabilities.get(resourceId);
+                LatestAvailability latest = null;
 
-                if ((null == attachedResource) || (InventoryStatus.COMMITTED != attachedResource.getInventoryStatus())) {
-                    // expected case
-                    log.info("Skipping mergeAvailabilityReport() for stale resource [" + reported.getResource()
-                        + "]. These messages should go away after the next agent synchronization with the server.");
+                if (null == latestObject) { // this is like NoResultException
+                    // This should not happen unless the Resource in the report is stale, which can happen in certain
+                    // sync scenarios. A Resource is given its initial Availability/ResourceAvailability when it is
+                    // persisted so it is guaranteed to have Availability, so, the Resource must not exist. At least
+                    // it must not exist in my utopian view of the world. Let's just make sure...
+                    Resource attachedResource = entityManager.find(Resource.class, reported.getResource().getId());
 
-                    continue;
+                    if ((null == attachedResource)
+                        || (InventoryStatus.COMMITTED != attachedResource.getInventoryStatus())) {
+                        // expected case
+                        log.info("Skipping mergeAvailabilityReport() for stale resource [" + reported.getResource()
+                            + "]. These messages should go away after the next agent synchronization with the server.");
 
-                } else {
-                    // this should not really happen but is possible in rare failure situations, it means the resource
-                    // exists but has no latest Availability record (i.e. sendTime == null).  Correct the situation and
-                    // then process the reported avail.
-                    log.warn("Resource [" + reported.getResource()
-                        + "] has no latest availability record (i.e. no endtime) - will attempt to repair.\n"
+                        continue;
+
+                    } else {
+                        // this should not really happen but is possible in rare failure situations, it means the resource
+                        // exists but has no latest Availability record (i.e. sendTime == null).  Correct the situation and
+                        // then process the reported avail.
+                        log.warn("Resource [" + reported.getResource()
+                            + "] has no latest availability record (i.e. no endtime) - will attempt to repair.\n"
+                            + mergeInfo.toString(false));
+
+                        try {
+                            List<Availability> attachedAvails = attachedResource.getAvailability();
+                            Availability attachedLastAvail;
+
+                            if (attachedAvails.isEmpty()) {
+                                attachedLastAvail = new Availability(attachedResource, 0L, AvailabilityType.UNKNOWN);
+                                entityManager.persist(attachedLastAvail);
+
+                            } else {
+                                attachedLastAvail = attachedAvails.get(attachedAvails.size() - 1);
+                                attachedLastAvail.setEndTime(null);
+                                attachedLastAvail = entityManager.merge(attachedLastAvail);
+                            }
+
+                            // update the Map to reflect the repaired latest avail
+                            latest = new LatestAvailability(attachedLastAvail.getStartTime(),
+                                attachedLastAvail.getAvailabilityType());
+                            latestAvailabilities.put(resourceId, latest);
+
+                            updateResourceAvailability(attachedLastAvail);
+
+                            // ask the agent for a full report so as to ensure we are in sync with agent
+                            mergeInfo.setAskForFullReport(true);
+
+                        } catch (Throwable t) {
+                            log.warn("Unable to repair NoResult latest availablity for Resource ["
+                                + reported.getResource() + "]", t);
+                            continue;
+                        }
+                    }
+                } else if (latestObject == nonUniqueMarker) { // this is like NonUniqueResultException
+                    // This condition should never happen.  In my world of la-la land, I've done everything
+                    // correctly so this never happens.  But, due to the asynchronous nature of things,
+                    // I have to believe that this still might happen (albeit rarely).  If it does happen,
+                    // and we do nothing about it - bad things arise.  So, if we find that a resource
+                    // has 2 or more availabilities with endTime of null, we need to delete all but the
+                    // latest one (the one whose start time is the latest).  This should correct the
+                    // problem and allow us to continue processing availability reports for that resource
+
+                    // This problem happens and can be helped to occur by for example forcibly killing an agent
+                    // While it is a condition that shouldn't happen under normal operation, it is recoverable,
+                    // so we only log on the debug level.
+                    log.debug("Resource [" + reported.getResource()
+                        + "] has multiple availabilities without an endtime - will attempt to remove the extra ones\n"
                         + mergeInfo.toString(false));
 
                     try {
-                        List<Availability> attachedAvails = attachedResource.getAvailability();
-                        Availability attachedLastAvail = null;
+                        Query q = entityManager.createNamedQuery(Availability.FIND_CURRENT_BY_RESOURCE);
+                        q.setParameter("resourceId", resourceId);
 
-                        if (attachedAvails.isEmpty()) {
-                            latest = new Availability(attachedResource, 0L, AvailabilityType.UNKNOWN);
-                            entityManager.persist(latest);
+                        List<Availability> latestList = q.getResultList();
 
-                        } else {
-                            latest = attachedAvails.get(attachedAvails.size() - 1);
-                            latest.setEndTime(null);
-                            latest = entityManager.merge(latest);
+                        // delete all but the last one (our query sorts in ASC start time order)
+                        int latestCount = latestList.size();
+                        for (int i = 0; i < (latestCount - 1); i++) {
+                            entityManager.remove(latestList.get(i));
                         }
 
+                        Availability attachedLastAvail = latestList.get(latestCount - 1);
+                        updateResourceAvailability(attachedLastAvail);
+
                         // update the Map to reflect the repaired latest avail
+                        latest = new LatestAvailability(attachedLastAvail.getStartTime(),
+                            attachedLastAvail.getAvailabilityType());
                         latestAvailabilities.put(resourceId, latest);
 
-                        updateResourceAvailability(latest);
-
-                        // ask the agent for a full report so as to ensure we are in sync with agent
+                        // this is an unusual report - ask the agent for a full report so as to ensure we are in sync with agent
                         mergeInfo.setAskForFullReport(true);
 
                     } catch (Throwable t) {
-                        log.warn("Unable to repair NoResult latest availablity for Resource [" + reported.getResource()
-                            + "]", t);
+                        log.warn(
+                            "Unable to repair NonUnique Result latest availablity for Resource ["
+                                + reported.getResource() + "]", t);
                         continue;
                     }
+                } else {
+                    latest = (LatestAvailability) latestObject;
                 }
-            } else if (latestObject == nonUniqueMarker) { // this is like NonUniqueResultException
-                // This condition should never happen.  In my world of la-la land, I've done everything
-                // correctly so this never happens.  But, due to the asynchronous nature of things,
-                // I have to believe that this still might happen (albeit rarely).  If it does happen,
-                // and we do nothing about it - bad things arise.  So, if we find that a resource
-                // has 2 or more availabilities with endTime of null, we need to delete all but the
-                // latest one (the one whose start time is the latest).  This should correct the
-                // problem and allow us to continue processing availability reports for that resource
-
-                // This problem happens and can be helped to occur by for example forcibly killing an agent
-                // While it is a condition that shouldn't happen under normal operation, it is recoverable,
-                // so we only log on the debug level.
-                log.debug("Resource [" + reported.getResource()
-                    + "] has multiple availabilities without an endtime - will attempt to remove the extra ones\n"
-                    + mergeInfo.toString(false));
 
-                try {
-                    q = entityManager.createNamedQuery(Availability.FIND_CURRENT_BY_RESOURCE);
-                    q.setParameter("resourceId", resourceId);
+                AvailabilityType latestType = latest.availabilityType;
+                AvailabilityType reportedType = reported.getAvailabilityType();
+
+                // If the reported type is MISSING and this type is enabled for automatic uninventory, then
+                // uninventory the resource and continue with the next reported avail. Otherwise, convert to
+                // DOWN and process as usual.
+                if (AvailabilityType.MISSING == reportedType) {
+                    // the reported.getResource() gives us only a resource with an id. Nothing else, so we call a
+                    // dedicated SLSB method to do this work.
+                    boolean uninventoried = resourceManager.handleMissingResourceInNewTransaction(resourceId);
+                    if (uninventoried) {
+                        continue;
+                    } else {
+                        if (log.isDebugEnabled()) {
+                            log.debug("Type not enabled for automatic uninventory of MISSING resources. Converting MISSING to DOWN AvailabilityType for resource: "
+                                + reported.getResource());
+                        }
+                        reported.setAvailabilityType(AvailabilityType.DOWN);
+                        reportedType = AvailabilityType.DOWN;
+                    }
+                }
 
-                    List<Availability> latestList = q.getResultList();
+                // If the current avail is DISABLED, and this report is not trying to re-enable the resource,
+                // Then ignore the reported avail. We only alert on the avails for enabled resources.
+                if (AvailabilityType.DISABLED == latestType) {
+                    if (!(mergeInfo.isEnablementReport() && (AvailabilityType.UNKNOWN == reportedType))) {
+                        continue;
+                    }
+                }
+
+                if (reported.getStartTime() >= latest.startTime) {
+                    // the new availability data is for a time after our last known state change
+                    // we are run-length encoded, so only persist data if the availability changed
+                    if (latestType != reportedType) {
+                        if (null != latest.pending) {
+                            // the latest avail was itself reported earlier in this report and is not written yet
+                            latest.pending.setEndTime(reported.getStartTime());
+                        } else {
+                            writer.closeCurrent(resourceId, reported.getStartTime());
+                        }
 
-                    // delete all but the last one (our query sorts in ASC start time order)
-                    int latestCount = latestList.size();
-                    for (int i = 0; i < (latestCount - 1); i++) {
-                        entityManager.remove(latestList.get(i));
+                        writer.insert(reported);
+
+                        // the reported avail is the new latest avail, update the Map in case we have multiple reported
+                        // changes for the same resource in this report
+                        LatestAvailability reportedLatest = new LatestAvailability(reported.getStartTime(),
+                            reportedType);
+                        reportedLatest.pending = reported;
+                        latestAvailabilities.put(resourceId, reportedLatest);
+
+                        mergeInfo.incrementNumInserted();
+                        transitions.add(reported);
                     }
 
-                    latest = latestList.get(latestCount - 1);
-                    updateResourceAvailability(latest);
+                    // our last known state was unknown, ask for a full report to ensure we are in sync with agent
+                    if (latestType == AvailabilityType.UNKNOWN) {
+                        mergeInfo.setAskForFullReport(true);
+                    }
+                } else {
+                    // The new data is for a time in the past, probably an agent sending a report after
+                    // a network outage has been corrected but after we have already backfilled.
+                    // We need to insert it into our past timeline.
+                    if (null != latest.pending) {
+                        // the timeline is read through the entity manager, what this report changed so far has to be
+                        // written first
+                        entityManager.flush();
+                        writer.execute();
+
+                        for (Object written : latestAvailabilities.values()) {
+                            if (written instanceof LatestAvailability) {
+                                ((LatestAvailability) written).pending = null;
+                            }
+                        }
+                    }
 
-                    // update the Map to reflect the repaired latest avail
-                    latestAvailabilities.put(resourceId, latest);
+                    insertAvailability(reported);
+                    mergeInfo.incrementNumInserted();
 
                     // this is an unusual report - ask the agent for a full report so as to ensure we are in sync with agent
                     mergeInfo.setAskForFullReport(true);
-
-                } catch (Throwable t) {
-                    log.warn(
-                        "Unable to repair NonUnique Result latest availablity for Resource [" + reported.getResource()
-                            + "]", t);
-                    continue;
                 }
-            } else {
-                latest = (Availability) latestObject;
             }
 
-            AvailabilityType latestType = latest.getAvailabilityType();
-            AvailabilityType reportedType = reported.getAvailabilityType();
-
-            // If the reported type is MISSING and this type is enabled for automatic uninventory, then
-            // uninventory the resource and continue with the next reported avail. Otherwise, convert to
-            // DOWN and process as usual.
-            if (AvailabilityType.MISSING == reportedType) {
-                // the reported.getResource() gives us only a resource with an id. Nothing else, so we call a
-                // dedicated SLSB method to do this work.
-                boolean uninventoried = resourceManager.handleMissingResourceInNewTransaction(resourceId);
-                if (uninventoried) {
-                    continue;
-                } else {
-                    if (log.isDebugEnabled()) {
-                        log.debug("Type not enabled for automatic uninventory of MISSING resources. Converting MISSING to DOWN AvailabilityType for resource: "
-                            + reported.getResource());
-                    }
-                    reported.setAvailabilityType(AvailabilityType.DOWN);
-                    reportedType = AvailabilityType.DOWN;
-                }
+            // the rows touched through the entity manager have to be written before the batches touch them too
+            entityManager.flush();
+            writer.execute();
+
+            latestAvailabilities.clear(); // done with these, perhaps helps GC
+            latestAvailabilities = null;
+
+            // notify alert condition cache manager for the avail changes of enabled resources
+            notifyAlertConditionCacheManager("mergeAvailabilityReport",
+                transitions.toArray(new Availability[transitions.size()]));
+
+        } catch (SQLException e) {
+            throw new IllegalStateException("Failed to merge availabilities: "
+                + JDBCUtil.convertSQLExceptionToString(e), e);
+        } finally {
+            if (null != writer) {
+                writer.close();
+            }
+            JDBCUtil.safeClose(conn);
+        }
+
+        return;
+    }
+
+    /**
+     * Loads the latest availability (the one without an end time) of each of the reported resources.
+     *
+     * @return resource id to its {@link LatestAvailability}, or to <code>nonUniqueMarker</code> if the resource has
+     * more than one availability without an end time
+     */
+    private Map<Integer, Object> findLatestAvailabilities(Connection conn, List<Availability> availabilities,
+        Object nonUniqueMarker) throws SQLException {
+
+        Map<Integer, Object> latestAvailabilities = new HashMap<Integer, Object>(availabilities.size() + 100);
+        PreparedStatement ps = null;
+        ResultSet rs = null;
+
+        try {
+            ps = conn.prepareStatement(JDBCUtil.transformQueryForMultipleInParameters(AVAIL_LATEST_QUERY,
+                "@@RESOURCE_IDS@@", availabilities.size()));
+            int i = 1;
+            for (Availability reported : availabilities) {
+                ps.setInt(i++, reported.getResource().getId());
             }
 
-            // If the current avail is DISABLED, and this report is not trying to re-enable the resource,
-            // Then ignore the reported avail.
-            if (AvailabilityType.DISABLED == latestType) {
-                if (!(mergeInfo.isEnablementReport() && (AvailabilityType.UNKNOWN == reportedType))) {
-                    disabledAvailabilities.add(reported);
-                    continue;
+            rs = ps.executeQuery();
+            while (rs.next()) {
+                Integer resourceId = rs.getInt(1);
+                if (latestAvailabilities.containsKey(resourceId)) {
+                    latestAvailabilities.put(resourceId, nonUniqueMarker);
+                } else {
+                    latestAvailabilities.put(resourceId, new LatestAvailability(rs.getLong(2),
+                        AvailabilityType.values()[rs.getInt(3)]));
                 }
             }
+        } finally {
+            JDBCUtil.safeClose(ps, rs);
+        }
 
-            if (reported.getStartTime() >= latest.getStartTime()) {
-                //log.info( "new avail (latest/reported)-->" + latest + "/" + reported );
+        return latestAvailabilities;
+    }
 
-                // the new availability data is for a time after our last known state change
-                // we are run-length encoded, so only persist data if the availability changed
-                if (latest.getAvailabilityType() != reported.getAvailabilityType()) {
-                    entityManager.persist(reported);
-                    // the reported avail is the new latest avail, update the Map in case we have multiple reported
-                    // changes for the same resource in this report
-                    latestAvailabilities.put(resourceId, reported);
+    /**
+     * The latest availability of a resource while a batch of reported availabilities is merged.
+     */
+    private static class LatestAvailability {
+        private final long startTime;
+        private final AvailabilityType availabilityType;
+        /** The reported availability this was created from, as long as it is only queued for insert */
+        private Availability pending;
+
+        LatestAvailability(long startTime, AvailabilityType availabilityType) {
+            this.startTime = startTime;
+            this.availabilityType = availabilityType;
+        }
+    }
 
-                    mergeInfo.incrementNumInserted();
+    /**
+     * Queues the availability changes of a merge and writes them with JDBC batches on {@link #execute()}. A current
+     * row is closed by resource rather than by id, which also covers rows that an earlier {@link #execute()} of the
+     * same merge inserted.
+     */
+    private static class AvailabilityBatchWriter {
 
-                    latest.setEndTime(reported.getStartTime());
-                    latest = entityManager.merge(latest);
+        private final Connection conn;
 
-                    changedAvailabilities.add(reported);
-                }
+        private final String insertSql;
 
-                // our last known state was unknown, ask for a full report to ensure we are in sync with agent
-                if (latest.getAvailabilityType() == AvailabilityType.UNKNOWN) {
-                    mergeInfo.setAskForFullReport(true);
-                }
-            } else {
-                //log.info( "past avail (latest/reported)==>" + latest + "/" + reported );
+        private final List<Integer> closedResourceIds = new ArrayList<Integer>();
 
-                // The new data is for a time in the past, probably an agent sending a report after
-                // a network outage has been corrected but after we have already backfilled.
-                // We need to insert it into our past timeline.
-                insertAvailability(reported);
-                mergeInfo.incrementNumInserted();
+        private final List<Long> closedEndTimes = new ArrayList<Long>();
 
-                // this is an unusual report - ask the agent for a full report so as to ensure we are in sync with agent
-                mergeInfo.setAskForFullReport(true);
+        private final List<Availability> inserted = new ArrayList<Availability>();
+
+        /** The new current availability type of each resource that changed, the last change wins */
+        private final Map<Integer, AvailabilityType> changedTypes = new LinkedHashMap<Integer, AvailabilityType>();
+
+        private PreparedStatement closeAvail;
+
+        private PreparedStatement insertAvail;
+
+        AvailabilityBatchWriter(Connection conn) {
+            this.conn = conn;
+
+            DatabaseType dbType = DatabaseTypeFactory.getDefaultDatabaseType();
+            if (dbType instanceof PostgresqlDatabaseType || dbType instanceof OracleDatabaseType
+                || dbType instanceof H2DatabaseType) {
+                insertSql = String.format(AVAIL_INSERT_STMT, JDBCUtil.getNextValSql(conn, "RHQ_AVAILABILITY"));
+            } else if (dbType instanceof SQLServerDatabaseType) {
+                insertSql = AVAIL_INSERT_STMT_AUTOINC;
+            } else {
+                throw new IllegalArgumentException("Unknown database type, can't continue: " + dbType);
             }
         }
 
-        // update the affected ResourceAvailabilities
-        updateResourceAvailabilities(changedAvailabilities);
+        void closeCurrent(int resourceId, long endTime) {
+            closedResourceIds.add(resourceId);
+            closedEndTimes.add(endTime);
+        }
 
-        latestAvailabilities.clear(); // done with these, perhaps helps GC
-        latestAvailabilities = null;
-        changedAvailabilities.clear();
-        changedAvailabilities = null;
+        void insert(Availability availability) {
+            inserted.add(availability);
+            changedTypes.put(availability.getResource().getId(), availability.getAvailabilityType());
+        }
 
-        // notify alert condition cache manager for all reported avails for for enabled resources
-        availabilities.removeAll(disabledAvailabilities);
-        notifyAlertConditionCacheManager("mergeAvailabilityReport",
-            availabilities.toArray(new Availability[availabilities.size()]));
+        void execute() throws SQLException {
+            if (!closedResourceIds.isEmpty()) {
+                if (null == closeAvail) {
+                    closeAvail = conn.prepareStatement(AVAIL_CLOSE_STMT);
+                }
+                for (int i = 0; i < closedResourceIds.size(); ++i) {
+                    closeAvail.setLong(1, closedEndTimes.get(i));
+                    closeAvail.setInt(2, closedResourceIds.get(i));
+                    closeAvail.addBatch();
+                }
+                closeAvail.executeBatch();
+                closedResourceIds.clear();
+                closedEndTimes.clear();
+            }
 
-        return;
+            if (!inserted.isEmpty()) {
+                if (null == insertAvail) {
+                    insertAvail = conn.prepareStatement(insertSql);
+                }
+                for (Availability availability : inserted) {
+                    insertAvail.setInt(1, availability.getResource().getId());
+                    insertAvail.setLong(2, availability.getStartTime());
+                    if (null == availability.getEndTime()) {
+                        insertAvail.setNull(3, Types.BIGINT);
+                    } else {
+                        insertAvail.setLong(3, availability.getEndTime());
+                    }
+                    insertAvail.setInt(4, availability.getAvailabilityType().ordinal());
+                    insertAvail.addBatch();
+                }
+                insertAvail.executeBatch();
+                inserted.clear();
+            }
+
+            if (!changedTypes.isEmpty()) {
+                // the ids and types are ints, so they are inlined rather than bound; this keeps the statement under
+                // the bind parameter limits whatever the merge batch size
+                StringBuilder cases = new StringBuilder();
+                StringBuilder resourceIds = new StringBuilder();
+                for (Map.Entry<Integer, AvailabilityType> entry : changedTypes.entrySet()) {
+                    cases.append(" WHEN ").append(entry.getKey()).append(" THEN ")
+                        .append(entry.getValue().ordinal());
+                    if (resourceIds.length() > 0) {
+                        resourceIds.append(",");
+                    }
+                    resourceIds.append(entry.getKey());
+                }
+
+                Statement updateResourceAvail = conn.createStatement();
+                try {
+                    updateResourceAvail.executeUpdate(RESOURCE_AVAIL_UPDATE_STMT.replace("@@CASES@@", cases)
+                        .replace("@@RESOURCE_IDS@@", resourceIds));
+                } finally {
+                    JDBCUtil.safeClose(updateResourceAvail);
+                }
+                changedTypes.clear();
+            }
+        }
+
+        void close() {
+            JDBCUtil.safeClose(closeAvail);
+            JDBCUtil.safeClose(insertAvail);
+        }
     }
 
     private void updateResourceAvailability(Availability reported) {
@@ -1057,39 +1273,6 @@ public class AvailabilityManagerBean implements AvailabilityManagerLocal, Availa
         }
     }
 
-    // pulls all the ResourceAvailabilities in one query to reduce DB round trips
-    private void updateResourceAvailabilities(List<Availability> reportedChanges) {
-        if (null == reportedChanges || reportedChanges.isEmpty()) {
-            return;
-        }
-
-        Query q = entityManager.createNamedQuery(ResourceAvailability.QUERY_FIND_BY_RESOURCE_IDS);
-        List<Integer> resourceIds = new ArrayList<Integer>(reportedChanges.size());
-        for (Availability reported : reportedChanges) {
-            resourceIds.add(reported.getResource().getId());
-        }
-        q.setParameter("resourceIds", resourceIds);
-        List<ResourceAvailability> resourceAvailabilityList = q.getResultList();
-        resourceIds.clear(); // done with this, perhaps helps GC
-        resourceIds = null;
-
-        // populate Map of resourceIds to resourceAvailability
-        Map<Integer, ResourceAvailability> resourceAvailabilities = new HashMap(reportedChanges.size());
-        for (ResourceAvailability resourceAvailability : resourceAvailabilityList) {
-            resourceAvailabilities.put(resourceAvailability.getResourceId(), resourceAvailability);
-        }
-
-        for (Availability reported : reportedChanges) {
-            ResourceAvailability currentAvailability = resourceAvailabilities.get(reported.getResource().getId());
-
-            // update the last known availability data for this resource but only if necessary (actually changed)
-            updateResourceAvailabilityIfNecessary(reported, currentAvailability);
-        }
-
-        resourceAvailabilities.clear(); // done with these, perhaps helps GC
-        resourceAvailabilities = null;
-    }
-
     @Override
     @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
     public void updateLastAvailabilityReportInNewTransaction(int agentId) {
@@ -65,6 +65,7 @@ import org.rhq.enterprise.server.alert.engine.AlertConditionCacheStats;
 import org.rhq.enterprise.server.authz.AuthorizationManagerLocal;
 import org.rhq.enterprise.server.authz.PermissionException;
 import org.rhq.enterprise.server.measurement.instrumentation.MeasurementMonitor;
+import org.rhq.enterprise.server.purge.TimePartitionedTable;
 import org.rhq.enterprise.server.util.CriteriaQueryGenerator;
 import org.rhq.enterprise.server.util.CriteriaQueryRunner;
 
@@ -411,15 +412,22 @@ public class CallTimeDataManagerBean implements CallTimeDataManagerLocal, CallTi
 
             results = ps.executeBatch();
 
+            // rows that the insert trigger routes into a daily partition are not counted by Postgres, ask the
+            // database whether routing is on the first time that happens
+            Boolean partitioned = null;
             int insertedRowCount = 0;
             for (int i = 0; i < results.length; i++) {
-                if ((results[i] != 1) && (results[i] != -2)) // Oracle likes to return -2 becuase it doesn't track batch update counts
+                if (results[i] == 0 && partitioned == null) {
+                    partitioned = dbType.isDailyPartitionsEnabled(conn,
+                        TimePartitionedTable.CALLTIME_DATA_VALUE.getTableName());
+                }
+                if ((results[i] != 1) && (results[i] != -2) && !(results[i] == 0 && partitioned)) // Oracle likes to return -2 becuase it doesn't track batch update counts
                 {
                     throw new MeasurementStorageException("Failed to insert call-time data value rows - result ["
                         + results[i] + "] for batch command [" + i + "] does not equal 1.");
                 }
 
-                insertedRowCount += results[i] == -2 ? 1 : results[i]; // If Oracle returns -2, just count 1 row;
+                insertedRowCount++; // If Oracle returns -2 or the row was routed into a partition, just count 1 row
             }
 
             notifyAlertConditionCacheManager("insertCallTimeDataValues",
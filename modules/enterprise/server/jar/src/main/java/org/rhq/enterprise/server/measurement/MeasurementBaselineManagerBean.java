@@ -18,7 +18,12 @@
  */
 package org.rhq.enterprise.server.measurement;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
@@ -33,6 +38,7 @@ import javax.ejb.TransactionAttributeType;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
 import javax.persistence.Query;
+import javax.sql.DataSource;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -50,6 +56,7 @@ import org.rhq.core.domain.measurement.NumericType;
 import org.rhq.core.domain.resource.Resource;
 import org.rhq.core.domain.util.PageControl;
 import org.rhq.core.util.collection.ArrayUtils;
+import org.rhq.core.util.jdbc.JDBCUtil;
 import org.rhq.enterprise.server.RHQConstants;
 import org.rhq.enterprise.server.auth.SubjectManagerLocal;
 import org.rhq.enterprise.server.authz.AuthorizationManagerLocal;
@@ -96,10 +103,33 @@ public class MeasurementBaselineManagerBean implements MeasurementBaselineManage
     @EJB
     private StorageClientManager sessionManager;
 
+    @javax.annotation.Resource(name = "RHQ_DS", mappedName = RHQConstants.DATASOURCE_JNDI_NAME)
+    private DataSource rhqDs;
+
     private final Log log = LogFactory.getLog(MeasurementBaselineManagerBean.class);
 
     private static final int BASELINE_PROCESSING_LIMIT = 100;
 
+    /**
+     * The maximum number of concurrent storage queries used to calculate baselines. A value of 1 or less selects the
+     * sequential calculation with baselines persisted through the entity manager.
+     */
+    private static final int BASELINE_PARALLELISM = Integer.parseInt(System.getProperty(
+        "rhq.baselines.calculation.parallelism", "25"));
+
+    private static final int ASYNC_BASELINE_PROCESSING_LIMIT = 5000;
+
+    private static final int BASELINE_INSERT_BATCH_SIZE = 1000;
+
+    // id, bl_user_entered, bl_min, bl_max, bl_mean, bl_compute_time, schedule_id
+    private static final String BASELINE_INSERT_STATEMENT = "" //
+        + "INSERT INTO rhq_measurement_bline " //
+        + "       (id, bl_user_entered, bl_min, bl_max, bl_mean, bl_compute_time, schedule_id) " //
+        + "SELECT %s, %s, ?, ?, ?, ?, s.id " //
+        + "  FROM rhq_measurement_sched s " //
+        + " WHERE s.id = ? " //
+        + "   AND NOT EXISTS (SELECT 1 FROM rhq_measurement_bline b WHERE b.schedule_id = s.id)";
+
     @TransactionAttribute(TransactionAttributeType.NEVER)
     public void calculateAutoBaselines() {
         Properties conf = systemManager.getSystemConfiguration(subjectManager.getOverlord());
@@ -194,10 +224,14 @@ public class MeasurementBaselineManagerBean implements MeasurementBaselineManage
              * needs to replace the limits in the query today.
              */
             Set<Integer> schedulesWithoutBaselines = measurementBaselineManager.getSchedulesWithoutBaselines();
+            // the async calculation keeps a bounded number of queries in flight, so larger chunks just mean fewer
+            // points where it has to wait for stragglers
+            int processingLimit = BASELINE_PARALLELISM > 1 ? ASYNC_BASELINE_PROCESSING_LIMIT
+                : BASELINE_PROCESSING_LIMIT;
             Set<Integer> accumulator = new HashSet<Integer>();
             for (Integer value : schedulesWithoutBaselines) {
                 accumulator.add(value);
-                if (accumulator.size() == BASELINE_PROCESSING_LIMIT) {
+                if (accumulator.size() == processingLimit) {
                     measurementBaselineManager.calculateBaselines(accumulator, now, amountOfData);
                     accumulator.clear();
                 }
@@ -258,10 +292,19 @@ public class MeasurementBaselineManagerBean implements MeasurementBaselineManage
         long startTime = endTime - amountOfData;
 
         log.debug("Computing baselines for " + scheduleIds.size() + " schedules");
-        MetricsBaselineCalculator baselineCalculator = new MetricsBaselineCalculator(sessionManager.getMetricsDAO());
+        MetricsBaselineCalculator baselineCalculator = sessionManager.getMetricsServer().getBaselineCalculator();
         long calcStartTime = System.currentTimeMillis();
-        Map<Integer, MeasurementBaseline> results = baselineCalculator.calculateBaselines(scheduleIds, startTime,
-            endTime);
+        Map<Integer, MeasurementBaseline> results;
+        if (BASELINE_PARALLELISM > 1) {
+            try {
+                results = baselineCalculator.calculateBaselines(scheduleIds, startTime, endTime, BASELINE_PARALLELISM);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while calculating baselines", e);
+            }
+        } else {
+            results = baselineCalculator.calculateBaselines(scheduleIds, startTime, endTime);
+        }
         long calcEndTime = System.currentTimeMillis();
 
         if (log.isDebugEnabled()) {
@@ -272,7 +315,11 @@ public class MeasurementBaselineManagerBean implements MeasurementBaselineManage
         log.debug("Persisting baselines calculations");
         long saveStartTime = System.currentTimeMillis();
 
-        saveNewBaselines(results);
+        if (BASELINE_PARALLELISM > 1) {
+            saveNewBaselinesBatched(results.values());
+        } else {
+            saveNewBaselines(results);
+        }
 
         long saveEndTime = System.currentTimeMillis();
         if (log.isDebugEnabled()) {
@@ -297,6 +344,104 @@ public class MeasurementBaselineManagerBean implements MeasurementBaselineManage
         }
     }
 
+    private void saveNewBaselinesBatched(Collection<MeasurementBaseline> baselines) {
+        List<MeasurementBaseline> chunk = new ArrayList<MeasurementBaseline>(BASELINE_INSERT_BATCH_SIZE);
+        for (MeasurementBaseline baseline : baselines) {
+            chunk.add(baseline);
+            if (chunk.size() == BASELINE_INSERT_BATCH_SIZE) {
+                saveNewBaselinesBatchChunk(chunk);
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty()) {
+            saveNewBaselinesBatchChunk(chunk);
+        }
+    }
+
+    // The NOT EXISTS guard skips baselines that are already stored, but not those another server or job inserts
+    // concurrently (see BZ 1125439). Such an insert fails the batch on the unique constraint of the schedule id, and
+    // the MeasurementStorageException rolls back the whole chunk. Try it once more to store the rest of it, now that
+    // the guard sees the other rows.
+    void saveNewBaselinesBatchChunk(List<MeasurementBaseline> chunk) {
+        for (int attempt = 1;; ++attempt) {
+            try {
+                measurementBaselineManager.saveNewBaselinesBatch(chunk);
+                return;
+            } catch (MeasurementStorageException e) {
+                if (!isConstraintViolation(e.getCause())) {
+                    throw e;
+                }
+                if (attempt == 2) {
+                    log.warn("Failed to store a batch of " + chunk.size() + " baselines. This is expected in certain "
+                        + "situations and can be ignored if the problem does not persist.", log.isDebugEnabled() ? e
+                        : null);
+                    return;
+                }
+                if (log.isDebugEnabled()) {
+                    log.debug("Baselines were stored concurrently, retrying a batch of " + chunk.size() + " baselines");
+                }
+            }
+        }
+    }
+
+    private static boolean isConstraintViolation(Throwable t) {
+        if (!(t instanceof SQLException)) {
+            return false;
+        }
+        // Batch failures may carry the cause of the failed statement as the next exception
+        for (SQLException e = (SQLException) t; e != null; e = e.getNextException()) {
+            // SQL state class 23 is integrity constraint violation
+            if (e.getSQLState() != null && e.getSQLState().startsWith("23")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public int saveNewBaselinesBatch(Collection<MeasurementBaseline> baselines) {
+        Connection conn = null;
+        PreparedStatement ps = null;
+        try {
+            conn = rhqDs.getConnection();
+            DatabaseType dbType = DatabaseTypeFactory.getDefaultDatabaseType();
+            String insertSql = String.format(BASELINE_INSERT_STATEMENT,
+                JDBCUtil.getNextValSql(conn, "RHQ_MEASUREMENT_BLINE"), dbType.getBooleanValue(false));
+            ps = conn.prepareStatement(insertSql);
+
+            int batched = 0;
+            for (MeasurementBaseline baseline : baselines) {
+                if (baseline.getMax().isNaN() || baseline.getMin().isNaN() || baseline.getMean().isNaN()) {
+                    continue;
+                }
+                ps.setDouble(1, baseline.getMin());
+                ps.setDouble(2, baseline.getMax());
+                ps.setDouble(3, baseline.getMean());
+                ps.setLong(4, baseline.getComputeTime().getTime());
+                ps.setInt(5, baseline.getScheduleId());
+                ps.addBatch();
+                ++batched;
+            }
+            if (batched == 0) {
+                return 0;
+            }
+
+            int[] results = ps.executeBatch();
+            int inserted = 0;
+            for (int result : results) {
+                // oracle returns -2 because it can't count updated rows
+                inserted += result == -2 ? 1 : Math.max(0, result);
+            }
+            return inserted;
+        } catch (SQLException e) {
+            // roll back, not commit, the rows inserted before the failure
+            throw new MeasurementStorageException("Failed to insert baselines", e);
+        } finally {
+            JDBCUtil.safeClose(conn, ps, null);
+        }
+    }
+
     // We trap unique constraint exceptions because we can't 100% ensure that the quartz job wont run
     // simultaneously (see BZ 1125439).  If we're storing a duplicate it likely means that the baselines
     // have already been updated.  Even if we fail to store a valid baseline (since we store more than 1 in a Tx) the
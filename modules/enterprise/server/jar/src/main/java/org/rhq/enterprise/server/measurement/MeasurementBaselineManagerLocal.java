@@ -18,6 +18,7 @@
  */
 package org.rhq.enterprise.server.measurement;
 
+import java.util.Collection;
 import java.util.Map;
 import java.util.Set;
 
@@ -96,6 +97,18 @@ public interface MeasurementBaselineManagerLocal extends MeasurementBaselineMana
      */
     void saveNewBaselines(Set<Integer> scheduleIds, Map<Integer, MeasurementBaseline> baselines);
 
+    /**
+     * Persists the newly calculated baselines using JDBC batch inserts. Baselines for schedules that no longer exist
+     * or that already have a baseline are silently skipped.
+     * <br/><br/>
+     * <strong>Note</strong> This method exists only for transaction demarcation.
+     *
+     * @param baselines The baselines to persist
+     * @return The number of baselines inserted
+     * @throws MeasurementStorageException if the batch failed, the whole batch is rolled back
+     */
+    int saveNewBaselinesBatch(Collection<MeasurementBaseline> baselines);
+
     MeasurementBaseline getBaselineIfEqual(Subject subject, int groupId, int definitionId);
 
     /**
@@ -35,7 +35,6 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.TreeSet;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
@@ -102,11 +101,13 @@ import org.rhq.enterprise.server.core.AgentManagerLocal;
 import org.rhq.enterprise.server.measurement.instrumentation.MeasurementMonitor;
 import org.rhq.enterprise.server.measurement.util.MeasurementDataManagerUtility;
 import org.rhq.enterprise.server.resource.group.ResourceGroupManagerLocal;
+import org.rhq.enterprise.server.resource.group.definition.GroupDefinitionManagerLocal;
 import org.rhq.enterprise.server.rest.ResourceHandlerBean;
 import org.rhq.enterprise.server.storage.StorageClientManager;
 import org.rhq.enterprise.server.util.CriteriaQueryGenerator;
 import org.rhq.enterprise.server.util.CriteriaQueryRunner;
 import org.rhq.server.metrics.MetricsServer;
+import org.rhq.server.metrics.NumericBuckets;
 import org.rhq.server.metrics.domain.AggregateNumericMetric;
 import org.rhq.server.metrics.domain.RawNumericMetric;
 
@@ -158,6 +159,8 @@ public class MeasurementDataManagerBean implements MeasurementDataManagerLocal,
     @EJB
     private ResourceGroupManagerLocal resourceGroupManager;
     @EJB
+    private GroupDefinitionManagerLocal groupDefinitionManager;
+    @EJB
     private CallTimeDataManagerLocal callTimeDataManager;
     @EJB
     private MeasurementDataManagerLocal measurementDataManager;
@@ -223,22 +226,7 @@ public class MeasurementDataManagerBean implements MeasurementDataManagerLocal,
 
             @Override
             public void onSuccess(@Nullable Void result) {
-                Set<MeasurementData> insertedData = new TreeSet<MeasurementData>(new Comparator<MeasurementData>() {
-                    // Note, if the logic in this comparator is updated please ensure that you also
-                    // update MeasurementDataTest.testComparator(), where this logic is tested.
-                    @Override
-                    public int compare(MeasurementData d1, MeasurementData d2) {
-                        int c = Integer.valueOf(d1.getScheduleId()).compareTo(d2.getScheduleId());
-                        if (c != 0) {
-                            return c;
-                        }
-                        return Long.valueOf(d1.getTimestamp()).compareTo(d2.getTimestamp());
-                    }
-                });
-
-                insertedData.addAll(data);
-                measurementDataManager.updateAlertConditionCache("mergeMeasurementReport",
-                        insertedData.toArray(new MeasurementData[insertedData.size()]));
+                measurementDataManager.updateAlertConditionCache("mergeMeasurementReport", sortForAlerting(data));
             }
 
             @Override
@@ -249,6 +237,36 @@ public class MeasurementDataManagerBean implements MeasurementDataManagerLocal,
         });
     }
 
+    /**
+     * Sorts the data by schedule id and timestamp, dropping all but the first datum for the same schedule and
+     * timestamp. The alert condition cache checks the numeric data of a schedule as one batch, so all data of a
+     * schedule needs to be adjacent.
+     */
+    static MeasurementData[] sortForAlerting(Collection<? extends MeasurementData> data) {
+        MeasurementData[] sorted = data.toArray(new MeasurementData[data.size()]);
+        // Note, if the logic in this comparator is updated please ensure that you also
+        // update MeasurementDataTest.testComparator(), where this logic is tested.
+        Arrays.sort(sorted, new Comparator<MeasurementData>() {
+            @Override
+            public int compare(MeasurementData d1, MeasurementData d2) {
+                if (d1.getScheduleId() != d2.getScheduleId()) {
+                    return (d1.getScheduleId() < d2.getScheduleId()) ? -1 : 1;
+                }
+                return (d1.getTimestamp() < d2.getTimestamp()) ? -1 : ((d1.getTimestamp() == d2.getTimestamp()) ? 0
+                    : 1);
+            }
+        });
+
+        int size = 0;
+        for (MeasurementData datum : sorted) {
+            if (size == 0 || sorted[size - 1].getScheduleId() != datum.getScheduleId()
+                || sorted[size - 1].getTimestamp() != datum.getTimestamp()) {
+                sorted[size++] = datum;
+            }
+        }
+        return (size == sorted.length) ? sorted : Arrays.copyOf(sorted, size);
+    }
+
     @Override
     @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
     public void addTraitData(Set<MeasurementDataTrait> data) {
@@ -262,7 +280,11 @@ public class MeasurementDataManagerBean implements MeasurementDataManagerLocal,
             conn = rhqDs.getConnection();
             ps = conn.prepareStatement(TRAIT_INSERT_STATEMENT);
 
+            int[] scheduleIds = new int[data.size()];
+            int i = 0;
             for (MeasurementDataTrait aData : data) {
+                scheduleIds[i++] = aData.getScheduleId();
+
                 // time_stamp, schedule_id, value, schedule_id, schedule_id, value, value, value, value
 
                 // There's a limitation of 4000 database characters in Oracle, try to overcome the issue
@@ -291,6 +313,15 @@ public class MeasurementDataManagerBean implements MeasurementDataManagerLocal,
                 // It is expected that some of these batch updates didn't update anything as the previous value was the same
             }
 
+            // only the traits whose value changed got inserted, and only those can alter dynagroup memberships
+            int changedCount = 0;
+            for (int j = 0; j < res.length; j++) {
+                if (res[j] != 0) {
+                    scheduleIds[changedCount++] = scheduleIds[j];
+                }
+            }
+            groupDefinitionManager.recordTraitChanges(Arrays.copyOf(scheduleIds, changedCount));
+
             notifyAlertConditionCacheManager("mergeMeasurementReport", data.toArray(new MeasurementData[data.size()]));
         } catch (SQLException e) {
             log.warn("Failure saving measurement trait data:\n" + ThrowableUtil.getAllMessages(e));
@@ -782,7 +813,44 @@ public class MeasurementDataManagerBean implements MeasurementDataManagerLocal,
     public List<List<MeasurementDataNumericHighLowComposite>> findDataForContext(Subject subject,
         EntityContext context, int definitionId, long beginTime, long endTime, int numDataPoints) {
         MetricsServer metricsServer = storageClientManager.getMetricsServer();
+        List<Integer> scheduleIds = findScheduleIdsForContext(subject, context, definitionId);
 
+        Iterable<MeasurementDataNumericHighLowComposite> composites;
+        if (context.type == EntityContext.Type.Resource) {
+            composites = metricsServer.findDataForResource(scheduleIds.get(0), beginTime, endTime, numDataPoints);
+        } else {
+            composites = metricsServer.findDataForGroup(scheduleIds, beginTime, endTime, numDataPoints);
+        }
+        List<List<MeasurementDataNumericHighLowComposite>> data =
+            new ArrayList<List<MeasurementDataNumericHighLowComposite>>();
+
+        List<MeasurementDataNumericHighLowComposite> tempList = new ArrayList<MeasurementDataNumericHighLowComposite>();
+        for (MeasurementDataNumericHighLowComposite object : composites) {
+            tempList.add(object);
+        }
+        data.add(tempList);
+
+        return data;
+    }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public NumericBuckets findBucketedDataForContext(Subject subject, EntityContext context, int definitionId,
+        long beginTime, long endTime, int numDataPoints) {
+        MetricsServer metricsServer = storageClientManager.getMetricsServer();
+        List<Integer> scheduleIds = findScheduleIdsForContext(subject, context, definitionId);
+
+        if (context.type == EntityContext.Type.Resource) {
+            return metricsServer.findBucketedDataForResource(scheduleIds.get(0), beginTime, endTime, numDataPoints);
+        }
+        return metricsServer.findBucketedDataForGroup(scheduleIds, beginTime, endTime, numDataPoints);
+    }
+
+    /**
+     * Checks that the subject can view the resource or group of the context and returns the ids of the schedules
+     * for the definition. For a resource context the list holds exactly one schedule id.
+     */
+    private List<Integer> findScheduleIdsForContext(Subject subject, EntityContext context, int definitionId) {
         if (context.type == EntityContext.Type.Resource) {
             if (!authorizationManager.canViewResource(subject, context.resourceId)) {
                 throw new PermissionException("User [" + subject.getName()
@@ -790,17 +858,7 @@ public class MeasurementDataManagerBean implements MeasurementDataManagerLocal,
             }
             MeasurementSchedule schedule = measurementScheduleManager.getSchedule(subject, context.getResourceId(),
                 definitionId, false);
-            List<List<MeasurementDataNumericHighLowComposite>> data =
-                new ArrayList<List<MeasurementDataNumericHighLowComposite>>();
-
-            List<MeasurementDataNumericHighLowComposite> tempList = new ArrayList<MeasurementDataNumericHighLowComposite>();
-            for (MeasurementDataNumericHighLowComposite object : metricsServer.findDataForResource(schedule.getId(),
-                beginTime, endTime, numDataPoints)) {
-                tempList.add(object);
-            }
-            data.add(tempList);
-
-            return data;
+            return Collections.singletonList(schedule.getId());
         } else if (context.type == EntityContext.Type.ResourceGroup) {
             if (!authorizationManager.canViewGroup(subject, context.groupId)) {
                 throw new PermissionException("User [" + subject.getName()
@@ -813,17 +871,7 @@ public class MeasurementDataManagerBean implements MeasurementDataManagerLocal,
             criteria.setPageControl(PageControl.getUnlimitedInstance());
             PageList<MeasurementSchedule> schedules = measurementScheduleManager.findSchedulesByCriteria(subject,
                 criteria);
-            List<List<MeasurementDataNumericHighLowComposite>> data =
-                new ArrayList<List<MeasurementDataNumericHighLowComposite>>();
-
-            List<MeasurementDataNumericHighLowComposite> tempList = new ArrayList<MeasurementDataNumericHighLowComposite>();
-            for (MeasurementDataNumericHighLowComposite object : metricsServer.findDataForGroup(map(schedules),
-                beginTime, endTime,numDataPoints)) {
-                tempList.add(object);
-            }
-            data.add(tempList);
-
-            return data;
+            return map(schedules);
         } else {
             throw new UnsupportedOperationException("The findDataForContext method does not support " +
                 context);
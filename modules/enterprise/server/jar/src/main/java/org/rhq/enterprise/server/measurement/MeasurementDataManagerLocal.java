@@ -38,6 +38,7 @@ import org.rhq.core.domain.measurement.ui.MetricDisplaySummary;
 import org.rhq.core.domain.resource.Resource;
 import org.rhq.core.domain.resource.ResourceType;
 import org.rhq.core.domain.resource.group.ResourceGroup;
+import org.rhq.server.metrics.NumericBuckets;
 
 /**
  * A manager for {@link MeasurementData}s.
@@ -119,6 +120,14 @@ public interface MeasurementDataManagerLocal extends MeasurementDataManagerRemot
     public List<List<MeasurementDataNumericHighLowComposite>> findDataForContext(Subject subject,
         EntityContext context, int definitionId, long beginTime, long endTime, int numDataPoints);
 
+    /**
+     * Same as {@link #findDataForContext(Subject, EntityContext, int, long, long, int)} except that the data is
+     * returned as primitive arrays with one element per bucket rather than as a list of composites. This avoids
+     * creating objects per row and per bucket, which adds up for pages that display many graphs.
+     */
+    NumericBuckets findBucketedDataForContext(Subject subject, EntityContext context, int definitionId,
+        long beginTime, long endTime, int numDataPoints);
+
     /**
      * @deprecated portal-war (it is not used at all)
      */
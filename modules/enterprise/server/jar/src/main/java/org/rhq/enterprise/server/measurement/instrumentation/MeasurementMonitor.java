@@ -18,6 +18,9 @@
  */
 package org.rhq.enterprise.server.measurement.instrumentation;
 
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.PostConstruct;
@@ -90,6 +93,8 @@ public class MeasurementMonitor implements MeasurementMonitorMBean {
 
     private AtomicLong purgedMeasurementTraits = new AtomicLong();
 
+    private Map<String, Long> purgeThroughput = new ConcurrentHashMap<String, Long>();
+
     private static MBeanServer mbeanServer;
     private static ObjectName objectName;
 
@@ -257,6 +262,14 @@ public class MeasurementMonitor implements MeasurementMonitorMBean {
         this.purgedMeasurementTraits.set(delta);
     }
 
+    public Map<String, Long> getPurgeThroughput() {
+        return new HashMap<String, Long>(this.purgeThroughput);
+    }
+
+    public void setPurgeThroughput(String entityName, long rowsPerSecond) {
+        this.purgeThroughput.put(entityName, rowsPerSecond);
+    }
+
     @Override
     public int getAggregationBatchSize() {
         return storageClientManager.getAggregationBatchSize();
@@ -18,6 +18,8 @@
  */
 package org.rhq.enterprise.server.measurement.instrumentation;
 
+import java.util.Map;
+
 /**
  * @author Greg Hinkle
  */
@@ -95,6 +97,13 @@ public interface MeasurementMonitorMBean {
 
     void setPurgedMeasurementTraits(long delta);
 
+    /**
+     * @return the rows deleted per second by the LAST purge of each entity, keyed by entity name
+     */
+    Map<String, Long> getPurgeThroughput();
+
+    void setPurgeThroughput(String entityName, long rowsPerSecond);
+
     int getAggregationBatchSize();
 
     void setAggregationBatchSize(int size);
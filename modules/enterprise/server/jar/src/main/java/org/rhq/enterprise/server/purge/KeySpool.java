@@ -0,0 +1,250 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2015 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+package org.rhq.enterprise.server.purge;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.rhq.core.domain.measurement.MeasurementDataPK;
+import org.rhq.core.util.stream.StreamUtil;
+
+/**
+ * A temporary file holding the keys of the rows to purge. The keys are written as raw primitives, e.g. a single int for
+ * most entities, instead of as serialized objects, and are read back through a memory-mapped window of the file.
+ * <br/><br/>
+ * The encoding is chosen by the type of the first key: {@link Integer}, {@link Long}, {@link String} and
+ * {@link MeasurementDataPK} keys have a compact encoding, other keys are serialized one by one.
+ * <br/><br/>
+ * All the keys must be {@link #add(Serializable) added} before the first {@link #nextBatch(int) batch} is read.
+ * Instances are not thread safe.
+ *
+ * @param <KEY> the type of the row keys
+ */
+class KeySpool<KEY extends Serializable> implements Closeable {
+    /** The size of the mapped window, the file itself can be larger. */
+    private static final int WINDOW_SIZE = 64 * 1024 * 1024;
+
+    private final File file;
+    private DataOutputStream output;
+    private KeyCodec<KEY> codec;
+    private int count;
+
+    private FileChannel channel;
+    private long fileSize;
+    private long windowStart;
+    private MappedByteBuffer window;
+    private int read;
+
+    KeySpool(String prefix) throws IOException {
+        file = File.createTempFile(prefix, null);
+        output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+    }
+
+    void add(KEY key) throws IOException {
+        if (codec == null) {
+            codec = KeyCodec.forKey(key);
+        }
+        codec.write(output, key);
+        count++;
+    }
+
+    /**
+     * @return the number of keys added
+     */
+    int size() {
+        return count;
+    }
+
+    /**
+     * @return the next keys, at most <code>batchSize</code> of them, or an empty list once all keys have been read
+     */
+    List<KEY> nextBatch(int batchSize) throws IOException {
+        if (output != null) {
+            output.close();
+            output = null;
+            RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+            channel = randomAccessFile.getChannel();
+            fileSize = channel.size();
+        }
+
+        int size = Math.min(batchSize, count - read);
+        List<KEY> keys = new ArrayList<KEY>(size);
+        for (int i = 0; i < size; i++) {
+            keys.add(codec.read(this));
+        }
+        read += size;
+        return keys;
+    }
+
+    @Override
+    public void close() {
+        StreamUtil.safeClose(output);
+        StreamUtil.safeClose(channel);
+        window = null;
+        if (!file.delete()) {
+            // a mapped file cannot be deleted on some platforms until the mapping is garbage collected
+            file.deleteOnExit();
+        }
+    }
+
+    private MappedByteBuffer ensure(int bytes) throws IOException {
+        if (window == null || window.remaining() < bytes) {
+            long position = (window == null) ? 0 : windowStart + window.position();
+            long size = Math.min(Math.max(WINDOW_SIZE, bytes), fileSize - position);
+            if (size < bytes) {
+                throw new EOFException("Truncated key spool " + file);
+            }
+            windowStart = position;
+            window = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+        }
+        return window;
+    }
+
+    int readInt() throws IOException {
+        return ensure(4).getInt();
+    }
+
+    long readLong() throws IOException {
+        return ensure(8).getLong();
+    }
+
+    byte[] readBytes() throws IOException {
+        int length = readInt();
+        byte[] bytes = new byte[length];
+        ensure(length).get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Writes and reads keys of a given type. The {@link DataOutputStream} and the mapped buffer are both big-endian.
+     */
+    abstract static class KeyCodec<KEY> {
+        private static final KeyCodec<Integer> INTEGER = new KeyCodec<Integer>() {
+            @Override
+            void write(DataOutputStream out, Integer key) throws IOException {
+                out.writeInt(key);
+            }
+
+            @Override
+            Integer read(KeySpool<?> in) throws IOException {
+                return in.readInt();
+            }
+        };
+
+        private static final KeyCodec<Long> LONG = new KeyCodec<Long>() {
+            @Override
+            void write(DataOutputStream out, Long key) throws IOException {
+                out.writeLong(key);
+            }
+
+            @Override
+            Long read(KeySpool<?> in) throws IOException {
+                return in.readLong();
+            }
+        };
+
+        private static final KeyCodec<MeasurementDataPK> MEASUREMENT_DATA_PK = new KeyCodec<MeasurementDataPK>() {
+            @Override
+            void write(DataOutputStream out, MeasurementDataPK key) throws IOException {
+                out.writeInt(key.getScheduleId());
+                out.writeLong(key.getTimestamp());
+            }
+
+            @Override
+            MeasurementDataPK read(KeySpool<?> in) throws IOException {
+                int scheduleId = in.readInt();
+                return new MeasurementDataPK(in.readLong(), scheduleId);
+            }
+        };
+
+        private static final KeyCodec<String> STRING = new KeyCodec<String>() {
+            @Override
+            void write(DataOutputStream out, String key) throws IOException {
+                byte[] bytes = key.getBytes("UTF-8");
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+
+            @Override
+            String read(KeySpool<?> in) throws IOException {
+                return new String(in.readBytes(), "UTF-8");
+            }
+        };
+
+        private static final KeyCodec<Serializable> SERIALIZABLE = new KeyCodec<Serializable>() {
+            @Override
+            void write(DataOutputStream out, Serializable key) throws IOException {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                ObjectOutputStream objectOutputStream = new ObjectOutputStream(bytes);
+                objectOutputStream.writeObject(key);
+                objectOutputStream.close();
+                out.writeInt(bytes.size());
+                bytes.writeTo(out);
+            }
+
+            @Override
+            Serializable read(KeySpool<?> in) throws IOException {
+                ObjectInputStream objectInputStream = new ObjectInputStream(new ByteArrayInputStream(in.readBytes()));
+                try {
+                    return (Serializable) objectInputStream.readObject();
+                } catch (ClassNotFoundException e) {
+                    throw new IOException("Cannot read spooled key: " + e);
+                } finally {
+                    objectInputStream.close();
+                }
+            }
+        };
+
+        abstract void write(DataOutputStream out, KEY key) throws IOException;
+
+        abstract KEY read(KeySpool<?> in) throws IOException;
+
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        static <KEY> KeyCodec<KEY> forKey(KEY key) {
+            KeyCodec codec;
+            if (key instanceof Integer) {
+                codec = INTEGER;
+            } else if (key instanceof Long) {
+                codec = LONG;
+            } else if (key instanceof MeasurementDataPK) {
+                codec = MEASUREMENT_DATA_PK;
+            } else if (key instanceof String) {
+                codec = STRING;
+            } else {
+                codec = SERIALIZABLE;
+            }
+            return codec;
+        }
+    }
+}
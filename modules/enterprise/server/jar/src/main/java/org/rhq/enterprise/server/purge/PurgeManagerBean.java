@@ -19,6 +19,8 @@
 
 package org.rhq.enterprise.server.purge;
 
+import java.util.Set;
+
 import javax.annotation.Resource;
 import javax.ejb.Stateless;
 import javax.ejb.TransactionManagement;
@@ -97,6 +99,27 @@ public class PurgeManagerBean implements PurgeManagerLocal {
         return deletedRowCount;
     }
 
+    @Override
+    public void maintainTimePartitions(long now, Set<TimePartitionedTable> partitionedTables) {
+        for (TimePartitionedTable table : TimePartitionedTable.values()) {
+            try {
+                new TimePartitionPurge(dataSource, userTransaction, table).maintain(now,
+                    partitionedTables.contains(table));
+            } catch (Exception e) {
+                LOG.error("Could not maintain the daily partitions of " + table.getTableName(), e);
+            }
+        }
+    }
+
+    @Override
+    public int dropTimePartitions(TimePartitionedTable table, long deleteUpToTime) {
+        TimePartitionPurge timePartitionPurge = new TimePartitionPurge(dataSource, userTransaction, table);
+        long startTime = System.currentTimeMillis();
+        int dropped = timePartitionPurge.execute(deleteUpToTime);
+        MeasurementMonitor.getMBean().incrementPurgeTime(System.currentTimeMillis() - startTime);
+        return dropped;
+    }
+
     @Override
     public int deleteAlerts(long beginTime, long endTime) {
         long totalTime = 0;
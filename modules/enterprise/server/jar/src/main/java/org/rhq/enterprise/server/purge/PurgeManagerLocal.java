@@ -19,6 +19,8 @@
 
 package org.rhq.enterprise.server.purge;
 
+import java.util.Set;
+
 import javax.ejb.Local;
 
 /**
@@ -55,6 +57,26 @@ public interface PurgeManagerLocal {
      */
     int purgeCallTimeData(long deleteUpToTime);
 
+    /**
+     * Creates the upcoming daily partitions of the given tables and routes the inserted rows into them, and stops
+     * routing rows for the other tables. Does nothing if the database does not support partitioning. Expected to be
+     * called periodically, ahead of the purge.
+     *
+     * @param now the current time
+     * @param partitionedTables the tables to partition, as listed in the system settings
+     */
+    void maintainTimePartitions(long now, Set<TimePartitionedTable> partitionedTables);
+
+    /**
+     * Purges the table by dropping its daily partitions for the days that are entirely older than the specified time.
+     * The rows that are not in such a partition are not touched, the row-deleting purge of the table takes care of them.
+     *
+     * @param table the table to purge
+     * @param deleteUpToTime partitions holding only data older than this time will be dropped
+     * @return number of dropped partitions
+     */
+    int dropTimePartitions(TimePartitionedTable table, long deleteUpToTime);
+
     /**
      * Remove alerts for the specified range of time.
      */
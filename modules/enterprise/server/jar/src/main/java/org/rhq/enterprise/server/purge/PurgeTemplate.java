@@ -19,13 +19,6 @@
 
 package org.rhq.enterprise.server.purge;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
@@ -34,9 +27,20 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.sql.DataSource;
 import javax.transaction.Status;
+import javax.transaction.TransactionManager;
 import javax.transaction.UserTransaction;
 
 import org.apache.commons.logging.Log;
@@ -45,13 +49,16 @@ import org.apache.commons.logging.LogFactory;
 import org.rhq.core.db.DatabaseType;
 import org.rhq.core.db.DatabaseTypeFactory;
 import org.rhq.core.util.jdbc.JDBCUtil;
-import org.rhq.core.util.stream.StreamUtil;
+import org.rhq.enterprise.server.measurement.instrumentation.MeasurementMonitor;
+import org.rhq.enterprise.server.util.LookupUtil;
 
 /**
  * A template for purging data tables.<br>
  * <br>
- * When the {@link #execute()} method is called, row keys are selected and stored in a file. Then the corresponding rows
- * are deleted in batches.
+ * When the {@link #execute()} method is called, row keys are selected and stored in a {@link KeySpool file}. Then the
+ * corresponding rows are deleted in batches. The batches are deleted concurrently by {@link #WORKERS} workers, each
+ * with its own connection and transaction, and each deleting at most {@link #MAX_ROWS_PER_SECOND} rows per second if
+ * set.
  *
  * @author Thomas Segismont
  */
@@ -60,14 +67,28 @@ abstract class PurgeTemplate<KEY extends Serializable> {
 
     private static final String BATCH_SIZE_SYSTEM_PROPERTY = "org.rhq.enterprise.server.purge.PurgeTemplate.BATCH_SIZE";
     private static final int BATCH_SIZE = Integer.getInteger(BATCH_SIZE_SYSTEM_PROPERTY, 30000);
+    private static final String WORKERS_SYSTEM_PROPERTY = "org.rhq.enterprise.server.purge.PurgeTemplate.WORKERS";
+    private static final int WORKERS = Math.max(1, Integer.getInteger(WORKERS_SYSTEM_PROPERTY, 2));
+    private static final String MAX_ROWS_PER_SECOND_SYSTEM_PROPERTY = ""
+        + "org.rhq.enterprise.server.purge.PurgeTemplate.MAX_ROWS_PER_SECOND";
+    /** Per worker, 0 means unlimited */
+    private static final int MAX_ROWS_PER_SECOND = Integer.getInteger(MAX_ROWS_PER_SECOND_SYSTEM_PROPERTY, 0);
     static {
         LOG.info(BATCH_SIZE_SYSTEM_PROPERTY + " = " + BATCH_SIZE);
+        LOG.info(WORKERS_SYSTEM_PROPERTY + " = " + WORKERS);
+        LOG.info(MAX_ROWS_PER_SECOND_SYSTEM_PROPERTY + " = " + MAX_ROWS_PER_SECOND);
     }
 
     protected final DataSource dataSource;
     protected final UserTransaction userTransaction;
     protected final DatabaseType databaseType;
 
+    /**
+     * Used instead of the {@link #userTransaction} while workers delete concurrently, a {@link UserTransaction} is
+     * not meant to be used outside of the bean's thread.
+     */
+    private volatile TransactionManager transactionManager;
+
     /**
      * @param dataSource the source of JDBC connections to the database
      * @param userTransaction the transaction management interface
@@ -85,31 +106,25 @@ abstract class PurgeTemplate<KEY extends Serializable> {
 
     public int execute() {
         int deleted = 0;
+        long startTime = System.currentTimeMillis();
 
-        KeysInfo keysInfo = null;
-        ObjectInputStream keysStream = null;
+        KeySpool<KEY> keySpool = null;
         try {
 
-            keysInfo = loadKeys();
+            keySpool = loadKeys();
+            int count = keySpool.size();
             if (LOG.isDebugEnabled()) {
-                LOG.debug("Loaded " + keysInfo.count + " key(s) of " + getEntityName());
+                LOG.debug("Loaded " + count + " key(s) of " + getEntityName());
             }
 
-            keysStream = new ObjectInputStream(new BufferedInputStream(new FileInputStream(keysInfo.keysFile)));
-            List<KEY> selectedKeys = new ArrayList<KEY>(BATCH_SIZE);
-
-            for (int i = 1; i <= keysInfo.count; i++) {
-
-                @SuppressWarnings("unchecked")
-                KEY key = (KEY) keysStream.readObject();
-                selectedKeys.add(key);
-
-                if (selectedKeys.size() == BATCH_SIZE || i == keysInfo.count) {
-                    if (LOG.isDebugEnabled()) {
-                        LOG.debug("Deleting " + selectedKeys.size() + " row(s) of " + getEntityName());
-                    }
-                    deleted += deleteRows(selectedKeys);
-                    selectedKeys.clear();
+            int workers = Math.min(WORKERS, (count + BATCH_SIZE - 1) / BATCH_SIZE);
+            if (workers > 1) {
+                deleted = deleteConcurrently(keySpool, workers);
+            } else {
+                Throttle throttle = new Throttle();
+                List<KEY> selectedKeys;
+                while (!(selectedKeys = keySpool.nextBatch(BATCH_SIZE)).isEmpty()) {
+                    deleted += deleteBatch(selectedKeys, throttle);
                 }
             }
 
@@ -117,27 +132,30 @@ abstract class PurgeTemplate<KEY extends Serializable> {
             LOG.error(getEntityName() + ": could not fully process the batched purge", e);
         } finally {
             rollbackIfTransactionActive();
-            StreamUtil.safeClose(keysStream);
-            if (keysInfo != null && keysInfo.keysFile != null) {
-                keysInfo.keysFile.delete();
+            if (keySpool != null) {
+                keySpool.close();
             }
         }
 
+        long duration = System.currentTimeMillis() - startTime;
+        long rowsPerSecond = (duration > 0) ? (deleted * 1000L / duration) : deleted;
+        MeasurementMonitor.getMBean().setPurgeThroughput(getEntityName(), rowsPerSecond);
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Deleted " + deleted + " row(s) of " + getEntityName() + " in " + duration + "ms ("
+                + rowsPerSecond + " rows/s)");
+        }
+
         return deleted;
     }
 
-    private KeysInfo loadKeys() throws Exception {
-        File keysFile = File.createTempFile(getClass().getSimpleName(), null);
-        int count = 0;
+    private KeySpool<KEY> loadKeys() throws Exception {
+        KeySpool<KEY> keySpool = new KeySpool<KEY>(getClass().getSimpleName());
 
-        ObjectOutputStream objectOutputStream = null;
         Connection connection = null;
         PreparedStatement preparedStatement = null;
         ResultSet resultSet = null;
         try {
 
-            objectOutputStream = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(keysFile)));
-
             userTransaction.begin();
 
             String findRowKeysQuery = getFindRowKeysQuery(databaseType);
@@ -149,22 +167,111 @@ abstract class PurgeTemplate<KEY extends Serializable> {
             resultSet = preparedStatement.executeQuery();
 
             while (resultSet.next()) {
-                if(count % BATCH_SIZE == 0) {
-                    objectOutputStream.reset();
-                }
-                objectOutputStream.writeObject(getKeyFromResultSet(resultSet));
-                count++;
+                keySpool.add(getKeyFromResultSet(resultSet));
             }
 
             userTransaction.commit();
 
+        } catch (Exception e) {
+            keySpool.close();
+            throw e;
         } finally {
             JDBCUtil.safeClose(connection, preparedStatement, resultSet);
-            StreamUtil.safeClose(objectOutputStream);
             rollbackIfTransactionActive();
         }
 
-        return new KeysInfo(keysFile, count);
+        return keySpool;
+    }
+
+    /**
+     * Hands the batches over to the workers. The queue holds one batch per worker, so that at most twice as many keys
+     * as there are workers are in memory.
+     */
+    private int deleteConcurrently(KeySpool<KEY> keySpool, int workers) throws Exception {
+        transactionManager = LookupUtil.getTransactionManager();
+
+        final BlockingQueue<List<KEY>> queue = new ArrayBlockingQueue<List<KEY>>(workers);
+        final AtomicBoolean allQueued = new AtomicBoolean();
+        final AtomicBoolean stopped = new AtomicBoolean();
+
+        ExecutorService executor = Executors.newFixedThreadPool(workers, new ThreadFactory() {
+            private int workerNumber;
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, getEntityName() + "-purge-worker-" + (++workerNumber));
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        try {
+            List<Future<Integer>> futures = new ArrayList<Future<Integer>>(workers);
+            for (int i = 0; i < workers; i++) {
+                futures.add(executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        Throttle throttle = new Throttle();
+                        int deleted = 0;
+                        try {
+                            while (!stopped.get()) {
+                                // read the flag first, the queue is known to be drained only if it was set before
+                                boolean last = allQueued.get();
+                                List<KEY> selectedKeys = queue.poll(1, TimeUnit.SECONDS);
+                                if (selectedKeys != null) {
+                                    deleted += deleteBatch(selectedKeys, throttle);
+                                } else if (last) {
+                                    break;
+                                }
+                            }
+                        } catch (Exception e) {
+                            stopped.set(true);
+                            throw e;
+                        }
+                        return deleted;
+                    }
+                }));
+            }
+
+            List<KEY> selectedKeys;
+            while (!stopped.get() && !(selectedKeys = keySpool.nextBatch(BATCH_SIZE)).isEmpty()) {
+                // do not wait forever if the workers stopped
+                boolean queued = false;
+                while (!queued && !stopped.get()) {
+                    queued = queue.offer(selectedKeys, 1, TimeUnit.SECONDS);
+                }
+            }
+            allQueued.set(true);
+
+            int deleted = 0;
+            Exception failure = null;
+            for (Future<Integer> future : futures) {
+                try {
+                    deleted += future.get();
+                } catch (ExecutionException e) {
+                    failure = (e.getCause() instanceof Exception) ? (Exception) e.getCause() : e;
+                }
+            }
+            if (failure != null) {
+                LOG.error(getEntityName() + ": could not fully process the batched purge, " + deleted
+                    + " row(s) were deleted", failure);
+            }
+            return deleted;
+        } finally {
+            // the workers finish their current batch
+            stopped.set(true);
+            executor.shutdown();
+            executor.awaitTermination(1, TimeUnit.HOURS);
+            transactionManager = null;
+        }
+    }
+
+    private int deleteBatch(List<KEY> selectedKeys, Throttle throttle) throws Exception {
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Deleting " + selectedKeys.size() + " row(s) of " + getEntityName());
+        }
+        int deleted = deleteRows(selectedKeys);
+        throttle.pause(selectedKeys.size());
+        return deleted;
     }
 
     /**
@@ -193,7 +300,7 @@ abstract class PurgeTemplate<KEY extends Serializable> {
         PreparedStatement preparedStatement = null;
         try {
 
-            userTransaction.begin();
+            beginTransaction();
 
             String deleteRowByKeyQuery = getDeleteRowByKeyQuery(databaseType);
 
@@ -207,7 +314,7 @@ abstract class PurgeTemplate<KEY extends Serializable> {
 
             int[] batchResults = preparedStatement.executeBatch();
 
-            userTransaction.commit();
+            commitTransaction();
 
             return evalDeletedRows(batchResults);
 
@@ -233,9 +340,35 @@ abstract class PurgeTemplate<KEY extends Serializable> {
     protected abstract void setDeleteRowByKeyQueryParams(PreparedStatement preparedStatement, KEY key)
         throws SQLException;
 
+    /**
+     * Begins a transaction on the current thread, which is a worker thread if the rows are deleted concurrently.
+     */
+    protected void beginTransaction() throws Exception {
+        TransactionManager transactionManager = this.transactionManager;
+        if (transactionManager != null) {
+            transactionManager.begin();
+        } else {
+            userTransaction.begin();
+        }
+    }
+
+    protected void commitTransaction() throws Exception {
+        TransactionManager transactionManager = this.transactionManager;
+        if (transactionManager != null) {
+            transactionManager.commit();
+        } else {
+            userTransaction.commit();
+        }
+    }
+
     protected void rollbackIfTransactionActive() {
         try {
-            if (userTransaction.getStatus() == Status.STATUS_ACTIVE) {
+            TransactionManager transactionManager = this.transactionManager;
+            if (transactionManager != null) {
+                if (transactionManager.getStatus() == Status.STATUS_ACTIVE) {
+                    transactionManager.rollback();
+                }
+            } else if (userTransaction.getStatus() == Status.STATUS_ACTIVE) {
                 userTransaction.rollback();
             }
         } catch (Throwable ignore) {
@@ -260,13 +393,23 @@ abstract class PurgeTemplate<KEY extends Serializable> {
         return total;
     }
 
-    private static class KeysInfo {
-        final File keysFile;
-        final int count;
+    /**
+     * Limits the rate at which a single worker deletes rows to {@link #MAX_ROWS_PER_SECOND}.
+     */
+    private static class Throttle {
+        private final long start = System.currentTimeMillis();
+        private long rows;
 
-        private KeysInfo(File keysFile, int count) {
-            this.keysFile = keysFile;
-            this.count = count;
+        void pause(int batchRows) throws InterruptedException {
+            if (MAX_ROWS_PER_SECOND <= 0) {
+                return;
+            }
+            rows += batchRows;
+            long due = start + (rows * 1000L / MAX_ROWS_PER_SECOND);
+            long wait = due - System.currentTimeMillis();
+            if (wait > 0) {
+                Thread.sleep(wait);
+            }
         }
     }
 }
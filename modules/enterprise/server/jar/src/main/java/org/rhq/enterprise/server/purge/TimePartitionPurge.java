@@ -0,0 +1,161 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2015 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+package org.rhq.enterprise.server.purge;
+
+import java.sql.Connection;
+import java.util.Date;
+import java.util.List;
+
+import javax.sql.DataSource;
+import javax.transaction.Status;
+import javax.transaction.UserTransaction;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.rhq.core.db.DatabaseType;
+import org.rhq.core.db.DatabaseTypeFactory;
+import org.rhq.core.util.jdbc.JDBCUtil;
+
+/**
+ * Maintains the daily partitions of a {@link TimePartitionedTable} and purges it by dropping the partitions of the days
+ * that are entirely older than the purge time. Unlike a {@link PurgeTemplate}, this does not touch individual rows: the
+ * rows of the remaining days, or of a table that is not partitioned, are left to the row-deleting purge.
+ */
+class TimePartitionPurge {
+    private static final Log LOG = LogFactory.getLog(TimePartitionPurge.class);
+
+    private static final long DAY = 24L * 60 * 60 * 1000;
+
+    /**
+     * Partitions are created ahead of time, so that rows keep being routed even if the data purge job, which creates
+     * them, does not run for a while.
+     */
+    private static final int DAYS_AHEAD = 2;
+
+    private final DataSource dataSource;
+    private final UserTransaction userTransaction;
+    private final DatabaseType databaseType;
+    private final TimePartitionedTable table;
+
+    /**
+     * @param dataSource the source of JDBC connections to the database
+     * @param userTransaction the transaction management interface
+     * @param table the partitioned table
+     */
+    TimePartitionPurge(DataSource dataSource, UserTransaction userTransaction, TimePartitionedTable table) {
+        this.dataSource = dataSource;
+        this.userTransaction = userTransaction;
+        this.table = table;
+        databaseType = DatabaseTypeFactory.getDefaultDatabaseType();
+    }
+
+    /**
+     * If the table is to be partitioned, creates the partitions of the days from <code>now</code> on and routes the
+     * inserted rows into them. Otherwise stops routing rows, the existing partitions are dropped by
+     * {@link #execute(long)} as they age.
+     *
+     * @param now the current time
+     * @param partitioned whether the table is listed in the system settings
+     */
+    void maintain(long now, boolean partitioned) throws Exception {
+        if (!databaseType.supportsDailyPartitions()) {
+            if (partitioned) {
+                LOG.warn(table.getTableName() + " is configured to be partitioned but " + databaseType.getName()
+                    + " does not support it");
+            }
+            return;
+        }
+
+        Connection connection = null;
+        try {
+            userTransaction.begin();
+            connection = dataSource.getConnection();
+
+            if (partitioned) {
+                for (int i = 0; i <= DAYS_AHEAD; i++) {
+                    databaseType.createDailyPartition(connection, table.getTableName(), table.getTimeColumn(), now
+                        + i * DAY);
+                }
+                databaseType.enableDailyPartitions(connection, table.getTableName(), table.getTimeColumn());
+            } else {
+                databaseType.disableDailyPartitions(connection, table.getTableName());
+            }
+
+            userTransaction.commit();
+        } finally {
+            JDBCUtil.safeClose(connection);
+            rollbackIfTransactionActive();
+        }
+    }
+
+    /**
+     * Drops the partitions of the days that end at or before <code>deleteUpToTime</code>, each in its own transaction.
+     *
+     * @param deleteUpToTime the purge time
+     * @return the number of partitions dropped
+     */
+    int execute(long deleteUpToTime) {
+        if (!databaseType.supportsDailyPartitions()) {
+            return 0;
+        }
+
+        int dropped = 0;
+        Connection connection = null;
+        try {
+            connection = dataSource.getConnection();
+            List<Long> days = databaseType.getDailyPartitions(connection, table.getTableName());
+            JDBCUtil.safeClose(connection);
+            connection = null;
+
+            for (Long day : days) {
+                if (day + DAY > deleteUpToTime) {
+                    break;
+                }
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Dropping the partition of " + table.getTableName() + " for " + new Date(day));
+                }
+
+                userTransaction.begin();
+                connection = dataSource.getConnection();
+                databaseType.dropDailyPartition(connection, table.getTableName(), day);
+                userTransaction.commit();
+                JDBCUtil.safeClose(connection);
+                connection = null;
+                dropped++;
+            }
+        } catch (Exception e) {
+            LOG.error(table.getTableName() + ": could not drop all the partitions to purge", e);
+        } finally {
+            JDBCUtil.safeClose(connection);
+            rollbackIfTransactionActive();
+        }
+
+        return dropped;
+    }
+
+    private void rollbackIfTransactionActive() {
+        try {
+            if (userTransaction.getStatus() == Status.STATUS_ACTIVE) {
+                userTransaction.rollback();
+            }
+        } catch (Throwable ignore) {
+        }
+    }
+}
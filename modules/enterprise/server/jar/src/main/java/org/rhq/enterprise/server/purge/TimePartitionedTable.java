@@ -0,0 +1,77 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2015 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+package org.rhq.enterprise.server.purge;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * The high-volume tables that can be split into daily partitions, so that the {@link PurgeManagerLocal} can drop whole
+ * days of old rows instead of deleting them one by one. Partitioning is opt-in: list the tables (by constant name,
+ * e.g. <code>EVENT,CALLTIME_DATA_VALUE</code>) in the
+ * {@link org.rhq.core.domain.common.composite.SystemSetting#PURGE_PARTITIONED_TABLES} system setting, which all the
+ * servers share. It only takes effect if the database supports it, see
+ * {@link org.rhq.core.db.DatabaseType#supportsDailyPartitions()}.
+ *
+ * @see PurgeManagerLocal#maintainTimePartitions(long, Set)
+ */
+public enum TimePartitionedTable {
+    EVENT("RHQ_EVENT", "TIMESTAMP"), //
+    CALLTIME_DATA_VALUE("RHQ_CALLTIME_DATA_VALUE", "END_TIME");
+
+    private final String tableName;
+    private final String timeColumn;
+
+    private TimePartitionedTable(String tableName, String timeColumn) {
+        this.tableName = tableName;
+        this.timeColumn = timeColumn;
+    }
+
+    public String getTableName() {
+        return tableName;
+    }
+
+    /**
+     * @return the column holding the epoch millis the rows are partitioned by
+     */
+    public String getTimeColumn() {
+        return timeColumn;
+    }
+
+    /**
+     * @param setting the value of the {@link org.rhq.core.domain.common.composite.SystemSetting#PURGE_PARTITIONED_TABLES}
+     *                setting, may be null
+     * @return the tables listed in the setting, unknown names are ignored
+     */
+    public static Set<TimePartitionedTable> parse(String setting) {
+        Set<TimePartitionedTable> configured = EnumSet.noneOf(TimePartitionedTable.class);
+        if (setting == null) {
+            return configured;
+        }
+        for (String name : setting.split(",")) {
+            name = name.trim();
+            for (TimePartitionedTable table : values()) {
+                if (table.name().equalsIgnoreCase(name) || table.tableName.equalsIgnoreCase(name)) {
+                    configured.add(table);
+                }
+            }
+        }
+        return configured;
+    }
+}
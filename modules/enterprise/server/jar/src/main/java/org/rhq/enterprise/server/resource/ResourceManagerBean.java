@@ -148,6 +148,8 @@ import org.rhq.enterprise.server.resource.disambiguation.DisambiguationUpdateStr
 import org.rhq.enterprise.server.resource.disambiguation.Disambiguator;
 import org.rhq.enterprise.server.resource.group.ResourceGroupDeleteException;
 import org.rhq.enterprise.server.resource.group.ResourceGroupManagerLocal;
+import org.rhq.enterprise.server.resource.group.definition.GroupDefinitionManagerLocal;
+import org.rhq.enterprise.server.resource.group.definition.ResourceChangeType;
 import org.rhq.enterprise.server.rest.ResourceHandlerBean;
 import org.rhq.enterprise.server.util.CriteriaQueryGenerator;
 import org.rhq.enterprise.server.util.CriteriaQueryRunner;
@@ -188,6 +190,8 @@ public class ResourceManagerBean implements ResourceManagerLocal, ResourceManage
     @EJB
     private ResourceGroupManagerLocal resourceGroupManager;
     @EJB
+    private GroupDefinitionManagerLocal groupDefinitionManager;
+    @EJB
     private ResourceTypeManagerLocal typeManager;
     @EJB
     //@IgnoreDependency
@@ -273,6 +277,8 @@ public class ResourceManagerBean implements ResourceManagerLocal, ResourceManage
         if (!persistedResource.getName().equals(resource.getName())) {
             persistedResource.setName(resource.getName());
             updateAncestry(persistedResource);
+            groupDefinitionManager.recordResourceChanges(ResourceChangeType.INVENTORY,
+                new int[] { persistedResource.getId() });
         }
         persistedResource.setLocation(resource.getLocation());
         persistedResource.setDescription(resource.getDescription());
@@ -458,6 +464,8 @@ public class ResourceManagerBean implements ResourceManagerLocal, ResourceManage
                 }
                 i = j;
             }
+            // the doomed resources left their groups
+            authorizationManager.invalidatePermissions();
 
             // QUERY_MARK_RESOURCES_FOR_ASYNC_DELETION is an expensive recursive query
             // But luckily we have already (through such a recursive query above) determined the doomed resources
@@ -63,6 +63,7 @@ import org.rhq.core.domain.util.PageControl;
 import org.rhq.core.domain.util.PageList;
 import org.rhq.enterprise.server.RHQConstants;
 import org.rhq.enterprise.server.auth.SubjectManagerLocal;
+import org.rhq.enterprise.server.authz.AuthorizationManagerLocal;
 import org.rhq.enterprise.server.authz.RequiredPermission;
 import org.rhq.enterprise.server.exception.LdapCommunicationException;
 import org.rhq.enterprise.server.exception.LdapFilterException;
@@ -90,6 +91,9 @@ public class LdapGroupManagerBean implements LdapGroupManagerLocal {
     @EJB
     private SubjectManagerLocal subjectManager;
 
+    @EJB
+    private AuthorizationManagerLocal authorizationManager;
+
     @EJB
     private SystemManagerLocal systemManager;
 
@@ -296,6 +300,7 @@ public class LdapGroupManagerBean implements LdapGroupManagerLocal {
             sub.addRole(role);
             sub.addLdapRole(role);
         }
+        authorizationManager.invalidatePermissions(subjectId);
     }
 
     public PageList<LdapGroup> findLdapGroupsByRole(int roleId, PageControl pageControl) {
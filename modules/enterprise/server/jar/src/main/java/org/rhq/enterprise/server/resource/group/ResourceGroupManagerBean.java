@@ -229,9 +229,11 @@ public class ResourceGroupManagerBean implements ResourceGroupManagerLocal, Reso
             newlyAttachedGroup.setRecursive(false);
             clearImplicitResources(groupId);
             makeImplicitMirrorExplicit(groupId);
+            authorizationManager.invalidatePermissions();
         }
 
         if (updateMembership) {
+            authorizationManager.invalidatePermissions();
             try {
                 setResourceTypeInNewTx(groupId);
             } catch (ResourceGroupDeleteException e) {
@@ -315,6 +317,7 @@ public class ResourceGroupManagerBean implements ResourceGroupManagerLocal, Reso
         q.executeUpdate();
 
         entityManager.remove(group);
+        authorizationManager.invalidatePermissions();
     }
 
     @RequiredPermission(Permission.MANAGE_INVENTORY)
@@ -434,6 +437,8 @@ public class ResourceGroupManagerBean implements ResourceGroupManagerLocal, Reso
 
         // step 3: add the explicit resources back, this time with the recursive bit flipped on
         addResourcesToGroupImplicit(subject, groupId, explicitResourceIdList, false, true);
+
+        authorizationManager.invalidatePermissions();
     }
 
     @RequiredPermission(Permission.MANAGE_INVENTORY)
@@ -458,6 +463,7 @@ public class ResourceGroupManagerBean implements ResourceGroupManagerLocal, Reso
             addResourcesToGroupImplicit(subject, groupId, batchIds, true, isRecursive);
             addResourcesToGroupExplicit(subject, groupId, batchIds, isRecursive);
         }
+        authorizationManager.invalidatePermissions();
 
         if (setType) {
             try {
@@ -607,6 +613,7 @@ public class ResourceGroupManagerBean implements ResourceGroupManagerLocal, Reso
 
             removeResourcesFromGroup_helper(subject, groupId, batchIdArray, isRecursive);
         }
+        authorizationManager.invalidatePermissions();
 
         if (setType) {
             try {
@@ -708,6 +715,7 @@ public class ResourceGroupManagerBean implements ResourceGroupManagerLocal, Reso
 
             explicitStatement.executeUpdate();
             implicitStatement.executeUpdate();
+            authorizationManager.invalidatePermissions();
         } catch (SQLException sqle) {
             log.error("Error removing group resources", sqle);
             throw new ResourceGroupDeleteException("Error removing group resources: " + sqle.getMessage());
@@ -852,6 +860,7 @@ public class ResourceGroupManagerBean implements ResourceGroupManagerLocal, Reso
                  */
                 //setResourceType(implicitRecursiveGroupId);
             }
+            authorizationManager.invalidatePermissions();
         } catch (Exception e) {
             throw new ResourceGroupUpdateException("Could not add resource[id=" + resource.getId()
                 + "] to necessary implicit groups", e);
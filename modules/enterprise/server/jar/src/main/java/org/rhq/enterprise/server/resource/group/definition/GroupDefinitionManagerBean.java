@@ -18,7 +18,12 @@
  */
 package org.rhq.enterprise.server.resource.group.definition;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -35,6 +40,7 @@ import javax.persistence.EntityManager;
 import javax.persistence.NoResultException;
 import javax.persistence.PersistenceContext;
 import javax.persistence.Query;
+import javax.sql.DataSource;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
@@ -51,6 +57,7 @@ import org.rhq.core.domain.server.PersistenceUtility;
 import org.rhq.core.domain.util.PageControl;
 import org.rhq.core.domain.util.PageList;
 import org.rhq.core.util.collection.ArrayUtils;
+import org.rhq.core.util.jdbc.JDBCUtil;
 import org.rhq.enterprise.server.RHQConstants;
 import org.rhq.enterprise.server.auth.SubjectManagerLocal;
 import org.rhq.enterprise.server.authz.AuthorizationManagerLocal;
@@ -78,9 +85,45 @@ import org.rhq.enterprise.server.util.CriteriaQueryRunner;
 public class GroupDefinitionManagerBean implements GroupDefinitionManagerLocal, GroupDefinitionManagerRemote {
     private final Log log = LogFactory.getLog(GroupDefinitionManagerBean.class);
 
+    /*
+     * a change is recorded with the time of the server making it, but read by whichever server runs the recalculation,
+     * and the recording transaction may commit a while after that time was taken; so, look this much further back
+     * than the last calculation, re-evaluating a resource that did not change again is harmless
+     */
+    private static final long CHANGE_WINDOW = 10 * 60 * 1000L;
+
+    private static final String CHANGE_TABLE_NAME = "RHQ_GROUP_DEF_CHANGE";
+
+    private static final String QUERY_NATIVE_INSERT_CHANGE = "" //
+        + "INSERT INTO RHQ_GROUP_DEF_CHANGE ( ID, RESOURCE_ID, CHANGE_TYPE, CTIME ) " //
+        + "     VALUES ( %s, ?, ?, ? )";
+
+    private static final String QUERY_NATIVE_FIND_SCHEDULE_RESOURCE_IDS = "" //
+        + "SELECT DISTINCT sched.RESOURCE_ID " //
+        + "  FROM RHQ_MEASUREMENT_SCHED sched " //
+        + " WHERE sched.ID IN ( @@SCHEDULE_IDS@@ )";
+
+    // commits and uninventories are not recorded, they are found through the inventory time of the resource
+    private static final String QUERY_NATIVE_FIND_CHANGED_RESOURCE_IDS = "" //
+        + "SELECT chg.RESOURCE_ID " //
+        + "  FROM RHQ_GROUP_DEF_CHANGE chg " //
+        + " WHERE chg.CTIME >= ? " //
+        + "   AND chg.CHANGE_TYPE IN ( @@CHANGE_TYPES@@ ) " //
+        + " UNION " //
+        + "SELECT res.ID " //
+        + "  FROM RHQ_RESOURCE res " //
+        + " WHERE res.ITIME >= ? ";
+
+    private static final String QUERY_NATIVE_PURGE_CHANGES = "" //
+        + "DELETE FROM RHQ_GROUP_DEF_CHANGE " //
+        + " WHERE CTIME < ? ";
+
     @PersistenceContext(unitName = RHQConstants.PERSISTENCE_UNIT_NAME)
     private EntityManager entityManager;
 
+    @javax.annotation.Resource(name = "RHQ_DS", mappedName = RHQConstants.DATASOURCE_JNDI_NAME)
+    private DataSource rhqDs;
+
     @EJB
     private GroupDefinitionManagerLocal groupDefinitionManager; // self, for xactional purposes
 
@@ -99,6 +142,8 @@ public class GroupDefinitionManagerBean implements GroupDefinitionManagerLocal,
     @SuppressWarnings("unchecked")
     @RequiredPermission(Permission.MANAGE_INVENTORY)
     public void recalculateDynaGroups(Subject subject) {
+        groupDefinitionManager.purgeResourceChanges();
+
         Query recalculationFinderQuery = entityManager
             .createNamedQuery(GroupDefinition.QUERY_FIND_IDS_FOR_RECALCULATION);
         recalculationFinderQuery.setParameter("now", System.currentTimeMillis());
@@ -115,7 +160,7 @@ public class GroupDefinitionManagerBean implements GroupDefinitionManagerLocal,
             long singleStart = System.currentTimeMillis();
             boolean success = false;
             try {
-                groupDefinitionManager.calculateGroupMembership(subject, groupDefinitionId);
+                groupDefinitionManager.calculateGroupMembershipForChanges(subject, groupDefinitionId);
                 success = true;
             } catch (Throwable t) {
                 /*
@@ -225,6 +270,10 @@ public class GroupDefinitionManagerBean implements GroupDefinitionManagerLocal,
         attachedGroupDefinition.setName(groupDefinition.getName());
         attachedGroupDefinition.setDescription(groupDefinition.getDescription());
         attachedGroupDefinition.setRecursive(groupDefinition.isRecursive());
+        if (!StringUtils.equals(attachedGroupDefinition.getExpression(), groupDefinition.getExpression())) {
+            // the dynagroups no longer reflect the expression, so the next calculation can't look at changes only
+            attachedGroupDefinition.setLastCalculationTime(null);
+        }
         attachedGroupDefinition.setExpression(groupDefinition.getExpression());
         attachedGroupDefinition.setRecalculationInterval(groupDefinition.getRecalculationInterval());
         if (detachFromCannedExpression) {
@@ -309,10 +358,7 @@ public class GroupDefinitionManagerBean implements GroupDefinitionManagerLocal,
         GroupDefinition groupDefinition = getById(groupDefinitionId);
         groupDefinition.setLastCalculationTime(System.currentTimeMillis()); // we're calculating now
 
-        ExpressionEvaluator evaluator = new ExpressionEvaluator();
-        for (String expression : groupDefinition.getExpressionAsList()) {
-            evaluator.addExpression(expression);
-        }
+        ExpressionEvaluator evaluator = getExpressionEvaluator(groupDefinition);
 
         Collection<Integer> doomedResourceGroupIds = new ArrayList<Integer>();
         for (Integer managedGroupId : getManagedResourceGroupIdsForGroupDefinition(groupDefinitionId)) {
@@ -396,6 +442,76 @@ public class GroupDefinitionManagerBean implements GroupDefinitionManagerLocal,
         log.debug("calculateGroupMembership took " + (endTime - startTime) + " millis");
     }
 
+    @RequiredPermission(Permission.MANAGE_INVENTORY)
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    // required for the recalculation thread
+    public void calculateGroupMembershipForChanges(Subject subject, int groupDefinitionId)
+        throws ResourceGroupDeleteException, GroupDefinitionDeleteException, GroupDefinitionNotFoundException,
+        InvalidExpressionException, ResourceGroupUpdateException {
+        GroupDefinition groupDefinition = getById(groupDefinitionId);
+        Long lastCalculationTime = groupDefinition.getLastCalculationTime();
+        ExpressionEvaluator evaluator = getExpressionEvaluator(groupDefinition);
+        List<Integer> managedGroupIds = getManagedResourceGroupIdsForGroupDefinition(groupDefinitionId);
+
+        /*
+         * only expressions that look at nothing but the resource itself can be evaluated against just the resources
+         * that changed, and only if the single dynagroup already reflects the current expression; anything else
+         * takes the full calculation
+         */
+        if (lastCalculationTime == null || !evaluator.isResourceLocal() || managedGroupIds.size() != 1) {
+            calculateGroupMembership(subject, groupDefinitionId);
+            return;
+        }
+
+        long startTime = System.currentTimeMillis();
+        groupDefinition.setLastCalculationTime(startTime); // we're calculating now
+
+        List<Integer> changedResourceIds = findChangedResourceIds(evaluator.getChangeTypes(), lastCalculationTime
+            - CHANGE_WINDOW);
+        if (changedResourceIds.isEmpty()) {
+            return; // nothing happened that could alter the membership
+        }
+
+        // batch the evaluations to prevent the ORA error about IN clauses containing more than 1000 items
+        Set<Integer> matchingResourceIds = new HashSet<Integer>();
+        for (int batchIndex = 0; batchIndex < changedResourceIds.size(); batchIndex += 1000) {
+            List<Integer> batchIds = changedResourceIds.subList(batchIndex,
+                Math.min(batchIndex + 1000, changedResourceIds.size()));
+
+            ExpressionEvaluator batchEvaluator = getExpressionEvaluator(groupDefinition);
+            batchEvaluator.setResourceIdFilter(batchIds);
+            for (ExpressionEvaluator.Result result : batchEvaluator) {
+                if (result != null) {
+                    matchingResourceIds.addAll(result.getData());
+                }
+            }
+        }
+
+        int resourceGroupId = managedGroupIds.get(0);
+        Collection<Integer> existingResourceIds = new HashSet<Integer>(
+            resourceManager.findExplicitResourceIdsByResourceGroup(resourceGroupId));
+
+        Set<Integer> idsToAdd = new HashSet<Integer>(matchingResourceIds);
+        idsToAdd.removeAll(existingResourceIds);
+
+        // of the resources that changed, only those that are members and no longer match have to go
+        Set<Integer> idsToRemove = new HashSet<Integer>(changedResourceIds);
+        idsToRemove.removeAll(matchingResourceIds);
+        idsToRemove.retainAll(existingResourceIds);
+
+        resourceGroupManager.addResourcesToGroup(subject, resourceGroupId, ArrayUtils.unwrapCollection(idsToAdd));
+        resourceGroupManager.removeResourcesFromGroup(subject, resourceGroupId,
+            ArrayUtils.unwrapCollection(idsToRemove));
+
+        long endTime = System.currentTimeMillis();
+
+        if (log.isDebugEnabled()) {
+            log.debug("calculateGroupMembershipForChanges evaluated " + changedResourceIds.size()
+                + " changed resources, added " + idsToAdd.size() + " and removed " + idsToRemove.size() + " in "
+                + (endTime - startTime) + " millis");
+        }
+    }
+
     @RequiredPermission(Permission.MANAGE_INVENTORY)
     @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
     public Integer calculateGroupMembership_helper(Subject overlord, int groupDefinitionId,
@@ -570,6 +686,152 @@ public class GroupDefinitionManagerBean implements GroupDefinitionManagerLocal,
         }
     }
 
+    public void recordResourceChanges(ResourceChangeType changeType, int[] resourceIds) {
+        if (resourceIds == null || resourceIds.length == 0) {
+            return;
+        }
+
+        Connection conn = null;
+        PreparedStatement insertStatement = null;
+        try {
+            conn = rhqDs.getConnection();
+
+            String nextvalSql = JDBCUtil.getNextValSql(conn, CHANGE_TABLE_NAME);
+            insertStatement = conn.prepareStatement(String.format(QUERY_NATIVE_INSERT_CHANGE, nextvalSql));
+            long now = System.currentTimeMillis();
+            for (int resourceId : resourceIds) {
+                insertStatement.setInt(1, resourceId);
+                insertStatement.setInt(2, changeType.getCode());
+                insertStatement.setLong(3, now);
+                insertStatement.addBatch();
+            }
+            insertStatement.executeBatch();
+        } catch (SQLException sqle) {
+            log.error("Error recording " + changeType + " changes of " + resourceIds.length + " resources: ", sqle);
+            throw new GroupDefinitionException("Error recording " + changeType + " changes of resources: "
+                + sqle.getMessage());
+        } finally {
+            JDBCUtil.safeClose(insertStatement);
+            JDBCUtil.safeClose(conn);
+        }
+    }
+
+    public void recordTraitChanges(int[] scheduleIds) {
+        if (scheduleIds == null || scheduleIds.length == 0) {
+            return;
+        }
+
+        Set<Integer> resourceIds = new HashSet<Integer>();
+        Connection conn = null;
+        PreparedStatement selectStatement = null;
+        ResultSet resultSet = null;
+        try {
+            conn = rhqDs.getConnection();
+
+            // batch the selects to prevent the ORA error about IN clauses containing more than 1000 items
+            for (int batchIndex = 0; batchIndex < scheduleIds.length; batchIndex += 1000) {
+                int[] batchIds = Arrays.copyOfRange(scheduleIds, batchIndex,
+                    Math.min(batchIndex + 1000, scheduleIds.length));
+
+                String selectQueryString = JDBCUtil.transformQueryForMultipleInParameters(
+                    QUERY_NATIVE_FIND_SCHEDULE_RESOURCE_IDS, "@@SCHEDULE_IDS@@", batchIds.length);
+                selectStatement = conn.prepareStatement(selectQueryString);
+                JDBCUtil.bindNTimes(selectStatement, batchIds, 1);
+                resultSet = selectStatement.executeQuery();
+                while (resultSet.next()) {
+                    resourceIds.add(resultSet.getInt(1));
+                }
+                JDBCUtil.safeClose(selectStatement, resultSet);
+                selectStatement = null;
+                resultSet = null;
+            }
+        } catch (SQLException sqle) {
+            log.error("Error finding the resources of " + scheduleIds.length + " trait schedules: ", sqle);
+            throw new GroupDefinitionException("Error finding the resources of trait schedules: "
+                + sqle.getMessage());
+        } finally {
+            JDBCUtil.safeClose(conn, selectStatement, resultSet);
+        }
+
+        recordResourceChanges(ResourceChangeType.TRAIT, ArrayUtils.unwrapCollection(resourceIds));
+    }
+
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public void purgeResourceChanges() {
+        /*
+         * keep whatever an auto-recalculating definition has not seen yet; definitions that were never calculated
+         * don't count, they get the full calculation anyway
+         */
+        Query query = entityManager.createNamedQuery(GroupDefinition.QUERY_FIND_OLDEST_RECALCULATION_TIME);
+        Long oldestCalculationTime = (Long) query.getSingleResult();
+        long purgeTime = ((oldestCalculationTime != null) ? oldestCalculationTime.longValue() : System
+            .currentTimeMillis()) - CHANGE_WINDOW;
+
+        Connection conn = null;
+        PreparedStatement deleteStatement = null;
+        try {
+            conn = rhqDs.getConnection();
+
+            deleteStatement = conn.prepareStatement(QUERY_NATIVE_PURGE_CHANGES);
+            deleteStatement.setLong(1, purgeTime);
+            int purged = deleteStatement.executeUpdate();
+
+            if (log.isDebugEnabled()) {
+                log.debug("Purged " + purged + " resource changes recorded before " + purgeTime);
+            }
+        } catch (SQLException sqle) {
+            log.error("Error purging resource changes: ", sqle);
+            throw new GroupDefinitionException("Error purging resource changes: " + sqle.getMessage());
+        } finally {
+            JDBCUtil.safeClose(deleteStatement);
+            JDBCUtil.safeClose(conn);
+        }
+    }
+
+    private List<Integer> findChangedResourceIds(Set<ResourceChangeType> changeTypes, long since) {
+        int[] changeTypeCodes = new int[changeTypes.size()];
+        int i = 0;
+        for (ResourceChangeType changeType : changeTypes) {
+            changeTypeCodes[i++] = changeType.getCode();
+        }
+
+        List<Integer> resourceIds = new ArrayList<Integer>();
+        Connection conn = null;
+        PreparedStatement selectStatement = null;
+        ResultSet resultSet = null;
+        try {
+            conn = rhqDs.getConnection();
+
+            String selectQueryString = JDBCUtil.transformQueryForMultipleInParameters(
+                QUERY_NATIVE_FIND_CHANGED_RESOURCE_IDS, "@@CHANGE_TYPES@@", changeTypeCodes.length);
+            selectStatement = conn.prepareStatement(selectQueryString);
+            selectStatement.setLong(1, since);
+            JDBCUtil.bindNTimes(selectStatement, changeTypeCodes, 2);
+            selectStatement.setLong(changeTypeCodes.length + 2, since);
+            resultSet = selectStatement.executeQuery();
+            while (resultSet.next()) {
+                resourceIds.add(resultSet.getInt(1));
+            }
+        } catch (SQLException sqle) {
+            log.error("Error finding resources changed since " + since + ": ", sqle);
+            throw new GroupDefinitionException("Error finding resources changed since " + since + ": "
+                + sqle.getMessage());
+        } finally {
+            JDBCUtil.safeClose(conn, selectStatement, resultSet);
+        }
+
+        return resourceIds;
+    }
+
+    private ExpressionEvaluator getExpressionEvaluator(GroupDefinition groupDefinition)
+        throws InvalidExpressionException {
+        ExpressionEvaluator evaluator = new ExpressionEvaluator();
+        for (String expression : groupDefinition.getExpressionAsList()) {
+            evaluator.addExpression(expression);
+        }
+        return evaluator;
+    }
+
     @SuppressWarnings("unchecked")
     private List<Integer> getManagedResourceGroupIdsForGroupDefinition(int groupDefinitionId) {
         Query query = entityManager.createNamedQuery(GroupDefinition.QUERY_FIND_MANAGED_RESOURCE_GROUP_IDS_ADMIN);
@@ -604,9 +866,14 @@ public class GroupDefinitionManagerBean implements GroupDefinitionManagerLocal,
     }
 
     private void updateGroupProperties(GroupDefinition gd, CannedGroupExpression cge) {
+        String expression = StringUtils.join(cge.getExpression(), "\n");
+        if (!StringUtils.equals(gd.getExpression(), expression)) {
+            // the dynagroups no longer reflect the expression, so the next calculation can't look at changes only
+            gd.setLastCalculationTime(null);
+        }
         gd.setName(cge.getName());
         gd.setDescription(cge.getDescription());
-        gd.setExpression(StringUtils.join(cge.getExpression(), "\n"));
+        gd.setExpression(expression);
         gd.setRecalculationInterval(cge.getRecalcInMinutes() * 60 * 1000L);
         gd.setRecursive(cge.isRecursive());
         gd.setCannedExpression(cge.getGroupDefinitionReferenceKey());
@@ -25,9 +25,11 @@ import javax.ejb.Local;
 import org.rhq.core.domain.auth.Subject;
 import org.rhq.core.domain.plugin.CannedGroupExpression;
 import org.rhq.core.domain.resource.group.GroupDefinition;
+import org.rhq.core.domain.resource.group.InvalidExpressionException;
 import org.rhq.core.domain.util.PageControl;
 import org.rhq.core.domain.util.PageList;
 import org.rhq.enterprise.server.resource.group.ResourceGroupDeleteException;
+import org.rhq.enterprise.server.resource.group.ResourceGroupUpdateException;
 import org.rhq.enterprise.server.resource.group.definition.exception.GroupDefinitionDeleteException;
 import org.rhq.enterprise.server.resource.group.definition.exception.GroupDefinitionNotFoundException;
 import org.rhq.enterprise.server.resource.group.definition.framework.ExpressionEvaluator;
@@ -39,9 +41,34 @@ public interface GroupDefinitionManagerLocal extends GroupDefinitionManagerRemot
 
     GroupDefinition getById(int groupDefinitionId) throws GroupDefinitionNotFoundException;
 
+    /**
+     * Brings the dynagroups of the definition up to date with what changed since its last calculation. Only if the
+     * expression can be evaluated for each resource on its own, the expression is evaluated against just the resources
+     * that changed; otherwise this falls back to {@link #calculateGroupMembership(Subject, int)}.
+     */
+    void calculateGroupMembershipForChanges(Subject subject, int groupDefinitionId)
+        throws ResourceGroupDeleteException, GroupDefinitionDeleteException, GroupDefinitionNotFoundException,
+        InvalidExpressionException, ResourceGroupUpdateException;
+
     Integer calculateGroupMembership_helper(Subject subject, int groupDefinitionId, ExpressionEvaluator.Result result)
         throws ResourceGroupDeleteException, GroupDefinitionNotFoundException, GroupDefinitionNotFoundException;
 
+    /**
+     * Records that the resources changed in a way that can alter which dynagroups they belong to. This joins the
+     * transaction of the caller, so the change is only seen once the caller commits.
+     */
+    void recordResourceChanges(ResourceChangeType changeType, int[] resourceIds);
+
+    /**
+     * Records a {@link ResourceChangeType#TRAIT} change for the resources of the passed trait schedules.
+     */
+    void recordTraitChanges(int[] scheduleIds);
+
+    /**
+     * Deletes the recorded resource changes that all auto-recalculating definitions have seen already.
+     */
+    void purgeResourceChanges();
+
     PageList<GroupDefinition> getGroupDefinitions(Subject subject, PageControl pc);
 
     int getGroupDefinitionCount(Subject subject);
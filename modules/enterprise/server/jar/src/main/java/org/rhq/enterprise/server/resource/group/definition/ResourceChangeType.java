@@ -0,0 +1,44 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2008 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.rhq.enterprise.server.resource.group.definition;
+
+/**
+ * The kinds of resource changes that are recorded for the dynagroup recalculation. The code is what gets stored in
+ * the CHANGE_TYPE column of RHQ_GROUP_DEF_CHANGE, so existing codes must never change.
+ */
+public enum ResourceChangeType {
+    /**
+     * name or version of the resource changed; commits and uninventories are found through the inventory time of
+     * the resource instead
+     */
+    INVENTORY(1), //
+    TRAIT(2), //
+    PLUGIN_CONFIGURATION(3), //
+    RESOURCE_CONFIGURATION(4);
+
+    private final int code;
+
+    private ResourceChangeType(int code) {
+        this.code = code;
+    }
+
+    public int getCode() {
+        return code;
+    }
+}
@@ -20,7 +20,9 @@ package org.rhq.enterprise.server.resource.group.definition.framework;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
@@ -42,6 +44,7 @@ import org.rhq.core.domain.resource.ResourceCategory;
 import org.rhq.core.domain.resource.group.DuplicateExpressionTypeException;
 import org.rhq.core.domain.resource.group.InvalidExpressionException;
 import org.rhq.enterprise.server.common.EntityManagerFacadeLocal;
+import org.rhq.enterprise.server.resource.group.definition.ResourceChangeType;
 import org.rhq.enterprise.server.util.LookupUtil;
 import org.rhq.enterprise.server.util.QueryUtility;
 
@@ -92,6 +95,9 @@ public class ExpressionEvaluator implements Iterable<ExpressionEvaluator.Result>
     private boolean isTestMode;
     private boolean resultsComputed;
 
+    private Set<ResourceChangeType> changeTypes;
+    private boolean isResourceLocal;
+
     private String computedJPQLStatement;
     private String computedJPQLGroupStatement;
 
@@ -125,6 +131,9 @@ public class ExpressionEvaluator implements Iterable<ExpressionEvaluator.Result>
         isTestMode = false;
         resultsComputed = false;
 
+        changeTypes = EnumSet.of(ResourceChangeType.INVENTORY);
+        isResourceLocal = true;
+
         computedJPQLStatement = "";
         computedJPQLGroupStatement = "";
 
@@ -265,6 +274,48 @@ public class ExpressionEvaluator implements Iterable<ExpressionEvaluator.Result>
         return this;
     }
 
+    /**
+     * @return true if whether a resource matches the expressions added so far only depends on the data of that
+     *         resource itself, and neither on its relatives, its availability, its group memberships, nor on other
+     *         resources through a 'groupby'; only then can the expressions be evaluated against just the resources
+     *         that changed, see {@link #setResourceIdFilter(Collection)}
+     */
+    public boolean isResourceLocal() {
+        return isResourceLocal;
+    }
+
+    /**
+     * @return the kinds of resource changes that can alter the outcome of the expressions added so far, only
+     *         meaningful if {@link #isResourceLocal()}
+     */
+    public Set<ResourceChangeType> getChangeTypes() {
+        return Collections.unmodifiableSet(changeTypes);
+    }
+
+    /**
+     * Narrows the evaluation down to the passed resources. Callers must batch the ids so that the resulting IN
+     * clause stays within the limits of the database.
+     *
+     * @param resourceIds the ids of the only resources to evaluate the expressions against, must not be empty
+     */
+    public void setResourceIdFilter(Collection<Integer> resourceIds) {
+        if (resultsComputed) {
+            throw new IllegalStateException("The resource filter must be set before results are computed");
+        }
+        if (resourceIds == null || resourceIds.isEmpty()) {
+            throw new IllegalArgumentException("The resource filter needs at least one resource id");
+        }
+
+        StringBuilder filter = new StringBuilder("res.id IN (");
+        String separator = "";
+        for (Integer resourceId : resourceIds) {
+            filter.append(separator).append(resourceId.intValue());
+            separator = ", ";
+        }
+        filter.append(")");
+        whereStatics.add(filter.toString());
+    }
+
     /**
      * @return the JPQL statement that will be sent to the database, assuming test mode is false (the default): -- if no
      *         groupBy expressions are present, it will query for the target object -- if at least one groupBy
@@ -473,6 +524,7 @@ public class ExpressionEvaluator implements Iterable<ExpressionEvaluator.Result>
 
                     validateSubExpressionAgainstPreviouslySeen(groupName, false, true);
                     isMemberOf = true;
+                    isResourceLocal = false;
                     populatePredicateCollections(null, groupName);
 
                 } else if (nextToken.equals("groupby")) {
@@ -517,6 +569,7 @@ public class ExpressionEvaluator implements Iterable<ExpressionEvaluator.Result>
                         // validates the uniqueness of the subexpression after checking for INVALID_EXPRESSION_FORM_MSG
                         validateSubExpressionAgainstPreviouslySeen(normalizedSubExpression, true, false);
                         isGroupBy = true;
+                        isResourceLocal = false;
                         comparisonType = ComparisonType.NONE;
                     } else if (subcontext == ParseSubContext.NotEmpty) {
                         comparisonType = ComparisonType.NOT_EMPTY;
@@ -599,12 +652,14 @@ public class ExpressionEvaluator implements Iterable<ExpressionEvaluator.Result>
                 }
                 addJoinCondition(JoinCondition.AVAILABILITY);
                 populatePredicateCollections(JoinCondition.AVAILABILITY.alias + ".availabilityType", type);
+                isResourceLocal = false; // availability changes are too frequent to be recorded
             } else if (context == ParseContext.Trait) {
                 // SELECT res.id FROM Resource res JOIN res.schedules sched, sched.definition def, MeasurementDataTrait trait
                 // WHERE def.name = :arg1 AND trait.value = :arg2 AND trait.schedule = sched AND trait.id.timestamp =
                 // (SELECT max(mdt.id.timestamp) FROM MeasurementDataTrait mdt WHERE sched.id = mdt.schedule.id)
                 String traitName = parseTraitName(originalTokens);
                 addJoinCondition(JoinCondition.SCHEDULES);
+                changeTypes.add(ResourceChangeType.TRAIT);
                 populatePredicateCollections(METRIC_DEF_ALIAS + ".name", "%" + traitName + "%", false, false);
                 populatePredicateCollections(TRAIT_ALIAS + ".value", value);
                 whereStatics.add(TRAIT_ALIAS + ".schedule = " + JoinCondition.SCHEDULES.alias);
@@ -620,10 +675,12 @@ public class ExpressionEvaluator implements Iterable<ExpressionEvaluator.Result>
                     prefix = "pluginconfiguration";
                     joinCondition = JoinCondition.PLUGIN_CONFIGURATION;
                     definitionJoinCondition = JoinCondition.PLUGIN_CONFIGURATION_DEFINITION;
+                    changeTypes.add(ResourceChangeType.PLUGIN_CONFIGURATION);
                 } else if (subcontext == ParseSubContext.ResourceConfiguration) {
                     prefix = "resourceconfiguration";
                     joinCondition = JoinCondition.RESOURCE_CONFIGURATION;
                     definitionJoinCondition = JoinCondition.RESOURCE_CONFIGURATION_DEFINITION;
+                    changeTypes.add(ResourceChangeType.RESOURCE_CONFIGURATION);
                 } else {
                     throw new InvalidExpressionException("Invalid 'configuration' subexpression: " + subcontext);
                 }
@@ -714,7 +771,10 @@ public class ExpressionEvaluator implements Iterable<ExpressionEvaluator.Result>
     private ResourceRelativeContext getResourceRelativeContext() {
         if (deepestResourceContext == ParseContext.Resource) {
             return ResourceRelativeContext.Resource;
-        } else if (deepestResourceContext == ParseContext.ResourceParent) {
+        }
+
+        isResourceLocal = false; // a change to a relative would have to be traced back to this resource
+        if (deepestResourceContext == ParseContext.ResourceParent) {
             return ResourceRelativeContext.ResourceParent;
         } else if (deepestResourceContext == ParseContext.ResourceGrandParent) {
             return ResourceRelativeContext.ResourceGrandParent;
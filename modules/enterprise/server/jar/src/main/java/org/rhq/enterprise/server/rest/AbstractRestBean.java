@@ -451,10 +451,36 @@ public class AbstractRestBean {
      * @param resultList The collection with its paging information
      */
     protected void createPagingHeader(final Response.ResponseBuilder builder, final UriInfo uriInfo, final PageList<?> resultList) {
+        createPagingHeader(builder, uriInfo, resultList, null);
+    }
+
+    /**
+     * Create the paging headers like {@link #createPagingHeader(javax.ws.rs.core.Response.ResponseBuilder,
+     * javax.ws.rs.core.UriInfo, org.rhq.core.domain.util.PageList)}. For keyset paged lists the <i>next</i> link
+     * carries the id of the last element in the <i>after</i> query parameter, there are no <i>prev</i> and
+     * <i>last</i> links.
+     * @param builder The ResponseBuilder that receives the headers
+     * @param uriInfo The uriInfo of the incoming request to build the urls
+     * @param resultList The collection with its paging information
+     * @param lastId The id of the last element of the result list, null if it is empty
+     */
+    protected void createPagingHeader(final Response.ResponseBuilder builder, final UriInfo uriInfo,
+                                      final PageList<?> resultList, final Integer lastId) {
 
         UriBuilder uriBuilder;
 
         PageControl pc = resultList.getPageControl();
+        if (pc.isKeyset()) {
+            Link next = getKeysetNextLink(uriInfo, resultList, lastId);
+            if (next != null) {
+                builder.header("Link", next.rfc5988String());
+            }
+            uriBuilder = uriInfo.getRequestUriBuilder();
+            builder.header("Link", new Link("current",uriBuilder.build().toString()).rfc5988String());
+            builder.header("X-collection-size",resultList.getTotalSize());
+            return;
+        }
+
         int page = pc.getPageNumber();
 
         if (resultList.getTotalSize()> (pc.getPageNumber() +1 ) * pc.getPageSize()) {
@@ -502,11 +528,33 @@ public class AbstractRestBean {
      * @param resultList The list of result items
      */
     protected <T> void wrapForPaging(Response.ResponseBuilder builder, UriInfo uriInfo, final PageList<?> originalList, final Collection<T> resultList) {
+        wrapForPaging(builder, uriInfo, originalList, resultList, null);
+    }
+
+    /**
+     * Wrap the passed collection like {@link #wrapForPaging(javax.ws.rs.core.Response.ResponseBuilder,
+     * javax.ws.rs.core.UriInfo, org.rhq.core.domain.util.PageList, java.util.Collection)}, supporting keyset paged
+     * lists.
+     * @param lastId The id of the last element of the original list, null if it is empty
+     */
+    protected <T> void wrapForPaging(Response.ResponseBuilder builder, UriInfo uriInfo, final PageList<?> originalList,
+                                     final Collection<T> resultList, final Integer lastId) {
 
         PagingCollection<T> pColl = new PagingCollection<T>(resultList);
         pColl.setTotalSize(originalList.getTotalSize());
         PageControl pageControl = originalList.getPageControl();
         pColl.setPageSize(pageControl.getPageSize());
+
+        if (pageControl.isKeyset()) {
+            Link next = getKeysetNextLink(uriInfo, originalList, lastId);
+            if (next != null) {
+                pColl.addLink(next);
+            }
+            pColl.addLink(new Link("current",uriInfo.getRequestUriBuilder().build().toString()));
+            builder.entity(pColl);
+            return;
+        }
+
         int page = pageControl.getPageNumber();
         pColl.setCurrentPage(page);
         int lastPage = (originalList.getTotalSize() / pageControl.getPageSize()) -1 ; // -1 as page # is 0 based
@@ -540,6 +588,19 @@ public class AbstractRestBean {
         builder.entity(pColl);
     }
 
+    /**
+     * A full keyset page may be followed by more elements, the next page starts after its last element.
+     */
+    private Link getKeysetNextLink(UriInfo uriInfo, PageList<?> pageList, Integer lastId) {
+        if (lastId == null || pageList.size() < pageList.getPageControl().getPageSize()) {
+            return null;
+        }
+        UriBuilder uriBuilder = uriInfo.getRequestUriBuilder(); // adds ?q, ?ps and ?category if needed
+        uriBuilder.replaceQueryParam("page");
+        uriBuilder.replaceQueryParam("after",lastId);
+        return new Link("next",uriBuilder.build().toString());
+    }
+
     /**
      * Fetch the group with the passed id
      *
@@ -101,6 +101,7 @@ import org.rhq.enterprise.server.rest.domain.Datapoint;
 import org.rhq.enterprise.server.rest.domain.DoubleValue;
 import org.rhq.enterprise.server.rest.domain.Link;
 import org.rhq.enterprise.server.rest.domain.MetricAggregate;
+import org.rhq.enterprise.server.rest.domain.MetricColumns;
 import org.rhq.enterprise.server.rest.domain.MetricDefinitionAggregate;
 import org.rhq.enterprise.server.rest.domain.MetricSchedule;
 import org.rhq.enterprise.server.rest.domain.NumericDataPoint;
@@ -108,6 +109,7 @@ import org.rhq.enterprise.server.rest.domain.RHQErrorWrapper;
 import org.rhq.enterprise.server.rest.domain.StringValue;
 import org.rhq.enterprise.server.storage.StorageClientManager;
 import org.rhq.server.metrics.MetricsDAO;
+import org.rhq.server.metrics.NumericBuckets;
 import org.rhq.server.metrics.domain.RawNumericMetric;
 
 /**
@@ -274,6 +276,91 @@ public class MetricHandlerBean  extends AbstractRestBean  {
         return builder.build();
     }
 
+    @GZIP
+    @GET
+    @Path("data/{scheduleId}/columns")
+    @Produces({MediaType.APPLICATION_JSON,MediaType.APPLICATION_XML})
+    @ApiOperation(value = "Get the bucketized metric values for the schedule as one array per value.",
+        responseClass = "MetricColumns")
+    @ApiError(code = 404, reason = NO_SCHEDULE_FOR_ID)
+    public Response getMetricDataColumns(
+            @ApiParam("Schedule Id of the values to query") @PathParam("scheduleId") int scheduleId,
+            @ApiParam(value = "Start time since epoch.", defaultValue = "End time - 8h") @QueryParam(
+                    "startTime") long startTime,
+            @ApiParam(value = "End time since epoch.", defaultValue = "Now") @QueryParam("endTime") long endTime,
+            @ApiParam("Number of buckets") @QueryParam("dataPoints") @DefaultValue("60") int dataPoints,
+            @Context HttpHeaders headers) {
+
+        if (dataPoints<=0)
+            throw new BadArgumentException("dataPoints","must be >0");
+
+        if (startTime==0) {
+            endTime = System.currentTimeMillis();
+            startTime = endTime - EIGHT_HOURS;
+        }
+
+        MeasurementSchedule schedule = obtainSchedule(scheduleId, false, DataType.MEASUREMENT);
+
+        NumericBuckets buckets = dataManager.findBucketedDataForContext(caller,
+                EntityContext.forResource(schedule.getResource().getId()), schedule.getDefinition().getId(),
+                startTime, endTime, dataPoints);
+        MetricColumns res = new MetricColumns(scheduleId, false, buckets.getBeginTime(), buckets.getInterval(),
+                buckets.getAvg(), buckets.getMin(), buckets.getMax());
+
+        CacheControl cc = new CacheControl();
+        int maxAge = (int) (schedule.getInterval() / 1000L)/2; // millis  ; half of schedule interval
+        cc.setMaxAge(maxAge); // these are seconds
+        cc.setPrivate(false);
+        cc.setNoCache(false);
+
+        MediaType mediaType = headers.getAcceptableMediaTypes().get(0);
+        return Response.ok(res, mediaType).cacheControl(cc).build();
+    }
+
+    @GZIP
+    @GET
+    @Path("data/group/{groupId}/{definitionId}/columns")
+    @Produces({MediaType.APPLICATION_JSON,MediaType.APPLICATION_XML})
+    @ApiOperation(value = "Get the bucketized metric values for the metric definition of the group as one array " +
+        "per value.", responseClass = "MetricColumns")
+    public Response getMetricDataColumnsForGroupAndDefinition(
+            @ApiParam("Id of the group to query") @PathParam("groupId") int groupId,
+            @ApiParam("Id of the metric definition to retrieve") @PathParam("definitionId") int definitionId,
+            @ApiParam(value = "Start time since epoch.", defaultValue = "End time - 8h") @QueryParam(
+                    "startTime") long startTime,
+            @ApiParam(value = "End time since epoch.", defaultValue = "Now") @QueryParam("endTime") long endTime,
+            @ApiParam("Number of buckets") @QueryParam("dataPoints") @DefaultValue("60") int dataPoints,
+            @Context HttpHeaders headers) {
+
+        if (dataPoints<=0)
+            throw new BadArgumentException("dataPoints","must be >0");
+
+        if (startTime==0) {
+            endTime = System.currentTimeMillis();
+            startTime = endTime - EIGHT_HOURS;
+        }
+
+        fetchGroup(groupId,true); // Make sure the group exists and is compatible
+        MeasurementDefinition definition = definitionManager.getMeasurementDefinition(caller,definitionId);
+        if (definition==null) {
+            throw new StuffNotFoundException("There is no definition with id " + definitionId);
+        }
+
+        NumericBuckets buckets = dataManager.findBucketedDataForContext(caller, EntityContext.forGroup(groupId),
+                definitionId, startTime, endTime, dataPoints);
+        MetricColumns res = new MetricColumns(definitionId, true, buckets.getBeginTime(), buckets.getInterval(),
+                buckets.getAvg(), buckets.getMin(), buckets.getMax());
+
+        CacheControl cc = new CacheControl();
+        int maxAge = (int) (definition.getDefaultInterval() / 1000L)/2; // millis  ; half of schedule interval
+        cc.setMaxAge(maxAge); // these are seconds
+        cc.setPrivate(false);
+        cc.setNoCache(false);
+
+        MediaType mediaType = headers.getAcceptableMediaTypes().get(0);
+        return Response.ok(res, mediaType).cacheControl(cc).build();
+    }
+
     /**
      * Get the schedule for the passed schedule id
      *
@@ -79,6 +79,7 @@ import org.rhq.core.domain.configuration.Configuration;
 import org.rhq.core.domain.configuration.Property;
 import org.rhq.core.domain.criteria.AlertCriteria;
 import org.rhq.core.domain.criteria.AvailabilityCriteria;
+import org.rhq.core.domain.criteria.Criteria.CountMode;
 import org.rhq.core.domain.criteria.ResourceCriteria;
 import org.rhq.core.domain.criteria.ResourceTypeCriteria;
 import org.rhq.core.domain.discovery.AvailabilityReport;
@@ -244,6 +245,7 @@ public class ResourceHandlerBean extends AbstractRestBean {
     public Response searchResourcesByQuery(
         @ApiParam("Page size for paging") @QueryParam("ps") @DefaultValue("20") int pageSize,
         @ApiParam("Page for paging, 0-based") @QueryParam("page") @DefaultValue("0") Integer page,
+        @ApiParam("Id of the last resource of the previous page, pages by key instead of page number. The collection size of such a page may be up to a minute old") @QueryParam("after") Integer after,
         @ApiParam("Enable strict filtering") @QueryParam("strict") @DefaultValue("false") boolean strict,
         @Context HttpHeaders headers,
         @Context UriInfo uriInfo) {
@@ -251,7 +253,11 @@ public class ResourceHandlerBean extends AbstractRestBean {
         ResourceCriteria criteria = ResourceCriteriaHelper.create(uriInfo.getQueryParameters());
         criteria.addSortName(PageOrdering.ASC);
 
-        if (page != null) {
+        if (after != null) {
+            criteria.setPagingAfter(after, pageSize);
+            // the pages that follow by key reuse the count instead of running it again for every page
+            criteria.setCountMode(CountMode.CACHED);
+        } else if (page != null) {
             criteria.setPaging(page, pageSize);
         }
         PageList<Resource> ret = resMgr.findResourcesByCriteria(caller, criteria);
@@ -267,6 +273,7 @@ public class ResourceHandlerBean extends AbstractRestBean {
                                         @ApiParam("Limit to category (PLATFORM, SERVER, SERVICE") @QueryParam("category") String category,
                                         @ApiParam("Page size for paging") @QueryParam("ps") @DefaultValue("20") int pageSize,
                                         @ApiParam("Page for paging, 0-based") @QueryParam("page") @DefaultValue("0") Integer page,
+                                        @ApiParam("Id of the last resource of the previous page, pages by key instead of page number. The collection size of such a page may be up to a minute old") @QueryParam("after") Integer after,
                                         @ApiParam(value = "Limit to Inventory status of the resources", allowableValues = "ALL, NEW, IGNORED, COMMITTED, UNINVENTORIED")
                                             @DefaultValue("COMMITTED") @QueryParam("status") String status,
                                         @Context HttpHeaders headers,
@@ -291,7 +298,11 @@ public class ResourceHandlerBean extends AbstractRestBean {
         if (category!=null) {
             criteria.addFilterResourceCategories(ResourceCategory.valueOf(category.toUpperCase()));
         }
-        if (page!=null) {
+        if (after!=null) {
+            criteria.setPagingAfter(after,pageSize);
+            // the pages that follow by key reuse the count instead of running it again for every page
+            criteria.setCountMode(CountMode.CACHED);
+        } else if (page!=null) {
             criteria.setPaging(page,pageSize);
         }
         PageList<Resource> ret = resMgr.findResourcesByCriteria(caller,criteria);
@@ -348,13 +359,14 @@ public class ResourceHandlerBean extends AbstractRestBean {
             builder.entity(renderTemplate("listResourceWithType", rwtList));
 
         } else {
+            Integer lastId = resources.isEmpty() ? null : resources.get(resources.size() - 1).getId();
             if (mediaType.equals(wrappedCollectionJsonType)) {
-                wrapForPaging(builder, uriInfo, resources, rwtList);
+                wrapForPaging(builder, uriInfo, resources, rwtList, lastId);
             } else {
                 GenericEntity<List<ResourceWithType>> list = new GenericEntity<List<ResourceWithType>>(rwtList) {
             };
                 builder.entity(list);
-                createPagingHeader(builder,uriInfo,resources);
+                createPagingHeader(builder,uriInfo,resources,lastId);
             }
         }
         return builder;
@@ -0,0 +1,135 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2015 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.rhq.enterprise.server.rest.domain;
+
+import javax.xml.bind.annotation.XmlRootElement;
+
+import com.wordnik.swagger.annotations.ApiClass;
+import com.wordnik.swagger.annotations.ApiProperty;
+
+import org.codehaus.jackson.map.annotate.JsonDeserialize;
+import org.codehaus.jackson.map.annotate.JsonSerialize;
+
+import org.rhq.enterprise.server.rest.helper.NaNAsNullDeserializer;
+import org.rhq.enterprise.server.rest.helper.NaNAsNullSerializer;
+
+/**
+ * Bucketized metric data in columnar form. Instead of one object per data point there is one array per value,
+ * and the timestamp of data point i is startTime + i * interval. Buckets without data hold NaN, which is written as
+ * null in JSON as NaN can't be expressed there.
+ */
+@ApiClass("Bucketized metric data with one array per value")
+@XmlRootElement
+public class MetricColumns {
+
+    int id;
+    boolean isGroup;
+    long startTime;
+    long interval;
+    double[] avg;
+    double[] min;
+    double[] max;
+
+    public MetricColumns() {
+    }
+
+    public MetricColumns(int id, boolean isGroup, long startTime, long interval, double[] avg, double[] min,
+                         double[] max) {
+        this.id = id;
+        this.isGroup = isGroup;
+        this.startTime = startTime;
+        this.interval = interval;
+        this.avg = avg;
+        this.min = min;
+        this.max = max;
+    }
+
+    @ApiProperty("Id of the schedule or, for a group, of the metric definition")
+    public int getId() {
+        return id;
+    }
+
+    public void setId(int id) {
+        this.id = id;
+    }
+
+    @ApiProperty("Determines if this is data for a group")
+    public boolean isGroup() {
+        return isGroup;
+    }
+
+    public void setGroup(boolean group) {
+        isGroup = group;
+    }
+
+    @ApiProperty("Timestamp of the first data point")
+    public long getStartTime() {
+        return startTime;
+    }
+
+    public void setStartTime(long startTime) {
+        this.startTime = startTime;
+    }
+
+    @ApiProperty("Time between two data points in milliseconds")
+    public long getInterval() {
+        return interval;
+    }
+
+    public void setInterval(long interval) {
+        this.interval = interval;
+    }
+
+    @ApiProperty("Average value of each data point, null if there is no data")
+    @JsonSerialize(using = NaNAsNullSerializer.class)
+    public double[] getAvg() {
+        return avg;
+    }
+
+    @JsonDeserialize(using = NaNAsNullDeserializer.class)
+    public void setAvg(double[] avg) {
+        this.avg = avg;
+    }
+
+    @ApiProperty("Minimum value of each data point, null if there is no data")
+    @JsonSerialize(using = NaNAsNullSerializer.class)
+    public double[] getMin() {
+        return min;
+    }
+
+    @JsonDeserialize(using = NaNAsNullDeserializer.class)
+    public void setMin(double[] min) {
+        this.min = min;
+    }
+
+    @ApiProperty("Maximum value of each data point, null if there is no data")
+    @JsonSerialize(using = NaNAsNullSerializer.class)
+    public double[] getMax() {
+        return max;
+    }
+
+    @JsonDeserialize(using = NaNAsNullDeserializer.class)
+    public void setMax(double[] max) {
+        this.max = max;
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2015 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package org.rhq.enterprise.server.rest.helper;
+
+import java.io.IOException;
+
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.JsonProcessingException;
+import org.codehaus.jackson.map.JsonSerializer;
+import org.codehaus.jackson.map.SerializerProvider;
+
+/**
+ * Serializes a double array with null in place of NaN, which is not valid JSON. This keeps the arrays unboxed on
+ * the server side while clients see null for missing values.
+ * @see NaNAsNullDeserializer
+ */
+public class NaNAsNullSerializer extends JsonSerializer<double[]> {
+
+    @Override
+    public void serialize(double[] values, JsonGenerator jsonGenerator,
+                          SerializerProvider serializerProvider) throws IOException, JsonProcessingException {
+
+        jsonGenerator.writeStartArray();
+        for (double value : values) {
+            if (Double.isNaN(value)) {
+                jsonGenerator.writeNull();
+            } else {
+                jsonGenerator.writeNumber(value);
+            }
+        }
+        jsonGenerator.writeEndArray();
+    }
+}
@@ -47,7 +47,7 @@ public class ResourceCriteriaHelper {
     /**
      * special parameters are either ignored or handled specialy
      */
-    private static final List<String> SPECIAL_PARAMS = Arrays.asList("page", "ps", "strict");
+    private static final List<String> SPECIAL_PARAMS = Arrays.asList("page", "ps", "after", "strict");
 
     /**
      * mapping param shortcutName to param full name (this map gets filled in class constructor)
@@ -29,9 +29,12 @@ import static org.rhq.core.domain.common.composite.SystemSetting.DRIFT_FILE_PURG
 import static org.rhq.core.domain.common.composite.SystemSetting.EVENT_PURGE_PERIOD;
 import static org.rhq.core.domain.common.composite.SystemSetting.OPERATION_HISTORY_PURGE_PERIOD;
 import static org.rhq.core.domain.common.composite.SystemSetting.PARTITION_EVENT_PURGE_PERIOD;
+import static org.rhq.core.domain.common.composite.SystemSetting.PURGE_PARTITIONED_TABLES;
 import static org.rhq.core.domain.common.composite.SystemSetting.RESOURCE_CONFIG_HISTORY_PURGE_PERIOD;
 import static org.rhq.core.domain.common.composite.SystemSetting.RT_DATA_PURGE_PERIOD;
 import static org.rhq.core.domain.common.composite.SystemSetting.TRAIT_PURGE_PERIOD;
+import static org.rhq.enterprise.server.purge.TimePartitionedTable.CALLTIME_DATA_VALUE;
+import static org.rhq.enterprise.server.purge.TimePartitionedTable.EVENT;
 
 import java.util.Calendar;
 import java.util.Date;
@@ -52,6 +55,7 @@ import org.rhq.enterprise.server.content.ContentManagerLocal;
 import org.rhq.enterprise.server.drift.DriftManagerLocal;
 import org.rhq.enterprise.server.operation.OperationManagerLocal;
 import org.rhq.enterprise.server.purge.PurgeManagerLocal;
+import org.rhq.enterprise.server.purge.TimePartitionedTable;
 import org.rhq.enterprise.server.resource.ResourceManagerLocal;
 import org.rhq.enterprise.server.scheduler.SchedulerLocal;
 import org.rhq.enterprise.server.system.SystemManagerLocal;
@@ -133,6 +137,7 @@ public class DataPurgeJob extends AbstractStatefulJob {
     }
 
     private void purgeEverything(SystemSettings systemSettings) {
+        maintainTimePartitions(systemSettings);
         purgeCallTimeData(systemSettings);
         purgeEventData(systemSettings);
         purgeAlertData(systemSettings);
@@ -151,6 +156,19 @@ public class DataPurgeJob extends AbstractStatefulJob {
         purgeOldPackageBits();
     }
 
+    private void maintainTimePartitions(SystemSettings systemSettings) {
+        long timeStart = System.currentTimeMillis();
+        try {
+            purgeManager.maintainTimePartitions(timeStart,
+                TimePartitionedTable.parse(systemSettings.get(PURGE_PARTITIONED_TABLES)));
+        } catch (Exception e) {
+            LOG.error("Failed to maintain the daily partitions. Cause: " + e, e);
+        } finally {
+            long duration = System.currentTimeMillis() - timeStart;
+            LOG.info("Daily partitions maintained - completed in [" + duration + "]ms");
+        }
+    }
+
     private void purgeOldPackageBits(){
         long timeStart = System.currentTimeMillis();
         LOG.info("Package bits purge starting at " + new Date(timeStart));
@@ -243,6 +261,11 @@ public class DataPurgeJob extends AbstractStatefulJob {
         try {
             long threshold = timeStart - Long.parseLong(systemSettings.get(RT_DATA_PURGE_PERIOD));
             LOG.info("Purging calltime data that is older than " + new Date(threshold));
+            // drop the whole days that are partitioned, delete the remaining rows one by one
+            int partitionsDropped = purgeManager.dropTimePartitions(CALLTIME_DATA_VALUE, threshold);
+            if (partitionsDropped > 0) {
+                LOG.info("Dropped [" + partitionsDropped + "] daily partitions of calltime data");
+            }
             calltimePurged = purgeManager.purgeCallTimeData(threshold);
         } catch (Exception e) {
             LOG.error("Failed to purge calltime data. Cause: " + e, e);
@@ -260,6 +283,10 @@ public class DataPurgeJob extends AbstractStatefulJob {
         try {
             long threshold = timeStart - Long.parseLong(systemSettings.get(EVENT_PURGE_PERIOD));
             LOG.info("Purging event data older than " + new Date(threshold));
+            int partitionsDropped = purgeManager.dropTimePartitions(EVENT, threshold);
+            if (partitionsDropped > 0) {
+                LOG.info("Dropped [" + partitionsDropped + "] daily partitions of event data");
+            }
             eventsPurged = purgeManager.purgeEventData(threshold);
         } catch (Exception e) {
             LOG.error("Failed to purge event data. Cause: " + e, e);
@@ -648,6 +648,71 @@ public class StorageClientManager implements StorageClientManagerMBean{
         return metricsServer.getQueueAvailableCapacity();
     }
 
+    @Override
+    public int getIngestLanes() {
+        return metricsServer.getIngestLanes();
+    }
+
+    @Override
+    public int[] getIngestLaneDepths() {
+        return metricsServer.getIngestLaneDepths();
+    }
+
+    @Override
+    public double[] getIngestLaneMeanLatencies() {
+        return metricsServer.getIngestLaneMeanLatencies();
+    }
+
+    @Override
+    public long[] getIngestLaneRejections() {
+        return metricsServer.getIngestLaneRejections();
+    }
+
+    @Override
+    public long getBaselineSchedulesCalculated() {
+        return metricsServer.getBaselineCalculator().getSchedulesCalculated();
+    }
+
+    @Override
+    public long getBaselineSchedulesRemaining() {
+        return metricsServer.getBaselineCalculator().getSchedulesRemaining();
+    }
+
+    @Override
+    public long getBaselineCalculationFailures() {
+        return metricsServer.getBaselineCalculator().getFailedCalculations();
+    }
+
+    @Override
+    public double getBaselineCalculationThroughput() {
+        return metricsServer.getBaselineCalculator().getThroughput();
+    }
+
+    @Override
+    public long getAggregateCacheSize() {
+        return metricsServer.getAggregateCache().size();
+    }
+
+    @Override
+    public long getAggregateCacheHitCount() {
+        return metricsServer.getAggregateCache().getStats().hitCount();
+    }
+
+    @Override
+    public long getAggregateCacheMissCount() {
+        return metricsServer.getAggregateCache().getStats().missCount();
+    }
+
+    @Override
+    public long getAggregateCacheEvictionCount() {
+        return metricsServer.getAggregateCache().getStats().evictionCount();
+    }
+
+    @Override
+    public double getAggregateCacheHitRate() {
+        return metricsServer.getAggregateCache().getStats().hitRate();
+    }
+
     /**
      * A thread that checks for liveness of the given session.
      */
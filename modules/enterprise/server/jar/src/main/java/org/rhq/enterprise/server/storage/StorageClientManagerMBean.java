@@ -66,4 +66,34 @@ public interface StorageClientManagerMBean {
     // Queue
 
     int getQueueAvailableCapacity();
+
+    int getIngestLanes();
+
+    int[] getIngestLaneDepths();
+
+    double[] getIngestLaneMeanLatencies();
+
+    long[] getIngestLaneRejections();
+
+    // Baselines
+
+    long getBaselineSchedulesCalculated();
+
+    long getBaselineSchedulesRemaining();
+
+    long getBaselineCalculationFailures();
+
+    double getBaselineCalculationThroughput();
+
+    // Aggregate cache
+
+    long getAggregateCacheSize();
+
+    long getAggregateCacheHitCount();
+
+    long getAggregateCacheMissCount();
+
+    long getAggregateCacheEvictionCount();
+
+    double getAggregateCacheHitRate();
 }
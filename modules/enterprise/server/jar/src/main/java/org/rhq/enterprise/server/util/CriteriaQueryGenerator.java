@@ -24,6 +24,7 @@ package org.rhq.enterprise.server.util;
 
 import java.lang.reflect.Field;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -92,6 +93,9 @@ public final class CriteriaQueryGenerator {
 
     private static String NL = System.getProperty("line.separator");
 
+    private static final String KEYSET_AFTER_ID_PARAM = "keysetAfterId";
+    private static final String KEYSET_ROW_ALIAS = "keysetRow";
+
     private static List<String> EXPRESSION_START_KEYWORDS;
 
     private List<Field> persistentBagFields = new ArrayList<Field>();
@@ -505,6 +509,8 @@ public final class CriteriaQueryGenerator {
         List<String> orderingFieldRequiredJoins = new ArrayList<String>();
         List<String> orderingFieldTokens = new ArrayList<String>();
         List<String> orderingFieldAliases = new ArrayList<String>();
+        // the ordering expressions and their path off of the primary alias, for keyset paging
+        List<KeysetField> keysetFields = new ArrayList<KeysetField>();
 
         for (OrderingField orderingField : pc.getOrderingFields()) {
             PageOrdering ordering = orderingField.getOrdering();
@@ -541,6 +547,7 @@ public final class CriteriaQueryGenerator {
                 // thus, also does not require joins, just add the ordering field token directly
                 orderingFieldTokens.add(sortFragment + " " + ordering);
                 orderingFieldAliases.add(sortFragment);
+                keysetFields.add(new KeysetField(sortFragment, suffix, ordering));
                 continue;
             }
 
@@ -559,6 +566,13 @@ public final class CriteriaQueryGenerator {
             }
             orderingFieldAliases.add(joinAlias + "." + expressionLeaf);
             orderingFieldTokens.add(joinAlias + "." + expressionLeaf + " " + ordering);
+            keysetFields.add(new KeysetField(joinAlias + "." + expressionLeaf, suffix, ordering));
+        }
+
+        // keyset paging seeks past the row preceding the page instead of skipping the rows with an offset
+        boolean keyset = !countQuery && pc.isKeyset();
+        if (keyset) {
+            checkKeysetSupported(pc, keysetFields);
         }
 
         Map<String, Object> filterFields = getFilterFields(criteria);
@@ -607,9 +621,11 @@ public final class CriteriaQueryGenerator {
             conjunctiveResults.append(fragment).append(' ');
         }
 
+        int whereStart = -1;
         if (conjunctiveResults.length() > 0 || authorizationPermsFragment != null
-            || authorizationCustomConditionFragment != null || searchExpressionWhereClause != null) {
+            || authorizationCustomConditionFragment != null || searchExpressionWhereClause != null || keyset) {
             results.append("WHERE ");
+            whereStart = results.length();
             if (conjunctiveResults.length() > 0) {
                 results.append("( ").append(conjunctiveResults).append(")");
             }
@@ -644,6 +660,13 @@ public final class CriteriaQueryGenerator {
             results.append(searchExpressionWhereClause);
         }
 
+        if (keyset) {
+            if (results.length() > whereStart) {
+                results.append(NL).append(" AND ");
+            }
+            results.append(getKeysetFragment(keysetFields));
+        }
+
         if (!countQuery) {
             // group by clause
             if (groupByClause != null) {
@@ -685,6 +708,78 @@ public final class CriteriaQueryGenerator {
         return results.toString();
     }
 
+    private void checkKeysetSupported(PageControl pc, List<KeysetField> keysetFields) {
+        if (criteria.hasCustomizedSorting() || groupByClause != null
+            || keysetFields.size() != pc.getOrderingFields().size()) {
+            throw new IllegalArgumentException("Keyset paging is not supported for "
+                + criteria.getClass().getSimpleName() + " with customized, ordinal or grouped sorting");
+        }
+
+        for (KeysetField keysetField : keysetFields) {
+            if (keysetField.isId()) {
+                return;
+            }
+        }
+        // without the unique id the seek row can't be told apart from rows with the same sort values
+        throw new IllegalArgumentException("Keyset paging requires sorting on id, which is not possible for "
+            + criteria.getClass().getSimpleName() + " with " + pc.getOrderingFields().size() + " sort fields");
+    }
+
+    /**
+     * Generates the condition matching the rows that follow the seek row in the sort order:
+     * <pre>(f1 > s1) OR (f1 = s1 AND f2 > s2) OR ...</pre>
+     * where the seek row values are looked up by id, so the caller only needs to know the id of the last row of the
+     * previous page. Rows with null sort values never match, keyset paging requires non-null sort fields.
+     */
+    private String getKeysetFragment(List<KeysetField> keysetFields) {
+        StringBuilder fragment = new StringBuilder("( ");
+        for (int i = 0; i < keysetFields.size(); ++i) {
+            if (i > 0) {
+                fragment.append(NL).append(" OR ");
+            }
+            fragment.append("( ");
+            for (int j = 0; j < i; ++j) {
+                KeysetField equalField = keysetFields.get(j);
+                fragment.append(equalField.expression).append(" = ").append(getKeysetSeekValue(equalField))
+                    .append(" AND ");
+            }
+            KeysetField nextField = keysetFields.get(i);
+            fragment.append(nextField.expression).append(PageOrdering.DESC == nextField.ordering ? " < " : " > ")
+                .append(getKeysetSeekValue(nextField)).append(" )");
+
+            if (nextField.isId()) {
+                // the id is unique, no following sort field can break a tie
+                break;
+            }
+        }
+        fragment.append(" )");
+        return fragment.toString();
+    }
+
+    private String getKeysetSeekValue(KeysetField keysetField) {
+        if (keysetField.isId()) {
+            return ":" + KEYSET_AFTER_ID_PARAM;
+        }
+        return "( SELECT " + KEYSET_ROW_ALIAS + "." + keysetField.path + " FROM " + className + " " + KEYSET_ROW_ALIAS
+            + " WHERE " + KEYSET_ROW_ALIAS + ".id = :" + KEYSET_AFTER_ID_PARAM + " )";
+    }
+
+    private static class KeysetField {
+        private final String expression;
+        private final String path;
+        private final PageOrdering ordering;
+
+        private KeysetField(String expression, String path, PageOrdering ordering) {
+            this.expression = expression;
+            this.path = path;
+            this.ordering = ordering;
+        }
+
+        private boolean isId() {
+            return "id".equals(path);
+        }
+    }
+
     private boolean isNumber(String input) {
         if (input == null) {
             return false;
@@ -928,10 +1023,42 @@ public final class CriteriaQueryGenerator {
         String queryString = getQueryString(false);
         Query query = em.createQuery(queryString);
         setBindValues(query);
-        PersistenceUtility.setDataPage(query, getPageControl(criteria));
+        PageControl pc = getPageControl(criteria);
+        if (pc.isKeyset()) {
+            checkKeysetSeekRowExists(em, pc);
+            query.setParameter(KEYSET_AFTER_ID_PARAM, pc.getAfterId());
+        }
+        PersistenceUtility.setDataPage(query, pc);
         return query;
     }
 
+    /**
+     * The seek values of sort fields other than id are read from the seek row. If that row is gone, e.g. deleted
+     * since the previous page was fetched, every comparison is against null and the page would silently come back
+     * empty, so fail instead.
+     */
+    private void checkKeysetSeekRowExists(EntityManager em, PageControl pc) {
+        boolean seekRowRequired = false;
+        for (OrderingField orderingField : pc.getOrderingFields()) {
+            String override = criteria.getJPQLSortOverride(orderingField.getField());
+            if (!"id".equals(override == null ? orderingField.getField() : override)) {
+                seekRowRequired = true;
+                break;
+            }
+        }
+        if (!seekRowRequired) {
+            return;
+        }
+
+        Query seekRowQuery = em.createQuery("SELECT COUNT(" + KEYSET_ROW_ALIAS + ") FROM " + className + " "
+            + KEYSET_ROW_ALIAS + " WHERE " + KEYSET_ROW_ALIAS + ".id = :" + KEYSET_AFTER_ID_PARAM);
+        seekRowQuery.setParameter(KEYSET_AFTER_ID_PARAM, pc.getAfterId());
+        if (((Number) seekRowQuery.getSingleResult()).longValue() == 0) {
+            throw new IllegalArgumentException("Can't page after " + className + " with id " + pc.getAfterId()
+                + ", it does not exist anymore. Restart paging from the first page.");
+        }
+    }
+
     public Query getCountQuery(EntityManager em) {
         String countQueryString = getQueryString(true);
         Query query = em.createQuery(countQueryString);
@@ -939,6 +1066,29 @@ public final class CriteriaQueryGenerator {
         return query;
     }
 
+    /**
+     * @return a key identifying the count query along with its bind values, suitable for caching the count
+     */
+    public String getCountQueryKey() {
+        StringBuilder key = new StringBuilder(getQueryString(true));
+        for (Map.Entry<String, Object> critField : getFilterFields(criteria).entrySet()) {
+            Object value = critField.getValue();
+            key.append('|').append(critField.getKey()).append('=');
+            if (value instanceof Tag) {
+                Tag tag = (Tag) value;
+                key.append(tag.getNamespace()).append(':').append(tag.getSemantic()).append('=').append(tag.getName());
+            } else if (value instanceof Object[]) {
+                key.append(Arrays.deepToString((Object[]) value));
+            } else {
+                key.append(value);
+            }
+        }
+        if (null != this.authorizationPermsFragment) {
+            key.append("|requiredPerms=").append(this.criteria.getRequiredPermissions());
+        }
+        return key.toString();
+    }
+
     private void setBindValues(Query query) {
         for (Map.Entry<String, Object> critField : getFilterFields(criteria).entrySet()) {
             Object value = critField.getValue();
@@ -1091,6 +1241,8 @@ public final class CriteriaQueryGenerator {
         } else {
             if (criteria.getPageNumber() == null || criteria.getPageSize() == null) {
                 pc = PageControl.getUnlimitedInstance();
+            } else if (criteria.getPageAfterId() != null) {
+                pc = PageControl.getKeysetPageControl(criteria.getPageAfterId(), criteria.getPageSize());
             } else {
                 pc = new PageControl(criteria.getPageNumber(), criteria.getPageSize());
             }
@@ -27,6 +27,8 @@ import java.lang.reflect.Field;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.persistence.EntityManager;
 import javax.persistence.EntityNotFoundException;
@@ -37,6 +39,7 @@ import org.apache.commons.logging.LogFactory;
 import org.hibernate.Hibernate;
 
 import org.rhq.core.domain.criteria.Criteria;
+import org.rhq.core.domain.criteria.Criteria.CountMode;
 import org.rhq.core.domain.criteria.Criteria.Restriction;
 import org.rhq.core.domain.util.PageControl;
 import org.rhq.core.domain.util.PageList;
@@ -56,6 +59,15 @@ public class CriteriaQueryRunner<T> {
         DATA_FETCH_SETTINGS.setThrowOnMaxAttempts(true);
     }
 
+    /**
+     * How long a count is reused for criteria with {@link CountMode#CACHED}, and how many counts are kept at most.
+     */
+    private static final long COUNT_CACHE_TTL = Long.getLong("rhq.server.criteria.count-cache.ttl", 60000L);
+    private static final int COUNT_CACHE_MAX_SIZE = Integer.getInteger("rhq.server.criteria.count-cache.max-size",
+        1000);
+
+    private static final Map<String, CachedCount> COUNT_CACHE = new ConcurrentHashMap<String, CachedCount>();
+
     public CriteriaQueryRunner(Criteria criteria, CriteriaQueryGenerator queryGenerator, EntityManager entityManager) {
         this(criteria, queryGenerator, entityManager, true);
     }
@@ -74,7 +86,19 @@ public class CriteriaQueryRunner<T> {
         PageControl pageControl = CriteriaQueryGenerator.getPageControl(criteria);
 
         Restriction criteriaRestriction = criteria.getRestriction();
-        if (criteriaRestriction == null) {
+        if (criteriaRestriction == null && (pageControl.isKeyset() || CountMode.CACHED == criteria.getCountMode())) {
+            // a keyset page can't be checked against the total count and a cached count is not expected to be
+            // consistent with the data, so there is no phantom read to retry on
+            List<T> data = queryGenerator.getQuery(entityManager).getResultList();
+            results = new PageList<T>(data, getCount(), pageControl);
+
+            finalizeCollection(results);
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("restriction=" + criteriaRestriction + ", countMode=" + criteria.getCountMode()
+                    + ", resultSize=" + results.size() + ", resultCount=" + results.getTotalSize());
+            }
+
+        } else if (criteriaRestriction == null) {
             try {
                 results = QueryUtility.fetchPagedDataAndCount(queryGenerator.getQuery(entityManager),
                     queryGenerator.getCountQuery(entityManager), pageControl, DATA_FETCH_SETTINGS);
@@ -151,12 +175,55 @@ public class CriteriaQueryRunner<T> {
     }
 
     private int getCount() {
+        if (CountMode.CACHED != criteria.getCountMode()) {
+            return queryCount();
+        }
+
+        String key = queryGenerator.getCountQueryKey();
+        long now = System.currentTimeMillis();
+        CachedCount cached = COUNT_CACHE.get(key);
+        if (cached != null && cached.expiration > now) {
+            return cached.count;
+        }
+
+        int count = queryCount();
+        if (COUNT_CACHE.size() >= COUNT_CACHE_MAX_SIZE) {
+            purgeCountCache(now);
+        }
+        COUNT_CACHE.put(key, new CachedCount(count, now + COUNT_CACHE_TTL));
+
+        return count;
+    }
+
+    private int queryCount() {
         Query countQuery = queryGenerator.getCountQuery(entityManager);
         long count = (Long) countQuery.getSingleResult();
 
         return (int) count;
     }
 
+    private static void purgeCountCache(long now) {
+        for (Iterator<CachedCount> i = COUNT_CACHE.values().iterator(); i.hasNext();) {
+            if (i.next().expiration <= now) {
+                i.remove();
+            }
+        }
+        // still full of live counts, start over rather than track the access order
+        if (COUNT_CACHE.size() >= COUNT_CACHE_MAX_SIZE) {
+            COUNT_CACHE.clear();
+        }
+    }
+
+    private static class CachedCount {
+        private final int count;
+        private final long expiration;
+
+        private CachedCount(int count, long expiration) {
+            this.count = count;
+            this.expiration = expiration;
+        }
+    }
+
     public void initFetchFields(Object entity) {
         initPersistentBags(entity);
         initJoinFetchFields(entity);
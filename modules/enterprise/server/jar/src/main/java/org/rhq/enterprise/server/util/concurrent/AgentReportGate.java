@@ -0,0 +1,211 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2012 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.rhq.enterprise.server.util.concurrent;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.logging.Log;
+
+/**
+ * Serializes the processing of reports per agent. The lock of an agent is looked up without any global lock and is
+ * evicted as soon as no thread holds it or waits for it, so only agents with reports in flight take up an entry.
+ *
+ * A report that may be superseded registers itself as the latest report of its agent while it waits. Once a newer
+ * report registers, the waiting one gives up without ever taking the lock.
+ */
+class AgentReportGate {
+
+    // how often a waiting report checks whether it has been superseded
+    private static final long SUPERSEDED_CHECK_MILLIS = 1000L;
+
+    private static final long SLOW_MILLIS = 5000L;
+
+    private final Log log;
+    private final ConcurrentMap<String, Gate> gates = new ConcurrentHashMap<String, Gate>();
+
+    AgentReportGate(Log log) {
+        this.log = log;
+    }
+
+    void lock(String agentName) {
+        lockUnlessSuperseded(agentName, null);
+    }
+
+    /**
+     * @param report the report to register as the latest one of the agent, or null if it can't be superseded
+     *
+     * @return null if the lock is now held, otherwise the newer report that superseded the passed one while it was
+     *         waiting; the lock is not held then and must not be released
+     */
+    <T> T lockUnlessSuperseded(String agentName, T report) {
+        String msg = "tid=" + Thread.currentThread().getId() + "; agent=" + agentName;
+        boolean debug = this.log.isDebugEnabled();
+
+        Gate gate = retain(agentName);
+        if (report != null) {
+            gate.latest.set(report);
+        }
+
+        logDebug(debug, msg, ": acquiring lock");
+        long start = System.currentTimeMillis();
+        T newer = acquire(gate, report);
+        long end = System.currentTimeMillis();
+        long duration = end - start;
+
+        if (newer != null) {
+            release(agentName, gate);
+            logDebug(debug, msg, ": superseded by a newer report after waiting millis=" + duration);
+            return newer;
+        }
+
+        if (gate.lock.getHoldCount() == 1) {
+            gate.lockedTime = end;
+        }
+        if (duration < SLOW_MILLIS) {
+            logDebug(debug, msg, ": acquired lock in millis=" + duration);
+        } else {
+            this.log.info(msg + ": acquired lock in millis=" + duration);
+        }
+
+        return null;
+    }
+
+    void unlock(String agentName) {
+        String msg = "tid=" + Thread.currentThread().getId() + "; agent=" + agentName;
+        boolean debug = this.log.isDebugEnabled();
+
+        Gate gate = gates.get(agentName);
+
+        if (gate != null && gate.lock.isHeldByCurrentThread()) {
+            long duration = System.currentTimeMillis() - gate.lockedTime;
+
+            if (duration < SLOW_MILLIS) {
+                logDebug(debug, msg, ": releasing lock after being locked for millis=" + duration);
+            } else {
+                this.log.info(msg + ": releasing lock after being locked for millis=" + duration);
+            }
+
+            gate.lock.unlock();
+            release(agentName, gate);
+            logDebug(debug, msg, ": released lock");
+        } else {
+            this.log.warn(msg + ": cannot release lock");
+        }
+
+        return;
+    }
+
+    /**
+     * @return the number of agents that currently have a report holding or waiting for the lock
+     */
+    int size() {
+        return gates.size();
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T acquire(Gate gate, T report) {
+        if (report == null) {
+            gate.lock.lock();
+            return null;
+        }
+
+        try {
+            while (!gate.lock.tryLock(SUPERSEDED_CHECK_MILLIS, TimeUnit.MILLISECONDS)) {
+                Object latest = gate.latest.get();
+                if (latest != report) {
+                    return (T) latest;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            gate.lock.lock();
+        }
+
+        // a newer report may have arrived while the lock was handed over
+        Object latest = gate.latest.get();
+        if (latest != report) {
+            gate.lock.unlock();
+            return (T) latest;
+        }
+        return null;
+    }
+
+    private Gate retain(String agentName) {
+        while (true) {
+            Gate gate = gates.get(agentName);
+            if (gate == null) {
+                Gate newGate = new Gate();
+                gate = gates.putIfAbsent(agentName, newGate);
+                if (gate == null) {
+                    gate = newGate;
+                }
+            }
+            if (gate.retain()) {
+                return gate;
+            }
+            // lost the race against the eviction of the gate, help removing it and start over
+            gates.remove(agentName, gate);
+        }
+    }
+
+    private void release(String agentName, Gate gate) {
+        if (gate.release()) {
+            gates.remove(agentName, gate);
+        }
+    }
+
+    private void logDebug(boolean enabled, String arg1, String arg2) {
+        if (enabled) {
+            this.log.debug(arg1 + arg2);
+        }
+    }
+
+    private static class Gate {
+        private final ReentrantLock lock = new ReentrantLock();
+        // the threads holding or waiting for the lock, -1 once the gate is evicted
+        private final AtomicInteger users = new AtomicInteger();
+        private final AtomicReference<Object> latest = new AtomicReference<Object>();
+        // only touched by the thread holding the lock
+        private long lockedTime;
+
+        private boolean retain() {
+            while (true) {
+                int count = users.get();
+                if (count < 0) {
+                    return false;
+                }
+                if (users.compareAndSet(count, count + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * @return true if this was the last user, the gate is dead then and must be removed
+         */
+        private boolean release() {
+            return users.decrementAndGet() == 0 && users.compareAndSet(0, -1);
+        }
+    }
+}
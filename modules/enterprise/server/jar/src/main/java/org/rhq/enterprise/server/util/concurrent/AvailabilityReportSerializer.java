@@ -18,84 +18,37 @@
  */
 package org.rhq.enterprise.server.util.concurrent;
 
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
-
-import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
-public class AvailabilityReportSerializer {
-    private final Log log = LogFactory.getLog(AvailabilityReportSerializer.class);
+import org.rhq.core.domain.discovery.AvailabilityReport;
 
-    private static Map<String, ReentrantReadWriteLock> locks = new HashMap<String, ReentrantReadWriteLock>();
-    private static Map<String, Long> lockTimes = Collections.synchronizedMap(new HashMap<String, Long>());
+/**
+ * Serializes the processing of availability reports per agent, see {@link AgentReportGate}.
+ */
+public class AvailabilityReportSerializer {
     private static AvailabilityReportSerializer singleton = new AvailabilityReportSerializer();
 
+    private final AgentReportGate gate = new AgentReportGate(LogFactory.getLog(AvailabilityReportSerializer.class));
+
     public static AvailabilityReportSerializer getSingleton() {
         return singleton;
     }
 
     public void lock(String agentName) {
-        String msg = "tid=" + Thread.currentThread().getId() + "; agent=" + agentName;
-        boolean debug = this.log.isDebugEnabled();
-
-        ReentrantReadWriteLock lock = null;
-        logDebug(debug, msg, ": about to synchronize");
-        synchronized (this) {
-            logDebug(debug, msg, ": synchronized");
-            lock = AvailabilityReportSerializer.locks.get(agentName);
-            if (lock == null) {
-                logDebug(debug, msg, ": creating new lock");
-                lock = new ReentrantReadWriteLock();
-                AvailabilityReportSerializer.locks.put(agentName, lock);
-            }
-        }
-
-        logDebug(debug, msg, ": acquiring write lock");
-        long start = System.currentTimeMillis();
-        lock.writeLock().lock();
-        long end = System.currentTimeMillis();
-        long duration = end - start;
-        AvailabilityReportSerializer.lockTimes.put(agentName, Long.valueOf(end));
-        if (duration < 5000L) {
-            logDebug(debug, msg, ": acquired write lock in millis=" + duration);
-        } else {
-            this.log.info(msg + ": acquired write lock in millis=" + duration);
-        }
-
-        return;
+        gate.lock(agentName);
     }
 
-    public void unlock(String agentName) {
-        String msg = "tid=" + Thread.currentThread().getId() + "; agent=" + agentName;
-        boolean debug = this.log.isDebugEnabled();
-
-        ReentrantReadWriteLock lock = AvailabilityReportSerializer.locks.get(agentName);
-
-        if (lock != null) {
-            Long lockedTime = AvailabilityReportSerializer.lockTimes.get(agentName);
-            long duration = System.currentTimeMillis() - ((lockedTime != null) ? lockedTime : Long.MAX_VALUE);
-
-            if (duration < 5000L) {
-                logDebug(debug, msg, ": releasing write lock after being locked for millis=" + duration);
-            } else {
-                this.log.info(msg + ": releasing write lock after being locked for millis=" + duration);
-            }
-
-            lock.writeLock().unlock();
-            logDebug(debug, msg, ": released write lock");
-        } else {
-            this.log.warn(msg + ": cannot release write lock");
-        }
-
-        return;
+    /**
+     * Locks the agent of a report sent by the agent. If a newer report of the agent arrives while this one waits for
+     * the lock, this one is superseded and must be dropped rather than merged.
+     *
+     * @return null if the lock is now held, otherwise the newer report; the lock is not held then
+     */
+    public AvailabilityReport lockUnlessSuperseded(AvailabilityReport report) {
+        return gate.lockUnlessSuperseded(report.getAgentName(), report);
     }
 
-    private void logDebug(boolean enabled, String arg1, String arg2) {
-        if (enabled) {
-            this.log.debug(arg1 + arg2);
-        }
+    public void unlock(String agentName) {
+        gate.unlock(agentName);
     }
-}
\ No newline at end of file
+}
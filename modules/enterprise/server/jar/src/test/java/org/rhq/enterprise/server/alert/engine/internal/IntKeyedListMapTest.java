@@ -0,0 +1,66 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2015 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package org.rhq.enterprise.server.alert.engine.internal;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+import java.util.Arrays;
+
+import org.testng.annotations.Test;
+
+@Test
+public class IntKeyedListMapTest {
+
+    public void addAndGet() {
+        IntKeyedListMap<String> map = new IntKeyedListMap<String>();
+        map.add(10001, "a");
+        map.add(10001, "b");
+        map.add(-5, "c");
+        map.add(0, "d");
+
+        assertEquals(map.get(10001), Arrays.asList("a", "b"));
+        assertEquals(map.get(-5), Arrays.asList("c"));
+        assertEquals(map.get(0), Arrays.asList("d"));
+        assertNull(map.get(10002));
+        assertEquals(map.size(), 3);
+        assertEquals(map.getElementCount(), 4);
+    }
+
+    public void keepAllKeysWhenGrowing() {
+        IntKeyedListMap<Integer> map = new IntKeyedListMap<Integer>();
+        for (int scheduleId = 1; scheduleId <= 10000; ++scheduleId) {
+            map.add(scheduleId, scheduleId);
+            if (scheduleId % 3 == 0) {
+                map.add(scheduleId, -scheduleId);
+            }
+        }
+        map.trimToSize();
+
+        assertEquals(map.size(), 10000);
+        assertEquals(map.getElementCount(), 10000 + 3333);
+        for (int scheduleId = 1; scheduleId <= 10000; ++scheduleId) {
+            assertEquals(map.get(scheduleId).get(0).intValue(), scheduleId);
+            assertEquals(map.get(scheduleId).size(), (scheduleId % 3 == 0) ? 2 : 1);
+        }
+        assertNull(map.get(10001));
+    }
+
+}
@@ -83,6 +83,18 @@ public class MeasurementRangeNumericCacheElementTest {
         assert false == ele.matches(hi);
     }
 
+    public void testPrimitiveMatchesBoxed() {
+        AlertConditionOperator[] ops = { AlertConditionOperator.LESS_THAN, AlertConditionOperator.GREATER_THAN,
+            AlertConditionOperator.LESS_THAN_OR_EQUAL_TO, AlertConditionOperator.GREATER_THAN_OR_EQUAL_TO };
+        Double[] values = { inside, outsideLo, outsideHi, lo, hi, Double.NaN, Double.POSITIVE_INFINITY };
+        for (AlertConditionOperator op : ops) {
+            MeasurementRangeNumericCacheElement ele = createCacheElement(op);
+            for (Double value : values) {
+                assert ele.matches(value) == ele.matchesValue(value.doubleValue()) : op + " " + value;
+            }
+        }
+    }
+
     public void testUnsupportedComparator() {
         try {
             createCacheElement(AlertConditionOperator.EQUALS);
@@ -0,0 +1,184 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.rhq.enterprise.server.authz;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.testng.annotations.Test;
+
+import org.rhq.core.domain.authz.Permission;
+import org.rhq.enterprise.server.authz.SubjectPermissionCache.Check;
+
+@Test
+public class SubjectPermissionCacheTest {
+
+    public void testChecksAreKeptPerSubject() {
+        SubjectPermissionCache cache = new SubjectPermissionCache(60000L, 10, 10);
+        SubjectPermissionCache.Entry entry = cache.put(5, EnumSet.of(Permission.VIEW_USERS), cache.getGeneration(),
+            1000L);
+
+        assertSame(cache.get(5, 2000L), entry);
+        assertNull(cache.get(6, 2000L));
+        assertTrue(entry.getRolePermissions().contains(Permission.VIEW_USERS));
+        assertFalse(entry.getRolePermissions().contains(Permission.MANAGE_INVENTORY));
+
+        assertNull(entry.getCheck(Check.RESOURCE_PERMISSION, Permission.CONTROL, 10001));
+        entry.putCheck(Check.RESOURCE_PERMISSION, Permission.CONTROL, 10001, true);
+        entry.putCheck(Check.VIEW_RESOURCE, null, 10001, false);
+
+        assertEquals(entry.getCheck(Check.RESOURCE_PERMISSION, Permission.CONTROL, 10001), Boolean.TRUE);
+        assertEquals(entry.getCheck(Check.VIEW_RESOURCE, null, 10001), Boolean.FALSE);
+        assertNull(entry.getCheck(Check.RESOURCE_PERMISSION, Permission.CONFIGURE_WRITE, 10001));
+        assertNull(entry.getCheck(Check.GROUP_PERMISSION, Permission.CONTROL, 10001));
+    }
+
+    public void testCheckKeysAreDistinct() {
+        Set<Long> keys = new HashSet<Long>();
+        int[] ids = { 0, 1, 10001, Integer.MAX_VALUE };
+        for (Check check : Check.values()) {
+            for (int id : ids) {
+                assertTrue(keys.add(SubjectPermissionCache.getCheckKey(check, null, id)));
+                for (Permission permission : Permission.values()) {
+                    assertTrue(keys.add(SubjectPermissionCache.getCheckKey(check, permission, id)));
+                }
+            }
+        }
+    }
+
+    public void testEntriesExpire() {
+        SubjectPermissionCache cache = new SubjectPermissionCache(1000L, 10, 10);
+        cache.put(5, EnumSet.noneOf(Permission.class), cache.getGeneration(), 1000L);
+
+        assertNotNull(cache.get(5, 1999L));
+        assertNull(cache.get(5, 2000L));
+        assertEquals(cache.size(), 0);
+    }
+
+    public void testInvalidation() {
+        SubjectPermissionCache cache = new SubjectPermissionCache(60000L, 10, 10);
+        cache.put(5, EnumSet.noneOf(Permission.class), cache.getGeneration(), 1000L);
+        cache.put(6, EnumSet.noneOf(Permission.class), cache.getGeneration(), 1000L);
+
+        cache.invalidate(5);
+        assertNull(cache.get(5, 1000L));
+        assertNotNull(cache.get(6, 1000L));
+
+        cache.invalidateAll();
+        assertNull(cache.get(6, 1000L));
+    }
+
+    public void testLoadRacingAnInvalidationIsNotStored() {
+        SubjectPermissionCache cache = new SubjectPermissionCache(60000L, 10, 10);
+        long generation = cache.getGeneration();
+
+        // the role permissions were read before the change was made
+        cache.invalidateAll();
+        SubjectPermissionCache.Entry entry = cache.put(5, EnumSet.of(Permission.MANAGE_INVENTORY), generation, 1000L);
+
+        assertNotNull(entry);
+        assertNull(cache.get(5, 1000L));
+    }
+
+    public void testLoadRacingAnUncommittedRevocationIsNotStored() {
+        SubjectPermissionCache cache = new SubjectPermissionCache(60000L, 10, 10);
+        cache.put(5, EnumSet.of(Permission.MANAGE_INVENTORY), cache.getGeneration(), 1000L);
+
+        // the role is taken away from the subject, but the transaction has not committed yet
+        cache.beginInvalidation(5);
+        assertNull(cache.get(5, 1000L));
+
+        // a concurrent request still reads the committed role permissions
+        long generation = cache.getGeneration();
+        SubjectPermissionCache.Entry entry = cache.put(5, EnumSet.of(Permission.MANAGE_INVENTORY), generation, 1000L);
+        assertTrue(entry.getRolePermissions().contains(Permission.MANAGE_INVENTORY));
+        assertNull(cache.get(5, 1000L));
+
+        // one that read them before the commit but only stores them afterwards must not keep them either
+        long lateGeneration = cache.getGeneration();
+        cache.endInvalidation(5);
+        cache.put(5, EnumSet.of(Permission.MANAGE_INVENTORY), lateGeneration, 1000L);
+        assertNull(cache.get(5, 1000L));
+
+        // loads after the commit are cached again
+        cache.put(5, EnumSet.noneOf(Permission.class), cache.getGeneration(), 1000L);
+        assertNotNull(cache.get(5, 1000L));
+        assertFalse(cache.get(5, 1000L).getRolePermissions().contains(Permission.MANAGE_INVENTORY));
+    }
+
+    public void testPendingInvalidationOfAllSubjects() {
+        SubjectPermissionCache cache = new SubjectPermissionCache(60000L, 10, 10);
+        cache.beginInvalidation(null);
+        cache.put(6, EnumSet.noneOf(Permission.class), cache.getGeneration(), 1000L);
+        assertNull(cache.get(6, 1000L));
+
+        cache.endInvalidation(null);
+        cache.put(6, EnumSet.noneOf(Permission.class), cache.getGeneration(), 1000L);
+        assertNotNull(cache.get(6, 1000L));
+    }
+
+    public void testPendingInvalidationOnlyAffectsItsSubject() {
+        SubjectPermissionCache cache = new SubjectPermissionCache(60000L, 10, 10);
+        cache.beginInvalidation(5);
+        cache.beginInvalidation(5);
+
+        // other subjects are still cached while the change of subject 5 is pending
+        cache.put(6, EnumSet.noneOf(Permission.class), cache.getGeneration(), 1000L);
+        assertNotNull(cache.get(6, 1000L));
+
+        // subject 5 is pending until both of its invalidations ended
+        cache.endInvalidation(5);
+        cache.put(5, EnumSet.noneOf(Permission.class), cache.getGeneration(), 1000L);
+        assertNull(cache.get(5, 1000L));
+
+        cache.endInvalidation(5);
+        cache.put(5, EnumSet.noneOf(Permission.class), cache.getGeneration(), 1000L);
+        assertNotNull(cache.get(5, 1000L));
+    }
+
+    public void testSizeIsBounded() {
+        SubjectPermissionCache cache = new SubjectPermissionCache(60000L, 2, 2);
+        SubjectPermissionCache.Entry entry = cache.put(1, EnumSet.noneOf(Permission.class), cache.getGeneration(),
+            1000L);
+        cache.put(2, EnumSet.noneOf(Permission.class), cache.getGeneration(), 1000L);
+        cache.put(3, EnumSet.noneOf(Permission.class), cache.getGeneration(), 1000L);
+        assertTrue(cache.size() <= 2);
+
+        entry.putCheck(Check.VIEW_GROUP, null, 1, true);
+        entry.putCheck(Check.VIEW_GROUP, null, 2, true);
+        entry.putCheck(Check.VIEW_GROUP, null, 3, true);
+        assertEquals(entry.getCheck(Check.VIEW_GROUP, null, 3), Boolean.TRUE);
+        assertNull(entry.getCheck(Check.VIEW_GROUP, null, 1));
+    }
+
+    public void testDisabledCacheStoresNothing() {
+        SubjectPermissionCache cache = new SubjectPermissionCache(0L, 10, 10);
+        assertFalse(cache.isEnabled());
+        assertNotNull(cache.put(5, EnumSet.noneOf(Permission.class), cache.getGeneration(), 1000L));
+        assertNull(cache.get(5, 1000L));
+    }
+}
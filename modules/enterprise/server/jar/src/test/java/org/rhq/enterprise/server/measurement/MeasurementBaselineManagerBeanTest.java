@@ -0,0 +1,96 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.rhq.enterprise.server.measurement;
+
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.fail;
+
+import java.lang.reflect.Field;
+import java.sql.BatchUpdateException;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.List;
+
+import org.mockito.Mockito;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import org.rhq.core.domain.measurement.MeasurementBaseline;
+
+@Test
+public class MeasurementBaselineManagerBeanTest {
+
+    private MeasurementBaselineManagerBean baselineManager;
+
+    private MeasurementBaselineManagerLocal self;
+
+    private List<MeasurementBaseline> chunk;
+
+    @BeforeMethod
+    public void setup() throws Exception {
+        baselineManager = new MeasurementBaselineManagerBean();
+        self = Mockito.mock(MeasurementBaselineManagerLocal.class);
+        Field field = MeasurementBaselineManagerBean.class.getDeclaredField("measurementBaselineManager");
+        field.setAccessible(true);
+        field.set(baselineManager, self);
+
+        chunk = Collections.singletonList(new MeasurementBaseline());
+    }
+
+    public void testBatchRetriedAfterConcurrentInsert() {
+        // another server stored one of the baselines after the NOT EXISTS guard was evaluated
+        when(self.saveNewBaselinesBatch(chunk)).thenThrow(uniqueViolation()).thenReturn(0);
+
+        baselineManager.saveNewBaselinesBatchChunk(chunk);
+
+        verify(self, times(2)).saveNewBaselinesBatch(chunk);
+    }
+
+    public void testBatchSkippedAfterRepeatedConcurrentInserts() {
+        when(self.saveNewBaselinesBatch(chunk)).thenThrow(uniqueViolation());
+
+        baselineManager.saveNewBaselinesBatchChunk(chunk);
+
+        verify(self, times(2)).saveNewBaselinesBatch(chunk);
+    }
+
+    public void testBatchNotRetriedAfterOtherFailure() {
+        MeasurementStorageException failure = new MeasurementStorageException("Failed to insert baselines",
+            new SQLException("connection reset", "08006"));
+        when(self.saveNewBaselinesBatch(chunk)).thenThrow(failure);
+
+        try {
+            baselineManager.saveNewBaselinesBatchChunk(chunk);
+            fail("Expected the failure to be rethrown");
+        } catch (MeasurementStorageException e) {
+            assertSame(e, failure);
+        }
+        verify(self, times(1)).saveNewBaselinesBatch(chunk);
+    }
+
+    private static MeasurementStorageException uniqueViolation() {
+        // batch failures may only report the violation through the next exception
+        BatchUpdateException batchFailure = new BatchUpdateException("Batch entry 0 was aborted", null, new int[0]);
+        batchFailure.setNextException(new SQLException("duplicate key value violates unique constraint", "23505"));
+        return new MeasurementStorageException("Failed to insert baselines", batchFailure);
+    }
+}
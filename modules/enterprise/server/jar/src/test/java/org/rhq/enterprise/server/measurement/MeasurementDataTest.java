@@ -20,6 +20,7 @@
 package org.rhq.enterprise.server.measurement;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.Set;
@@ -30,6 +31,8 @@ import org.testng.annotations.Test;
 
 import org.rhq.core.domain.measurement.MeasurementData;
 import org.rhq.core.domain.measurement.MeasurementDataNumeric;
+import org.rhq.core.domain.measurement.MeasurementDataPK;
+import org.rhq.core.domain.measurement.MeasurementDataTrait;
 
 @Test
 public class MeasurementDataTest {
@@ -77,4 +80,16 @@ public class MeasurementDataTest {
         Assert.assertEquals(d5, m6, d5.toString());
         Assert.assertEquals(d6, m3, d6.toString());
     }
+
+    public void testSortForAlerting() {
+        MeasurementData m1 = new MeasurementDataNumeric(20L, 1, 100.0);
+        MeasurementData m2 = new MeasurementDataTrait(new MeasurementDataPK(20L, 2), "trait");
+        MeasurementData m3 = new MeasurementDataNumeric(20L, 3, 100.0);
+        MeasurementData m4 = new MeasurementDataNumeric(10L, 1, 100.0); // same schedId, earlier time
+        MeasurementData m5 = new MeasurementDataNumeric(10L, 3, 100.0); // same schedId, earlier time;
+        MeasurementData m6 = new MeasurementDataNumeric(20L, 3, 200.0); // duplicate
+
+        MeasurementData[] sorted = MeasurementDataManagerBean.sortForAlerting(Arrays.asList(m1, m2, m3, m4, m5, m6));
+        Assert.assertEquals(sorted, new MeasurementData[] { m4, m1, m2, m5, m3 }, Arrays.toString(sorted));
+    }
 }
@@ -0,0 +1,90 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2015 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+package org.rhq.enterprise.server.purge;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+import org.rhq.core.domain.measurement.MeasurementDataPK;
+
+@Test
+public class KeySpoolTest {
+
+    public void intKeysAreReadBackInBatches() throws Exception {
+        KeySpool<Integer> keySpool = new KeySpool<Integer>(getClass().getSimpleName());
+        try {
+            for (int i = 0; i < 1000; i++) {
+                keySpool.add(i * 7);
+            }
+            assertEquals(keySpool.size(), 1000);
+
+            List<Integer> keys = new ArrayList<Integer>();
+            List<Integer> batch;
+            while (!(batch = keySpool.nextBatch(300)).isEmpty()) {
+                assertTrue(batch.size() <= 300);
+                keys.addAll(batch);
+            }
+            assertEquals(keys.size(), 1000);
+            for (int i = 0; i < 1000; i++) {
+                assertEquals(keys.get(i).intValue(), i * 7);
+            }
+        } finally {
+            keySpool.close();
+        }
+    }
+
+    public void compositeAndStringKeys() throws Exception {
+        KeySpool<MeasurementDataPK> traitSpool = new KeySpool<MeasurementDataPK>(getClass().getSimpleName());
+        KeySpool<String> stringSpool = new KeySpool<String>(getClass().getSimpleName());
+        try {
+            traitSpool.add(new MeasurementDataPK(Long.MAX_VALUE - 1, 42));
+            traitSpool.add(new MeasurementDataPK(123L, Integer.MIN_VALUE));
+            List<MeasurementDataPK> traits = traitSpool.nextBatch(10);
+            assertEquals(traits.get(0), new MeasurementDataPK(Long.MAX_VALUE - 1, 42));
+            assertEquals(traits.get(1), new MeasurementDataPK(123L, Integer.MIN_VALUE));
+            assertTrue(traitSpool.nextBatch(10).isEmpty());
+
+            stringSpool.add("0123456789abcdef");
+            stringSpool.add("");
+            stringSpool.add("h\u00e4sh");
+            List<String> strings = stringSpool.nextBatch(10);
+            assertEquals(strings.size(), 3);
+            assertEquals(strings.get(0), "0123456789abcdef");
+            assertEquals(strings.get(1), "");
+            assertEquals(strings.get(2), "h\u00e4sh");
+        } finally {
+            traitSpool.close();
+            stringSpool.close();
+        }
+    }
+
+    public void emptySpool() throws Exception {
+        KeySpool<Integer> keySpool = new KeySpool<Integer>(getClass().getSimpleName());
+        try {
+            assertTrue(keySpool.nextBatch(10).isEmpty());
+        } finally {
+            keySpool.close();
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2015 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.rhq.enterprise.server.rest.domain;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.testng.annotations.Test;
+
+@Test
+public class MetricColumnsTest {
+
+    public void testEmptyBucketsAreSerializedAsNull() throws Exception {
+        double[] avg = { 1.5, Double.NaN, 3.0 };
+        double[] min = { 1.0, Double.NaN, 2.0 };
+        double[] max = { 2.0, Double.NaN, 4.0 };
+        MetricColumns columns = new MetricColumns(10001, false, 1000L, 60000L, avg, min, max);
+        assertTrue(Double.isNaN(columns.getAvg()[1]), "Expected the empty bucket to hold NaN");
+
+        ObjectMapper mapper = new ObjectMapper();
+        String json = mapper.writeValueAsString(columns);
+
+        // must be valid JSON, which NaN is not
+        JsonNode node = mapper.readTree(json);
+        assertEquals(node.get("avg").size(), 3);
+        assertEquals(node.get("avg").get(0).getDoubleValue(), 1.5);
+        assertEquals(node.get("avg").get(1).isNull(), true);
+        assertEquals(node.get("min").get(1).isNull(), true);
+        assertEquals(node.get("max").get(1).isNull(), true);
+        assertEquals(node.get("max").get(2).getDoubleValue(), 4.0);
+
+        MetricColumns read = mapper.readValue(json, MetricColumns.class);
+        assertEquals(read.getAvg().length, 3);
+        assertTrue(Double.isNaN(read.getAvg()[1]), "Expected null to be read back as NaN");
+        assertEquals(read.getAvg()[0], 1.5);
+        assertEquals(read.getMin()[2], 2.0);
+    }
+
+    public void testMissingColumnsAreSerializedAsNull() throws Exception {
+        MetricColumns columns = new MetricColumns(10001, true, 1000L, 60000L, new double[0], null, null);
+
+        ObjectMapper mapper = new ObjectMapper();
+        JsonNode node = mapper.readTree(mapper.writeValueAsString(columns));
+        assertEquals(node.get("avg").size(), 0);
+        assertEquals(node.get("min").isNull(), true);
+
+        MetricColumns read = mapper.readValue(mapper.writeValueAsString(columns), MetricColumns.class);
+        assertEquals(read.getAvg().length, 0);
+        assertNull(read.getMin());
+    }
+}
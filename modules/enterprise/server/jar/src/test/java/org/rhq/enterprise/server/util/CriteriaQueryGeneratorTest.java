@@ -0,0 +1,125 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.rhq.enterprise.server.util;
+
+import static org.mockito.Mockito.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.startsWith;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+
+import org.mockito.Mockito;
+import org.testng.annotations.Test;
+
+import org.rhq.core.domain.auth.Subject;
+import org.rhq.core.domain.criteria.ResourceCriteria;
+import org.rhq.core.domain.util.PageOrdering;
+
+@Test
+public class CriteriaQueryGeneratorTest {
+
+    public void testKeysetPaging() {
+        ResourceCriteria criteria = new ResourceCriteria();
+        criteria.addSortName(PageOrdering.ASC);
+        criteria.addSortResourceTypeName(PageOrdering.DESC);
+        criteria.setPagingAfter(10001, 50);
+
+        CriteriaQueryGenerator generator = new CriteriaQueryGenerator(new Subject(), criteria);
+        String query = generator.getQueryString(false);
+
+        assertTrue(query.contains("resource.name > ( SELECT keysetRow.name FROM Resource keysetRow"
+            + " WHERE keysetRow.id = :keysetAfterId )"), query);
+        assertTrue(query.contains("resource.name = ( SELECT keysetRow.name FROM Resource keysetRow"
+            + " WHERE keysetRow.id = :keysetAfterId ) AND orderingField0.name < ( SELECT keysetRow.resourceType.name"
+            + " FROM Resource keysetRow WHERE keysetRow.id = :keysetAfterId )"), query);
+        assertTrue(query.contains("AND resource.id > :keysetAfterId )"), query);
+
+        // the count is over the whole result, not just what follows the seek row
+        assertFalse(generator.getQueryString(true).contains("keysetAfterId"));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class, expectedExceptionsMessageRegExp = ".*10001.*")
+    public void testKeysetPagingAfterDeletedRow() {
+        ResourceCriteria criteria = new ResourceCriteria();
+        criteria.addSortName(PageOrdering.ASC);
+        criteria.setPagingAfter(10001, 50);
+
+        // the seek row was deleted since the previous page was fetched
+        EntityManager entityManager = mockEntityManager(0L);
+
+        new CriteriaQueryGenerator(new Subject(), criteria).getQuery(entityManager);
+    }
+
+    public void testKeysetPagingAfterExistingRow() {
+        ResourceCriteria criteria = new ResourceCriteria();
+        criteria.addSortName(PageOrdering.ASC);
+        criteria.setPagingAfter(10001, 50);
+
+        EntityManager entityManager = mockEntityManager(1L);
+
+        new CriteriaQueryGenerator(new Subject(), criteria).getQuery(entityManager);
+        verify(entityManager).createQuery(startsWith("SELECT COUNT(keysetRow) FROM Resource keysetRow"));
+    }
+
+    public void testKeysetPagingByIdDoesNotNeedSeekRow() {
+        ResourceCriteria criteria = new ResourceCriteria();
+        criteria.setPagingAfter(10001, 50);
+
+        // seeking past the id alone works whether the row exists or not
+        EntityManager entityManager = mockEntityManager(0L);
+
+        new CriteriaQueryGenerator(new Subject(), criteria).getQuery(entityManager);
+        verify(entityManager, never()).createQuery(startsWith("SELECT COUNT(keysetRow)"));
+    }
+
+    private EntityManager mockEntityManager(long seekRowCount) {
+        EntityManager entityManager = Mockito.mock(EntityManager.class);
+        when(entityManager.createQuery(anyString())).thenReturn(Mockito.mock(Query.class));
+        Query seekRowQuery = Mockito.mock(Query.class);
+        when(seekRowQuery.getSingleResult()).thenReturn(seekRowCount);
+        when(entityManager.createQuery(startsWith("SELECT COUNT(keysetRow)"))).thenReturn(seekRowQuery);
+        return entityManager;
+    }
+
+    public void testOffsetPaging() {
+        ResourceCriteria criteria = new ResourceCriteria();
+        criteria.addSortName(PageOrdering.ASC);
+        criteria.setPaging(3, 50);
+
+        CriteriaQueryGenerator generator = new CriteriaQueryGenerator(new Subject(), criteria);
+        assertFalse(generator.getQueryString(false).contains("keysetAfterId"));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testKeysetPagingRequiresIdSort() {
+        ResourceCriteria criteria = new ResourceCriteria();
+        criteria.addSortName(PageOrdering.ASC);
+        criteria.addSortResourceTypeName(PageOrdering.ASC);
+        criteria.addSortAgentName(PageOrdering.ASC);
+        criteria.setPagingAfter(10001, 50);
+
+        // there is no room left for the id sort that makes the seek row unique
+        new CriteriaQueryGenerator(new Subject(), criteria).getQueryString(false);
+    }
+}
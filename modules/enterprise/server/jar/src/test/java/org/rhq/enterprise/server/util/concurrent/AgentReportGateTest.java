@@ -0,0 +1,94 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.rhq.enterprise.server.util.concurrent;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.LogFactory;
+import org.testng.annotations.Test;
+
+@Test
+public class AgentReportGateTest {
+
+    public void testGatesAreEvictedWhenUnused() {
+        AgentReportGate gate = new AgentReportGate(LogFactory.getLog(AgentReportGateTest.class));
+
+        gate.lock("agent1");
+        gate.lock("agent1");
+        gate.lock("agent2");
+        assertEquals(gate.size(), 2);
+
+        gate.unlock("agent1");
+        assertEquals(gate.size(), 2);
+        gate.unlock("agent1");
+        gate.unlock("agent2");
+        assertEquals(gate.size(), 0);
+
+        // releasing a lock that is not held must not fail
+        gate.unlock("agent1");
+        assertEquals(gate.size(), 0);
+    }
+
+    public void testWaitingReportIsSuperseded() throws Exception {
+        final AgentReportGate gate = new AgentReportGate(LogFactory.getLog(AgentReportGateTest.class));
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            gate.lock("agent1");
+
+            Future<String> older = executor.submit(new LockingReport(gate, "older"));
+            // give the older report time to start waiting for the lock
+            Thread.sleep(200L);
+            Future<String> newer = executor.submit(new LockingReport(gate, "newer"));
+
+            assertEquals(older.get(10, TimeUnit.SECONDS), "newer");
+
+            gate.unlock("agent1");
+            assertNull(newer.get(10, TimeUnit.SECONDS));
+            assertEquals(gate.size(), 0);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static class LockingReport implements Callable<String> {
+        private final AgentReportGate gate;
+        private final String report;
+
+        private LockingReport(AgentReportGate gate, String report) {
+            this.gate = gate;
+            this.report = report;
+        }
+
+        @Override
+        public String call() {
+            String newer = gate.lockUnlessSuperseded("agent1", report);
+            if (newer == null) {
+                gate.unlock("agent1");
+            }
+            return newer;
+        }
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ *
+ * RHQ Management Platform
+ * Copyright (C) 2005-2015 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *
+ */
+
+package org.rhq.server.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+import org.rhq.server.metrics.domain.Bucket;
+
+/**
+ * Caches summaries of the 1 hour, 6 hour, and 24 hour aggregates of a schedule in fixed size blocks of time. A
+ * summary query over a long range then only has to read the partial blocks at either end of the range and the blocks
+ * that have not been cached yet.
+ * <br/><br/>
+ * Only closed blocks are cached, i.e., blocks for which all aggregates should already have been computed. Aggregates
+ * can still change after that, e.g., when late raw data causes an hour to be re-aggregated or when an invalid metric
+ * is recomputed. Entries therefore expire after a fixed time, and {@link #invalidate(int, long, long)} is called
+ * when aggregates are known to have changed.
+ */
+public class AggregateCache {
+
+    private static final long HOUR = 60 * 60 * 1000L;
+
+    private static final long DAY = 24 * HOUR;
+
+    public static class Summary {
+
+        private final int count;
+
+        private final double mean;
+
+        private final double min;
+
+        private final double max;
+
+        public Summary(int count, double mean, double min, double max) {
+            this.count = count;
+            this.mean = mean;
+            this.min = min;
+            this.max = max;
+        }
+
+        /**
+         * @return The number of aggregates in the block
+         */
+        public int getCount() {
+            return count;
+        }
+
+        /**
+         * @return The arithmetic mean of the averages of the aggregates in the block
+         */
+        public double getMean() {
+            return mean;
+        }
+
+        public double getMin() {
+            return min;
+        }
+
+        public double getMax() {
+            return max;
+        }
+    }
+
+    private static class Key {
+
+        final int scheduleId;
+
+        final Bucket bucket;
+
+        final long blockStart;
+
+        Key(int scheduleId, Bucket bucket, long blockStart) {
+            this.scheduleId = scheduleId;
+            this.bucket = bucket;
+            this.blockStart = blockStart;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            Key that = (Key) o;
+
+            return scheduleId == that.scheduleId && blockStart == that.blockStart && bucket == that.bucket;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = scheduleId;
+            result = 31 * result + bucket.hashCode();
+            result = 31 * result + (int) (blockStart ^ (blockStart >>> 32));
+            return result;
+        }
+    }
+
+    private final Cache<Key, Summary> cache;
+
+    /**
+     * @param maxSize The maximum number of cached blocks
+     * @param expiration The time in seconds after which a cached block is discarded
+     */
+    public AggregateCache(long maxSize, long expiration) {
+        cache = CacheBuilder.newBuilder()
+            .maximumSize(maxSize)
+            .expireAfterWrite(expiration, TimeUnit.SECONDS)
+            .recordStats()
+            .build();
+    }
+
+    /**
+     * @return The width of a block in milliseconds. Blocks start at multiples of this value.
+     */
+    public static long getBlockSize(Bucket bucket) {
+        switch (bucket) {
+            case ONE_HOUR:
+                return DAY;
+            case SIX_HOUR:
+                return 7 * DAY;
+            default:
+                return 28 * DAY;
+        }
+    }
+
+    /**
+     * @return The end of the most recent block that is closed at the given time, i.e., the end of the most recent
+     * block for which the aggregation of its last period is due
+     */
+    public static long getClosedBlocksEnd(Bucket bucket, long now) {
+        long blockSize = getBlockSize(bucket);
+        return ((now - getPeriod(bucket)) / blockSize) * blockSize;
+    }
+
+    private static long getPeriod(Bucket bucket) {
+        switch (bucket) {
+            case ONE_HOUR:
+                return HOUR;
+            case SIX_HOUR:
+                return 6 * HOUR;
+            default:
+                return DAY;
+        }
+    }
+
+    public Summary get(int scheduleId, Bucket bucket, long blockStart) {
+        return cache.getIfPresent(new Key(scheduleId, bucket, blockStart));
+    }
+
+    public void put(int scheduleId, Bucket bucket, long blockStart, Summary summary) {
+        cache.put(new Key(scheduleId, bucket, blockStart), summary);
+    }
+
+    /**
+     * Discards the cached blocks of all buckets of the schedule that overlap with the given time range.
+     */
+    public void invalidate(int scheduleId, long startTime, long endTime) {
+        for (Bucket bucket : Bucket.values()) {
+            long blockSize = getBlockSize(bucket);
+            for (long block = (startTime / blockSize) * blockSize; block < endTime; block += blockSize) {
+                cache.invalidate(new Key(scheduleId, bucket, block));
+            }
+        }
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    public CacheStats getStats() {
+        return cache.stats();
+    }
+
+}
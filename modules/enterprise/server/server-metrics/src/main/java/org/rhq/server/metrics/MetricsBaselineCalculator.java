@@ -24,16 +24,35 @@
  */
 package org.rhq.server.metrics;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import org.rhq.core.domain.measurement.MeasurementBaseline;
+import org.rhq.core.util.exception.ThrowableUtil;
 import org.rhq.server.metrics.domain.AggregateNumericMetric;
+import org.rhq.server.metrics.domain.BaselineState;
 import org.rhq.server.metrics.domain.Bucket;
 
 /**
@@ -43,26 +62,481 @@ public class MetricsBaselineCalculator {
 
     private final Log log = LogFactory.getLog(MetricsBaselineCalculator.class);
 
+    private static final long HOUR = 60 * 60 * 1000L;
+
     private MetricsDAO metricsDAO;
 
+    /** Null if baselines are not maintained incrementally */
+    private MetricsConfiguration configuration;
+
+    private final AtomicLong schedulesCalculated = new AtomicLong();
+
+    private final AtomicLong failedCalculations = new AtomicLong();
+
+    private final AtomicLong schedulesRemaining = new AtomicLong();
+
+    private volatile double lastThroughput;
+
+    /**
+     * The last pending read-merge-write of the baseline state of each schedule. Cassandra 1.2 has no conditional
+     * updates, so the updates of a schedule's state are chained here and run one at a time, otherwise one of two
+     * concurrent updates would be lost. The aggregation and the baseline calculation both run in the data calc job,
+     * which never runs concurrently within the cloud, so serializing them within this server is sufficient.
+     */
+    private final ConcurrentMap<Integer, ListenableFuture<Void>> stateUpdates =
+        new ConcurrentHashMap<Integer, ListenableFuture<Void>>();
+
     public MetricsBaselineCalculator(MetricsDAO metricsDAO) {
         this.metricsDAO = metricsDAO;
     }
 
+    /**
+     * @param configuration If {@link MetricsConfiguration#isIncrementalBaselines() incremental baselines} are
+     * enabled, the async calculation uses the per schedule {@link BaselineState baseline state} instead of range
+     * scans of the 1 hour data whenever possible
+     */
+    public MetricsBaselineCalculator(MetricsDAO metricsDAO, MetricsConfiguration configuration) {
+        this.metricsDAO = metricsDAO;
+        if (configuration.isIncrementalBaselines()) {
+            this.configuration = configuration;
+        }
+    }
+
     public Map<Integer, MeasurementBaseline> calculateBaselines(Set<Integer> scheduleIds, long startTime, long endTime) {
         Map<Integer, MeasurementBaseline> calculatedBaselines = new HashMap<Integer, MeasurementBaseline>();
 
+        long start = System.currentTimeMillis();
+        schedulesRemaining.addAndGet(scheduleIds.size());
         MeasurementBaseline measurementBaseline;
         for (Integer scheduleId : scheduleIds) {
             measurementBaseline = this.calculateBaseline(scheduleId, startTime, endTime);
             if (measurementBaseline != null) {
                 calculatedBaselines.put(scheduleId, measurementBaseline);
             }
+            schedulesRemaining.decrementAndGet();
+            schedulesCalculated.incrementAndGet();
+        }
+        updateThroughput(scheduleIds.size(), start);
+
+        return calculatedBaselines;
+    }
+
+    /**
+     * Calculates baselines using the async aggregate query. At most <code>parallelism</code> queries are in flight
+     * at any time and the result of each query is folded into its baseline as soon as it arrives, so no per row
+     * objects are created. Schedules whose query fails are logged and left out of the results; they will be picked
+     * up again by the next baseline calculation since they still will not have a baseline.
+     *
+     * @param scheduleIds The schedules for which to calculate baselines
+     * @param startTime The start time, inclusive, of the 1 hour data used for the baselines
+     * @param endTime The end time, exclusive, of the 1 hour data used for the baselines
+     * @param parallelism The maximum number of concurrent queries
+     * @return The baselines keyed by schedule id. Schedules without any data have no entry.
+     * @throws InterruptedException If interrupted while waiting for queries to complete
+     */
+    public Map<Integer, MeasurementBaseline> calculateBaselines(Set<Integer> scheduleIds, long startTime,
+        long endTime, int parallelism) throws InterruptedException {
+        final Map<Integer, MeasurementBaseline> calculatedBaselines = new ConcurrentHashMap<Integer,
+            MeasurementBaseline>(scheduleIds.size());
+        final Semaphore permits = new Semaphore(parallelism);
+        final CountDownLatch queriesFinished = new CountDownLatch(scheduleIds.size());
+
+        long start = System.currentTimeMillis();
+        schedulesRemaining.addAndGet(scheduleIds.size());
+        for (final Integer scheduleId : scheduleIds) {
+            permits.acquire();
+            ListenableFuture<MeasurementBaseline> baselineFuture;
+            try {
+                if (configuration == null) {
+                    baselineFuture = Futures.transform(metricsDAO.findAggregateMetricsAsync(scheduleId,
+                        Bucket.ONE_HOUR, startTime, endTime), new Function<ResultSet, MeasurementBaseline>() {
+                        @Override
+                        public MeasurementBaseline apply(ResultSet resultSet) {
+                            return calculateBaseline(scheduleId, resultSet);
+                        }
+                    });
+                } else {
+                    baselineFuture = calculateBaselineFromState(scheduleId, startTime, endTime);
+                }
+            } catch (RuntimeException e) {
+                onCalculationFailed(scheduleId, e);
+                permits.release();
+                queriesFinished.countDown();
+                continue;
+            }
+            Futures.addCallback(baselineFuture, new FutureCallback<MeasurementBaseline>() {
+                @Override
+                public void onSuccess(MeasurementBaseline baseline) {
+                    try {
+                        if (baseline != null) {
+                            calculatedBaselines.put(scheduleId, baseline);
+                        }
+                        schedulesCalculated.incrementAndGet();
+                    } finally {
+                        schedulesRemaining.decrementAndGet();
+                        permits.release();
+                        queriesFinished.countDown();
+                    }
+                }
+
+                @Override
+                public void onFailure(Throwable t) {
+                    onCalculationFailed(scheduleId, t);
+                    permits.release();
+                    queriesFinished.countDown();
+                }
+            });
         }
+        queriesFinished.await();
+        updateThroughput(scheduleIds.size(), start);
 
         return calculatedBaselines;
     }
 
+    /**
+     * Folds newly computed 1 hour aggregates into the baseline state of their schedules. This is a no-op unless
+     * incremental baselines are enabled. If the state of a schedule cannot be updated, it is deleted so that the
+     * next baseline calculation for the schedule falls back to a range scan rather than using a state that is
+     * missing data.
+     * <br/><br/>
+     * This method does not respond to interrupts. Giving up part way through would leave states behind that claim
+     * to have seen data they have not.
+     *
+     * @param oneHourData The 1 hour aggregates ordered by schedule id and then by time
+     * @param parallelism The maximum number of schedules updated concurrently
+     */
+    public void updateBaselineStates(Iterable<AggregateNumericMetric> oneHourData, int parallelism) {
+        if (configuration == null) {
+            return;
+        }
+        Semaphore permits = new Semaphore(parallelism);
+        List<AggregateNumericMetric> metrics = new ArrayList<AggregateNumericMetric>();
+        for (AggregateNumericMetric metric : oneHourData) {
+            if (!metrics.isEmpty() && metrics.get(0).getScheduleId() != metric.getScheduleId()) {
+                permits.acquireUninterruptibly();
+                updateBaselineState(metrics, permits);
+                metrics = new ArrayList<AggregateNumericMetric>();
+            }
+            metrics.add(metric);
+        }
+        if (!metrics.isEmpty()) {
+            permits.acquireUninterruptibly();
+            updateBaselineState(metrics, permits);
+        }
+        // Wait for the outstanding updates
+        permits.acquireUninterruptibly(parallelism);
+    }
+
+    private void updateBaselineState(final List<AggregateNumericMetric> metrics, final Semaphore permits) {
+        final int scheduleId = metrics.get(0).getScheduleId();
+        ListenableFuture<ResultSet> updateFuture = serializeStateUpdate(scheduleId,
+            new Callable<ListenableFuture<ResultSet>>() {
+                @Override
+                public ListenableFuture<ResultSet> call() {
+                    ListenableFuture<ResultSet> readMergeWrite;
+                    try {
+                        readMergeWrite = readMergeWriteBaselineState(scheduleId, metrics);
+                    } catch (RuntimeException e) {
+                        readMergeWrite = Futures.immediateFailedFuture(e);
+                    }
+                    return deleteStateOnFailure(scheduleId, readMergeWrite);
+                }
+            });
+        Futures.addCallback(updateFuture, new FutureCallback<ResultSet>() {
+            @Override
+            public void onSuccess(ResultSet resultSet) {
+                permits.release();
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                permits.release();
+            }
+        });
+    }
+
+    private ListenableFuture<ResultSet> readMergeWriteBaselineState(final int scheduleId,
+        final List<AggregateNumericMetric> metrics) {
+        return Futures.transform(metricsDAO.findBaselineState(scheduleId),
+            new AsyncFunction<ResultSet, ResultSet>() {
+                @Override
+                public ListenableFuture<ResultSet> apply(ResultSet resultSet) {
+                    BaselineState state = getBaselineState(resultSet);
+                    if (state == null) {
+                        // Only the data from this point on will be seen by the state
+                        state = new BaselineState(configuration.getBaselineWindowHours(),
+                            metrics.get(0).getTimestamp());
+                    }
+                    for (AggregateNumericMetric metric : metrics) {
+                        state.add(metric);
+                    }
+                    return metricsDAO.insertBaselineState(scheduleId, state.toBytes());
+                }
+            });
+    }
+
+    /**
+     * If the update fails, deletes the state before reporting the failure, so that the next update of the state
+     * does not read it.
+     */
+    private ListenableFuture<ResultSet> deleteStateOnFailure(final int scheduleId, ListenableFuture<ResultSet> update) {
+        final SettableFuture<ResultSet> result = SettableFuture.create();
+        Futures.addCallback(update, new FutureCallback<ResultSet>() {
+            @Override
+            public void onSuccess(ResultSet resultSet) {
+                result.set(resultSet);
+            }
+
+            @Override
+            public void onFailure(final Throwable t) {
+                log.warn("Failed to update baseline state for schedule id " + scheduleId + ". It will be rebuilt " +
+                    "on the next baseline calculation: " + ThrowableUtil.getRootMessage(t));
+                ListenableFuture<ResultSet> deleteFuture;
+                try {
+                    deleteFuture = metricsDAO.deleteBaselineState(scheduleId);
+                } catch (RuntimeException e) {
+                    deleteFuture = Futures.immediateFailedFuture(e);
+                }
+                Futures.addCallback(deleteFuture, new FutureCallback<ResultSet>() {
+                    @Override
+                    public void onSuccess(ResultSet resultSet) {
+                        result.setException(t);
+                    }
+
+                    @Override
+                    public void onFailure(Throwable e) {
+                        log.warn("Failed to delete baseline state for schedule id " + scheduleId + ": " +
+                            ThrowableUtil.getRootMessage(e));
+                        result.setException(t);
+                    }
+                });
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Uses the baseline state of the schedule if it covers the requested range. Otherwise the 1 hour data is read
+     * and, if the range fits into the state window, used to seed a new state so that subsequent calculations for
+     * the schedule do not have to read it again.
+     */
+    private ListenableFuture<MeasurementBaseline> calculateBaselineFromState(final int scheduleId,
+        final long startTime, final long endTime) {
+        return serializeStateUpdate(scheduleId, new Callable<ListenableFuture<MeasurementBaseline>>() {
+            @Override
+            public ListenableFuture<MeasurementBaseline> call() {
+                return readOrSeedBaselineState(scheduleId, startTime, endTime);
+            }
+        });
+    }
+
+    private ListenableFuture<MeasurementBaseline> readOrSeedBaselineState(final int scheduleId,
+        final long startTime, final long endTime) {
+        return Futures.transform(metricsDAO.findBaselineState(scheduleId),
+            new AsyncFunction<ResultSet, MeasurementBaseline>() {
+                @Override
+                public ListenableFuture<MeasurementBaseline> apply(ResultSet resultSet) {
+                    BaselineState state = getBaselineState(resultSet);
+                    if (state != null && state.covers(startTime)) {
+                        return Futures.immediateFuture(toBaseline(state.summarize(scheduleId, startTime, endTime)));
+                    }
+                    StorageResultSetFuture queryFuture = metricsDAO.findAggregateMetricsAsync(scheduleId,
+                        Bucket.ONE_HOUR, startTime, endTime);
+                    if (endTime - startTime > configuration.getBaselineWindowHours() * HOUR) {
+                        return Futures.transform(queryFuture, new Function<ResultSet, MeasurementBaseline>() {
+                            @Override
+                            public MeasurementBaseline apply(ResultSet resultSet) {
+                                return calculateBaseline(scheduleId, resultSet);
+                            }
+                        });
+                    }
+                    return Futures.transform(queryFuture, new AsyncFunction<ResultSet, MeasurementBaseline>() {
+                        @Override
+                        public ListenableFuture<MeasurementBaseline> apply(ResultSet resultSet) {
+                            BaselineState seeded = new BaselineState(configuration.getBaselineWindowHours(),
+                                startTime);
+                            for (Row row : resultSet) {
+                                seeded.add(row.getDate(2).getTime(), row.getDouble(3), row.getDouble(5),
+                                    row.getDouble(4));
+                            }
+                            // The write is waited for so that the next update of the state reads it, but a failed
+                            // write only means that the state gets seeded again next time
+                            final MeasurementBaseline baseline = toBaseline(seeded.summarize(scheduleId, startTime,
+                                endTime));
+                            final SettableFuture<MeasurementBaseline> written = SettableFuture.create();
+                            Futures.addCallback(metricsDAO.insertBaselineState(scheduleId, seeded.toBytes()),
+                                new FutureCallback<ResultSet>() {
+                                    @Override
+                                    public void onSuccess(ResultSet result) {
+                                        written.set(baseline);
+                                    }
+
+                                    @Override
+                                    public void onFailure(Throwable t) {
+                                        written.set(baseline);
+                                    }
+                                });
+                            return written;
+                        }
+                    });
+                }
+            });
+    }
+
+    /**
+     * Runs the update of the baseline state of the schedule once the updates of the state started before it have
+     * completed, successfully or not.
+     *
+     * @return The outcome of the update
+     */
+    private <T> ListenableFuture<T> serializeStateUpdate(final int scheduleId,
+        final Callable<ListenableFuture<T>> update) {
+        final SettableFuture<Void> done = SettableFuture.create();
+        final SettableFuture<T> result = SettableFuture.create();
+        ListenableFuture<Void> previous = stateUpdates.put(scheduleId, done);
+        if (previous == null) {
+            previous = Futures.immediateFuture(null);
+        }
+        previous.addListener(new Runnable() {
+            @Override
+            public void run() {
+                ListenableFuture<T> updateFuture;
+                try {
+                    updateFuture = update.call();
+                } catch (Throwable t) {
+                    finish(t);
+                    return;
+                }
+                Futures.addCallback(updateFuture, new FutureCallback<T>() {
+                    @Override
+                    public void onSuccess(T value) {
+                        stateUpdates.remove(scheduleId, done);
+                        done.set(null);
+                        result.set(value);
+                    }
+
+                    @Override
+                    public void onFailure(Throwable t) {
+                        finish(t);
+                    }
+                });
+            }
+
+            private void finish(Throwable t) {
+                stateUpdates.remove(scheduleId, done);
+                done.set(null);
+                result.setException(t);
+            }
+        }, MoreExecutors.sameThreadExecutor());
+        return result;
+    }
+
+    private BaselineState getBaselineState(ResultSet resultSet) {
+        Row row = resultSet.one();
+        if (row == null || row.isNull(0)) {
+            return null;
+        }
+        return BaselineState.fromBytes(row.getBytes(0), configuration.getBaselineWindowHours());
+    }
+
+    private MeasurementBaseline toBaseline(AggregateNumericMetric summary) {
+        if (summary == null) {
+            return null;
+        }
+        MeasurementBaseline baseline = new MeasurementBaseline();
+        baseline.setMax(summary.getMax());
+        baseline.setMin(summary.getMin());
+        baseline.setMean(summary.getAvg());
+        baseline.setScheduleId(summary.getScheduleId());
+
+        if (log.isDebugEnabled()) {
+            log.debug("Calculated baseline: " + baseline.toString());
+        }
+
+        return baseline;
+    }
+
+    /**
+     * @return The total number of schedules for which a baseline calculation has completed
+     */
+    public long getSchedulesCalculated() {
+        return schedulesCalculated.get();
+    }
+
+    /**
+     * @return The total number of schedules for which a baseline calculation has failed
+     */
+    public long getFailedCalculations() {
+        return failedCalculations.get();
+    }
+
+    /**
+     * @return The number of schedules in calculations that are currently running that still need to be processed
+     */
+    public long getSchedulesRemaining() {
+        return schedulesRemaining.get();
+    }
+
+    /**
+     * @return The number of schedules processed per second by the most recently completed calculation
+     */
+    public double getThroughput() {
+        return lastThroughput;
+    }
+
+    private void onCalculationFailed(int scheduleId, Throwable t) {
+        schedulesRemaining.decrementAndGet();
+        failedCalculations.incrementAndGet();
+        log.warn("Failed to calculate baseline for schedule id " + scheduleId + ": " +
+            ThrowableUtil.getRootMessage(t));
+    }
+
+    private void updateThroughput(int numSchedules, long startTime) {
+        long elapsed = System.currentTimeMillis() - startTime;
+        lastThroughput = numSchedules * 1000.0 / Math.max(1, elapsed);
+    }
+
+    private MeasurementBaseline calculateBaseline(int scheduleId, ResultSet resultSet) {
+        ArithmeticMeanCalculator mean = new ArithmeticMeanCalculator();
+        double max = Double.NaN;
+        double min = Double.NaN;
+        boolean empty = true;
+
+        for (Row row : resultSet) {
+            double rowAvg = row.getDouble(3);
+            double rowMax = row.getDouble(4);
+            double rowMin = row.getDouble(5);
+            if (empty) {
+                max = rowMax;
+                min = rowMin;
+                empty = false;
+            }
+            mean.add(rowAvg);
+            if (rowMax > max) {
+                max = rowMax;
+            }
+            if (rowMin < min) {
+                min = rowMin;
+            }
+        }
+
+        if (empty) {
+            return null;
+        }
+
+        MeasurementBaseline baseline = new MeasurementBaseline();
+        baseline.setMax(max);
+        baseline.setMin(min);
+        baseline.setMean(mean.getArithmeticMean());
+        baseline.setScheduleId(scheduleId);
+
+        if (log.isDebugEnabled()) {
+            log.debug("Calculated baseline: " + baseline.toString());
+        }
+
+        return baseline;
+    }
+
     private MeasurementBaseline calculateBaseline(Integer schedule, long startTime, long endTime) {
         List<AggregateNumericMetric> metrics = metricsDAO.findAggregateMetrics(schedule, Bucket.ONE_HOUR, startTime,
             endTime);
@@ -61,6 +61,30 @@ public class MetricsConfiguration {
     // TODO make this configurable
     private int indexPartitions = 10;
 
+    private int ingestBatchSize = Integer.parseInt(System.getProperty("rhq.metrics.ingest.batch-size", "50"));
+
+    private long ingestFlushInterval = Long.parseLong(System.getProperty("rhq.metrics.ingest.flush-interval",
+        "100"));
+
+    private int ingestStatementsPerPermit = Integer.parseInt(System.getProperty(
+        "rhq.metrics.ingest.statements-per-permit", "5"));
+
+    private boolean incrementalBaselines = Boolean.parseBoolean(System.getProperty(
+        "rhq.metrics.baselines.incremental", "true"));
+
+    private int baselineWindowHours = Integer.parseInt(System.getProperty("rhq.metrics.baselines.window-hours",
+        Integer.toString(7 * 24)));
+
+    private int queryParallelism = Integer.parseInt(System.getProperty("rhq.metrics.query.parallelism", "50"));
+
+    private long queryTimeout = Long.parseLong(System.getProperty("rhq.metrics.query.timeout", "30000"));
+
+    private long aggregateCacheSize = Long.parseLong(System.getProperty("rhq.metrics.cache.aggregate.max-size",
+        "100000"));
+
+    private long aggregateCacheExpiration = Long.parseLong(System.getProperty(
+        "rhq.metrics.cache.aggregate.expiration", "600"));
+
     public int getRawTTL() {
         return rawTTL;
     }
@@ -176,4 +200,119 @@ public class MetricsConfiguration {
         this.indexPartitions = indexPartitions;
         return this;
     }
+
+    /**
+     * @return The maximum number of statements in an unlogged batch written by the raw data ingest path. A value
+     * of 1 effectively disables batching.
+     */
+    public int getIngestBatchSize() {
+        return ingestBatchSize;
+    }
+
+    public MetricsConfiguration setIngestBatchSize(int ingestBatchSize) {
+        this.ingestBatchSize = ingestBatchSize;
+        return this;
+    }
+
+    /**
+     * @return The maximum time in milliseconds a statement waits in a partially filled batch before it is written
+     */
+    public long getIngestFlushInterval() {
+        return ingestFlushInterval;
+    }
+
+    public MetricsConfiguration setIngestFlushInterval(long ingestFlushInterval) {
+        this.ingestFlushInterval = ingestFlushInterval;
+        return this;
+    }
+
+    /**
+     * @return The number of batched statements that are charged as one request against the storage session's
+     * request limit
+     */
+    public int getIngestStatementsPerPermit() {
+        return ingestStatementsPerPermit;
+    }
+
+    public MetricsConfiguration setIngestStatementsPerPermit(int ingestStatementsPerPermit) {
+        this.ingestStatementsPerPermit = ingestStatementsPerPermit;
+        return this;
+    }
+
+    /**
+     * @return True if baseline state should be maintained from freshly computed 1 hour aggregates so that baselines
+     * can be calculated without range scans of 1 hour data
+     */
+    public boolean isIncrementalBaselines() {
+        return incrementalBaselines;
+    }
+
+    public MetricsConfiguration setIncrementalBaselines(boolean incrementalBaselines) {
+        this.incrementalBaselines = incrementalBaselines;
+        return this;
+    }
+
+    /**
+     * @return The number of hourly slots kept in the baseline state of each schedule. Baseline calculations over a
+     * longer period fall back to range scans.
+     */
+    public int getBaselineWindowHours() {
+        return baselineWindowHours;
+    }
+
+    public MetricsConfiguration setBaselineWindowHours(int baselineWindowHours) {
+        this.baselineWindowHours = baselineWindowHours;
+        return this;
+    }
+
+    /**
+     * @return The maximum number of per schedule queries that a single group query has in flight at any time
+     */
+    public int getQueryParallelism() {
+        return queryParallelism;
+    }
+
+    public MetricsConfiguration setQueryParallelism(int queryParallelism) {
+        this.queryParallelism = queryParallelism;
+        return this;
+    }
+
+    /**
+     * @return The time in milliseconds after which a group query returns the results of the schedules that have
+     * been loaded so far
+     */
+    public long getQueryTimeout() {
+        return queryTimeout;
+    }
+
+    public MetricsConfiguration setQueryTimeout(long queryTimeout) {
+        this.queryTimeout = queryTimeout;
+        return this;
+    }
+
+    /**
+     * @return The maximum number of blocks of aggregate summaries kept in the {@link AggregateCache}. A value of 0
+     * disables the cache.
+     */
+    public long getAggregateCacheSize() {
+        return aggregateCacheSize;
+    }
+
+    public MetricsConfiguration setAggregateCacheSize(long aggregateCacheSize) {
+        this.aggregateCacheSize = aggregateCacheSize;
+        return this;
+    }
+
+    /**
+     * @return The time in seconds after which a block of aggregate summaries is discarded from the
+     * {@link AggregateCache}
+     */
+    public long getAggregateCacheExpiration() {
+        return aggregateCacheExpiration;
+    }
+
+    public MetricsConfiguration setAggregateCacheExpiration(long aggregateCacheExpiration) {
+        this.aggregateCacheExpiration = aggregateCacheExpiration;
+        return this;
+    }
 }
@@ -13,6 +13,8 @@ public class MetricsConstants {
 
     public static final String RAW_DATA_AGE_LIMIT = "rhq.metrics.data.age-limit";
 
+    public static final String INGEST_LANES = "rhq.metrics.ingest.lanes";
+
     private MetricsConstants() {
     }
 }
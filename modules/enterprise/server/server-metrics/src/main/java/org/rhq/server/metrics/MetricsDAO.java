@@ -26,8 +26,11 @@
 package org.rhq.server.metrics;
 
 
+import java.nio.ByteBuffer;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import com.datastax.driver.core.BoundStatement;
 import com.datastax.driver.core.PreparedStatement;
@@ -74,9 +77,18 @@ public class MetricsDAO {
     private PreparedStatement findIndexEntriesAfterScheduleId;
     private PreparedStatement deleteIndexEntry;
     private PreparedStatement deleteAggregate;
+    private PreparedStatement findBaselineState;
+    private PreparedStatement insertBaselineState;
+    private PreparedStatement deleteBaselineState;
 
     private PreparedStatement aliveCheck;
 
+    // unlogged batches of raw data and index inserts, by the number of inserts they hold
+    private final ConcurrentMap<Integer, PreparedStatement> insertRawDataBatches =
+        new ConcurrentHashMap<Integer, PreparedStatement>();
+    private final ConcurrentMap<Integer, PreparedStatement> insertIndexEntryBatches =
+        new ConcurrentHashMap<Integer, PreparedStatement>();
+
     public MetricsDAO(StorageSession session, MetricsConfiguration configuration) {
         this.storageSession = session;
         this.configuration = configuration;
@@ -95,9 +107,8 @@ public class MetricsDAO {
         // re-initialized and re-prepared with the new TTLs. None of this would be necessary
         // if the TTL value could be a bound value.
 
-        insertRawData = storageSession.prepare(
-            "INSERT INTO " + MetricsTable.RAW + " (schedule_id, time, value) VALUES (?, ?, ?) USING TTL " +
-                configuration.getRawTTL());
+        insertRawData = storageSession.prepare(getInsertRawDataCQL());
+        insertRawDataBatches.clear();
 
         rawMetricsQuery = storageSession.prepare("SELECT schedule_id, time, value FROM " + MetricsTable.RAW +
             " WHERE schedule_id = ? AND time >= ? AND time < ? ORDER BY time");
@@ -128,9 +139,8 @@ public class MetricsDAO {
             "FROM " + MetricsTable.AGGREGATE + " " +
             "WHERE schedule_id = ? AND bucket = ? AND time >= ? AND time < ?");
 
-        insertIndexEntry = storageSession.prepare(
-            "INSERT INTO " + MetricsTable.INDEX + " (bucket, partition, time, schedule_id) " +
-            "VALUES (?, ?, ?, ?) ");
+        insertIndexEntry = storageSession.prepare(getInsertIndexEntryCQL());
+        insertIndexEntryBatches.clear();
 
         deleteIndexEntry = storageSession.prepare(
             "DELETE FROM " + MetricsTable.INDEX + " " +
@@ -152,6 +162,17 @@ public class MetricsDAO {
             "DELETE FROM " + MetricsTable.AGGREGATE + " " +
             "WHERE schedule_id = ? AND bucket = ? AND time = ?");
 
+        findBaselineState = storageSession.prepare(
+            "SELECT state FROM " + MetricsTable.BASELINE_STATE + " WHERE schedule_id = ?");
+
+        // The state only needs to outlive the 1 hour data it summarizes
+        insertBaselineState = storageSession.prepare(
+            "INSERT INTO " + MetricsTable.BASELINE_STATE + " (schedule_id, state) VALUES (?, ?) " +
+            "USING TTL " + configuration.getOneHourTTL());
+
+        deleteBaselineState = storageSession.prepare(
+            "DELETE FROM " + MetricsTable.BASELINE_STATE + " WHERE schedule_id = ?");
+
         aliveCheck = storageSession.prepare(
                 "SELECT columnfamily_name FROM System.schema_columnfamilies WHERE keyspace_name = ?");
 
@@ -169,6 +190,63 @@ public class MetricsDAO {
         return storageSession.executeAsync(statement);
     }
 
+    /**
+     * Binds the raw data to the prepared insert of a single data point, or to an unlogged batch of such inserts if
+     * there is more than one data point. The native protocol version of the driver can't batch bound statements, so
+     * each batch size is prepared as a whole, the first time it is used.
+     */
+    public BoundStatement bindRawData(List<MeasurementDataNumeric> data) {
+        PreparedStatement statement = (data.size() == 1) ? insertRawData : getBatch(insertRawDataBatches,
+            getInsertRawDataCQL(), data.size());
+        Object[] values = new Object[3 * data.size()];
+        int i = 0;
+        for (MeasurementDataNumeric datum : data) {
+            values[i++] = datum.getScheduleId();
+            values[i++] = new Date(datum.getTimestamp());
+            values[i++] = datum.getValue();
+        }
+        return statement.bind(values);
+    }
+
+    /**
+     * Binds the index entries the same way {@link #bindRawData(List)} binds raw data.
+     */
+    public BoundStatement bindIndexEntries(List<IndexEntry> entries) {
+        PreparedStatement statement = (entries.size() == 1) ? insertIndexEntry : getBatch(insertIndexEntryBatches,
+            getInsertIndexEntryCQL(), entries.size());
+        Object[] values = new Object[4 * entries.size()];
+        int i = 0;
+        for (IndexEntry entry : entries) {
+            values[i++] = entry.getBucket().toString();
+            values[i++] = entry.getPartition();
+            values[i++] = new Date(entry.getTimestamp());
+            values[i++] = entry.getScheduleId();
+        }
+        return statement.bind(values);
+    }
+
+    private PreparedStatement getBatch(ConcurrentMap<Integer, PreparedStatement> batches, String insert, int size) {
+        PreparedStatement batch = batches.get(size);
+        if (batch == null) {
+            StringBuilder cql = new StringBuilder("BEGIN UNLOGGED BATCH\n");
+            for (int i = 0; i < size; ++i) {
+                cql.append(insert).append(";\n");
+            }
+            batch = storageSession.prepare(cql.append("APPLY BATCH").toString());
+            batches.put(size, batch);
+        }
+        return batch;
+    }
+
+    private String getInsertRawDataCQL() {
+        return "INSERT INTO " + MetricsTable.RAW + " (schedule_id, time, value) VALUES (?, ?, ?) USING TTL " +
+            configuration.getRawTTL();
+    }
+
+    private String getInsertIndexEntryCQL() {
+        return "INSERT INTO " + MetricsTable.INDEX + " (bucket, partition, time, schedule_id) VALUES (?, ?, ?, ?)";
+    }
+
     public StorageResultSetFuture insert1HourData(AggregateNumericMetric metric) {
         BoundStatement statement = insertOneHourData.bind(metric.getScheduleId(), new Date(metric.getTimestamp()),
             metric.getAvg(), metric.getMax(), metric.getMin());
@@ -263,6 +341,21 @@ public class MetricsDAO {
         storageSession.execute(statement);
     }
 
+    public StorageResultSetFuture findBaselineState(int scheduleId) {
+        BoundStatement statement = findBaselineState.bind(scheduleId);
+        return storageSession.executeAsync(statement);
+    }
+
+    public StorageResultSetFuture insertBaselineState(int scheduleId, ByteBuffer state) {
+        BoundStatement statement = insertBaselineState.bind(scheduleId, state);
+        return storageSession.executeAsync(statement);
+    }
+
+    public StorageResultSetFuture deleteBaselineState(int scheduleId) {
+        BoundStatement statement = deleteBaselineState.bind(scheduleId);
+        return storageSession.executeAsync(statement);
+    }
+
     public ResultSet checkLiveness(String keyspace) throws QueryTimeoutException, NoHostAvailableException {
         BoundStatement statement = aliveCheck.bind(keyspace);
         return storageSession.executeDirect(statement);
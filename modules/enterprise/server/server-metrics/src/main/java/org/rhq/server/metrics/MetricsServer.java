@@ -28,14 +28,24 @@ package org.rhq.server.metrics;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
 import com.google.common.base.Stopwatch;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
@@ -53,7 +63,6 @@ import org.rhq.core.domain.measurement.composite.MeasurementDataNumericHighLowCo
 import org.rhq.core.util.exception.ThrowableUtil;
 import org.rhq.server.metrics.aggregation.AggregationManager;
 import org.rhq.server.metrics.domain.AggregateNumericMetric;
-import org.rhq.server.metrics.domain.AggregateNumericMetricMapper;
 import org.rhq.server.metrics.domain.Bucket;
 import org.rhq.server.metrics.domain.IndexBucket;
 import org.rhq.server.metrics.domain.RawNumericMetric;
@@ -69,6 +78,22 @@ public class MetricsServer {
     private static final int RAW_DATA_AGE_LIMIT_MAX = 5;
     private static final int QUEUE_SIZE = 200000;
 
+    /**
+     * A data point whose writes fail is retried after a delay that doubles with each failed attempt, up to
+     * {@link #INSERT_RETRY_MAX_DELAY}, and is dropped after {@link #MAX_INSERT_ATTEMPTS} attempts.
+     */
+    private static final int MAX_INSERT_ATTEMPTS = Math.max(1, Integer.parseInt(System.getProperty(
+        "rhq.metrics.ingest.max-attempts", "10")));
+
+    private static final long INSERT_RETRY_DELAY = 500L;
+
+    private static final long INSERT_RETRY_MAX_DELAY = 30000L;
+
+    private static final int QUERY_REDUCER_THREADS = Math.max(2, Integer.parseInt(System.getProperty(
+        "rhq.metrics.query.reducer-threads", String.valueOf(Runtime.getRuntime().availableProcessors()))));
+
+    private static final int QUERY_REDUCER_QUEUE_SIZE = 10000;
+
     private DateTimeService dateTimeService = new DateTimeService();
 
     private MetricsDAO dao;
@@ -78,13 +103,35 @@ public class MetricsServer {
     private ListeningExecutorService tasks = MoreExecutors.listeningDecorator(Executors.newCachedThreadPool(
         new StorageClientThreadFactory("MetricsServerTasks")));
 
+    /**
+     * Runs the reducers of the group queries, off the driver's I/O threads. Both the threads and the results waiting
+     * to be reduced are bounded. A result that does not fit is rejected and left out of the query result, the same
+     * as if its query had failed.
+     */
+    private ExecutorService queryReducers = new ThreadPoolExecutor(QUERY_REDUCER_THREADS, QUERY_REDUCER_THREADS, 0L,
+        TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(QUERY_REDUCER_QUEUE_SIZE),
+        new StorageClientThreadFactory("MetricsServerQueryReducers"), new ThreadPoolExecutor.AbortPolicy());
+
+    /**
+     * Hands data points whose writes failed back to their ingest lane once their retry delay has passed
+     */
+    private ScheduledExecutorService insertRetries = Executors.newSingleThreadScheduledExecutor(
+        new StorageClientThreadFactory("MetricsServerInsertRetries"));
+
     private InvalidMetricsManager invalidMetricsManager;
 
     private AggregationManager aggregationManager;
 
-    private volatile BlockingQueue<MeasurementDataNumeric> numericQueue;
+    private MetricsBaselineCalculator baselineCalculator;
+
+    private AggregateCache aggregateCache;
 
-    private NumericQueueConsumer numericQueueConsumer;
+    private int numIngestLanes = Math.max(1, Integer.parseInt(System.getProperty(MetricsConstants.INGEST_LANES,
+        "4")));
+
+    private int queueSize = QUEUE_SIZE;
+
+    private volatile NumericQueueConsumer[] ingestLanes;
 
     private Days rawDataAgeLimit = Days.days(Math.min(3, Integer.parseInt(
         System.getProperty("rhq.metrics.data.age-limit", "3"))));
@@ -117,14 +164,61 @@ public class MetricsServer {
         configuration.setIndexPartitions(indexPartitions);
     }
 
+    /**
+     * Sets the number of ingest lanes, i.e., consumer threads with their own queue, over which raw data is
+     * partitioned by schedule id. This only takes effect if called before {@link #init()}.
+     */
+    public void setIngestLanes(int numIngestLanes) {
+        if (numIngestLanes < 1) {
+            throw new IllegalArgumentException("The number of ingest lanes must be at least 1 but was " +
+                numIngestLanes);
+        }
+        this.numIngestLanes = numIngestLanes;
+    }
+
+    public int getIngestLanes() {
+        return numIngestLanes;
+    }
+
     public void init() {
         aggregationManager = new AggregationManager(dao, dateTimeService, configuration);
+        aggregateCache = new AggregateCache(configuration.getAggregateCacheSize(),
+            configuration.getAggregateCacheExpiration());
         invalidMetricsManager = new InvalidMetricsManager(dateTimeService, dao);
+        invalidMetricsManager.setAggregateCache(aggregateCache);
+        baselineCalculator = new MetricsBaselineCalculator(dao, configuration);
+        aggregationManager.setOneHourDataListener(new AggregationManager.OneHourDataListener() {
+            @Override
+            public void onFinish(Set<AggregateNumericMetric> oneHourData) {
+                // Late data can cause closed hours to be aggregated again
+                for (AggregateNumericMetric metric : oneHourData) {
+                    long timestamp = metric.getTimestamp();
+                    aggregateCache.invalidate(metric.getScheduleId(), timestamp, timestamp + 1);
+                }
+                // Use the same number of concurrent schedules as the aggregation itself
+                baselineCalculator.updateBaselineStates(oneHourData, aggregationManager.getBatchSize() *
+                    aggregationManager.getParallelism());
+            }
+        });
+
+        // The total capacity stays the same regardless of the number of lanes so that memory usage is
+        // not affected by the lane count.
+        int laneCapacity = Math.max(1, queueSize / numIngestLanes);
+        NumericQueueConsumer[] lanes = new NumericQueueConsumer[numIngestLanes];
+        for (int i = 0; i < lanes.length; ++i) {
+            lanes[i] = new NumericQueueConsumer(laneCapacity, lanes.length);
+            lanes[i].setName("MetricsServer numericQueueConsumer-" + i);
+            lanes[i].start();
+        }
+        ingestLanes = lanes;
+    }
 
-        numericQueue = new ArrayBlockingQueue<MeasurementDataNumeric>(QUEUE_SIZE);
-        numericQueueConsumer = new NumericQueueConsumer();
-        numericQueueConsumer.setName("MetricsServer numericQueueConsumer");
-        numericQueueConsumer.start();
+    /**
+     * A test hook, sets the total capacity of the ingest lanes. This only takes effect if called before
+     * {@link #init()}.
+     */
+    void setQueueSize(int queueSize) {
+        this.queueSize = queueSize;
     }
 
     /**
@@ -138,15 +232,37 @@ public class MetricsServer {
         return aggregationManager;
     }
 
+    public MetricsBaselineCalculator getBaselineCalculator() {
+        return baselineCalculator;
+    }
+
+    public AggregateCache getAggregateCache() {
+        return aggregateCache;
+    }
+
     public void shutdown() {
-        numericQueueConsumer.shutdown();
-        try {
-            numericQueueConsumer.join(); // Lets wait for it to finish before we continue..
-        } catch (InterruptedException e) {
-            log.warn("Potential data loss while waiting for the queue to empty, ", e);
+        for (NumericQueueConsumer lane : ingestLanes) {
+            lane.shutdown();
+        }
+        for (NumericQueueConsumer lane : ingestLanes) {
+            try {
+                lane.join(); // Lets wait for it to finish before we continue..
+            } catch (InterruptedException e) {
+                log.warn("Potential data loss while waiting for the queue of " + lane.getName() + " to empty, ", e);
+            }
         }
         aggregationManager.shutdown();
         invalidMetricsManager.shutdown();
+        queryReducers.shutdownNow();
+        insertRetries.shutdownNow();
+        // The lanes wrote out the retries waiting at shutdown. Writes still failing after that are given up.
+        int droppedRetries = 0;
+        for (NumericQueueConsumer lane : ingestLanes) {
+            droppedRetries += lane.dropDelayedRetries();
+        }
+        if (droppedRetries > 0) {
+            log.warn("Shut down with " + droppedRetries + " raw data points waiting to be retried, they are lost");
+        }
     }
 
     public RawNumericMetric findLatestValueForResource(int scheduleId) {
@@ -195,15 +311,83 @@ public class MetricsServer {
                 beginTime + ", endTime: " + endTime + ", numberOfBuckets: " + numberOfBuckets + "]");
         }
 
-        DateTime begin = new DateTime(beginTime);
-        if (dateTimeService.isInRawDataRange(begin)) {
-            Iterable<RawNumericMetric> metrics = dao.findRawMetrics(scheduleIds, beginTime, endTime);
-            return createRawComposites(metrics, beginTime, endTime, numberOfBuckets);
+        NumericBuckets buckets = findBucketedData(scheduleIds, beginTime, endTime, numberOfBuckets);
+
+        List<MeasurementDataNumericHighLowComposite> data = new ArrayList<MeasurementDataNumericHighLowComposite>(
+            buckets.getNumDataPoints());
+        for (int i = 0; i < buckets.getNumDataPoints(); ++i) {
+            data.add(new MeasurementDataNumericHighLowComposite(buckets.getTimestamp(i), buckets.getAvg()[i],
+                buckets.getMax()[i], buckets.getMin()[i]));
         }
-        Bucket bucket = getBucket(begin);
-        List<AggregateNumericMetric> metrics = loadMetrics(scheduleIds, beginTime, endTime, bucket);
+        return data;
+    }
 
-        return createComposites(metrics, beginTime, endTime, numberOfBuckets);
+    /**
+     * Like {@link #findDataForResource(int, long, long, int)} but the rows are folded straight into primitive bucket
+     * arrays without creating metric or composite objects.
+     */
+    public NumericBuckets findBucketedDataForResource(int scheduleId, long beginTime, long endTime,
+        int numberOfBuckets) {
+        return findBucketedData(Collections.singletonList(scheduleId), beginTime, endTime, numberOfBuckets);
+    }
+
+    /**
+     * Like {@link #findDataForGroup(List, long, long, int)} but the rows are folded straight into primitive bucket
+     * arrays without creating metric or composite objects.
+     */
+    public NumericBuckets findBucketedDataForGroup(List<Integer> scheduleIds, long beginTime, long endTime,
+        int numberOfBuckets) {
+        return findBucketedData(scheduleIds, beginTime, endTime, numberOfBuckets);
+    }
+
+    private NumericBuckets findBucketedData(List<Integer> scheduleIds, long beginTime, long endTime,
+        int numberOfBuckets) {
+        Stopwatch stopwatch = new Stopwatch().start();
+        try {
+            final NumericBuckets buckets = new NumericBuckets(beginTime, endTime, numberOfBuckets);
+            DateTime begin = new DateTime(beginTime);
+
+            if (dateTimeService.isInRawDataRange(begin)) {
+                loadMetrics(scheduleIds, beginTime, endTime, null, new ScatterGather.Reducer() {
+                    @Override
+                    public void reduce(ResultSet resultSet) {
+                        for (Row row : resultSet) {
+                            double value = row.getDouble(2);
+                            buckets.insert(row.getDate(1).getTime(), value, value, value);
+                        }
+                    }
+                });
+                return buckets;
+            }
+
+            final Bucket bucket = getBucket(begin);
+            loadMetrics(scheduleIds, beginTime, endTime, bucket, new ScatterGather.Reducer() {
+                @Override
+                public void reduce(ResultSet resultSet) {
+                    for (Row row : resultSet) {
+                        double avg = row.getDouble(3);
+                        double max = row.getDouble(4);
+                        double min = row.getDouble(5);
+                        if (invalidMetricsManager.isInvalidMetric(avg, min, max)) {
+                            AggregateNumericMetric metric = new AggregateNumericMetric(row.getInt(0), bucket, avg,
+                                min, max, row.getDate(2).getTime());
+                            log.warn("The " + bucket + " metric " + metric + " is invalid. It will be excluded " +
+                                "from the results sent to the client and we will attempt to recompute the metric.");
+                            invalidMetricsManager.submit(metric);
+                        } else {
+                            buckets.insert(row.getDate(2).getTime(), avg, min, max);
+                        }
+                    }
+                }
+            });
+            return buckets;
+        } finally {
+            stopwatch.stop();
+            if (log.isDebugEnabled()) {
+                log.debug("Finished loading bucketed data for [scheduleIds: " + scheduleIds + ", beginTime: " +
+                    beginTime + ", endTime: " + endTime + "] in " + stopwatch.elapsed(TimeUnit.MILLISECONDS) + " ms");
+            }
+        }
     }
 
     public AggregateNumericMetric getSummaryAggregate(int scheduleId, long beginTime, long endTime) {
@@ -217,8 +401,7 @@ public class MetricsServer {
             }
 
             Bucket bucket = getBucket(begin);
-            List<AggregateNumericMetric> metrics = dao.findAggregateMetrics(scheduleId, bucket, beginTime, endTime);
-            return calculateAggregate(metrics, beginTime, bucket);
+            return getCachedSummaryAggregate(scheduleId, bucket, beginTime, endTime);
         } finally {
             stopwatch.stop();
             if (log.isDebugEnabled()) {
@@ -229,6 +412,107 @@ public class MetricsServer {
         }
     }
 
+    /**
+     * Computes the summary aggregate from the {@link AggregateCache cached} blocks that fall into the range. Only
+     * blocks that are not cached yet and the partial blocks at either end of the range are read from storage. When
+     * the cache is disabled the whole range is read with a single query.
+     */
+    private AggregateNumericMetric getCachedSummaryAggregate(int scheduleId, Bucket bucket, long beginTime,
+        long endTime) {
+        long blockSize = AggregateCache.getBlockSize(bucket);
+        long blocksStart = ((beginTime + blockSize - 1) / blockSize) * blockSize;
+        long blocksEnd = Math.min((endTime / blockSize) * blockSize, AggregateCache.getClosedBlocksEnd(bucket,
+            System.currentTimeMillis()));
+        // with the cache disabled splitting the range into blocks would only cost extra queries
+        if (configuration.getAggregateCacheSize() == 0 || blocksStart >= blocksEnd) {
+            List<AggregateNumericMetric> metrics = dao.findAggregateMetrics(scheduleId, bucket, beginTime, endTime);
+            return calculateAggregate(metrics, beginTime, bucket);
+        }
+
+        // Fire off all of the queries before waiting on any of them
+        List<Long> missingBlocks = new ArrayList<Long>();
+        List<StorageResultSetFuture> blockFutures = new ArrayList<StorageResultSetFuture>();
+        List<AggregateCache.Summary> summaries = new ArrayList<AggregateCache.Summary>();
+        for (long block = blocksStart; block < blocksEnd; block += blockSize) {
+            AggregateCache.Summary summary = aggregateCache.get(scheduleId, bucket, block);
+            if (summary == null) {
+                missingBlocks.add(block);
+                blockFutures.add(dao.findAggregateMetricsAsync(scheduleId, bucket, block, block + blockSize));
+            } else {
+                summaries.add(summary);
+            }
+        }
+        StorageResultSetFuture headFuture = null;
+        if (beginTime < blocksStart) {
+            headFuture = dao.findAggregateMetricsAsync(scheduleId, bucket, beginTime, blocksStart);
+        }
+        StorageResultSetFuture tailFuture = null;
+        if (blocksEnd < endTime) {
+            tailFuture = dao.findAggregateMetricsAsync(scheduleId, bucket, blocksEnd, endTime);
+        }
+
+        for (int i = 0; i < missingBlocks.size(); ++i) {
+            AggregateCache.Summary summary = summarize(blockFutures.get(i).get());
+            aggregateCache.put(scheduleId, bucket, missingBlocks.get(i), summary);
+            summaries.add(summary);
+        }
+        if (headFuture != null) {
+            summaries.add(summarize(headFuture.get()));
+        }
+        if (tailFuture != null) {
+            summaries.add(summarize(tailFuture.get()));
+        }
+
+        int count = 0;
+        double sum = 0;
+        double min = Double.NaN;
+        double max = Double.NaN;
+        for (AggregateCache.Summary summary : summaries) {
+            if (summary.getCount() == 0) {
+                continue;
+            }
+            if (count == 0) {
+                min = summary.getMin();
+                max = summary.getMax();
+            }
+            if (summary.getMin() < min) {
+                min = summary.getMin();
+            }
+            if (summary.getMax() > max) {
+                max = summary.getMax();
+            }
+            count += summary.getCount();
+            sum += summary.getCount() * summary.getMean();
+        }
+        // Same as calculateAggregate, the mean of no values is 0
+        return new AggregateNumericMetric(0, bucket, count == 0 ? 0 : sum / count, min, max, beginTime);
+    }
+
+    private AggregateCache.Summary summarize(ResultSet resultSet) {
+        ArithmeticMeanCalculator mean = new ArithmeticMeanCalculator();
+        double min = Double.NaN;
+        double max = Double.NaN;
+        int count = 0;
+        for (Row row : resultSet) {
+            double rowAvg = row.getDouble(3);
+            double rowMax = row.getDouble(4);
+            double rowMin = row.getDouble(5);
+            if (count == 0) {
+                min = rowMin;
+                max = rowMax;
+            }
+            if (rowMin < min) {
+                min = rowMin;
+            }
+            if (rowMax > max) {
+                max = rowMax;
+            }
+            mean.add(rowAvg);
+            ++count;
+        }
+        return new AggregateCache.Summary(count, mean.getArithmeticMean(), min, max);
+    }
+
     public ListenableFuture<AggregateNumericMetric> getSummaryAggregateAsync(int scheduleId, long beginTime,
         long endTime) {
         long start = System.currentTimeMillis();
@@ -266,9 +550,37 @@ public class MetricsServer {
                 return calculateAggregatedRaw(metrics, beginTime);
             }
             Bucket bucket = getBucket(begin);
-            List<AggregateNumericMetric> metrics = loadMetrics(scheduleIds, beginTime, endTime, bucket);
+            final AggregateNumericMetric summary = new AggregateNumericMetric(0, bucket, Double.NaN, Double.NaN,
+                Double.NaN, beginTime);
+            final ArithmeticMeanCalculator mean = new ArithmeticMeanCalculator();
+            loadMetrics(scheduleIds, beginTime, endTime, bucket, new ScatterGather.Reducer() {
+                boolean empty = true;
+
+                @Override
+                public void reduce(ResultSet resultSet) {
+                    for (Row row : resultSet) {
+                        double avg = row.getDouble(3);
+                        double max = row.getDouble(4);
+                        double min = row.getDouble(5);
+                        if (empty) {
+                            summary.setMin(min);
+                            summary.setMax(max);
+                            empty = false;
+                        }
+                        if (min < summary.getMin()) {
+                            summary.setMin(min);
+                        }
+                        if (max > summary.getMax()) {
+                            summary.setMax(max);
+                        }
+                        mean.add(avg);
+                    }
+                }
+            });
+            // The reducer is not called anymore once loadMetrics returns
+            summary.setAvg(mean.getArithmeticMean());
 
-            return calculateAggregate(metrics, beginTime, bucket);
+            return summary;
         } finally {
             stopwatch.stop();
             if (log.isDebugEnabled()) {
@@ -279,24 +591,43 @@ public class MetricsServer {
         }
     }
 
-    private List<AggregateNumericMetric> loadMetrics(List<Integer> scheduleIds, long begin, long end, Bucket bucket) {
-        List<StorageResultSetFuture> futures = new ArrayList<StorageResultSetFuture>(scheduleIds.size());
-        for (Integer scheduleId : scheduleIds) {
-            futures.add(dao.findAggregateMetricsAsync(scheduleId, bucket, begin, end));
+    /**
+     * Runs the raw, if bucket is null, or aggregate query of each schedule and hands the result sets to the reducer
+     * as they arrive. The number of queries in flight is bounded by {@link MetricsConfiguration#getQueryParallelism()}.
+     * If not all queries have completed within {@link MetricsConfiguration#getQueryTimeout()}, the reducer is left
+     * with the results of the schedules that have been loaded so far.
+     */
+    private void loadMetrics(List<Integer> scheduleIds, final long begin, final long end, final Bucket bucket,
+        ScatterGather.Reducer reducer) {
+        ScatterGather.Query query;
+        if (bucket == null) {
+            query = new ScatterGather.Query() {
+                @Override
+                public StorageResultSetFuture execute(int scheduleId) {
+                    return dao.findRawMetricsAsync(scheduleId, begin, end);
+                }
+            };
+        } else {
+            query = new ScatterGather.Query() {
+                @Override
+                public StorageResultSetFuture execute(int scheduleId) {
+                    return dao.findAggregateMetricsAsync(scheduleId, bucket, begin, end);
+                }
+            };
         }
-        ListenableFuture<List<ResultSet>> resultSetsFuture = Futures.successfulAsList(futures);
+        ScatterGather scatterGather = new ScatterGather(configuration.getQueryParallelism(),
+            configuration.getQueryTimeout(), queryReducers);
         try {
-            List<ResultSet> resultSets = resultSetsFuture.get();
-            AggregateNumericMetricMapper mapper = new AggregateNumericMetricMapper();
-            List<AggregateNumericMetric> metrics = new ArrayList<AggregateNumericMetric>();
-            for (ResultSet resultSet : resultSets) {
-                metrics.addAll(mapper.mapAll(resultSet));
+            int missing = scatterGather.run(scheduleIds, query, reducer);
+            if (missing > 0) {
+                log.warn("Returning partial results. Failed to load " + (bucket == null ? "raw" : bucket) +
+                    " data for " + missing + " of " + scheduleIds.size() + " schedules within " +
+                    configuration.getQueryTimeout() + " ms for {beginTime: " + begin + ", endTime: " + end + "}");
             }
-            return metrics;
-        } catch (Exception e) {
-            log.warn("There was an error while fetching " + bucket + " data for {scheduleIds: " + scheduleIds +
-                ", beginTime: " + begin + ", endTime: " + end + "}", e);
-            return Collections.emptyList();
+        } catch (InterruptedException e) {
+            log.warn("Interrupted while fetching " + (bucket == null ? "raw" : bucket) + " data for {scheduleIds: " +
+                scheduleIds + ", beginTime: " + begin + ", endTime: " + end + "}. Returning partial results.");
+            Thread.currentThread().interrupt();
         }
     }
 
@@ -354,24 +685,46 @@ public class MetricsServer {
 
     }
 
-    public synchronized void addNumericData(final Set<MeasurementDataNumeric> dataSet, final FutureCallback<Void> callback) {
-        if(numericQueue.remainingCapacity() > dataSet.size()) {
-            for(final MeasurementDataNumeric data : dataSet) {
-                try {
-                    if(data != null) {
-                        numericQueue.offer(data, 1, TimeUnit.SECONDS);
-                    }
-                } catch (InterruptedException e) {
-                    // Modify the exception to include sane message telling us even the buffer is full..
-                    // and actually do something with it in MeasurementDataManagerBean ..
-                    callback.onFailure(new RuntimeException("The queue insert timed out after one second, can't finish the queue loading.", e));
+    /**
+     * Hands the data off to the ingest lanes. Data is partitioned by schedule id so that all data for a given
+     * schedule is always written by the same lane. No lock is taken here; each lane applies its own
+     * backpressure, meaning that a report is rejected when any lane it maps to does not have enough capacity
+     * left, without affecting callers whose data maps to other lanes.
+     */
+    public void addNumericData(final Set<MeasurementDataNumeric> dataSet, final FutureCallback<Void> callback) {
+        NumericQueueConsumer[] lanes = ingestLanes;
+        int[] laneCounts = new int[lanes.length];
+        for (MeasurementDataNumeric data : dataSet) {
+            if (data != null) {
+                ++laneCounts[getLaneIndex(data.getScheduleId(), lanes.length)];
+            }
+        }
+        for (int i = 0; i < lanes.length; ++i) {
+            if (laneCounts[i] > 0 && lanes[i].queue.remainingCapacity() < laneCounts[i]) {
+                lanes[i].rejected.addAndGet(laneCounts[i]);
+                callback.onFailure(new RuntimeException("The server is overloaded, queue of " + lanes[i].getName() +
+                    " is full."));
+                return;
+            }
+        }
+        for (MeasurementDataNumeric data : dataSet) {
+            if (data != null) {
+                NumericQueueConsumer lane = lanes[getLaneIndex(data.getScheduleId(), lanes.length)];
+                if (!lane.queue.offer(data)) {
+                    // Another caller filled up the lane between the capacity check and now. The agent will
+                    // resend the report and re-inserting the data already queued is idempotent.
+                    lane.rejected.incrementAndGet();
+                    callback.onFailure(new RuntimeException("The server is overloaded, queue of " + lane.getName() +
+                        " is full."));
                     return;
                 }
             }
-            callback.onSuccess(null);
-        } else {
-            callback.onFailure(new RuntimeException("The server is overloaded, queue is full."));
         }
+        callback.onSuccess(null);
+    }
+
+    static int getLaneIndex(int scheduleId, int numLanes) {
+        return Math.abs(scheduleId % numLanes);
     }
 
     /**
@@ -441,70 +794,295 @@ public class MetricsServer {
     }
 
     public int getQueueAvailableCapacity() {
-        return this.numericQueue.remainingCapacity();
+        int capacity = 0;
+        for (NumericQueueConsumer lane : ingestLanes) {
+            capacity += lane.queue.remainingCapacity();
+        }
+        return capacity;
+    }
+
+    /**
+     * @return The number of queued but not yet written data points per ingest lane
+     */
+    public int[] getIngestLaneDepths() {
+        NumericQueueConsumer[] lanes = ingestLanes;
+        int[] depths = new int[lanes.length];
+        for (int i = 0; i < lanes.length; ++i) {
+            depths[i] = lanes[i].queue.size();
+        }
+        return depths;
+    }
+
+    /**
+     * @return The mean time in milliseconds per ingest lane between a data point being dispatched to storage and
+     * both of its writes having completed
+     */
+    public double[] getIngestLaneMeanLatencies() {
+        NumericQueueConsumer[] lanes = ingestLanes;
+        double[] latencies = new double[lanes.length];
+        for (int i = 0; i < lanes.length; ++i) {
+            latencies[i] = lanes[i].getMeanLatency();
+        }
+        return latencies;
+    }
+
+    /**
+     * @return The number of data points per ingest lane that have been rejected because the lane was full, or
+     * dropped because their writes kept failing
+     */
+    public long[] getIngestLaneRejections() {
+        NumericQueueConsumer[] lanes = ingestLanes;
+        long[] rejections = new long[lanes.length];
+        for (int i = 0; i < lanes.length; ++i) {
+            rejections[i] = lanes[i].rejected.get();
+        }
+        return rejections;
+    }
+
+    /**
+     * A test hook
+     *
+     * @return The number of data points waiting to be retried over all ingest lanes
+     */
+    int getPendingRetries() {
+        int pending = 0;
+        for (NumericQueueConsumer lane : ingestLanes) {
+            pending += lane.pendingRetries.get();
+        }
+        return pending;
     }
 
     private class NumericQueueConsumer extends Thread {
         private final MeasurementDataNumeric KILL_SIGNAL = new MeasurementDataNumeric(Long.MIN_VALUE, Integer.MIN_VALUE, Double.valueOf(Double.MIN_VALUE));
 
+        private final BlockingQueue<MeasurementDataNumeric> queue;
+
+        private final AtomicLong written = new AtomicLong();
+
+        private final AtomicLong totalLatency = new AtomicLong();
+
+        private final AtomicLong rejected = new AtomicLong();
+
+        // Signals that data points are waiting in retries
+        private final MeasurementDataNumeric RETRY_SIGNAL = new MeasurementDataNumeric(Long.MIN_VALUE,
+            Integer.MIN_VALUE, Double.valueOf(Double.MIN_VALUE));
+
+        // Data points whose retry delay has passed. Kept apart from the queue to carry their number of attempts.
+        private final Queue<InsertRetry> retries = new ConcurrentLinkedQueue<InsertRetry>();
+
+        // Data points waiting for their retry delay, so that they can be written out at shutdown
+        private final Set<InsertRetry> delayedRetries = Collections.newSetFromMap(
+            new ConcurrentHashMap<InsertRetry, Boolean>());
+
+        // Data points waiting for their retry delay or in retries
+        private final AtomicInteger pendingRetries = new AtomicInteger();
+
+        private final int capacity;
+
+        private final RawDataBatchWriter writer;
+
+        private final RawIndexTracker indexTracker;
+
+        public NumericQueueConsumer(int capacity, int numLanes) {
+            this.capacity = capacity;
+            queue = new ArrayBlockingQueue<MeasurementDataNumeric>(capacity);
+            writer = new RawDataBatchWriter(dao, configuration);
+            indexTracker = new RawIndexTracker(numLanes);
+        }
+
+        private double getMeanLatency() {
+            long count = written.get();
+            if (count == 0) {
+                return 0.0;
+            }
+            return (double) TimeUnit.NANOSECONDS.toMicros(totalLatency.get()) / count / 1000.0;
+        }
+
         @Override
         public void run() {
             while(true) {
                 final MeasurementDataNumeric data;
                 try {
-                    data = numericQueue.take();
+                    if (writer.isEmpty()) {
+                        data = queue.take();
+                    } else {
+                        // Wake up in time to write out partially filled batches
+                        data = queue.poll(configuration.getIngestFlushInterval(), TimeUnit.MILLISECONDS);
+                    }
                     if(data == KILL_SIGNAL) {
+                        // Don't wait for the retry delays, this is the last chance to write the data
+                        for (InsertRetry retry : delayedRetries) {
+                            if (delayedRetries.remove(retry)) {
+                                retries.add(retry);
+                            }
+                        }
+                        insertRetries();
+                        writer.flush();
                         return;
                     }
                 } catch (InterruptedException e) {
                     // We still keep getting interrupted.. we really need to die
+                    writer.flush();
                     return;
                 }
-                DateTime collectionTimeSlice = dateTimeService.getTimeSlice(new DateTime(data.getTimestamp()),
-                        configuration.getRawTimeSliceDuration());
-                Days days = Days.daysBetween(collectionTimeSlice, dateTimeService.now());
+                if (data != null && data != RETRY_SIGNAL) {
+                    insert(data, 1);
+                }
+                insertRetries();
+                writer.flushExpired();
+            }
+        }
 
-                if (days.isGreaterThan(rawDataAgeLimit)) {
-                    log.info(data + " is older than the raw data age limit of " + rawDataAgeLimit.getDays() +
-                            " days. It will not be stored.");
+        private void insertRetries() {
+            InsertRetry retry;
+            while ((retry = retries.poll()) != null) {
+                pendingRetries.decrementAndGet();
+                insert(retry.data, retry.attempt);
+            }
+        }
+
+        /**
+         * @param attempt The number of this attempt to write the data point, starting at 1
+         */
+        private void insert(final MeasurementDataNumeric data, final int attempt) {
+            final DateTime collectionTimeSlice = dateTimeService.getTimeSlice(new DateTime(data.getTimestamp()),
+                    configuration.getRawTimeSliceDuration());
+            DateTime now = dateTimeService.now();
+            Days days = Days.daysBetween(collectionTimeSlice, now);
+
+            if (days.isGreaterThan(rawDataAgeLimit)) {
+                log.info(data + " is older than the raw data age limit of " + rawDataAgeLimit.getDays() +
+                        " days. It will not be stored.");
+            } else {
+                final long dispatchTime = System.nanoTime();
+                ListenableFuture<ResultSet> rawFuture = writer.insertRawData(data);
+                ListenableFuture<List<ResultSet>> insertsFuture;
+                long currentTimeSlice = dateTimeService.getTimeSlice(now, configuration.getRawTimeSliceDuration())
+                    .getMillis();
+                if (indexTracker.isIndexed(collectionTimeSlice.getMillis(), currentTimeSlice, data.getScheduleId())) {
+                    insertsFuture = Futures.allAsList(rawFuture);
                 } else {
-                    StorageResultSetFuture rawFuture = dao.insertRawData(data);
-                    StorageResultSetFuture indexFuture = dao.updateIndex(IndexBucket.RAW, collectionTimeSlice.getMillis(),
-                            data.getScheduleId());
-                    ListenableFuture<List<ResultSet>> insertsFuture = Futures.successfulAsList(rawFuture, indexFuture);
-                    Futures.addCallback(insertsFuture, new FutureCallback<List<ResultSet>>() {
+                    ListenableFuture<ResultSet> indexFuture = writer.updateIndex(IndexBucket.RAW,
+                        collectionTimeSlice.getMillis(), data.getScheduleId());
+                    Futures.addCallback(indexFuture, new FutureCallback<ResultSet>() {
                         @Override
-                        public void onSuccess(List<ResultSet> result) {
+                        public void onSuccess(ResultSet result) {
+                            indexTracker.markIndexed(collectionTimeSlice.getMillis(), data.getScheduleId());
                         }
 
                         @Override
                         public void onFailure(Throwable t) {
-                            boolean offerSuccess = numericQueue.offer(data);
-                            if(!offerSuccess) {
-                                if (log.isDebugEnabled()) {
-                                    log.debug("An error occurred while inserting raw data", ThrowableUtil.getRootCause(t));
-                                } else {
-                                    log.warn("An error occurred while inserting raw data: " + ThrowableUtil.getRootMessage(t)
-                                    + ", data was: " + data);
-                                }
-                            }
+                            // The data point gets resubmitted below which will retry the index update
+                        }
+                    });
+                    // allAsList rather than successfulAsList so that a failure of either write triggers a retry
+                    insertsFuture = Futures.allAsList(rawFuture, indexFuture);
+                }
+                Futures.addCallback(insertsFuture, new FutureCallback<List<ResultSet>>() {
+                    @Override
+                    public void onSuccess(List<ResultSet> result) {
+                        totalLatency.addAndGet(System.nanoTime() - dispatchTime);
+                        written.incrementAndGet();
+                    }
+
+                    @Override
+                    public void onFailure(Throwable t) {
+                        retry(data, attempt, t);
+                    }
+                }, tasks);
+            }
+        }
+
+        /**
+         * Hands the data point back to this lane after a delay that grows with the number of failed attempts, so that
+         * an unavailable storage cluster is not hammered with the same writes. Gives up after
+         * {@link #MAX_INSERT_ATTEMPTS} attempts or if too many data points are already waiting to be retried.
+         */
+        private void retry(final MeasurementDataNumeric data, final int failedAttempt, Throwable t) {
+            if (failedAttempt >= MAX_INSERT_ATTEMPTS || pendingRetries.incrementAndGet() > capacity) {
+                if (failedAttempt < MAX_INSERT_ATTEMPTS) {
+                    pendingRetries.decrementAndGet();
+                }
+                drop(data, t);
+                return;
+            }
+            long delay = Math.min(INSERT_RETRY_DELAY << Math.min(failedAttempt - 1, 16), INSERT_RETRY_MAX_DELAY);
+            final InsertRetry retry = new InsertRetry(data, failedAttempt + 1);
+            delayedRetries.add(retry);
+            try {
+                insertRetries.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        // Unless shutdown already took it
+                        if (delayedRetries.remove(retry)) {
+                            retries.add(retry);
+                            // No need to wake up the lane if its queue is full, it is busy anyway
+                            queue.offer(RETRY_SIGNAL);
                         }
-                    }, tasks);
+                    }
+                }, delay, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // Shutting down
+                if (delayedRetries.remove(retry)) {
+                    pendingRetries.decrementAndGet();
+                    drop(data, t);
                 }
             }
         }
 
+        /**
+         * Drops the data points left to be retried once this lane and the retries are shut down, i.e., those whose
+         * writes failed again after the lane wrote out its retries.
+         *
+         * @return The number of dropped data points
+         */
+        private int dropDelayedRetries() {
+            int dropped = 0;
+            for (InsertRetry retry : delayedRetries) {
+                if (delayedRetries.remove(retry)) {
+                    ++dropped;
+                }
+            }
+            while (retries.poll() != null) {
+                ++dropped;
+            }
+            pendingRetries.addAndGet(-dropped);
+            rejected.addAndGet(dropped);
+            return dropped;
+        }
+
+        private void drop(MeasurementDataNumeric data, Throwable t) {
+            rejected.incrementAndGet();
+            if (log.isDebugEnabled()) {
+                log.debug("An error occurred while inserting raw data", ThrowableUtil.getRootCause(t));
+            } else {
+                log.warn("An error occurred while inserting raw data: " + ThrowableUtil.getRootMessage(t)
+                + ", data was: " + data);
+            }
+        }
+
         /**
          * Push KILL_SIGNAL to the processing queue
          */
         public void shutdown() {
             try {
-                numericQueue.put(KILL_SIGNAL);
+                queue.put(KILL_SIGNAL);
             } catch (InterruptedException e) {
-                log.warn("Could not push kill signal to the numericQueue. Possible data loss.");
+                log.warn("Could not push kill signal to the queue of " + getName() + ". Possible data loss.");
                 Thread.currentThread().interrupt();
             }
         }
     }
 
+    private static class InsertRetry {
+        final MeasurementDataNumeric data;
+
+        final int attempt;
+
+        InsertRetry(MeasurementDataNumeric data, int attempt) {
+            this.data = data;
+            this.attempt = attempt;
+        }
+    }
+
 }
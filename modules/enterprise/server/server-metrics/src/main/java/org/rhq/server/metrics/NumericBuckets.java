@@ -0,0 +1,137 @@
+/*
+ *
+ * RHQ Management Platform
+ * Copyright (C) 2005-2015 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *
+ */
+
+package org.rhq.server.metrics;
+
+import java.util.Arrays;
+
+/**
+ * A columnar alternative to {@link Buckets}. The avg, min, and max of each bucket are kept in primitive arrays that
+ * are allocated once up front, and data points are mapped to their bucket by arithmetic rather than by searching,
+ * so folding query results into buckets does not allocate anything per row or per bucket.
+ * <br/><br/>
+ * Bucket boundaries are the same as those of {@link Buckets}, i.e., the begin time of bucket i is
+ * <code>beginTime + i * interval</code>. Buckets without data have NaN for avg, min, and max.
+ */
+public class NumericBuckets {
+
+    private final long beginTime;
+
+    private final long interval;
+
+    private final double[] avg;
+
+    private final double[] min;
+
+    private final double[] max;
+
+    private final int[] count;
+
+    public NumericBuckets(long beginTime, long endTime, int numberOfBuckets) {
+        if (numberOfBuckets <= 0) {
+            throw new IllegalArgumentException("Number of buckets must be > 0");
+        }
+        this.beginTime = beginTime;
+        interval = (endTime - beginTime) / numberOfBuckets;
+        avg = new double[numberOfBuckets];
+        min = new double[numberOfBuckets];
+        max = new double[numberOfBuckets];
+        count = new int[numberOfBuckets];
+        Arrays.fill(avg, Double.NaN);
+        Arrays.fill(min, Double.NaN);
+        Arrays.fill(max, Double.NaN);
+    }
+
+    public void insert(long timestamp, double value, double min, double max) {
+        if (timestamp < beginTime || interval <= 0) {
+            return;
+        }
+        long index = (timestamp - beginTime) / interval;
+        if (index >= count.length) {
+            return;
+        }
+        int i = (int) index;
+        int n = ++count[i];
+        if (n == 1) {
+            avg[i] = value;
+            this.min[i] = min;
+            this.max[i] = max;
+        } else {
+            // Same incremental mean as ArithmeticMeanCalculator
+            avg[i] = avg[i] + (value - avg[i]) / n;
+            if (min < this.min[i]) {
+                this.min[i] = min;
+            }
+            if (max > this.max[i]) {
+                this.max[i] = max;
+            }
+        }
+    }
+
+    public int getNumDataPoints() {
+        return count.length;
+    }
+
+    public long getBeginTime() {
+        return beginTime;
+    }
+
+    public long getInterval() {
+        return interval;
+    }
+
+    public long getTimestamp(int index) {
+        return beginTime + interval * index;
+    }
+
+    /**
+     * @return The avg of each bucket. This is the backing array, not a copy.
+     */
+    public double[] getAvg() {
+        return avg;
+    }
+
+    /**
+     * @return The min of each bucket. This is the backing array, not a copy.
+     */
+    public double[] getMin() {
+        return min;
+    }
+
+    /**
+     * @return The max of each bucket. This is the backing array, not a copy.
+     */
+    public double[] getMax() {
+        return max;
+    }
+
+    /**
+     * @return The number of values inserted into each bucket. This is the backing array, not a copy.
+     */
+    public int[] getCount() {
+        return count;
+    }
+
+}
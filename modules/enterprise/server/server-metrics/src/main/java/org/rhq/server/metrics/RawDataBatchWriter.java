@@ -0,0 +1,189 @@
+/*
+ *
+ * RHQ Management Platform
+ * Copyright (C) 2005-2015 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *
+ */
+
+package org.rhq.server.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.ResultSet;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+import org.rhq.core.domain.measurement.MeasurementDataNumeric;
+import org.rhq.server.metrics.domain.IndexBucket;
+import org.rhq.server.metrics.domain.IndexEntry;
+
+/**
+ * Groups raw data inserts and index updates into unlogged batches, one for each. A report carries about one data
+ * point per schedule, so the batches span schedules and index partitions, otherwise they would hardly ever fill up.
+ * A batch is flushed when it reaches the configured size or when it has been pending for longer than the configured
+ * flush interval. The batches are bound to the prepared statements of {@link MetricsDAO}.
+ * <br/><br/>
+ * Instances are <strong>not</strong> thread safe. Each ingest lane in {@link MetricsServer} owns its own writer
+ * and is the only thread calling into it. The returned futures are completed on driver threads.
+ */
+class RawDataBatchWriter {
+
+    private final MetricsDAO dao;
+
+    private final StorageSession session;
+
+    private final MetricsConfiguration configuration;
+
+    private final PendingBatch<MeasurementDataNumeric> rawBatch = new PendingBatch<MeasurementDataNumeric>() {
+        @Override
+        BoundStatement bind(List<MeasurementDataNumeric> data) {
+            return dao.bindRawData(data);
+        }
+    };
+
+    private final PendingBatch<IndexEntry> indexBatch = new PendingBatch<IndexEntry>() {
+        @Override
+        BoundStatement bind(List<IndexEntry> entries) {
+            return dao.bindIndexEntries(entries);
+        }
+    };
+
+    public RawDataBatchWriter(MetricsDAO dao, MetricsConfiguration configuration) {
+        this.dao = dao;
+        this.session = dao.getStorageSession();
+        this.configuration = configuration;
+    }
+
+    public ListenableFuture<ResultSet> insertRawData(MeasurementDataNumeric data) {
+        return rawBatch.add(data);
+    }
+
+    public ListenableFuture<ResultSet> updateIndex(IndexBucket bucket, long timestamp, int scheduleId) {
+        return indexBatch.add(new IndexEntry(bucket, scheduleId % configuration.getIndexPartitions(), timestamp,
+            scheduleId));
+    }
+
+    /**
+     * Flushes the batches that have been pending for at least the configured flush interval.
+     */
+    public void flushExpired() {
+        long cutoff = System.currentTimeMillis() - configuration.getIngestFlushInterval();
+        rawBatch.flushIfCreatedBefore(cutoff);
+        indexBatch.flushIfCreatedBefore(cutoff);
+    }
+
+    /**
+     * Flushes all pending batches regardless of their size or age.
+     */
+    public void flush() {
+        rawBatch.flush();
+        indexBatch.flush();
+    }
+
+    public boolean isEmpty() {
+        return rawBatch.isEmpty() && indexBatch.isEmpty();
+    }
+
+    /**
+     * The number of rate limiter permits charged for a batch. A batch is cheaper for the coordinator than the same
+     * number of individual requests, but the storage nodes still have to apply every mutation so it is not free.
+     */
+    int getPermits(int statements) {
+        return 1 + (statements - 1) / configuration.getIngestStatementsPerPermit();
+    }
+
+    private abstract class PendingBatch<T> {
+
+        long createdTime;
+
+        List<T> items = new ArrayList<T>();
+
+        List<SettableFuture<ResultSet>> futures = new ArrayList<SettableFuture<ResultSet>>();
+
+        abstract BoundStatement bind(List<T> items);
+
+        ListenableFuture<ResultSet> add(T item) {
+            if (items.isEmpty()) {
+                createdTime = System.currentTimeMillis();
+            }
+            SettableFuture<ResultSet> future = SettableFuture.create();
+            items.add(item);
+            futures.add(future);
+            if (items.size() >= configuration.getIngestBatchSize()) {
+                flush();
+            }
+            return future;
+        }
+
+        boolean isEmpty() {
+            return items.isEmpty();
+        }
+
+        void flushIfCreatedBefore(long cutoff) {
+            if (!items.isEmpty() && createdTime <= cutoff) {
+                flush();
+            }
+        }
+
+        void flush() {
+            if (items.isEmpty()) {
+                return;
+            }
+            List<T> flushedItems = items;
+            final List<SettableFuture<ResultSet>> flushedFutures = futures;
+            items = new ArrayList<T>();
+            futures = new ArrayList<SettableFuture<ResultSet>>();
+
+            StorageResultSetFuture batchFuture;
+            try {
+                batchFuture = session.executeAsync(bind(flushedItems), getPermits(flushedItems.size()));
+            } catch (RuntimeException e) {
+                // e.g. the batch could not be prepared
+                failAll(flushedFutures, e);
+                return;
+            }
+            Futures.addCallback(batchFuture, new FutureCallback<ResultSet>() {
+                @Override
+                public void onSuccess(ResultSet resultSet) {
+                    for (SettableFuture<ResultSet> future : flushedFutures) {
+                        future.set(resultSet);
+                    }
+                }
+
+                @Override
+                public void onFailure(Throwable t) {
+                    failAll(flushedFutures, t);
+                }
+            });
+        }
+
+        private void failAll(List<SettableFuture<ResultSet>> batchFutures, Throwable t) {
+            for (SettableFuture<ResultSet> future : batchFutures) {
+                future.setException(t);
+            }
+        }
+    }
+
+}
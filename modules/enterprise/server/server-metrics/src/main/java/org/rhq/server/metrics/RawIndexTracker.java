@@ -0,0 +1,84 @@
+/*
+ *
+ * RHQ Management Platform
+ * Copyright (C) 2005-2015 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *
+ */
+
+package org.rhq.server.metrics;
+
+import java.util.BitSet;
+
+/**
+ * Keeps track of the schedules for which a raw index entry has already been successfully written in the current
+ * raw time slice so that subsequent data points for the same schedule and time slice can skip the index update.
+ * <br/><br/>
+ * Only the time slice that is currently in progress is tracked. Data for any other time slice, e.g., late data for
+ * the previous hour which might already have been aggregated and had its index entries deleted, is always indexed.
+ * Schedules are only marked once their index write has succeeded, so a failed write never suppresses a later one.
+ * <br/><br/>
+ * Each ingest lane only sees schedule ids that map to that lane, so the ids are stored divided by the number of
+ * lanes to keep the bit set compact.
+ */
+class RawIndexTracker {
+
+    private final int stride;
+
+    private long timeSlice = Long.MIN_VALUE;
+
+    private BitSet indexed = new BitSet();
+
+    /**
+     * @param stride The number of ingest lanes that schedule ids are partitioned across
+     */
+    public RawIndexTracker(int stride) {
+        this.stride = stride;
+    }
+
+    /**
+     * @param timeSlice The raw time slice of the data point
+     * @param currentTimeSlice The raw time slice that is currently in progress
+     * @param scheduleId The schedule id
+     * @return True if an index entry for the schedule has already been written in the current time slice
+     */
+    public synchronized boolean isIndexed(long timeSlice, long currentTimeSlice, int scheduleId) {
+        if (currentTimeSlice > this.timeSlice) {
+            this.timeSlice = currentTimeSlice;
+            indexed = new BitSet();
+        }
+        return timeSlice == this.timeSlice && scheduleId >= 0 && indexed.get(scheduleId / stride);
+    }
+
+    /**
+     * Records that the index entry for the schedule has been written. This is a no-op if the time slice is not the
+     * one currently tracked, e.g., when the write completes after the time slice has already advanced.
+     */
+    public synchronized void markIndexed(long timeSlice, int scheduleId) {
+        if (timeSlice == this.timeSlice && scheduleId >= 0) {
+            indexed.set(scheduleId / stride);
+        }
+    }
+
+    public synchronized int size() {
+        return indexed.cardinality();
+    }
+
+}
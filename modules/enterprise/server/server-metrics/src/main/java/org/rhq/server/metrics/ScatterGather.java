@@ -0,0 +1,200 @@
+/*
+ *
+ * RHQ Management Platform
+ * Copyright (C) 2005-2015 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *
+ */
+
+package org.rhq.server.metrics;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import com.datastax.driver.core.ResultSet;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.rhq.core.util.exception.ThrowableUtil;
+
+/**
+ * Runs one query per schedule with a bounded number of queries in flight and reduces each result set as soon as it
+ * arrives instead of collecting all of them first. This keeps large group queries from flooding the driver and the
+ * storage session's request limit, and the memory used is that of the reduced result rather than of all rows.
+ * <br/><br/>
+ * Reducer calls are serialized, so reducers do not need to be thread safe. They run on the given executor rather than
+ * on the driver's I/O threads, so a slow reducer does not hold up other queries. A result the executor rejects is
+ * dropped like that of a failed query. Once the deadline has passed, results that arrive late are dropped and the
+ * caller gets what has been reduced so far.
+ */
+class ScatterGather {
+
+    interface Query {
+        StorageResultSetFuture execute(int scheduleId);
+    }
+
+    interface Reducer {
+        void reduce(ResultSet resultSet);
+    }
+
+    private final Log log = LogFactory.getLog(ScatterGather.class);
+
+    private final int parallelism;
+
+    private final long timeout;
+
+    private final Executor reducerExecutor;
+
+    /**
+     * @param parallelism The maximum number of queries in flight
+     * @param timeout The time in milliseconds after which {@link #run(List, Query, Reducer)} returns
+     * @param reducerExecutor The executor the reducer is called on
+     */
+    public ScatterGather(int parallelism, long timeout, Executor reducerExecutor) {
+        this.parallelism = parallelism;
+        this.timeout = timeout;
+        this.reducerExecutor = reducerExecutor;
+    }
+
+    /**
+     * @return The number of schedules that are missing from the reduced result because their query failed, did not
+     * complete before the deadline, or was never started
+     * @throws InterruptedException If interrupted while waiting. The reducer will not be called anymore.
+     */
+    public int run(List<Integer> scheduleIds, Query query, Reducer reducer) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeout;
+        Run run = new Run(reducer, scheduleIds.size());
+        int reduced;
+        try {
+            int submitted = 0;
+            for (Integer scheduleId : scheduleIds) {
+                if (!run.permits.tryAcquire(Math.max(0, deadline - System.currentTimeMillis()),
+                    TimeUnit.MILLISECONDS)) {
+                    break;
+                }
+                ++submitted;
+                StorageResultSetFuture queryFuture;
+                try {
+                    queryFuture = query.execute(scheduleId);
+                } catch (RuntimeException e) {
+                    run.onFailure(scheduleId, e);
+                    continue;
+                }
+                Futures.addCallback(queryFuture, run.callback(scheduleId));
+            }
+            for (int i = submitted; i < scheduleIds.size(); ++i) {
+                run.finished.countDown();
+            }
+            run.finished.await(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+        } finally {
+            reduced = run.close();
+        }
+        return scheduleIds.size() - reduced;
+    }
+
+    private class Run {
+
+        final Reducer reducer;
+
+        final Semaphore permits = new Semaphore(parallelism);
+
+        final CountDownLatch finished;
+
+        // Guarded by this
+        boolean closed;
+
+        // Guarded by this
+        int reduced;
+
+        Run(Reducer reducer, int numSchedules) {
+            this.reducer = reducer;
+            finished = new CountDownLatch(numSchedules);
+        }
+
+        /**
+         * The callback runs on the driver's I/O thread and only hands the result set off to the reducer executor
+         */
+        FutureCallback<ResultSet> callback(final int scheduleId) {
+            return new FutureCallback<ResultSet>() {
+                @Override
+                public void onSuccess(final ResultSet resultSet) {
+                    try {
+                        reducerExecutor.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                reduce(scheduleId, resultSet);
+                            }
+                        });
+                    } catch (RejectedExecutionException e) {
+                        log.warn("Dropping the query results for schedule id " + scheduleId + ", the reducers are " +
+                            "overloaded or shut down");
+                        Run.this.onFailure(scheduleId, e);
+                    }
+                }
+
+                @Override
+                public void onFailure(Throwable t) {
+                    Run.this.onFailure(scheduleId, t);
+                }
+            };
+        }
+
+        void reduce(int scheduleId, ResultSet resultSet) {
+            try {
+                synchronized (this) {
+                    if (!closed) {
+                        reducer.reduce(resultSet);
+                        ++reduced;
+                    }
+                }
+            } catch (RuntimeException e) {
+                log.warn("Failed to process query results for schedule id " + scheduleId + ": " +
+                    ThrowableUtil.getRootMessage(e));
+            } finally {
+                permits.release();
+                finished.countDown();
+            }
+        }
+
+        void onFailure(int scheduleId, Throwable t) {
+            if (log.isDebugEnabled()) {
+                log.debug("Query for schedule id " + scheduleId + " failed: " + ThrowableUtil.getRootMessage(t));
+            }
+            permits.release();
+            finished.countDown();
+        }
+
+        /**
+         * @return The number of result sets that have been reduced
+         */
+        synchronized int close() {
+            closed = true;
+            return reduced;
+        }
+    }
+
+}
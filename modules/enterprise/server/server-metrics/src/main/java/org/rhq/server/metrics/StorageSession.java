@@ -188,6 +188,16 @@ public class StorageSession implements Host.StateListener {
         return new StorageResultSetFuture(future, this);
     }
 
+    /**
+     * Executes the query after acquiring the specified number of permits. This is intended for batches which cost
+     * more than a single statement but less than the sum of the individual statements.
+     */
+    public StorageResultSetFuture executeAsync(Query query, int numPermits) {
+        permits.acquire(numPermits);
+        ResultSetFuture future = wrappedSession.executeAsync(query);
+        return new StorageResultSetFuture(future, this);
+    }
+
     public PreparedStatement prepare(String query) {
         permits.acquire();
         return wrappedSession.prepare(query);
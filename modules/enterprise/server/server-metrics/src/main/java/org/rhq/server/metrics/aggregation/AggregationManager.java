@@ -51,6 +51,14 @@ public class AggregationManager {
         }
     };
 
+    /**
+     * Receives the 1 hour aggregates computed by a run, ordered by schedule id and time. This includes the aggregates
+     * that were computed and persisted before a run was aborted.
+     */
+    public static interface OneHourDataListener {
+        void onFinish(Set<AggregateNumericMetric> oneHourData);
+    }
+
     private final Log log = LogFactory.getLog(AggregationManager.class);
 
     private MetricsDAO dao;
@@ -69,6 +77,8 @@ public class AggregationManager {
 
     private ThreadPoolExecutor threadPool;
 
+    private OneHourDataListener oneHourDataListener;
+
     public AggregationManager(MetricsDAO dao, DateTimeService dtService, MetricsConfiguration configuration) {
 
         this.dao = dao;
@@ -108,6 +118,10 @@ public class AggregationManager {
         this.parallelism = parallelism;
     }
 
+    public void setOneHourDataListener(OneHourDataListener oneHourDataListener) {
+        this.oneHourDataListener = oneHourDataListener;
+    }
+
     public int getNumWorkers() {
         return threadPool.getMaximumPoolSize();
     }
@@ -136,10 +150,10 @@ public class AggregationManager {
         int num1Hour = 0;
         int num6Hour = 0;
         int num24Hour = 0;
+        final Set<AggregateNumericMetric> oneHourData = new ConcurrentSkipListSet<AggregateNumericMetric>(
+            AGGREGATE_COMPARATOR);
         try {
             PersistFunctions persistFunctions = new PersistFunctions(dao, dtService);
-            final Set<AggregateNumericMetric> oneHourData = new ConcurrentSkipListSet<AggregateNumericMetric>(
-                AGGREGATE_COMPARATOR);
             DateTime endTime = dtService.currentHour();
             DateTime end = endTime;
             // We set the start time to the retention period minus 1 hour, or 6 days and 23
@@ -177,6 +191,9 @@ public class AggregationManager {
             totalAggregationTime.addAndGet(stopwatch.elapsed(TimeUnit.MILLISECONDS));
             log.info("Finished aggregation of {\"raw schedules\": " + num1Hour + ", \"1 hour schedules\": " + num6Hour +
                 ", \"6 hour schedules\": " + num24Hour + "} in " + stopwatch.elapsed(TimeUnit.MILLISECONDS) + " ms");
+            if (oneHourDataListener != null) {
+                oneHourDataListener.onFinish(oneHourData);
+            }
         }
     }
 
@@ -0,0 +1,223 @@
+/*
+ *
+ * RHQ Management Platform
+ * Copyright (C) 2005-2015 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *
+ */
+
+package org.rhq.server.metrics.domain;
+
+import java.nio.ByteBuffer;
+
+import org.rhq.server.metrics.ArithmeticMeanCalculator;
+
+/**
+ * The 1 hour aggregates of a single schedule over a sliding window of hourly slots. This is what baselines are
+ * computed from, so keeping it up to date as 1 hour aggregates are computed allows baselines to be calculated
+ * without range scans of the aggregate_metrics table.
+ * <br/><br/>
+ * Each slot holds exactly one 1 hour aggregate. Adding an aggregate for an hour that is already present replaces the
+ * previous value, which makes updates idempotent when an hour gets re-aggregated, e.g., because of late data.
+ * <br/><br/>
+ * The state also records the time since which it has seen every 1 hour aggregate, see {@link #getCoveredSince()}.
+ * A state that was built up incrementally only covers the time since it was created, whereas a state seeded from
+ * a range scan covers the start of the scan.
+ */
+public class BaselineState {
+
+    private static final byte VERSION = 1;
+
+    private static final long HOUR = 60 * 60 * 1000L;
+
+    private final int numSlots;
+
+    private final boolean[] present;
+
+    private final double[] avgs;
+
+    private final double[] mins;
+
+    private final double[] maxs;
+
+    /** The hour, i.e., timestamp / HOUR, of the most recent slot */
+    private long newestHour = Long.MIN_VALUE;
+
+    private long coveredSince;
+
+    /**
+     * @param numSlots The number of hourly slots, i.e., the width of the window in hours
+     * @param coveredSince The time since which all 1 hour aggregates of the schedule will be added to this state
+     */
+    public BaselineState(int numSlots, long coveredSince) {
+        this.numSlots = numSlots;
+        this.coveredSince = coveredSince;
+        present = new boolean[numSlots];
+        avgs = new double[numSlots];
+        mins = new double[numSlots];
+        maxs = new double[numSlots];
+    }
+
+    public long getCoveredSince() {
+        return coveredSince;
+    }
+
+    /**
+     * @return The start of the oldest slot still in the window
+     */
+    public long getWindowStart() {
+        if (newestHour == Long.MIN_VALUE) {
+            return coveredSince;
+        }
+        return (newestHour - numSlots + 1) * HOUR;
+    }
+
+    /**
+     * @return True if the state has all of the data needed to compute a baseline starting at the given time
+     */
+    public boolean covers(long startTime) {
+        return coveredSince <= startTime && getWindowStart() <= startTime;
+    }
+
+    public void add(AggregateNumericMetric metric) {
+        add(metric.getTimestamp(), metric.getAvg(), metric.getMin(), metric.getMax());
+    }
+
+    public void add(long timestamp, double avg, double min, double max) {
+        long hour = timestamp / HOUR;
+        if (newestHour == Long.MIN_VALUE) {
+            newestHour = hour;
+        } else if (hour > newestHour) {
+            long advance = Math.min(hour - newestHour, numSlots);
+            for (long h = hour - advance + 1; h <= hour; ++h) {
+                present[index(h)] = false;
+            }
+            newestHour = hour;
+        } else if (hour <= newestHour - numSlots) {
+            // Older than the window
+            return;
+        }
+        int i = index(hour);
+        present[i] = true;
+        avgs[i] = avg;
+        mins[i] = min;
+        maxs[i] = max;
+    }
+
+    /**
+     * Computes the baseline values of the slots that fall into the given time range.
+     *
+     * @return The mean, min, and max as a 1 hour aggregate with the timestamp set to startTime or null if there is
+     * no data in the range
+     */
+    public AggregateNumericMetric summarize(int scheduleId, long startTime, long endTime) {
+        if (newestHour == Long.MIN_VALUE) {
+            return null;
+        }
+        long first = Math.max((startTime + HOUR - 1) / HOUR, newestHour - numSlots + 1);
+        long last = Math.min((endTime - 1) / HOUR, newestHour);
+
+        ArithmeticMeanCalculator mean = new ArithmeticMeanCalculator();
+        double min = Double.NaN;
+        double max = Double.NaN;
+        boolean empty = true;
+        for (long hour = first; hour <= last; ++hour) {
+            int i = index(hour);
+            if (!present[i]) {
+                continue;
+            }
+            if (empty) {
+                min = mins[i];
+                max = maxs[i];
+                empty = false;
+            }
+            mean.add(avgs[i]);
+            if (mins[i] < min) {
+                min = mins[i];
+            }
+            if (maxs[i] > max) {
+                max = maxs[i];
+            }
+        }
+        if (empty) {
+            return null;
+        }
+        return new AggregateNumericMetric(scheduleId, Bucket.ONE_HOUR, mean.getArithmeticMean(), min, max, startTime);
+    }
+
+    /**
+     * Serializes the state. Only slots that hold data are written, each as its hour offset from the newest slot
+     * followed by avg, min, and max.
+     */
+    public ByteBuffer toBytes() {
+        int count = 0;
+        for (boolean p : present) {
+            if (p) {
+                ++count;
+            }
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(1 + 4 + 8 + 8 + 4 + count * (2 + 3 * 8));
+        buffer.put(VERSION);
+        buffer.putInt(numSlots);
+        buffer.putLong(coveredSince);
+        buffer.putLong(newestHour);
+        buffer.putInt(count);
+        if (count > 0) {
+            for (int offset = 0; offset < numSlots; ++offset) {
+                int i = index(newestHour - offset);
+                if (present[i]) {
+                    buffer.putShort((short) offset);
+                    buffer.putDouble(avgs[i]);
+                    buffer.putDouble(mins[i]);
+                    buffer.putDouble(maxs[i]);
+                }
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * @return The deserialized state or null if the bytes were written by a different version or for a different
+     * number of slots, in which case the state needs to be rebuilt
+     */
+    public static BaselineState fromBytes(ByteBuffer bytes, int numSlots) {
+        ByteBuffer buffer = bytes.duplicate();
+        if (buffer.remaining() < 1 + 4 + 8 + 8 + 4 || buffer.get() != VERSION || buffer.getInt() != numSlots) {
+            return null;
+        }
+        BaselineState state = new BaselineState(numSlots, buffer.getLong());
+        state.newestHour = buffer.getLong();
+        int count = buffer.getInt();
+        for (int n = 0; n < count; ++n) {
+            int i = state.index(state.newestHour - buffer.getShort());
+            state.present[i] = true;
+            state.avgs[i] = buffer.getDouble();
+            state.mins[i] = buffer.getDouble();
+            state.maxs[i] = buffer.getDouble();
+        }
+        return state;
+    }
+
+    private int index(long hour) {
+        return (int) (((hour % numSlots) + numSlots) % numSlots);
+    }
+
+}
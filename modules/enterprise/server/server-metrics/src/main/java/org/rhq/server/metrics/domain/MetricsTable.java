@@ -29,7 +29,8 @@ public enum MetricsTable {
 
     INDEX("metrics_idx"),
     RAW("raw_metrics"),
-    AGGREGATE("aggregate_metrics");
+    AGGREGATE("aggregate_metrics"),
+    BASELINE_STATE("baseline_state");
 
     private final String tableName;
 
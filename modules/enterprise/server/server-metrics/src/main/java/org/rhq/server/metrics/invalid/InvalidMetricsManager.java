@@ -13,6 +13,7 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.joda.time.DateTime;
 
+import org.rhq.server.metrics.AggregateCache;
 import org.rhq.server.metrics.ArithmeticMeanCalculator;
 import org.rhq.server.metrics.DateTimeService;
 import org.rhq.server.metrics.MetricsConfiguration;
@@ -64,6 +65,8 @@ public class InvalidMetricsManager {
 
     private boolean isShutdown;
 
+    private AggregateCache aggregateCache;
+
     public InvalidMetricsManager(DateTimeService dateTimeService, MetricsDAO dao) {
         this(dateTimeService, dao, Integer.parseInt(System.getProperty("rhq.metrics.invalid.poller.initial-delay",
                 "300")), Integer.parseInt(System.getProperty("rhq.metrics.invalid.poller.period", "300")));
@@ -79,6 +82,14 @@ public class InvalidMetricsManager {
         executor.scheduleAtFixedRate(new InvalidMetricRunnable(), pollerDelay, pollerPeriod, TimeUnit.SECONDS);
     }
 
+    /**
+     * @param aggregateCache The cache from which the aggregates of a schedule are discarded after its invalid
+     * metrics have been processed
+     */
+    public void setAggregateCache(AggregateCache aggregateCache) {
+        this.aggregateCache = aggregateCache;
+    }
+
     /**
      * This is a test hook.
      *
@@ -168,6 +179,12 @@ public class InvalidMetricsManager {
                     handleInvalidMetric(current);
                 } catch (Exception e) {
                     log.warn("An unexpected occurred while processing invalid metric " + current, e);
+                } finally {
+                    if (aggregateCache != null) {
+                        // Any of the 1 hour, 6 hour, and 24 hour metrics of the day may have changed
+                        aggregateCache.invalidate(current.metric.getScheduleId(), current.day.getMillis(),
+                            current.day.plusDays(1).getMillis());
+                    }
                 }
             }
             current = null;
@@ -359,9 +376,17 @@ public class InvalidMetricsManager {
     }
 
     public boolean isInvalidMetric(AggregateNumericMetric metric) {
-        return (metric.getMax() < metric.getAvg() && Math.abs(metric.getMax() - metric.getAvg()) > THRESHOLD) ||
-            (metric.getMin() > metric.getAvg() && Math.abs(metric.getMin() - metric.getAvg()) > THRESHOLD) ||
-            (Double.isNaN(metric.getAvg()) || Double.isNaN(metric.getMin()) || Double.isNaN(metric.getMin()));
+        return isInvalidMetric(metric.getAvg(), metric.getMin(), metric.getMax());
+    }
+
+    /**
+     * Same as {@link #isInvalidMetric(AggregateNumericMetric)} for callers that read aggregates straight from
+     * result set rows and do not want to create a metric object for every row.
+     */
+    public boolean isInvalidMetric(double avg, double min, double max) {
+        return (max < avg && Math.abs(max - avg) > THRESHOLD) ||
+            (min > avg && Math.abs(min - avg) > THRESHOLD) ||
+            (Double.isNaN(avg) || Double.isNaN(min) || Double.isNaN(min));
     }
 
     /**
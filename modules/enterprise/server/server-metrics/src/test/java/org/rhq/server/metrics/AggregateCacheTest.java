@@ -0,0 +1,69 @@
+/*
+ *
+ * RHQ Management Platform
+ * Copyright (C) 2005-2015 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *
+ */
+
+package org.rhq.server.metrics;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+
+import org.testng.annotations.Test;
+
+import org.rhq.server.metrics.domain.Bucket;
+
+public class AggregateCacheTest {
+
+    private static final long HOUR = 60 * 60 * 1000L;
+
+    private static final long DAY = 24 * HOUR;
+
+    @Test
+    public void onlyBlocksWhoseLastPeriodIsDueAreClosed() {
+        long blockEnd = 100 * DAY;
+
+        assertEquals(AggregateCache.getClosedBlocksEnd(Bucket.ONE_HOUR, blockEnd + HOUR - 1), blockEnd - DAY);
+        assertEquals(AggregateCache.getClosedBlocksEnd(Bucket.ONE_HOUR, blockEnd + HOUR), blockEnd);
+    }
+
+    @Test
+    public void invalidateOverlappingBlocksOfAllBuckets() {
+        AggregateCache cache = new AggregateCache(100, 600);
+        AggregateCache.Summary summary = new AggregateCache.Summary(1, 1.0, 1.0, 1.0);
+        long sixHourBlock = AggregateCache.getBlockSize(Bucket.SIX_HOUR) * 10;
+
+        cache.put(1, Bucket.ONE_HOUR, sixHourBlock, summary);
+        cache.put(1, Bucket.ONE_HOUR, sixHourBlock + DAY, summary);
+        cache.put(1, Bucket.SIX_HOUR, sixHourBlock, summary);
+        cache.put(2, Bucket.ONE_HOUR, sixHourBlock, summary);
+
+        cache.invalidate(1, sixHourBlock + 2 * HOUR, sixHourBlock + 3 * HOUR);
+
+        assertNull(cache.get(1, Bucket.ONE_HOUR, sixHourBlock));
+        assertNull(cache.get(1, Bucket.SIX_HOUR, sixHourBlock));
+        assertNotNull(cache.get(1, Bucket.ONE_HOUR, sixHourBlock + DAY), "A block outside of the range was removed");
+        assertNotNull(cache.get(2, Bucket.ONE_HOUR, sixHourBlock), "A block of another schedule was removed");
+    }
+
+}
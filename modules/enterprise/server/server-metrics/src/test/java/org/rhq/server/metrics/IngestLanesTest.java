@@ -0,0 +1,299 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2015 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package org.rhq.server.metrics;
+
+import static java.util.Arrays.asList;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.Query;
+import com.datastax.driver.core.ResultSet;
+import com.google.common.util.concurrent.FutureCallback;
+
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import org.rhq.core.domain.measurement.MeasurementDataNumeric;
+import org.rhq.server.metrics.domain.IndexEntry;
+
+/**
+ * Tests the routing, backpressure, statistics and shutdown of the ingest lanes of {@link MetricsServer} with a mocked
+ * storage session.
+ */
+public class IngestLanesTest {
+
+    private MetricsConfiguration configuration;
+
+    private MetricsDAO dao;
+
+    private DateTimeService dateTimeService;
+
+    private MetricsServer metricsServer;
+
+    /**
+     * Released to let the lane consumers, which block on their first data point, carry on.
+     */
+    private CountDownLatch consumersReleased;
+
+    private CountDownLatch consumersBlocked;
+
+    /**
+     * The number of writes to fail, starting with the first one
+     */
+    private AtomicInteger writesToFail;
+
+    private volatile boolean failAllWrites;
+
+    private AtomicInteger writes;
+
+    @BeforeMethod
+    public void setUp() {
+        configuration = new MetricsConfiguration().setIngestBatchSize(1).setIndexPartitions(10);
+        dao = mock(MetricsDAO.class);
+        StorageSession session = mock(StorageSession.class);
+        BoundStatement statement = mock(BoundStatement.class);
+        when(dao.getStorageSession()).thenReturn(session);
+        when(dao.bindRawData(anyListOf(MeasurementDataNumeric.class))).thenReturn(statement);
+        when(dao.bindIndexEntries(anyListOf(IndexEntry.class))).thenReturn(statement);
+        writesToFail = new AtomicInteger();
+        writes = new AtomicInteger();
+        when(session.executeAsync(any(Query.class), anyInt())).thenAnswer(new Answer<StorageResultSetFuture>() {
+            @Override
+            public StorageResultSetFuture answer(InvocationOnMock invocation) throws Exception {
+                writes.incrementAndGet();
+                return completedFuture(failAllWrites || writesToFail.getAndDecrement() > 0);
+            }
+        });
+
+        consumersReleased = new CountDownLatch(0);
+        consumersBlocked = new CountDownLatch(0);
+        final DateTimeService realDateTimeService = new DateTimeService();
+        realDateTimeService.setConfiguration(configuration);
+        dateTimeService = mock(DateTimeService.class);
+        when(dateTimeService.now()).thenAnswer(new Answer<DateTime>() {
+            @Override
+            public DateTime answer(InvocationOnMock invocation) {
+                return realDateTimeService.now();
+            }
+        });
+        when(dateTimeService.getTimeSlice(any(DateTime.class), any(Duration.class))).thenAnswer(
+            new Answer<DateTime>() {
+                @Override
+                public DateTime answer(InvocationOnMock invocation) throws InterruptedException {
+                    consumersBlocked.countDown();
+                    consumersReleased.await();
+                    return realDateTimeService.getTimeSlice((DateTime) invocation.getArguments()[0],
+                        (Duration) invocation.getArguments()[1]);
+                }
+            });
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        consumersReleased.countDown();
+        if (metricsServer != null) {
+            metricsServer.shutdown();
+        }
+    }
+
+    @Test
+    public void routeBySchedule() {
+        assertEquals(MetricsServer.getLaneIndex(0, 4), 0);
+        assertEquals(MetricsServer.getLaneIndex(5, 4), 1);
+        assertEquals(MetricsServer.getLaneIndex(7, 4), 3);
+        assertEquals(MetricsServer.getLaneIndex(-5, 4), 1);
+        assertEquals(MetricsServer.getLaneIndex(Integer.MIN_VALUE, 3), 2);
+        assertEquals(MetricsServer.getLaneIndex(42, 1), 0);
+    }
+
+    @Test
+    public void applyBackpressurePerLane() throws Exception {
+        blockConsumers(2);
+        startServer(2, 4);
+
+        // each consumer takes one data point and blocks on it
+        assertNull(add(data(0), data(1)));
+        assertTrue(consumersBlocked.await(10, TimeUnit.SECONDS), "The lane consumers did not start");
+
+        // fills up lane 0, the data of a schedule always goes to the same lane
+        assertNull(add(data(2), data(4)));
+        assertEquals(metricsServer.getIngestLaneDepths(), new int[] { 2, 0 });
+
+        Throwable failure = add(data(6));
+        assertNotNull(failure, "Expected a full lane to reject the report");
+        assertTrue(failure.getMessage().contains("numericQueueConsumer-0"), failure.getMessage());
+        assertEquals(metricsServer.getIngestLaneRejections(), new long[] { 1, 0 });
+
+        // a report is rejected as a whole, nothing gets queued on the other lane
+        assertNotNull(add(data(3), data(8)));
+        assertEquals(metricsServer.getIngestLaneDepths(), new int[] { 2, 0 });
+        assertEquals(metricsServer.getIngestLaneRejections(), new long[] { 2, 0 });
+
+        // the full lane does not hold back the other one
+        assertNull(add(data(3), data(5)));
+        assertEquals(metricsServer.getIngestLaneDepths(), new int[] { 2, 2 });
+        assertEquals(metricsServer.getQueueAvailableCapacity(), 0);
+    }
+
+    @Test
+    public void recordLatencyPerLane() throws Exception {
+        startServer(2, 100);
+
+        assertEquals(metricsServer.getIngestLaneMeanLatencies(), new double[] { 0.0, 0.0 });
+
+        assertNull(add(data(1), data(3)));
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (metricsServer.getIngestLaneMeanLatencies()[1] == 0.0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(metricsServer.getIngestLaneMeanLatencies()[1] > 0.0, "Expected the latency of lane 1");
+        assertEquals(metricsServer.getIngestLaneMeanLatencies()[0], 0.0, "Nothing was written by lane 0");
+        assertEquals(metricsServer.getIngestLaneDepths(), new int[] { 0, 0 });
+        assertEquals(metricsServer.getIngestLaneRejections(), new long[] { 0, 0 });
+    }
+
+    @Test
+    public void writeDelayedRetriesAtShutdown() throws Exception {
+        // fails the raw data write, the index update goes through
+        writesToFail.set(1);
+        startServer(1, 100);
+
+        assertNull(add(data(1)));
+        waitFor(1, "Expected the failed write to be retried");
+
+        MetricsServer server = metricsServer;
+        metricsServer = null;
+        server.shutdown();
+
+        // the index update went through the first time, only the raw data is written again
+        assertTrue(writes.get() >= 3, "Expected the retry to be written without waiting for its delay");
+        assertEquals(server.getPendingRetries(), 0);
+        assertEquals(server.getIngestLaneRejections(), new long[] { 0 });
+    }
+
+    @Test
+    public void countRetriesLostAtShutdown() throws Exception {
+        failAllWrites = true;
+        startServer(1, 100);
+
+        assertNull(add(data(1)));
+        waitFor(1, "Expected the failed write to be retried");
+
+        MetricsServer server = metricsServer;
+        metricsServer = null;
+        server.shutdown();
+
+        // the retry written at shutdown fails too and is given up
+        long deadline = System.currentTimeMillis() + 10000;
+        while (server.getIngestLaneRejections()[0] == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(server.getIngestLaneRejections(), new long[] { 1 });
+        assertEquals(server.getPendingRetries(), 0);
+    }
+
+    private void waitFor(int pendingRetries, String message) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (metricsServer.getPendingRetries() != pendingRetries && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(metricsServer.getPendingRetries(), pendingRetries, message);
+    }
+
+    private void blockConsumers(int consumers) {
+        consumersReleased = new CountDownLatch(1);
+        consumersBlocked = new CountDownLatch(consumers);
+    }
+
+    private void startServer(int lanes, int queueSize) {
+        metricsServer = new MetricsServer();
+        metricsServer.setConfiguration(configuration);
+        metricsServer.setDAO(dao);
+        metricsServer.setDateTimeService(dateTimeService);
+        metricsServer.setIngestLanes(lanes);
+        metricsServer.setQueueSize(queueSize);
+        metricsServer.init();
+    }
+
+    /**
+     * @return the failure reported to the callback, null on success
+     */
+    private Throwable add(MeasurementDataNumeric... data) {
+        final AtomicReference<Throwable> result = new AtomicReference<Throwable>();
+        Set<MeasurementDataNumeric> dataSet = new HashSet<MeasurementDataNumeric>(asList(data));
+        metricsServer.addNumericData(dataSet, new FutureCallback<Void>() {
+            @Override
+            public void onSuccess(Void ignored) {
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                result.set(t);
+            }
+        });
+        return result.get();
+    }
+
+    private static MeasurementDataNumeric data(int scheduleId) {
+        return new MeasurementDataNumeric(System.currentTimeMillis(), scheduleId, 1.0);
+    }
+
+    private static StorageResultSetFuture completedFuture(boolean failed) throws Exception {
+        StorageResultSetFuture future = mock(StorageResultSetFuture.class);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                ((Executor) invocation.getArguments()[1]).execute((Runnable) invocation.getArguments()[0]);
+                return null;
+            }
+        }).when(future).addListener(any(Runnable.class), any(Executor.class));
+        when(future.isDone()).thenReturn(true);
+        if (failed) {
+            // like the driver future, fails with the cause itself
+            when(future.get()).thenThrow(new RuntimeException("write timeout"));
+        } else {
+            when(future.get()).thenReturn(mock(ResultSet.class));
+        }
+        return future;
+    }
+}
@@ -578,6 +578,43 @@ public class MetricsServerTest extends MetricsTest {
             TEST_PRECISION);
     }
 
+    @Test(dataProvider = "testDates")
+    public void getSummary1HourAggregateWithCacheDisabled(DateTime testNow) throws Exception {
+        long aggregateCacheSize = configuration.getAggregateCacheSize();
+        configuration.setAggregateCacheSize(0);
+        try {
+            initServer(testNow);
+
+            DateTime beginTime = testNow.minusDays(11);
+            DateTime endTime = testNow;
+
+            Buckets buckets = new Buckets(beginTime, endTime);
+            DateTime bucket0Time = new DateTime(buckets.get(0).getStartTime());
+            DateTime bucket59Time = new DateTime(buckets.get(59).getStartTime());
+
+            int scheduleId = 123;
+            List<AggregateNumericMetric> metrics = asList(
+                new AggregateNumericMetric(scheduleId, Bucket.ONE_HOUR, 2.0, 1.0, 3.0, bucket0Time.getMillis()),
+                new AggregateNumericMetric(scheduleId, Bucket.ONE_HOUR, 5.0, 2.0, 9.0, bucket59Time.getMillis())
+            );
+            for (AggregateNumericMetric metric : metrics) {
+                dao.insert1HourData(metric).get();
+            }
+
+            AggregateNumericMetric actual = metricsServer.getSummaryAggregate(scheduleId, beginTime.getMillis(),
+                endTime.getMillis());
+            AggregateNumericMetric expected = new AggregateNumericMetric(0, Bucket.ONE_HOUR, divide(2.0 + 5.0, 2),
+                1.0, 9.0, beginTime.getMillis());
+
+            assertPropertiesMatch("Failed to get resource summary aggregate with the aggregate cache disabled",
+                expected, actual, TEST_PRECISION);
+            assertEquals(metricsServer.getAggregateCache().size(), 0,
+                "Nothing should be cached when the cache is disabled");
+        } finally {
+            configuration.setAggregateCacheSize(aggregateCacheSize);
+        }
+    }
+
     @Test(dataProvider = "testDates")
     public void getSummaryAggregateForGroup(DateTime testNow) throws Exception {
         initServer(testNow);
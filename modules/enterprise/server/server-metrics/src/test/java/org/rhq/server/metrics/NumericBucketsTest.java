@@ -0,0 +1,72 @@
+/*
+ *
+ * RHQ Management Platform
+ * Copyright (C) 2005-2015 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *
+ */
+
+package org.rhq.server.metrics;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import org.testng.annotations.Test;
+
+public class NumericBucketsTest {
+
+    private static final double TEST_PRECISION = Math.pow(10, -10);
+
+    @Test
+    public void matchBuckets() {
+        long beginTime = 1000;
+        long endTime = 1000 + 60 * 7 + 5;
+        Buckets buckets = new Buckets(beginTime, endTime, 60);
+        NumericBuckets numericBuckets = new NumericBuckets(beginTime, endTime, 60);
+
+        for (long timestamp = beginTime - 10; timestamp < endTime + 10; timestamp += 3) {
+            double value = (timestamp % 17) * 1.5;
+            buckets.insert(timestamp, value, value - 1, value + 1);
+            numericBuckets.insert(timestamp, value, value - 1, value + 1);
+        }
+
+        assertEquals(numericBuckets.getInterval(), buckets.getInterval());
+        for (int i = 0; i < buckets.getNumDataPoints(); ++i) {
+            Buckets.Bucket bucket = buckets.get(i);
+            assertEquals(numericBuckets.getTimestamp(i), bucket.getStartTime());
+            assertEquals(numericBuckets.getAvg()[i], bucket.getAvg(), TEST_PRECISION, "avg of bucket " + i);
+            assertEquals(numericBuckets.getMin()[i], bucket.getMin(), TEST_PRECISION, "min of bucket " + i);
+            assertEquals(numericBuckets.getMax()[i], bucket.getMax(), TEST_PRECISION, "max of bucket " + i);
+        }
+    }
+
+    @Test
+    public void emptyBucketsAreNaN() {
+        NumericBuckets buckets = new NumericBuckets(0, 100, 10);
+        buckets.insert(15, 2.0, 1.0, 3.0);
+
+        assertEquals(buckets.getCount()[1], 1);
+        assertEquals(buckets.getAvg()[1], 2.0, TEST_PRECISION);
+        assertTrue(Double.isNaN(buckets.getAvg()[0]));
+        assertTrue(Double.isNaN(buckets.getMin()[2]));
+        assertTrue(Double.isNaN(buckets.getMax()[9]));
+    }
+
+}
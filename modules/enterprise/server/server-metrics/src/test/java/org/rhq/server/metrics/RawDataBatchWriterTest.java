@@ -0,0 +1,247 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2015 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package org.rhq.server.metrics;
+
+import static java.util.Arrays.asList;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.Query;
+import com.datastax.driver.core.ResultSet;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import org.rhq.core.domain.measurement.MeasurementDataNumeric;
+import org.rhq.server.metrics.domain.IndexBucket;
+import org.rhq.server.metrics.domain.IndexEntry;
+
+public class RawDataBatchWriterTest {
+
+    private static final long HOUR = 3600000L;
+
+    private MetricsConfiguration configuration;
+
+    private MetricsDAO dao;
+
+    private StorageSession session;
+
+    private BoundStatement statement;
+
+    private SettableFuture<ResultSet> batchResult;
+
+    private RawDataBatchWriter writer;
+
+    @BeforeMethod
+    public void setUp() {
+        configuration = new MetricsConfiguration().setIngestBatchSize(3).setIngestFlushInterval(HOUR)
+            .setIngestStatementsPerPermit(5).setIndexPartitions(10);
+        dao = mock(MetricsDAO.class);
+        session = mock(StorageSession.class);
+        statement = mock(BoundStatement.class);
+        batchResult = SettableFuture.create();
+
+        when(dao.getStorageSession()).thenReturn(session);
+        when(dao.bindRawData(anyListOf(MeasurementDataNumeric.class))).thenReturn(statement);
+        when(dao.bindIndexEntries(anyListOf(IndexEntry.class))).thenReturn(statement);
+        when(session.executeAsync(any(Query.class), anyInt())).thenAnswer(new Answer<StorageResultSetFuture>() {
+            @Override
+            public StorageResultSetFuture answer(InvocationOnMock invocation) {
+                return toStorageFuture(batchResult);
+            }
+        });
+
+        writer = new RawDataBatchWriter(dao, configuration);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void flushWhenBatchIsFullAcrossSchedules() {
+        MeasurementDataNumeric data1 = new MeasurementDataNumeric(1000L, 1, 1.0);
+        MeasurementDataNumeric data2 = new MeasurementDataNumeric(1000L, 2, 2.0);
+        MeasurementDataNumeric data3 = new MeasurementDataNumeric(1000L, 3, Double.NaN);
+
+        writer.insertRawData(data1);
+        writer.insertRawData(data2);
+        verify(session, never()).executeAsync(any(Query.class), anyInt());
+        assertFalse(writer.isEmpty());
+
+        writer.insertRawData(data3);
+
+        ArgumentCaptor<List> data = ArgumentCaptor.forClass(List.class);
+        verify(dao).bindRawData(data.capture());
+        assertEquals(data.getValue(), asList(data1, data2, data3), "Expected one batch for all schedules");
+        verify(session).executeAsync(statement, 1);
+        assertTrue(writer.isEmpty());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void indexUpdatesAreBatchedAcrossPartitions() {
+        writer.updateIndex(IndexBucket.RAW, HOUR, 11);
+        writer.updateIndex(IndexBucket.RAW, HOUR, 12);
+        writer.updateIndex(IndexBucket.RAW, HOUR, 13);
+
+        ArgumentCaptor<List> entries = ArgumentCaptor.forClass(List.class);
+        verify(dao).bindIndexEntries(entries.capture());
+        assertEquals(entries.getValue(), asList(new IndexEntry(IndexBucket.RAW, 1, HOUR, 11),
+            new IndexEntry(IndexBucket.RAW, 2, HOUR, 12), new IndexEntry(IndexBucket.RAW, 3, HOUR, 13)));
+    }
+
+    @Test
+    public void flushExpiredBatchesOnly() {
+        writer.insertRawData(new MeasurementDataNumeric(1000L, 1, 1.0));
+
+        writer.flushExpired();
+        verify(session, never()).executeAsync(any(Query.class), anyInt());
+
+        configuration.setIngestFlushInterval(0);
+        writer.flushExpired();
+        verify(session).executeAsync(statement, 1);
+        assertTrue(writer.isEmpty());
+    }
+
+    @Test
+    public void flushRegardlessOfSizeAndAge() {
+        writer.insertRawData(new MeasurementDataNumeric(1000L, 1, 1.0));
+        writer.updateIndex(IndexBucket.RAW, HOUR, 1);
+
+        writer.flush();
+
+        verify(session, times(2)).executeAsync(statement, 1);
+        assertTrue(writer.isEmpty());
+
+        // nothing left to write
+        writer.flush();
+        verify(session, times(2)).executeAsync(any(Query.class), anyInt());
+    }
+
+    @Test
+    public void completeFuturesWithTheBatch() throws Exception {
+        ListenableFuture<ResultSet> future1 = writer.insertRawData(new MeasurementDataNumeric(1000L, 1, 1.0));
+        ListenableFuture<ResultSet> future2 = writer.insertRawData(new MeasurementDataNumeric(1000L, 2, 1.0));
+        writer.flush();
+        assertFalse(future1.isDone());
+
+        ResultSet resultSet = mock(ResultSet.class);
+        batchResult.set(resultSet);
+
+        assertEquals(future1.get(), resultSet);
+        assertEquals(future2.get(), resultSet);
+    }
+
+    @Test
+    public void failFuturesWithTheBatch() throws Exception {
+        ListenableFuture<ResultSet> future = writer.insertRawData(new MeasurementDataNumeric(1000L, 1, 1.0));
+        writer.flush();
+
+        RuntimeException failure = new RuntimeException("write timeout");
+        batchResult.setException(failure);
+
+        assertFailed(future, failure);
+    }
+
+    @Test
+    public void failFuturesIfTheBatchCannotBeBound() throws Exception {
+        RuntimeException failure = new RuntimeException("no host available");
+        when(dao.bindRawData(anyListOf(MeasurementDataNumeric.class))).thenThrow(failure);
+
+        ListenableFuture<ResultSet> future = writer.insertRawData(new MeasurementDataNumeric(1000L, 1, 1.0));
+        writer.flush();
+
+        assertFailed(future, failure);
+        assertTrue(writer.isEmpty());
+    }
+
+    @Test
+    public void chargeOnePermitPerStatementsPerPermit() {
+        assertEquals(writer.getPermits(1), 1);
+        assertEquals(writer.getPermits(5), 1);
+        assertEquals(writer.getPermits(6), 2);
+        assertEquals(writer.getPermits(50), 10);
+
+        configuration.setIngestBatchSize(6);
+        for (int i = 0; i < 6; ++i) {
+            writer.insertRawData(new MeasurementDataNumeric(1000L, i, 1.0));
+        }
+        verify(session).executeAsync(eq(statement), eq(2));
+    }
+
+    private void assertFailed(ListenableFuture<ResultSet> future, Throwable expected) throws InterruptedException {
+        try {
+            future.get();
+            fail("Expected the future to fail");
+        } catch (ExecutionException e) {
+            assertEquals(e.getCause(), expected);
+        }
+    }
+
+    private StorageResultSetFuture toStorageFuture(final SettableFuture<ResultSet> result) {
+        StorageResultSetFuture future = mock(StorageResultSetFuture.class);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                result.addListener((Runnable) invocation.getArguments()[0],
+                    (Executor) invocation.getArguments()[1]);
+                return null;
+            }
+        }).when(future).addListener(any(Runnable.class), any(Executor.class));
+        when(future.isDone()).thenAnswer(new Answer<Boolean>() {
+            @Override
+            public Boolean answer(InvocationOnMock invocation) {
+                return result.isDone();
+            }
+        });
+        // like the driver future, fails with the cause itself
+        when(future.get()).thenAnswer(new Answer<ResultSet>() {
+            @Override
+            public ResultSet answer(InvocationOnMock invocation) throws Throwable {
+                try {
+                    return result.get();
+                } catch (ExecutionException e) {
+                    throw e.getCause();
+                }
+            }
+        });
+        return future;
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ *
+ * RHQ Management Platform
+ * Copyright (C) 2005-2015 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *
+ */
+
+package org.rhq.server.metrics;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import org.testng.annotations.Test;
+
+public class RawIndexTrackerTest {
+
+    private static final long HOUR = 60 * 60 * 1000L;
+
+    @Test
+    public void markOnlyAfterSuccessfulWrite() {
+        RawIndexTracker tracker = new RawIndexTracker(4);
+
+        assertFalse(tracker.isIndexed(HOUR, HOUR, 8), "Schedule should not be indexed before any write");
+        assertFalse(tracker.isIndexed(HOUR, HOUR, 8), "A pending or failed write should not suppress index updates");
+
+        tracker.markIndexed(HOUR, 8);
+
+        assertTrue(tracker.isIndexed(HOUR, HOUR, 8));
+        assertFalse(tracker.isIndexed(HOUR, HOUR, 12), "Schedule ids in the same lane should not collide");
+    }
+
+    @Test
+    public void rotateWhenTimeSliceAdvances() {
+        RawIndexTracker tracker = new RawIndexTracker(1);
+
+        tracker.isIndexed(HOUR, HOUR, 1);
+        tracker.markIndexed(HOUR, 1);
+        tracker.markIndexed(HOUR, 2);
+        assertEquals(tracker.size(), 2);
+
+        assertFalse(tracker.isIndexed(2 * HOUR, 2 * HOUR, 1), "Index state should be reset in a new time slice");
+        assertEquals(tracker.size(), 0);
+
+        // A write for the previous time slice that completes after the rotation must be ignored
+        tracker.markIndexed(HOUR, 3);
+        assertEquals(tracker.size(), 0);
+    }
+
+    @Test
+    public void alwaysIndexDataOutsideOfCurrentTimeSlice() {
+        RawIndexTracker tracker = new RawIndexTracker(1);
+
+        tracker.isIndexed(2 * HOUR, 2 * HOUR, 1);
+        tracker.markIndexed(HOUR, 1);
+
+        assertFalse(tracker.isIndexed(HOUR, 2 * HOUR, 1), "Late data should always be indexed");
+        assertFalse(tracker.isIndexed(2 * HOUR, 2 * HOUR, 1));
+    }
+
+}
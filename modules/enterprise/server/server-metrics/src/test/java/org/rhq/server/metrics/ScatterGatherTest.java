@@ -0,0 +1,261 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2015 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package org.rhq.server.metrics;
+
+import static java.util.Arrays.asList;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.datastax.driver.core.ResultSet;
+import com.google.common.util.concurrent.SettableFuture;
+
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class ScatterGatherTest {
+
+    private ExecutorService reducers;
+
+    /**
+     * The results of the queries per schedule id, not completed unless a test does it
+     */
+    private Map<Integer, SettableFuture<ResultSet>> results;
+
+    private Map<ResultSet, Integer> scheduleIds;
+
+    private AtomicInteger inFlight;
+
+    private AtomicInteger maxInFlight;
+
+    private List<Integer> reduced;
+
+    @BeforeMethod
+    public void setUp() {
+        reducers = Executors.newFixedThreadPool(2);
+        results = new ConcurrentHashMap<Integer, SettableFuture<ResultSet>>();
+        scheduleIds = new ConcurrentHashMap<ResultSet, Integer>();
+        inFlight = new AtomicInteger();
+        maxInFlight = new AtomicInteger();
+        reduced = Collections.synchronizedList(new ArrayList<Integer>());
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        reducers.shutdownNow();
+    }
+
+    @Test
+    public void reduceAllResultsWithBoundedParallelism() throws Exception {
+        ScatterGather scatterGather = new ScatterGather(2, 10000, reducers);
+
+        int missing = scatterGather.run(asList(1, 2, 3, 4, 5), completingQuery(), reducer());
+
+        assertEquals(missing, 0);
+        assertEquals(reduced.size(), 5);
+        assertTrue(reduced.containsAll(asList(1, 2, 3, 4, 5)), "Expected all schedules to be reduced: " + reduced);
+        assertTrue(maxInFlight.get() <= 2, "Expected at most 2 queries in flight but there were " + maxInFlight);
+    }
+
+    @Test
+    public void countFailedQueriesAsMissing() throws Exception {
+        ScatterGather scatterGather = new ScatterGather(2, 10000, reducers);
+        final ScatterGather.Query completing = completingQuery();
+
+        int missing = scatterGather.run(asList(1, 2, 3, 4), new ScatterGather.Query() {
+            @Override
+            public StorageResultSetFuture execute(int scheduleId) {
+                switch (scheduleId) {
+                case 2:
+                    throw new RuntimeException("no host available");
+                case 3:
+                    SettableFuture<ResultSet> failed = SettableFuture.create();
+                    failed.setException(new RuntimeException("read timeout"));
+                    return toStorageFuture(failed);
+                default:
+                    return completing.execute(scheduleId);
+                }
+            }
+        }, reducer());
+
+        assertEquals(missing, 2);
+        assertEquals(reduced.size(), 2);
+        assertTrue(reduced.containsAll(asList(1, 4)), "Expected the other schedules to be reduced: " + reduced);
+    }
+
+    @Test
+    public void countFailedReducersAsMissing() throws Exception {
+        ScatterGather scatterGather = new ScatterGather(2, 10000, reducers);
+        final ScatterGather.Reducer reducer = reducer();
+
+        int missing = scatterGather.run(asList(1, 2, 3), completingQuery(), new ScatterGather.Reducer() {
+            @Override
+            public void reduce(ResultSet resultSet) {
+                if (scheduleIds.get(resultSet) == 2) {
+                    throw new IllegalStateException("bad row");
+                }
+                reducer.reduce(resultSet);
+            }
+        });
+
+        assertEquals(missing, 1);
+        assertTrue(reduced.containsAll(asList(1, 3)), "Expected the other schedules to be reduced: " + reduced);
+    }
+
+    @Test
+    public void returnWhatHasBeenReducedOnTimeout() throws Exception {
+        ScatterGather scatterGather = new ScatterGather(2, 200, reducers);
+        final ScatterGather.Query completing = completingQuery();
+
+        // schedules 2 and 3 never complete and hold both permits, so schedule 4 does not even get started
+        long start = System.currentTimeMillis();
+        int missing = scatterGather.run(asList(1, 2, 3, 4), new ScatterGather.Query() {
+            @Override
+            public StorageResultSetFuture execute(int scheduleId) {
+                if (scheduleId == 2 || scheduleId == 3) {
+                    return pendingQuery(scheduleId);
+                }
+                return completing.execute(scheduleId);
+            }
+        }, reducer());
+
+        assertTrue(System.currentTimeMillis() - start < 5000, "Expected the run to return after its timeout");
+        assertEquals(missing, 3);
+        assertEquals(reduced, asList(1));
+
+        // results that arrive late are dropped
+        complete(2);
+        reducers.shutdown();
+        reducers.awaitTermination(5, TimeUnit.SECONDS);
+        assertEquals(reduced, asList(1));
+    }
+
+    @Test
+    public void countRejectedResultsAsMissing() throws Exception {
+        Executor rejecting = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                throw new RejectedExecutionException("overloaded");
+            }
+        };
+        ScatterGather scatterGather = new ScatterGather(2, 10000, rejecting);
+
+        long start = System.currentTimeMillis();
+        int missing = scatterGather.run(asList(1, 2, 3), completingQuery(), reducer());
+
+        assertEquals(missing, 3);
+        assertTrue(reduced.isEmpty());
+        assertTrue(System.currentTimeMillis() - start < 5000,
+            "Expected the permits of rejected results to be released");
+    }
+
+    private ScatterGather.Reducer reducer() {
+        return new ScatterGather.Reducer() {
+            @Override
+            public void reduce(ResultSet resultSet) {
+                inFlight.decrementAndGet();
+                reduced.add(scheduleIds.get(resultSet));
+            }
+        };
+    }
+
+    /**
+     * @return a query whose result completes right away. It is in flight until it has been reduced.
+     */
+    private ScatterGather.Query completingQuery() {
+        return new ScatterGather.Query() {
+            @Override
+            public StorageResultSetFuture execute(int scheduleId) {
+                StorageResultSetFuture future = pendingQuery(scheduleId);
+                int current = inFlight.incrementAndGet();
+                if (current > maxInFlight.get()) {
+                    maxInFlight.set(current);
+                }
+                complete(scheduleId);
+                return future;
+            }
+        };
+    }
+
+    private StorageResultSetFuture pendingQuery(int scheduleId) {
+        ResultSet resultSet = mock(ResultSet.class);
+        scheduleIds.put(resultSet, scheduleId);
+        SettableFuture<ResultSet> result = SettableFuture.create();
+        results.put(scheduleId, result);
+        return toStorageFuture(result);
+    }
+
+    private void complete(int scheduleId) {
+        for (Map.Entry<ResultSet, Integer> entry : scheduleIds.entrySet()) {
+            if (entry.getValue() == scheduleId) {
+                results.get(scheduleId).set(entry.getKey());
+            }
+        }
+    }
+
+    private static StorageResultSetFuture toStorageFuture(final SettableFuture<ResultSet> result) {
+        StorageResultSetFuture future = mock(StorageResultSetFuture.class);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                result.addListener((Runnable) invocation.getArguments()[0],
+                    (Executor) invocation.getArguments()[1]);
+                return null;
+            }
+        }).when(future).addListener(any(Runnable.class), any(Executor.class));
+        when(future.isDone()).thenAnswer(new Answer<Boolean>() {
+            @Override
+            public Boolean answer(InvocationOnMock invocation) {
+                return result.isDone();
+            }
+        });
+        // like the driver future, fails with the cause itself
+        when(future.get()).thenAnswer(new Answer<ResultSet>() {
+            @Override
+            public ResultSet answer(InvocationOnMock invocation) throws Throwable {
+                try {
+                    return result.get();
+                } catch (ExecutionException e) {
+                    throw e.getCause();
+                }
+            }
+        });
+        return future;
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ *
+ * RHQ Management Platform
+ * Copyright (C) 2005-2015 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *
+ */
+
+package org.rhq.server.metrics.domain;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import org.testng.annotations.Test;
+
+public class BaselineStateTest {
+
+    private static final long HOUR = 60 * 60 * 1000L;
+
+    private static final double TEST_PRECISION = Math.pow(10, -10);
+
+    @Test
+    public void replaceReaggregatedHour() {
+        BaselineState state = new BaselineState(24, 0);
+        state.add(0, 1.0, 1.0, 1.0);
+        state.add(HOUR, 3.0, 2.0, 4.0);
+        state.add(HOUR, 5.0, 4.0, 6.0);
+
+        AggregateNumericMetric summary = state.summarize(1, 0, 2 * HOUR);
+
+        assertEquals(summary.getAvg(), 3.0, TEST_PRECISION);
+        assertEquals(summary.getMin(), 1.0, TEST_PRECISION);
+        assertEquals(summary.getMax(), 6.0, TEST_PRECISION);
+    }
+
+    @Test
+    public void dropSlotsThatFallOutOfTheWindow() {
+        BaselineState state = new BaselineState(3, 0);
+        state.add(0, 100.0, 100.0, 100.0);
+        state.add(HOUR, 2.0, 2.0, 2.0);
+        state.add(3 * HOUR, 4.0, 4.0, 4.0);
+        // Older than the window so it must be ignored
+        state.add(0, 100.0, 100.0, 100.0);
+
+        assertEquals(state.getWindowStart(), HOUR);
+        assertFalse(state.covers(0), "The oldest hour has been evicted from the window");
+        assertTrue(state.covers(HOUR));
+
+        AggregateNumericMetric summary = state.summarize(1, 0, 4 * HOUR);
+
+        assertEquals(summary.getAvg(), 3.0, TEST_PRECISION);
+        assertEquals(summary.getMax(), 4.0, TEST_PRECISION);
+        assertNull(state.summarize(1, 2 * HOUR, 3 * HOUR), "There is no data in the requested range");
+    }
+
+    @Test
+    public void doNotCoverTimeBeforeStateWasCreated() {
+        BaselineState state = new BaselineState(24, 5 * HOUR);
+        state.add(5 * HOUR, 1.0, 1.0, 1.0);
+
+        assertFalse(state.covers(4 * HOUR));
+        assertTrue(state.covers(5 * HOUR));
+    }
+
+    @Test
+    public void serializeAndDeserialize() {
+        BaselineState state = new BaselineState(24, HOUR);
+        state.add(HOUR, 1.0, 0.5, 1.5);
+        state.add(7 * HOUR, 3.0, 2.5, 3.5);
+
+        BaselineState copy = BaselineState.fromBytes(state.toBytes(), 24);
+
+        assertEquals(copy.getCoveredSince(), HOUR);
+        assertEquals(copy.getWindowStart(), state.getWindowStart());
+        AggregateNumericMetric summary = copy.summarize(1, HOUR, 8 * HOUR);
+        assertEquals(summary.getAvg(), 2.0, TEST_PRECISION);
+        assertEquals(summary.getMin(), 0.5, TEST_PRECISION);
+        assertEquals(summary.getMax(), 3.5, TEST_PRECISION);
+
+        assertNull(BaselineState.fromBytes(state.toBytes(), 48), "A state for a different window must be rebuilt");
+    }
+
+    @Test
+    public void serializeEmptyState() {
+        BaselineState copy = BaselineState.fromBytes(new BaselineState(24, HOUR).toBytes(), 24);
+
+        assertTrue(copy.covers(HOUR));
+        assertNull(copy.summarize(1, HOUR, 2 * HOUR));
+    }
+
+}
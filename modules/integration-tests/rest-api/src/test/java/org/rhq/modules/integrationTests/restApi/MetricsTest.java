@@ -719,6 +719,37 @@ public class MetricsTest extends AbstractBase {
 
     }
 
+    @Test
+    public void testGetColumnsForScheduleWithEmptyBuckets() throws Exception {
+        addDataToSchedule(1);
+
+        // a window without any data, so every bucket is empty
+        long start = System.currentTimeMillis() + 3600 * 1000L;
+
+        JsonPath jp =
+        given()
+            .header(acceptJson)
+            .pathParam("scheduleId", numericScheduleId)
+            .queryParam("startTime", start)
+            .queryParam("endTime", start + 3600 * 1000L)
+            .queryParam("dataPoints", 10)
+        .expect()
+            .statusCode(200)
+            .contentType(ContentType.JSON)
+            .log().ifError()
+        .when()
+            .get("/metric/data/{scheduleId}/columns")
+        .jsonPath();
+
+        List<Double> avg = jp.getList("avg");
+        assert avg.size() == 10;
+        for (Double value : avg) {
+            assert value == null;
+        }
+        assert jp.getList("min").get(0) == null;
+        assert jp.getList("max").get(9) == null;
+    }
+
     @Test
     public void testGetAggregateForResource() throws Exception {
 